@@ -22,6 +22,10 @@ import java.io.InputStream;
 
 /**
  * InputStream decorator to notify end of "file" when reading a file from a meta file.
+ * 
+ * It is a slice of the parent stream: reads, skips and available() never go beyond its length. Closing it leaves
+ * the parent stream open. An optional buffer turns small reads into reads of up to the buffer size, but never
+ * reads ahead beyond the end of the slice.
  *
  * @author Sebastien Chauvin
  */
@@ -32,6 +36,12 @@ public final class CompactStream extends InputStream {
     private int         m_bytesRead;
     /** bytes to be read. */
     private int         m_length;
+    /** read ahead buffer (null if unbuffered). */
+    private final byte[] m_buffer;
+    /** position of the next byte in the buffer. */
+    private int         m_bufferPosition;
+    /** number of valid bytes in the buffer. */
+    private int         m_bufferCount;
     
     /**
      * Construct.
@@ -40,9 +50,21 @@ public final class CompactStream extends InputStream {
      * @param length number of bytes
      */
     public CompactStream(final InputStream stream, final int length) {
+        this(stream, length, 0);
+    }
+
+    /**
+     * Construct.
+     * 
+     * @param stream parent stream
+     * @param length number of bytes
+     * @param bufferSize size of the read ahead buffer, 0 for none
+     */
+    public CompactStream(final InputStream stream, final int length, final int bufferSize) {
         m_stream = stream;
         m_bytesRead = 0;
         m_length = length;
+        m_buffer = bufferSize > 0 ? new byte[bufferSize] : null;
     }
     
     /**
@@ -52,6 +74,8 @@ public final class CompactStream extends InputStream {
      */
     public void setStream(final InputStream stream) {
         m_stream = stream;
+        m_bufferPosition = 0;
+        m_bufferCount = 0;
     }
     /**
      * Reset this object to read another file in the cfs.
@@ -61,6 +85,8 @@ public final class CompactStream extends InputStream {
     public void reset(int length) {
         m_length = length;
         m_bytesRead = 0;
+        m_bufferPosition = 0;
+        m_bufferCount = 0;
     }
     
     /** 
@@ -70,10 +96,15 @@ public final class CompactStream extends InputStream {
      * @throws IOException io error
      */
     public int read() throws IOException {
-//        Log.log(this, "read() " + m_bytesRead + " / " + m_length);
         int rd = -1;
-        if (m_bytesRead < m_length) {
-            rd = m_stream.read();
+        if (m_bufferPosition < m_bufferCount) {
+            rd = m_buffer[m_bufferPosition++] & 0xff;
+        } else if (m_bytesRead < m_length) {
+            if (m_buffer == null) {
+                rd = m_stream.read();
+            } else if (fill()) {
+                rd = m_buffer[m_bufferPosition++] & 0xff;
+            }
         }
         if (rd != -1) {
             ++m_bytesRead;
@@ -89,20 +120,92 @@ public final class CompactStream extends InputStream {
      * @throws IOException io error
      */
     public int read(byte[] b) throws IOException {
-        int rd = -1;
-        if (m_bytesRead < m_length) {
-            if (m_length - m_bytesRead > b.length) {
-                rd = m_stream.read(b);
-            } else {
-                rd = m_stream.read(b, 0, m_length - m_bytesRead);
-//                Log.log(this, "Reading " + (m_length - m_bytesRead));
-            }
+        return read(b, 0, b.length);
+    }
+
+    /** 
+     * Read into a part of an array. Reads bigger than the buffer go to the parent stream directly.
+     * 
+     * @param  b destination array
+     * @param  off offset in b
+     * @param  len maximum number of bytes
+     * @return n bytes read
+     * @throws IOException io error
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (m_bytesRead >= m_length) {
+            return -1;
+        }
+        int rd;
+        final int buffered = m_bufferCount - m_bufferPosition;
+        if (buffered > 0) {
+            rd = Math.min(len, buffered);
+            System.arraycopy(m_buffer, m_bufferPosition, b, off, rd);
+            m_bufferPosition += rd;
+        } else if (m_buffer == null || len >= m_buffer.length) {
+            rd = m_stream.read(b, off, Math.min(len, m_length - m_bytesRead));
+        } else if (fill()) {
+            rd = Math.min(len, m_bufferCount);
+            System.arraycopy(m_buffer, 0, b, off, rd);
+            m_bufferPosition = rd;
+        } else {
+            rd = -1;
         }
         if (rd != -1) {
             m_bytesRead += rd;
         }
         return rd;
     }
+
+    /**
+     * Fill the empty buffer with at most the rest of the slice.
+     * 
+     * @return false at the end of the parent stream
+     * @throws IOException io error
+     */
+    private boolean fill() throws IOException {
+        final int n = m_stream.read(m_buffer, 0, Math.min(m_buffer.length, m_length - m_bytesRead));
+        m_bufferPosition = 0;
+        m_bufferCount = n == -1 ? 0 : n;
+        return n > 0;
+    }
+
+    /**
+     * Skip bytes, but not beyond the end of the slice.
+     * 
+     * @param n number of bytes
+     * @return n bytes skipped
+     * @throws IOException io error
+     */
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        final long toSkip = Math.min(n, m_length - m_bytesRead);
+        long skipped = Math.min(toSkip, m_bufferCount - m_bufferPosition);
+        m_bufferPosition += (int) skipped;
+        if (skipped < toSkip) {
+            skipped += m_stream.skip(toSkip - skipped);
+        }
+        m_bytesRead += (int) skipped;
+        return skipped;
+    }
+
+    /**
+     * @return number of bytes that can be read without blocking, not beyond the end of the slice
+     * @throws IOException io error
+     */
+    public int available() throws IOException {
+        final int buffered = m_bufferCount - m_bufferPosition;
+        final int unbuffered = m_length - m_bytesRead - buffered;
+        if (unbuffered <= 0) {
+            return buffered;
+        }
+        return buffered + Math.min(m_stream.available(), unbuffered);
+    }
     
     /**
      * Return number of objects read.
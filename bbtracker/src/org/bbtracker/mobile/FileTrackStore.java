@@ -1,9 +1,13 @@
 // #ifndef AVOID_FILE_API
 package org.bbtracker.mobile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -11,37 +15,74 @@ import java.util.Vector;
 import javax.microedition.io.Connector;
 import javax.microedition.io.file.FileConnection;
 
+import org.bbtracker.BlockInputStream;
+import org.bbtracker.BlockOutputStream;
+import org.bbtracker.CompressedInputStream;
+import org.bbtracker.CompressedOutputStream;
+import org.bbtracker.CompressedStreamSource;
+import org.bbtracker.TextTrackReader;
 import org.bbtracker.Track;
+import org.bbtracker.TrackCatalog;
+import org.bbtracker.TrackCursor;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackReader;
+import org.bbtracker.TrackStatistics;
 import org.bbtracker.TrackStoreException;
-import org.bbtracker.mobile.config.ConfigFile;
+import org.bbtracker.TrackStreamSource;
+import org.bbtracker.TrackSummary;
 
 public class FileTrackStore implements TrackStore {
 
 	private static final String BBT_EXTENSION = ".bbt";
 	private static final String TXT_EXTENSION = ".txt";
+	/** Tracks that are still being recorded, see {@link TrackJournal}. */
+	private static final String JOURNAL_EXTENSION = ".bbj";
+	/** The {@link TrackCatalog} of the track directory. */
+	private static final String CATALOG_FILE = "catalog.bbc";
 
 	public TrackStoreEntry[] getEntries() throws TrackStoreException {
 		final String dir = getTrackDirectory();
 		FileConnection connection = null;
 		try {
-			final Vector result = new Vector();
 			connection = (FileConnection) Connector.open("file:///" + dir, Connector.READ);
+			final String dirUrl = connection.getURL();
+			final Vector files = new Vector();
 			final Enumeration binList = connection.list("*" + BBT_EXTENSION + "*", true);
 			while (binList.hasMoreElements()) {
-				final String file = (String) binList.nextElement();
-				final FileTrackStoreEntry entry = readBinaryTrack(connection, file);
-				if (entry != null) {
-					result.addElement(entry);
-				}
+				files.addElement(binList.nextElement());
 			}
+			final int binCount = files.size();
 			final Enumeration txtList = connection.list("*" + TXT_EXTENSION + "*", true);
 			while (txtList.hasMoreElements()) {
-				final String file = (String) txtList.nextElement();
-				final FileTrackStoreEntry entry = readTextTrack(connection, file);
-				;
-				if (entry != null) {
-					result.addElement(entry);
+				files.addElement(txtList.nextElement());
+			}
+			final String[] keys = new String[files.size()];
+			files.copyInto(keys);
+
+			// trust the catalog, a changed file is summarized again when it is loaded
+			final TrackCatalog catalog = readCatalog(dirUrl);
+			catalog.retain(keys);
+			final Vector result = new Vector();
+			for (int i = 0; i < keys.length; i++) {
+				TrackSummary summary = catalog.get(keys[i]);
+				if (summary == null && i < binCount) {
+					summary = readBinaryTrack(dirUrl, keys[i]);
+					if (summary != null) {
+						catalog.put(summary);
+					}
 				}
+				if (summary != null) {
+					result.addElement(new FileTrackStoreEntry(summary, dirUrl + keys[i], i < binCount));
+				} else if (i >= binCount) {
+					// text tracks are only catalogued once they are loaded
+					final String name = readTextName(dirUrl + keys[i]);
+					if (name != null) {
+						result.addElement(new FileTrackStoreEntry(name, dirUrl + keys[i]));
+					}
+				}
+			}
+			if (catalog.isModified()) {
+				writeCatalog(dirUrl, catalog);
 			}
 			final TrackStoreEntry[] entries = new TrackStoreEntry[result.size()];
 			result.copyInto(entries);
@@ -61,22 +102,115 @@ public class FileTrackStore implements TrackStore {
 		}
 	}
 
-	private FileTrackStoreEntry readTextTrack(final FileConnection connection, final String file) {
-		FileTrackStoreEntry entry = null;
+	/**
+	 * Reads the catalog of the given directory. A missing or damaged catalog is returned as an empty one.
+	 */
+	private TrackCatalog readCatalog(final String dirUrl) {
+		DataInputStream din = null;
+		try {
+			final FileConnection connection = (FileConnection) Connector.open(dirUrl + CATALOG_FILE, Connector.READ);
+			try {
+				if (!connection.exists()) {
+					return new TrackCatalog();
+				}
+				din = new DataInputStream(new BlockInputStream(connection.openInputStream()));
+				return TrackCatalog.readFromStream(din);
+			} finally {
+				connection.close();
+			}
+		} catch (final IOException e) {
+			Log.log(this, e, "reading track catalog");
+			return new TrackCatalog();
+		} finally {
+			if (din != null) {
+				try {
+					din.close();
+				} catch (final IOException e) {
+					Log.log(this, e);
+				}
+			}
+		}
+	}
+
+	private void writeCatalog(final String dirUrl, final TrackCatalog catalog) {
+		FileConnection connection = null;
+		DataOutputStream dout = null;
+		try {
+			connection = (FileConnection) Connector.open(dirUrl + CATALOG_FILE, Connector.READ_WRITE);
+			if (connection.exists()) {
+				connection.truncate(0);
+			} else {
+				connection.create();
+			}
+			dout = new DataOutputStream(new BlockOutputStream(connection.openOutputStream()));
+			catalog.writeToStream(dout);
+		} catch (final IOException e) {
+			// the catalog gets rebuilt the next time the tracks are listed
+			Log.log(this, e, "writing track catalog");
+		} finally {
+			if (dout != null) {
+				try {
+					dout.close();
+				} catch (final IOException e) {
+					Log.log(this, e);
+				}
+			}
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (final IOException e) {
+					Log.log(this, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changes the catalog of the given directory.
+	 * 
+	 * @param added
+	 *            the summary to add or null
+	 * @param removed
+	 *            the key of the summary to remove or null
+	 */
+	private void updateCatalog(final String dirUrl, final TrackSummary added, final String removed) {
+		final TrackCatalog catalog = readCatalog(dirUrl);
+		if (removed != null) {
+			catalog.remove(removed);
+		}
+		if (added != null) {
+			catalog.put(added);
+		}
+		writeCatalog(dirUrl, catalog);
+	}
+
+	private static String getDirectoryUrl(final FileConnection connection) {
+		return connection.getURL().substring(0, connection.getURL().length() - connection.getName().length());
+	}
+
+	/**
+	 * Reads only the name of a text track, null if the file is no track.
+	 */
+	private String readTextName(final String url) {
+		TextTrackReader reader = null;
 		try {
-			// TODO: Parse only first line
-			final String filename = connection.getURL() + file;
-			final Vector list = ConfigFile.openList(filename);
-			final String name = (String) list.elementAt(0);
-			if (!isValidName(name)) {
-				return null;
+			reader = openTextTrack(url);
+			final String name = reader.getName();
+			if (isValidName(name)) {
+				return name;
+			}
+		} catch (final IOException e) {
+			Log.log(this, e, "loading text info from " + url);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final IOException e) {
+					Log.log(this, e);
+				}
 			}
-			final Date date = new Date(0);
-			entry = new FileTrackStoreEntry(name, date, filename, false);
-		} catch (final Exception e) {
-			Log.log(this, e, "loading text info from " + file);
 		}
-		return entry;
+		return null;
 	}
 
 	private boolean isValidName(final String name) {
@@ -98,29 +232,35 @@ public class FileTrackStore implements TrackStore {
 				|| valid.indexOf(ch) != -1;
 	}
 
-	private FileTrackStoreEntry readBinaryTrack(final FileConnection connection, final String file) {
-		DataInputStream din = null;
-		FileTrackStoreEntry entry = null;
+	private TrackSummary readBinaryTrack(final String dirUrl, final String file) {
+		TrackReader reader = null;
 		try {
-			final String fileUrl = connection.getURL() + file;
-			din = Connector.openDataInputStream(fileUrl);
-			final String name = Track.readNameFromStream(din);
-			final Date date = Track.readDateFromStream(din);
-			entry = new FileTrackStoreEntry(name, date, fileUrl, true);
+			final FileConnection connection = (FileConnection) Connector.open(dirUrl + file, Connector.READ);
+			final long size;
+			final long modified;
+			try {
+				size = connection.fileSize();
+				modified = connection.lastModified();
+			} finally {
+				connection.close();
+			}
+			reader = TrackReader.open(openDataInputStream(dirUrl + file));
+			final TrackStatistics statistics = TrackStatistics.fromCursor(reader);
+			return new TrackSummary(file, reader.getName(), reader.getCreationDate(), statistics, size, modified);
 		} catch (final IOException e) {
 			Log.log(this, e, "loading binary info from " + file);
 		} catch (final TrackStoreException e) {
 			Log.log(this, e, "loading binary info from " + file);
 		} finally {
-			if (din != null) {
+			if (reader != null) {
 				try {
-					din.close();
+					reader.close();
 				} catch (final IOException e) {
 					Log.log(this, e);
 				}
 			}
 		}
-		return entry;
+		return null;
 	}
 
 	public void saveTrack(final Track track) throws TrackStoreException {
@@ -129,8 +269,16 @@ public class FileTrackStore implements TrackStore {
 		DataOutputStream dout = null;
 		try {
 			connection = FileUtil.createFile(dir, track.getName(), BBT_EXTENSION);
-			dout = connection.openDataOutputStream();
+			if (Preferences.getInstance().isCompressTracks()) {
+				dout = new DataOutputStream(new CompressedOutputStream(connection.openOutputStream()));
+			} else {
+				dout = new DataOutputStream(new BlockOutputStream(connection.openOutputStream()));
+			}
 			track.writeToStream(dout);
+			dout.close();
+			dout = null;
+			updateCatalog(getDirectoryUrl(connection), new TrackSummary(connection.getName(), track.getName(), track
+					.getCreationDate(), track.getStatistics(), connection.fileSize(), connection.lastModified()), null);
 		} catch (final IOException e) {
 			Log.log(this, e, "saving track");
 			throw new TrackStoreException(e);
@@ -153,6 +301,109 @@ public class FileTrackStore implements TrackStore {
 		}
 	}
 
+	public TrackJournal openJournal(final Track track) throws TrackStoreException {
+		final String dir = getTrackDirectory();
+		FileConnection connection = null;
+		try {
+			connection = FileUtil.createFile(dir, track.getName(), JOURNAL_EXTENSION);
+			return new FileJournal(connection, track);
+		} catch (final IOException e) {
+			Log.log(this, e, "opening journal");
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (final IOException e2) {
+					// can't do anything about it
+				}
+			}
+			throw new TrackStoreException(e);
+		}
+	}
+
+	public void recoverJournals() throws TrackStoreException {
+		final String dir = getTrackDirectory();
+		FileConnection directory = null;
+		try {
+			directory = (FileConnection) Connector.open("file:///" + dir, Connector.READ);
+			final Enumeration journals = directory.list("*" + JOURNAL_EXTENSION, true);
+			while (journals.hasMoreElements()) {
+				final String file = (String) journals.nextElement();
+				try {
+					recoverJournal(directory.getURL() + file);
+				} catch (final IOException e) {
+					Log.log(this, e, "recovering journal " + file);
+				}
+			}
+		} catch (final IOException e) {
+			Log.log(this, e, "listing journals");
+			throw new TrackStoreException(e);
+		} finally {
+			if (directory != null) {
+				try {
+					directory.close();
+				} catch (final IOException e) {
+					Log.log(this, e);
+				}
+			}
+		}
+	}
+
+	private void recoverJournal(final String url) throws IOException {
+		final FileConnection connection = (FileConnection) Connector.open(url, Connector.READ_WRITE);
+		try {
+			final long length;
+			final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+			final InputStream in = new BlockInputStream(connection.openInputStream());
+			try {
+				length = TrackJournal.recover(in, tail);
+			} finally {
+				in.close();
+			}
+			if (length == -1) {
+				Log.log(this, "Deleting empty journal " + url);
+				connection.delete();
+				return;
+			}
+			// cut off the damaged record and complete the stream
+			connection.truncate(length);
+			final OutputStream out = connection.openOutputStream(length);
+			try {
+				out.write(tail.toByteArray());
+			} finally {
+				out.close();
+			}
+			renameToTrack(connection);
+			Log.log(this, "Recovered journal " + url);
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Renames a finished journal so that it is listed as a track.
+	 */
+	private static void renameToTrack(final FileConnection connection) throws IOException {
+		final String journalName = connection.getName();
+		final String baseName = journalName.substring(0, journalName.length() - JOURNAL_EXTENSION.length());
+		final String dirUrl = connection.getURL().substring(0, connection.getURL().length() - journalName.length());
+		String name = baseName + BBT_EXTENSION;
+		int i = 1;
+		while (exists(dirUrl + name)) {
+			name = baseName + "_" + i + BBT_EXTENSION;
+			i++;
+		}
+		connection.rename(name);
+	}
+
+	private static boolean exists(final String url) throws IOException {
+		final FileConnection connection = (FileConnection) Connector.open(url, Connector.READ);
+		try {
+			return connection.exists();
+		} finally {
+			connection.close();
+		}
+	}
+
 	private String getTrackDirectory() throws TrackStoreException {
 		final String dir = Preferences.getInstance().getTrackDirectory();
 		if (dir == null) {
@@ -161,50 +412,198 @@ public class FileTrackStore implements TrackStore {
 		return dir;
 	}
 
+	/**
+	 * Opens a track file, which may be compressed.
+	 */
+	private static DataInputStream openDataInputStream(final String url) throws IOException {
+		return new DataInputStream(new CompressedInputStream(new BlockInputStream(Connector.openInputStream(url))));
+	}
+
+	private static TextTrackReader openTextTrack(final String url) throws IOException {
+		return new TextTrackReader(new InputStreamReader(new BlockInputStream(Connector.openInputStream(url))));
+	}
+
+	private static class FileJournal extends TrackJournal {
+		private final FileConnection connection;
+
+		FileJournal(final FileConnection connection, final Track track) throws IOException {
+			super(new BlockOutputStream(connection.openOutputStream()), track.getName(), track.getCreationDate());
+			this.connection = connection;
+		}
+
+		public void close() throws IOException {
+			try {
+				super.close();
+				if (isFinished()) {
+					renameToTrack(connection);
+				}
+			} finally {
+				connection.close();
+			}
+		}
+
+		public void discard() throws IOException {
+			try {
+				super.close();
+				connection.delete();
+			} finally {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads parts of a track file, each {@link #open(long)} opens the file again.
+	 */
+	private static class FileStreamSource implements TrackStreamSource {
+		private final String url;
+
+		FileStreamSource(final String url) {
+			this.url = url;
+		}
+
+		public long getLength() throws IOException {
+			final FileConnection connection = (FileConnection) Connector.open(url, Connector.READ);
+			try {
+				return connection.fileSize();
+			} finally {
+				connection.close();
+			}
+		}
+
+		public InputStream open(final long offset) throws IOException {
+			final InputStream in = Connector.openInputStream(url);
+			try {
+				long remaining = offset;
+				while (remaining > 0) {
+					final long skipped = in.skip(remaining);
+					if (skipped <= 0) {
+						throw new IOException("Track file is shorter than " + offset + " bytes");
+					}
+					remaining -= skipped;
+				}
+			} catch (final IOException e) {
+				in.close();
+				throw e;
+			}
+			return new BlockInputStream(in);
+		}
+	}
+
 	private class FileTrackStoreEntry extends TrackStoreEntry {
 		final String url;
 
 		final boolean binary;
 
-		public FileTrackStoreEntry(final String name, final Date date, final String url, final boolean binary) {
-			super(name, date);
+		public FileTrackStoreEntry(final TrackSummary summary, final String url, final boolean binary) {
+			super(summary);
 			this.url = url;
 			this.binary = binary;
 		}
 
+		/**
+		 * Creates the entry of a text track that isn't in the catalog yet.
+		 */
+		public FileTrackStoreEntry(final String name, final String url) {
+			super(name, new Date(0));
+			this.url = url;
+			binary = false;
+		}
+
 		public void deleteTrack() throws TrackStoreException {
 			try {
 				final FileConnection connection = (FileConnection) Connector.open(url);
 				connection.delete();
+				updateCatalog(getDirectoryUrl(connection), null, connection.getName());
 			} catch (final IOException e) {
 				Log.log(this, e, "deleting track");
 				throw new TrackStoreException("Failed to delete track: " + e.getMessage());
 			}
 		}
 
+		public TrackCursor openCursor() throws IOException, TrackStoreException {
+			if (!binary) {
+				// text tracks are small and have no stream format
+				return loadTextTrack().openCursor();
+			}
+			final DataInputStream din = openDataInputStream(url);
+			try {
+				return TrackReader.open(din);
+			} catch (final IOException e) {
+				din.close();
+				throw e;
+			} catch (final TrackStoreException e) {
+				din.close();
+				throw e;
+			}
+		}
+
 		public Track loadTrack() throws TrackStoreException {
+			final Track track;
 			if (binary) {
-				return loadBinaryTrack();
+				track = loadBinaryTrack();
 			} else {
-				return loadTextTrack();
+				track = loadTextTrack();
+			}
+			updateSummary(track);
+			return track;
+		}
+
+		/**
+		 * Catalogs a loaded track if it isn't in the catalog yet or its file changed since it was summarized.
+		 */
+		private void updateSummary(final Track track) {
+			try {
+				final FileConnection connection = (FileConnection) Connector.open(url, Connector.READ);
+				try {
+					final long size = connection.fileSize();
+					final long modified = connection.lastModified();
+					final TrackSummary summary = getSummary();
+					if (summary == null || !summary.isCurrent(size, modified)) {
+						final Date date = binary ? track.getCreationDate() : new Date(0);
+						updateCatalog(getDirectoryUrl(connection), new TrackSummary(connection.getName(), track
+								.getName(), date, track.getStatistics(), size, modified), null);
+					}
+				} finally {
+					connection.close();
+				}
+			} catch (final IOException e) {
+				// the track is summarized again the next time it is loaded
+				Log.log(this, e, "updating track catalog");
 			}
 		}
 
 		private Track loadTextTrack() throws TrackStoreException {
+			TextTrackReader reader = null;
 			try {
-				final Vector list = ConfigFile.openList(url);
-				final Track track = Track.readFromStringList(list);
+				reader = openTextTrack(url);
+				final Track track = Track.readFromText(reader);
 				return track;
 			} catch (final Exception e) {
 				Log.log(this, e, "loading track");
 				throw new TrackStoreException("Failed to load track: " + e.getMessage());
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (final IOException e) {
+						Log.log(this, e);
+					}
+				}
 			}
 		}
 
 		private Track loadBinaryTrack() throws TrackStoreException {
 			DataInputStream din = null;
 			try {
-				din = Connector.openDataInputStream(url);
+				if (isLarge()) {
+					final Track track = Track.openLazy(new CompressedStreamSource(new FileStreamSource(url)),
+							LAZY_CACHE_POINTS);
+					if (track != null) {
+						return track;
+					}
+				}
+				din = openDataInputStream(url);
 				final Track track = Track.readFromStream(din);
 				return track;
 			} catch (final IOException e) {
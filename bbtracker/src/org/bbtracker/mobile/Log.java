@@ -6,6 +6,8 @@ import java.util.Date;
 
 import javax.microedition.io.Connector;
 
+import org.bbtracker.BlockOutputStream;
+
 public class Log {
 	public static final int MAX_LOG = 25;
 
@@ -35,7 +37,7 @@ public class Log {
 				return;
 			}
 			final OutputStream out = fileConnection.openOutputStream();
-			logStream = new PrintStream(out);
+			logStream = new PrintStream(new BlockOutputStream(out));
 		} catch (final Throwable e) {
 			log(BBTracker.class, e, "opening " + logUrl);
 		}
@@ -59,7 +61,7 @@ public class Log {
 					fileConnection.create();
 				}
 				final OutputStream out = fileConnection.openOutputStream();
-				logStream = new PrintStream(out);
+				logStream = new PrintStream(new BlockOutputStream(out));
 			} else {
 				if (fileConnection.exists()) {
 					fileConnection.delete();
@@ -94,6 +96,8 @@ public class Log {
 		System.err.println(line);
 		if (logStream != null) {
 			logStream.println(line);
+			// one write per line, but don't lose lines when the application dies
+			logStream.flush();
 		}
 
 		synchronized (log) {
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+/**
+ * Is informed about requests processed by a {@link PersistenceWorker}. The methods are called by the worker thread.
+ */
+public interface PersistenceListener {
+	/**
+	 * @param percent
+	 *            how much of the request is done, from 0 to 100
+	 */
+	public void progress(PersistenceWorker.Request request, int percent);
+
+	/**
+	 * @param error
+	 *            the reason the request failed or null if it succeeded
+	 */
+	public void finished(PersistenceWorker.Request request, Exception error);
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import org.bbtracker.BlockOutputStream;
+import org.bbtracker.CompressedOutputStream;
+import org.bbtracker.Track;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackSource;
+import org.bbtracker.TrackStoreException;
+import org.bbtracker.mobile.TrackStore.TrackStoreEntry;
+import org.bbtracker.mobile.exporter.TrackExporter;
+
+/**
+ * Saves, deletes and exports tracks in a background thread, so that the user interface doesn't freeze while that
+ * happens. Requests are processed one at a time in the order they were added.
+ */
+public class PersistenceWorker implements Runnable {
+	public static final int SAVE = 0;
+
+	public static final int DELETE = 1;
+
+	public static final int EXPORT = 2;
+
+	/**
+	 * Appended to the name of compressed exports.
+	 */
+	public static final String COMPRESSED_EXTENSION = ".bbz";
+
+	private final Vector queue = new Vector();
+
+	private Thread thread;
+
+	private boolean stopped = false;
+
+	private Request current;
+
+	/**
+	 * Adds a request to the queue, starting the worker thread if necessary.
+	 * 
+	 * @throws IllegalStateException
+	 *             if this worker has been shut down
+	 */
+	public synchronized Request enqueue(final Request request) {
+		if (stopped) {
+			throw new IllegalStateException("PersistenceWorker has been shut down");
+		}
+		queue.addElement(request);
+		if (thread == null) {
+			thread = new Thread(this);
+			thread.start();
+		}
+		notifyAll();
+		return request;
+	}
+
+	/**
+	 * Returns the number of requests that are queued or being processed.
+	 */
+	public synchronized int getPendingCount() {
+		return queue.size() + (current == null ? 0 : 1);
+	}
+
+	/**
+	 * Blocks until all requests have been processed.
+	 */
+	public synchronized void waitUntilIdle() throws InterruptedException {
+		while (current != null || !queue.isEmpty()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Processes the requests that are still queued and stops the worker thread. When called from a listener (that is
+	 * from the worker thread) this returns immediately.
+	 */
+	public void shutdown() {
+		final Thread worker;
+		synchronized (this) {
+			stopped = true;
+			notifyAll();
+			worker = thread;
+		}
+		if (worker != null && worker != Thread.currentThread()) {
+			try {
+				worker.join();
+			} catch (final InterruptedException e) {
+				Log.log(this, e, "waiting for pending requests");
+			}
+		}
+	}
+
+	public void run() {
+		while (true) {
+			final Request request;
+			synchronized (this) {
+				while (queue.isEmpty() && !stopped) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						// check again
+					}
+				}
+				if (queue.isEmpty()) {
+					thread = null;
+					return;
+				}
+				request = (Request) queue.elementAt(0);
+				queue.removeElementAt(0);
+				current = request;
+			}
+			Exception error = null;
+			try {
+				request.progress(0);
+				request.process();
+				request.progress(100);
+			} catch (final Exception e) {
+				Log.log(this, e, "processing request for track <" + request.getTrackName() + ">");
+				error = e;
+			}
+			try {
+				if (request.listener != null) {
+					request.listener.finished(request, error);
+				}
+			} catch (final RuntimeException e) {
+				Log.log(this, e, "informing listener");
+			}
+			synchronized (this) {
+				current = null;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Something the worker should do.
+	 */
+	public static abstract class Request {
+		private final int type;
+
+		private final String trackName;
+
+		final PersistenceListener listener;
+
+		private int result;
+
+		protected Request(final int type, final String trackName, final PersistenceListener listener) {
+			this.type = type;
+			this.trackName = trackName;
+			this.listener = listener;
+		}
+
+		/**
+		 * Returns the kind of this request, {@link PersistenceWorker#SAVE}, {@link PersistenceWorker#DELETE} or
+		 * {@link PersistenceWorker#EXPORT}.
+		 */
+		public int getType() {
+			return type;
+		}
+
+		public String getTrackName() {
+			return trackName;
+		}
+
+		/**
+		 * Returns what the request produced, for example the number of formats an export wrote.
+		 */
+		public int getResult() {
+			return result;
+		}
+
+		protected void setResult(final int result) {
+			this.result = result;
+		}
+
+		protected void progress(final int percent) {
+			if (listener != null) {
+				listener.progress(this, percent);
+			}
+		}
+
+		protected abstract void process() throws Exception;
+	}
+
+	/**
+	 * Saves a track that isn't recorded any more. It is saved by finishing its journal if that contains all points,
+	 * otherwise the track stores are tried in order until one of them succeeds.
+	 */
+	static class SaveRequest extends Request {
+		private final Track track;
+
+		private final TrackJournal journal;
+
+		private final TrackStore[] trackStores;
+
+		/**
+		 * @param track
+		 *            the track to save, it must not be changed any more (see {@link Track#freeze()})
+		 * @param journal
+		 *            the journal of the track or null
+		 */
+		SaveRequest(final Track track, final TrackJournal journal, final TrackStore[] trackStores,
+				final PersistenceListener listener) {
+			super(SAVE, track.getName(), listener);
+			this.track = track;
+			this.journal = journal;
+			this.trackStores = trackStores;
+		}
+
+		protected void process() throws TrackStoreException {
+			if (finishJournal()) {
+				return;
+			}
+			String error = null;
+			for (int i = 0; i < trackStores.length; i++) {
+				progress(i * 100 / trackStores.length);
+				try {
+					trackStores[i].saveTrack(track);
+					Log.log(this, "Successfully stored track <" + track.getName() + "> in TrackStore " + i);
+					// a journal that is still open is outdated now
+					discardJournal();
+					return;
+				} catch (final TrackStoreException e) {
+					Log.log(this, e, "saving track in trackStore " + i);
+					final String msg = e.getMessage();
+					error = error == null ? msg : error + "\n" + msg;
+				}
+			}
+			closeJournal();
+			throw new TrackStoreException(error);
+		}
+
+		/**
+		 * Finishes the journal, if it contains the complete track.
+		 * 
+		 * @return true if the track has been saved that way
+		 */
+		private boolean finishJournal() {
+			if (journal == null || !journal.matches(track)) {
+				return false;
+			}
+			try {
+				journal.finish();
+				journal.close();
+				Log.log(this, "Successfully finished journal of track <" + track.getName() + ">");
+				return true;
+			} catch (final IOException e) {
+				Log.log(this, e, "finishing journal");
+				return false;
+			}
+		}
+
+		private void discardJournal() {
+			if (journal == null || journal.isFinished()) {
+				return;
+			}
+			try {
+				journal.discard();
+			} catch (final IOException e) {
+				Log.log(this, e, "discarding journal");
+			}
+		}
+
+		/**
+		 * Closes the journal without finishing it, so that it is recovered on the next start.
+		 */
+		private void closeJournal() {
+			if (journal == null || journal.isFinished()) {
+				return;
+			}
+			try {
+				journal.flush();
+				journal.close();
+			} catch (final IOException e) {
+				Log.log(this, e, "closing journal");
+			}
+		}
+	}
+
+	static class DeleteRequest extends Request {
+		private final TrackStoreEntry entry;
+
+		DeleteRequest(final TrackStoreEntry entry, final PersistenceListener listener) {
+			super(DELETE, entry.getName(), listener);
+			this.entry = entry;
+		}
+
+		protected void process() throws TrackStoreException {
+			entry.deleteTrack();
+		}
+	}
+
+	// #ifndef AVOID_FILE_API
+	/**
+	 * Writes a track to a file in each of the given formats. The result is the number of files written.
+	 * 
+	 * Compressed exports get the extension {@link #COMPRESSED_EXTENSION} appended.
+	 */
+	static class ExportRequest extends Request {
+		private final TrackSource track;
+
+		private final String dir;
+
+		private final TrackExporter[] exporters;
+
+		private final boolean compress;
+
+		ExportRequest(final TrackSource track, final String dir, final TrackExporter[] exporters,
+				final boolean compress, final PersistenceListener listener) {
+			super(EXPORT, track.getName(), listener);
+			this.track = track;
+			this.dir = dir;
+			this.exporters = exporters;
+			this.compress = compress;
+		}
+
+		protected void process() throws IOException, TrackStoreException {
+			for (int i = 0; i < exporters.length; i++) {
+				progress(i * 100 / exporters.length);
+				export(exporters[i]);
+				setResult(i + 1);
+			}
+		}
+
+		private void export(final TrackExporter exporter) throws IOException, TrackStoreException {
+			javax.microedition.io.file.FileConnection connection = null;
+			OutputStream out = null;
+			try {
+				if (compress) {
+					connection = FileUtil.createFile(dir, track.getName(), exporter.getExtension()
+							+ COMPRESSED_EXTENSION);
+					out = new CompressedOutputStream(connection.openOutputStream());
+				} else {
+					connection = FileUtil.createFile(dir, track.getName(), exporter.getExtension());
+					out = new BlockOutputStream(connection.openOutputStream());
+				}
+				exporter.export(out, track);
+				// closing writes the last block, so a failure here must not be ignored
+				out.close();
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (final IOException ignored) {
+						// ignore
+					}
+				}
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (final IOException ignored) {
+						// ignore
+					}
+				}
+			}
+		}
+	}
+	// #endif
+}
@@ -55,6 +55,9 @@ public class Preferences {
 	private static final String DETAILS_FONT_SIZE = "detailsFontSize";
 	private static final String STATUS_FONT_SIZE = "statusFontSize";
 	private static final String HEARTRATE_ENABLED = "heartrateEnabled";
+	private static final String COMPRESS_TRACKS = "compressTracks";
+	private static final String COMPRESS_EXPORTS = "compressExports";
+	private static final String TILE_CACHE_SIZE = "tileCacheSize";
 
 	public static final int START_ACTION_SHOW_OPTIONS = -1;
 
@@ -309,6 +312,37 @@ public class Preferences {
 		conf.put(HEARTRATE_ENABLED, enabled);
 	}
 
+	public boolean isCompressTracks() {
+		return conf.getBoolean(COMPRESS_TRACKS, false);
+	}
+
+	public void setCompressTracks(final boolean compress) {
+		conf.put(COMPRESS_TRACKS, compress);
+	}
+
+	/**
+	 * Compressed exports have to be restored with the Decompressor tool (bbtracker/tools) before other programs can
+	 * read them, so this is off by default.
+	 */
+	public boolean isCompressExports() {
+		return conf.getBoolean(COMPRESS_EXPORTS, false);
+	}
+
+	public void setCompressExports(final boolean compress) {
+		conf.put(COMPRESS_EXPORTS, compress);
+	}
+
+	/**
+	 * @return the memory in KB the decoded map tiles may use, 0 means it's derived from the screen and heap size
+	 */
+	public int getTileCacheSize() {
+		return conf.getInteger(TILE_CACHE_SIZE, 0);
+	}
+
+	public void setTileCacheSize(final int kilobytes) {
+		conf.put(TILE_CACHE_SIZE, Math.max(kilobytes, 0));
+	}
+
 	public int getTrackNumber() {
 		return conf.getInteger(TRACK_NUMBER, 1);
 	}
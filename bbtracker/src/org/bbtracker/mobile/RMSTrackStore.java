@@ -5,147 +5,956 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
 
 import javax.microedition.rms.RecordEnumeration;
 import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotFoundException;
 
+import org.bbtracker.LzCodec;
 import org.bbtracker.Track;
+import org.bbtracker.TrackCatalog;
+import org.bbtracker.TrackCursor;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackReader;
+import org.bbtracker.TrackStatistics;
 import org.bbtracker.TrackStoreException;
+import org.bbtracker.TrackStreamSource;
+import org.bbtracker.TrackSummary;
 
+/**
+ * Stores tracks in the record management system.
+ *
+ * Each track has a header record in the store "Tracks" holding its name, creation date and the ids of its chunk
+ * records in the store "TrackChunks". The chunks contain the track stream cut into pieces of {@link #CHUNK_SIZE}
+ * bytes (only the last one may be shorter), so no record gets bigger than that and tracks can be saved while they are
+ * recorded. A header stays marked as incomplete until the stream is finished; such tracks are
+ * not listed but repaired by {@link #recoverJournals()}.
+ *
+ * If {@link #isCompressing()} is true when a track is created, each of its chunks is stored as an {@link LzCodec}
+ * block. Such a chunk holds {@link LzCodec#BLOCK_HEADER_SIZE} bytes less of the stream, so that its record never gets
+ * bigger than {@link #CHUNK_SIZE} either.
+ *
+ * Older versions stored each track as a single record in "Tracks", those can still be read.
+ *
+ * The store "TrackCatalog" holds a {@link TrackSummary} record for each track (keyed by the id of its record in
+ * "Tracks"), so listing the tracks doesn't need to read them.
+ */
 public class RMSTrackStore implements TrackStore {
 	private static final String RECORD_STORE_NAME = "Tracks";
 
+	private static final String CHUNK_STORE_NAME = "TrackChunks";
+
+	private static final String CATALOG_STORE_NAME = "TrackCatalog";
+
+	static final int CHUNK_SIZE = 2048;
+
+	/**
+	 * A small hash table is enough for chunks and keeps the memory needed for compressing low.
+	 */
+	private static final int CHUNK_HASH_BITS = 10;
+
+	/**
+	 * Opens the record store with the given name.
+	 *
+	 * @throws RecordStoreNotFoundException
+	 *             if the store doesn't exist and <code>create</code> is false
+	 */
+	protected RecordStorage openStorage(final String name, final boolean create) throws RecordStoreException {
+		return new RecordStoreStorage(RecordStore.openRecordStore(name, create));
+	}
+
+	/**
+	 * @return true if new tracks should be compressed
+	 */
+	protected boolean isCompressing() {
+		return Preferences.getInstance().isCompressTracks();
+	}
+
+	private static void close(final RecordStorage storage) {
+		if (storage != null) {
+			try {
+				storage.close();
+			} catch (final RecordStoreException e) {
+				// ignore
+			}
+		}
+	}
+
 	public TrackStoreEntry[] getEntries() throws TrackStoreException {
-		RecordStore rs = null;
+		RecordStorage tracks = null;
 		try {
-			final TrackStoreEntry[] entries;
-			rs = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
-			final RecordEnumeration enumeration = rs.enumerateRecords(null, null, false);
-			final int s = enumeration.numRecords();
-
-			entries = new TrackStoreEntry[s];
-			int i = 0;
-			while (enumeration.hasNextElement()) {
-				final byte[] data = enumeration.nextRecord();
-				try {
-					final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-					final String name = Track.readNameFromStream(dis);
-					final Date date = Track.readDateFromStream(dis);
-					entries[i] = new RMSTrackStoreEntry(name, date);
-					dis.close();
-				} catch (final IOException e) {
-					Log.log(this, e);
-				}
-				i++;
+			tracks = openStorage(RECORD_STORE_NAME, false);
+			final int[] ids = tracks.getRecordIds();
+			final String[] keys = new String[ids.length];
+			final long[] sizes = new long[ids.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = Integer.toString(ids[i]);
+				sizes[i] = tracks.getRecordSize(ids[i]);
 			}
-			i = 0;
-			enumeration.reset();
-			while (enumeration.hasNextElement()) {
-				final int index = enumeration.nextRecordId();
-				final RMSTrackStoreEntry e = (RMSTrackStoreEntry) entries[i++];
-				if (e != null) {
-					e.index = index;
+			final TrackCatalog catalog = loadCatalog(tracks, keys, sizes);
+			final Vector entries = new Vector(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				final TrackSummary summary = catalog.get(keys[i]);
+				if (summary != null) {
+					entries.addElement(new RMSTrackStoreEntry(summary, ids[i]));
 				}
 			}
-			enumeration.destroy();
-			return entries;
+			final TrackStoreEntry[] result = new TrackStoreEntry[entries.size()];
+			entries.copyInto(result);
+			return result;
 		} catch (final RecordStoreNotFoundException e) {
 			return new TrackStoreEntry[0];
 		} catch (final RecordStoreException e) {
 			Log.log(this, e, "listing tracks");
 			throw new TrackStoreException(e);
 		} finally {
-			if (rs != null) {
+			close(tracks);
+		}
+	}
+
+	/**
+	 * Reads the catalog and brings it up to date with the tracks in <code>tracks</code>.
+	 *
+	 * @param keys
+	 *            the ids of all records in <code>tracks</code> as strings
+	 * @param sizes
+	 *            the size of each record in <code>keys</code>, records have no modification time of their own
+	 */
+	private TrackCatalog loadCatalog(final RecordStorage tracks, final String[] keys, final long[] sizes)
+			throws RecordStoreException {
+		final TrackCatalog catalog = new TrackCatalog();
+		final RecordStorage catalogRecords = openStorage(CATALOG_STORE_NAME, true);
+		try {
+			final Hashtable recordIds = new Hashtable();
+			final int[] ids = catalogRecords.getRecordIds();
+			for (int i = 0; i < ids.length; i++) {
+				final byte[] data = catalogRecords.getRecord(ids[i]);
+				TrackSummary summary = null;
 				try {
-					rs.closeRecordStore();
-				} catch (final RecordStoreException e) {
+					summary = TrackSummary.readFromStream(new DataInputStream(new ByteArrayInputStream(data)));
+				} catch (final IOException e) {
+					Log.log(this, e, "reading catalog");
+				}
+				if (summary == null || recordIds.containsKey(summary.getKey())) {
+					catalogRecords.deleteRecord(ids[i]);
+				} else {
+					catalog.put(summary);
+					recordIds.put(summary.getKey(), new Integer(ids[i]));
+				}
+			}
+
+			final String[] missing = catalog.retain(keys, sizes, new long[keys.length]);
+			final Enumeration e = recordIds.keys();
+			while (e.hasMoreElements()) {
+				final String key = (String) e.nextElement();
+				if (catalog.get(key) == null) {
+					catalogRecords.deleteRecord(((Integer) recordIds.get(key)).intValue());
+				}
+			}
+			for (int i = 0; i < missing.length; i++) {
+				final TrackSummary summary = summarize(tracks, Integer.parseInt(missing[i]));
+				if (summary != null) {
+					catalog.put(summary);
+					addSummary(catalogRecords, summary);
+				}
+			}
+			return catalog;
+		} finally {
+			close(catalogRecords);
+		}
+	}
+
+	/**
+	 * Reads a track to create its summary.
+	 *
+	 * @return the summary or null if the track is incomplete or can't be read
+	 */
+	private TrackSummary summarize(final RecordStorage tracks, final int id) throws RecordStoreException {
+		final byte[] data = tracks.getRecord(id);
+		if (TrackHeader.isHeader(data)) {
+			try {
+				if (!TrackHeader.fromBytes(id, data).complete) {
+					return null;
+				}
+			} catch (final IOException e) {
+				Log.log(this, e, "reading track " + id);
+				return null;
+			}
+		}
+		TrackReader reader = null;
+		try {
+			reader = TrackReader.open(new DataInputStream(openStream(id, data)));
+			final TrackStatistics statistics = TrackStatistics.fromCursor(reader);
+			return new TrackSummary(Integer.toString(id), reader.getName(), reader.getCreationDate(), statistics,
+					data.length, 0);
+		} catch (final IOException e) {
+			Log.log(this, e, "reading track " + id);
+		} catch (final TrackStoreException e) {
+			Log.log(this, e, "reading track " + id);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final IOException e) {
 					// ignore
 				}
 			}
 		}
+		return null;
 	}
 
-	public void saveTrack(final Track track) throws TrackStoreException {
-		RecordStore rs = null;
+	private static void addSummary(final RecordStorage catalogRecords, final TrackSummary summary)
+			throws RecordStoreException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 		try {
-			rs = RecordStore.openRecordStore(RECORD_STORE_NAME, true);
+			summary.writeToStream(new DataOutputStream(buffer));
+		} catch (final IOException e) {
+			// can't happen with a ByteArrayOutputStream
+			throw new RecordStoreException(e.toString());
+		}
+		catalogRecords.addRecord(buffer.toByteArray(), 0, buffer.size());
+	}
+
+	private void updateCatalog(final TrackSummary added, final String removed) {
+		RecordStorage catalogRecords = null;
+		try {
+			catalogRecords = openStorage(CATALOG_STORE_NAME, true);
+			if (removed != null) {
+				final int[] ids = catalogRecords.getRecordIds();
+				for (int i = 0; i < ids.length; i++) {
+					final DataInputStream in = new DataInputStream(new ByteArrayInputStream(catalogRecords
+							.getRecord(ids[i])));
+					if (in.readUTF().equals(removed)) {
+						catalogRecords.deleteRecord(ids[i]);
+					}
+				}
+			}
+			if (added != null) {
+				addSummary(catalogRecords, added);
+			}
+		} catch (final IOException e) {
+			// the catalog gets fixed the next time it is loaded
+			Log.log(this, e, "updating catalog");
+		} catch (final RecordStoreException e) {
+			Log.log(this, e, "updating catalog");
+		} finally {
+			close(catalogRecords);
+		}
+	}
 
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			final DataOutputStream out = new DataOutputStream(baos);
+	/**
+	 * Opens the stream of the track stored in record <code>id</code>. Chunked tracks are read one chunk at a time.
+	 */
+	private InputStream openStream(final int id, final byte[] data) throws IOException, RecordStoreException {
+		if (!TrackHeader.isHeader(data)) {
+			return new ByteArrayInputStream(data);
+		}
+		final TrackHeader header = TrackHeader.fromBytes(id, data);
+		return new ChunkInputStream(openStorage(CHUNK_STORE_NAME, false), header, true);
+	}
 
+	public void saveTrack(final Track track) throws TrackStoreException {
+		final ChunkOutputStream chunks = openChunkOutputStream(track);
+		try {
+			final DataOutputStream out = new DataOutputStream(chunks);
 			track.writeToStream(out);
+			out.flush();
+			chunks.complete();
+			chunks.close();
+			updateCatalog(new TrackSummary(Integer.toString(chunks.header.id), track.getName(), track
+					.getCreationDate(), track.getStatistics(), chunks.header.toBytes().length, 0), null);
+		} catch (final IOException e) {
+			chunks.discard();
+			throw new TrackStoreException(e);
+		}
+	}
 
-			out.close();
-
-			final byte[] data = baos.toByteArray();
+	public TrackJournal openJournal(final Track track) throws TrackStoreException {
+		final ChunkOutputStream chunks = openChunkOutputStream(track);
+		try {
+			return new RMSJournal(chunks, track);
+		} catch (final IOException e) {
+			chunks.discard();
+			throw new TrackStoreException(e);
+		}
+	}
 
-			rs.addRecord(data, 0, data.length);
+	private ChunkOutputStream openChunkOutputStream(final Track track) throws TrackStoreException {
+		RecordStorage tracks = null;
+		RecordStorage chunks = null;
+		try {
+			tracks = openStorage(RECORD_STORE_NAME, true);
+			chunks = openStorage(CHUNK_STORE_NAME, true);
+			final TrackHeader header = new TrackHeader(track.getName(), track.getCreationDate());
+			header.compressed = isCompressing();
+			final byte[] data = header.toBytes();
+			header.id = tracks.addRecord(data, 0, data.length);
+			return new ChunkOutputStream(tracks, chunks, header);
+		} catch (final RecordStoreException e) {
+			close(chunks);
+			close(tracks);
+			throw new TrackStoreException(e);
 		} catch (final IOException e) {
+			close(chunks);
+			close(tracks);
 			throw new TrackStoreException(e);
+		}
+	}
+
+	public void recoverJournals() throws TrackStoreException {
+		RecordStorage tracks = null;
+		RecordStorage chunks = null;
+		try {
+			tracks = openStorage(RECORD_STORE_NAME, false);
+			chunks = openStorage(CHUNK_STORE_NAME, true);
+			final Hashtable used = new Hashtable();
+			final int[] ids = tracks.getRecordIds();
+			for (int i = 0; i < ids.length; i++) {
+				final byte[] data = tracks.getRecord(ids[i]);
+				if (!TrackHeader.isHeader(data)) {
+					continue;
+				}
+				try {
+					final TrackHeader header = TrackHeader.fromBytes(ids[i], data);
+					if (!header.complete && !recoverTrack(tracks, chunks, header)) {
+						continue;
+					}
+					for (int c = 0; c < header.chunkCount; c++) {
+						used.put(new Integer(header.chunkIds[c]), header);
+					}
+				} catch (final IOException e) {
+					Log.log(this, e, "recovering track " + ids[i]);
+				}
+			}
+			// chunks written just before the application was killed might not have made it into a header
+			final int[] chunkIds = chunks.getRecordIds();
+			for (int i = 0; i < chunkIds.length; i++) {
+				if (!used.containsKey(new Integer(chunkIds[i]))) {
+					chunks.deleteRecord(chunkIds[i]);
+				}
+			}
+		} catch (final RecordStoreNotFoundException e) {
+			// nothing saved yet
 		} catch (final RecordStoreException e) {
+			Log.log(this, e, "recovering tracks");
 			throw new TrackStoreException(e);
 		} finally {
-			if (rs != null) {
+			close(chunks);
+			close(tracks);
+		}
+	}
+
+	/**
+	 * Completes a track that was not finished.
+	 *
+	 * @return true if the track was recovered, false if it was deleted
+	 */
+	private boolean recoverTrack(final RecordStorage tracks, final RecordStorage chunks, final TrackHeader header)
+			throws RecordStoreException, IOException {
+		final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+		final long length = TrackJournal.recover(new ChunkInputStream(chunks, header, false), tail);
+		if (length == -1) {
+			Log.log(this, "Deleting empty track " + header.id);
+			header.delete(tracks, chunks);
+			return false;
+		}
+		// cut off the damaged record and complete the stream, the segment table may need more than one chunk
+		final int capacity = header.getChunkCapacity();
+		final int last = (int) (length / capacity);
+		final int offset = (int) (length % capacity);
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream(offset + tail.size());
+		if (offset > 0) {
+			final ChunkInputStream in = new ChunkInputStream(chunks, header, false);
+			in.seek((long) last * capacity);
+			final byte[] kept = new byte[offset];
+			in.read(kept, 0, offset);
+			buffer.write(kept, 0, offset);
+		}
+		tail.writeTo(buffer);
+		final byte[] data = buffer.toByteArray();
+		final LzCodec codec = header.compressed ? new LzCodec(CHUNK_HASH_BITS) : null;
+		final byte[] encoded = header.compressed ? new byte[LzCodec.getMaxBlockLength(capacity)] : null;
+		int chunk = last;
+		for (int start = 0; start < data.length; start += capacity) {
+			final int count = Math.min(capacity, data.length - start);
+			final byte[] record;
+			final int recordOffset;
+			final int recordLength;
+			if (codec != null) {
+				record = encoded;
+				recordOffset = 0;
+				recordLength = codec.encodeBlock(data, start, count, encoded, 0);
+			} else {
+				record = data;
+				recordOffset = start;
+				recordLength = count;
+			}
+			if (chunk < header.chunkCount) {
+				chunks.setRecord(header.chunkIds[chunk], record, recordOffset, recordLength);
+			} else {
+				header.addChunk(chunks.addRecord(record, recordOffset, recordLength));
+			}
+			chunk++;
+		}
+		for (int c = chunk; c < header.chunkCount; c++) {
+			chunks.deleteRecord(header.chunkIds[c]);
+		}
+		header.chunkCount = chunk;
+		header.complete = true;
+		header.save(tracks);
+		Log.log(this, "Recovered track " + header.id);
+		return true;
+	}
+
+	/**
+	 * The header record of a track.
+	 */
+	static class TrackHeader {
+		/**
+		 * The first byte of a header record. Single record tracks start with the (small, positive) stream version as
+		 * an int, so their first byte is always 0.
+		 */
+		private static final byte MARKER = 1;
+
+		/**
+		 * The first byte of the header record of a track with compressed chunks.
+		 */
+		private static final byte MARKER_COMPRESSED = 2;
+
+		int id;
+
+		final String name;
+
+		final Date date;
+
+		boolean complete;
+
+		boolean compressed;
+
+		int[] chunkIds;
+
+		int chunkCount;
+
+		TrackHeader(final String name, final Date date) {
+			this.name = name;
+			this.date = date;
+			chunkIds = new int[8];
+		}
+
+		static boolean isHeader(final byte[] data) {
+			return data != null && data.length > 0 && (data[0] == MARKER || data[0] == MARKER_COMPRESSED);
+		}
+
+		static TrackHeader fromBytes(final int id, final byte[] data) throws IOException {
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			final byte marker = in.readByte();
+			final String name = in.readUTF();
+			final TrackHeader header = new TrackHeader(name.length() == 0 ? null : name, new Date(in.readLong()));
+			header.id = id;
+			header.compressed = marker == MARKER_COMPRESSED;
+			header.complete = in.readBoolean();
+			header.chunkCount = in.readInt();
+			header.chunkIds = new int[Math.max(header.chunkCount, 8)];
+			for (int i = 0; i < header.chunkCount; i++) {
+				header.chunkIds[i] = in.readInt();
+			}
+			return header;
+		}
+
+		byte[] toBytes() throws IOException {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(24 + chunkCount * 4);
+			final DataOutputStream out = new DataOutputStream(buffer);
+			out.writeByte(compressed ? MARKER_COMPRESSED : MARKER);
+			out.writeUTF(name == null ? "" : name);
+			out.writeLong(date.getTime());
+			out.writeBoolean(complete);
+			out.writeInt(chunkCount);
+			for (int i = 0; i < chunkCount; i++) {
+				out.writeInt(chunkIds[i]);
+			}
+			return buffer.toByteArray();
+		}
+
+		/**
+		 * @return the number of stream bytes in each chunk but the last
+		 */
+		int getChunkCapacity() {
+			return compressed ? CHUNK_SIZE - LzCodec.BLOCK_HEADER_SIZE : CHUNK_SIZE;
+		}
+
+		void addChunk(final int chunkId) {
+			if (chunkCount == chunkIds.length) {
+				final int[] newIds = new int[chunkCount * 2];
+				System.arraycopy(chunkIds, 0, newIds, 0, chunkCount);
+				chunkIds = newIds;
+			}
+			chunkIds[chunkCount++] = chunkId;
+		}
+
+		void save(final RecordStorage tracks) throws RecordStoreException, IOException {
+			final byte[] data = toBytes();
+			tracks.setRecord(id, data, 0, data.length);
+		}
+
+		void delete(final RecordStorage tracks, final RecordStorage chunks) throws RecordStoreException {
+			for (int i = 0; i < chunkCount; i++) {
+				chunks.deleteRecord(chunkIds[i]);
+			}
+			tracks.deleteRecord(id);
+		}
+	}
+
+	/**
+	 * Writes a track stream into chunk records. A chunk is added to the header as soon as it is first written, so
+	 * {@link #flush()} makes everything written so far persistent.
+	 */
+	private static class ChunkOutputStream extends OutputStream {
+		private final RecordStorage tracks;
+
+		private final RecordStorage chunks;
+
+		final TrackHeader header;
+
+		private final byte[] buffer;
+
+		private int count = 0;
+
+		private final LzCodec codec;
+
+		private final byte[] encoded;
+
+		/**
+		 * The record id of the chunk in {@link #buffer} or -1 if it has not been written yet.
+		 */
+		private int chunkId = -1;
+
+		private boolean dirty = false;
+
+		ChunkOutputStream(final RecordStorage tracks, final RecordStorage chunks, final TrackHeader header) {
+			this.tracks = tracks;
+			this.chunks = chunks;
+			this.header = header;
+			buffer = new byte[header.getChunkCapacity()];
+			if (header.compressed) {
+				codec = new LzCodec(CHUNK_HASH_BITS);
+				encoded = new byte[CHUNK_SIZE];
+			} else {
+				codec = null;
+				encoded = null;
+			}
+		}
+
+		public void write(final int b) throws IOException {
+			if (count == buffer.length) {
+				nextChunk();
+			}
+			buffer[count++] = (byte) b;
+			dirty = true;
+		}
+
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buffer.length) {
+					nextChunk();
+				}
+				final int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+				dirty = true;
+			}
+		}
+
+		private void nextChunk() throws IOException {
+			writeChunk();
+			chunkId = -1;
+			count = 0;
+		}
+
+		private void writeChunk() throws IOException {
+			final byte[] data;
+			final int length;
+			if (codec != null) {
+				data = encoded;
+				length = codec.encodeBlock(buffer, 0, count, encoded, 0);
+			} else {
+				data = buffer;
+				length = count;
+			}
+			try {
+				if (chunkId == -1) {
+					chunkId = chunks.addRecord(data, 0, length);
+					header.addChunk(chunkId);
+					header.save(tracks);
+				} else {
+					chunks.setRecord(chunkId, data, 0, length);
+				}
+			} catch (final RecordStoreException e) {
+				throw new IOException(e.toString());
+			}
+			dirty = false;
+		}
+
+		public void flush() throws IOException {
+			if (dirty) {
+				writeChunk();
+			}
+		}
+
+		/**
+		 * Marks the track as complete, so that it gets listed.
+		 */
+		void complete() throws IOException {
+			flush();
+			header.complete = true;
+			try {
+				header.save(tracks);
+			} catch (final RecordStoreException e) {
+				throw new IOException(e.toString());
+			}
+		}
+
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				RMSTrackStore.close(chunks);
+				RMSTrackStore.close(tracks);
+			}
+		}
+
+		/**
+		 * Deletes everything that has been written and closes the stream.
+		 */
+		void discard() {
+			try {
+				header.delete(tracks, chunks);
+			} catch (final RecordStoreException e) {
+				Log.log(this, e, "deleting track");
+			} finally {
+				RMSTrackStore.close(chunks);
+				RMSTrackStore.close(tracks);
+			}
+		}
+	}
+
+	/**
+	 * Reads the chunks of a track one at a time.
+	 */
+	private static class ChunkInputStream extends InputStream {
+		private final RecordStorage chunks;
+
+		private final TrackHeader header;
+
+		private final boolean closeStorage;
+
+		private int chunk = 0;
+
+		private byte[] data;
+
+		private int length;
+
+		private int position;
+
+		/**
+		 * The decoded chunk of a compressed track.
+		 */
+		private byte[] decoded;
+
+		ChunkInputStream(final RecordStorage chunks, final TrackHeader header, final boolean closeStorage) {
+			this.chunks = chunks;
+			this.header = header;
+			this.closeStorage = closeStorage;
+		}
+
+		private boolean fill() throws IOException {
+			while (data == null || position == length) {
+				if (chunk == header.chunkCount) {
+					return false;
+				}
 				try {
-					rs.closeRecordStore();
+					data = chunks.getRecord(header.chunkIds[chunk++]);
 				} catch (final RecordStoreException e) {
-					// ignore
+					throw new IOException(e.toString());
+				}
+				position = 0;
+				if (data == null) {
+					data = new byte[0];
+					length = 0;
+				} else if (header.compressed) {
+					if (decoded == null) {
+						decoded = new byte[header.getChunkCapacity()];
+					}
+					length = LzCodec.decodeBlock(data, 0, decoded, 0);
+					data = decoded;
+				} else {
+					length = data.length;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Positions this stream at <code>offset</code>, relying on all chunks but the last one being full.
+		 */
+		void seek(final long offset) throws IOException {
+			chunk = (int) (offset / header.getChunkCapacity());
+			data = null;
+			final int skip = (int) (offset % header.getChunkCapacity());
+			if (skip > 0) {
+				if (!fill() || length < skip) {
+					throw new IOException("Track is shorter than " + offset + " bytes");
+				}
+				position = skip;
+			}
+		}
+
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return data[position++] & 0xff;
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			final int n = Math.min(len, length - position);
+			System.arraycopy(data, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		public void close() {
+			if (closeStorage) {
+				RMSTrackStore.close(chunks);
+			}
+		}
+	}
+
+	/**
+	 * Reads parts of a chunked track, each {@link #open(long)} opens the chunk store again.
+	 */
+	private class ChunkStreamSource implements TrackStreamSource {
+		private final TrackHeader header;
+
+		ChunkStreamSource(final TrackHeader header) {
+			this.header = header;
+		}
+
+		public long getLength() throws IOException {
+			if (header.chunkCount == 0) {
+				return 0;
+			}
+			RecordStorage chunks = null;
+			try {
+				chunks = openStorage(CHUNK_STORE_NAME, false);
+				final byte[] last = chunks.getRecord(header.chunkIds[header.chunkCount - 1]);
+				final int lastLength;
+				if (last == null) {
+					lastLength = 0;
+				} else if (header.compressed) {
+					lastLength = LzCodec.getRawLength(last, 0);
+				} else {
+					lastLength = last.length;
+				}
+				return (long) (header.chunkCount - 1) * header.getChunkCapacity() + lastLength;
+			} catch (final RecordStoreException e) {
+				throw new IOException(e.toString());
+			} finally {
+				close(chunks);
+			}
+		}
+
+		public InputStream open(final long offset) throws IOException {
+			final ChunkInputStream in;
+			try {
+				in = new ChunkInputStream(openStorage(CHUNK_STORE_NAME, false), header, true);
+			} catch (final RecordStoreException e) {
+				throw new IOException(e.toString());
+			}
+			try {
+				in.seek(offset);
+			} catch (final IOException e) {
+				in.close();
+				throw e;
+			}
+			return in;
+		}
+	}
+
+	private static class RMSJournal extends TrackJournal {
+		private final ChunkOutputStream chunks;
+
+		RMSJournal(final ChunkOutputStream chunks, final Track track) throws IOException {
+			super(chunks, track.getName(), track.getCreationDate());
+			this.chunks = chunks;
+		}
+
+		public void close() throws IOException {
+			try {
+				if (isFinished()) {
+					chunks.complete();
 				}
+			} finally {
+				super.close();
 			}
 		}
+
+		public void discard() {
+			chunks.discard();
+		}
+	}
+
+	/**
+	 * Adapts a {@link RecordStore} to {@link RecordStorage}.
+	 */
+	private static class RecordStoreStorage implements RecordStorage {
+		private final RecordStore store;
+
+		RecordStoreStorage(final RecordStore store) {
+			this.store = store;
+		}
+
+		public int addRecord(final byte[] data, final int offset, final int length) throws RecordStoreException {
+			return store.addRecord(data, offset, length);
+		}
+
+		public void setRecord(final int id, final byte[] data, final int offset, final int length)
+				throws RecordStoreException {
+			store.setRecord(id, data, offset, length);
+		}
+
+		public byte[] getRecord(final int id) throws RecordStoreException {
+			return store.getRecord(id);
+		}
+
+		public void deleteRecord(final int id) throws RecordStoreException {
+			store.deleteRecord(id);
+		}
+
+		public int getRecordSize(final int id) throws RecordStoreException {
+			return store.getRecordSize(id);
+		}
+
+		public int[] getRecordIds() throws RecordStoreException {
+			final RecordEnumeration enumeration = store.enumerateRecords(null, null, false);
+			try {
+				final int[] ids = new int[enumeration.numRecords()];
+				for (int i = 0; i < ids.length; i++) {
+					final int id = enumeration.nextRecordId();
+					// insertion sort, the enumeration order is undefined
+					int j = i;
+					while (j > 0 && ids[j - 1] > id) {
+						ids[j] = ids[j - 1];
+						j--;
+					}
+					ids[j] = id;
+				}
+				return ids;
+			} finally {
+				enumeration.destroy();
+			}
+		}
+
+		public void close() throws RecordStoreException {
+			store.closeRecordStore();
+		}
 	}
 
 	private class RMSTrackStoreEntry extends TrackStoreEntry {
-		int index;
+		private final int index;
 
-		public RMSTrackStoreEntry(final String name, final Date date) {
-			super(name, date);
+		public RMSTrackStoreEntry(final TrackSummary summary, final int index) {
+			super(summary);
+			this.index = index;
 		}
 
 		public void deleteTrack() throws TrackStoreException {
-			RecordStore rs = null;
+			RecordStorage tracks = null;
+			RecordStorage chunks = null;
 			try {
-				rs = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
-				rs.deleteRecord(index);
+				tracks = openStorage(RECORD_STORE_NAME, false);
+				final byte[] data = tracks.getRecord(index);
+				if (TrackHeader.isHeader(data)) {
+					chunks = openStorage(CHUNK_STORE_NAME, true);
+					TrackHeader.fromBytes(index, data).delete(tracks, chunks);
+				} else {
+					tracks.deleteRecord(index);
+				}
+				updateCatalog(null, Integer.toString(index));
+			} catch (final IOException e) {
+				throw new TrackStoreException(e);
 			} catch (final RecordStoreException e) {
 				throw new TrackStoreException(e);
 			} finally {
-				if (rs != null) {
-					try {
-						rs.closeRecordStore();
-					} catch (final RecordStoreException e) {
-						// ignore
-					}
-				}
+				close(chunks);
+				close(tracks);
+			}
+		}
+
+		private byte[] readRecord() throws RecordStoreException {
+			RecordStorage tracks = null;
+			try {
+				tracks = openStorage(RECORD_STORE_NAME, false);
+				return tracks.getRecord(index);
+			} finally {
+				close(tracks);
+			}
+		}
+
+		private InputStream openStream() throws IOException, RecordStoreException {
+			return RMSTrackStore.this.openStream(index, readRecord());
+		}
+
+		public TrackCursor openCursor() throws IOException, TrackStoreException {
+			final InputStream in;
+			try {
+				in = openStream();
+			} catch (final RecordStoreException e) {
+				throw new TrackStoreException(e);
+			}
+			try {
+				return TrackReader.open(new DataInputStream(in));
+			} catch (final IOException e) {
+				in.close();
+				throw e;
+			} catch (final TrackStoreException e) {
+				in.close();
+				throw e;
 			}
 		}
 
 		public Track loadTrack() throws TrackStoreException {
-			RecordStore rs = null;
 			DataInputStream dis = null;
 			try {
-				rs = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
-				final byte[] data = rs.getRecord(index);
-				final Track track;
-				dis = new DataInputStream(new ByteArrayInputStream(data));
-				track = Track.readFromStream(dis);
-				dis.close();
-				return track;
+				final byte[] data = readRecord();
+				if (isLarge() && TrackHeader.isHeader(data)) {
+					final TrackHeader header = TrackHeader.fromBytes(index, data);
+					final Track track = Track.openLazy(new ChunkStreamSource(header), LAZY_CACHE_POINTS);
+					if (track != null) {
+						return track;
+					}
+				}
+				dis = new DataInputStream(RMSTrackStore.this.openStream(index, data));
+				return Track.readFromStream(dis);
 			} catch (final IOException e) {
 				throw new TrackStoreException(e);
 			} catch (final RecordStoreException e) {
 				throw new TrackStoreException(e);
 			} finally {
-				if (rs != null) {
-					try {
-						rs.closeRecordStore();
-					} catch (final RecordStoreException e) {
-						// ignore
-					}
-				}
 				if (dis != null) {
 					try {
 						dis.close();
@@ -156,4 +965,4 @@ public class RMSTrackStore implements TrackStore {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * The operations {@link RMSTrackStore} needs from a {@link javax.microedition.rms.RecordStore}. This makes it possible
+ * to test the store without a MIDP implementation.
+ */
+public interface RecordStorage {
+	public int addRecord(byte[] data, int offset, int length) throws RecordStoreException;
+
+	public void setRecord(int id, byte[] data, int offset, int length) throws RecordStoreException;
+
+	public byte[] getRecord(int id) throws RecordStoreException;
+
+	public void deleteRecord(int id) throws RecordStoreException;
+
+	public int getRecordSize(int id) throws RecordStoreException;
+
+	/**
+	 * @return the ids of all records in ascending order
+	 */
+	public int[] getRecordIds() throws RecordStoreException;
+
+	public void close() throws RecordStoreException;
+}
@@ -17,6 +17,7 @@
  */
 package org.bbtracker.mobile;
 
+import org.bbtracker.ShadowMatcher;
 import org.bbtracker.TrackPoint;
 
 public interface TrackListener {
@@ -25,4 +26,9 @@ public interface TrackListener {
 	public void currentPointChanged(final TrackPoint newPoint, int newIndex);
 
 	public void stateChanged(int newState);
+
+	/**
+	 * Called after a new point of the current track has been matched against the extra track.
+	 */
+	public void shadowMatched(ShadowMatcher matcher);
 }
@@ -18,7 +18,6 @@
 package org.bbtracker.mobile;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.Vector;
 
@@ -26,8 +25,11 @@ import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
 import javax.microedition.lcdui.Displayable;
 
+import org.bbtracker.ShadowMatcher;
 import org.bbtracker.Track;
+import org.bbtracker.TrackJournal;
 import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackSource;
 import org.bbtracker.TrackStoreException;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.TrackStore.TrackStoreEntry;
@@ -64,8 +66,17 @@ public class TrackManager {
 
 	private Track extraTrack;
 
+	private ShadowMatcher shadowMatcher;
+
+	/**
+	 * Saves the track while it is recorded, null if no track store supports that.
+	 */
+	private TrackJournal journal;
+
 	private TrackStore[] trackStores;
 
+	private final PersistenceWorker worker = new PersistenceWorker();
+
 	private final Vector listeners = new Vector();
 
 	private boolean trackInterrupted = false;
@@ -91,18 +102,31 @@ public class TrackManager {
 				if (track != null) {
 					currentPointChanged = false;
 					if (!paused) {
-						final int pointCount = track.getPointCount();
+						final int pointCount;
+						synchronized (TrackManager.this) {
+							if (state != STATE_TRACKING) {
+								// the track has been handed off for saving in the meantime
+								return;
+							}
+							pointCount = track.getPointCount();
+							if (newSegment) {
+								track.newSegment();
+							}
+							boundsChanged = track.addPoint(location);
+							appendToJournal(location, newSegment);
+						}
 						if (currentPointIndex == pointCount - 1) {
 							// activate the new point only, when the last point
-							// is currently selected.
+							// is currently selected. The point must be added
+							// first, as readers may use the index immediately.
 							currentPointIndex = pointCount;
 							currentPoint = location;
 							currentPointChanged = true;
 						}
-						if (newSegment) {
-							track.newSegment();
+						if (shadowMatcher != null) {
+							shadowMatcher.update(location.getLatitude(), location.getLongitude(), track
+									.getPointOffset(location));
 						}
-						boundsChanged = track.addPoint(location);
 					}
 				} else {
 					currentPoint = location;
@@ -112,6 +136,9 @@ public class TrackManager {
 				if (currentPointChanged) {
 					fireCurrentPointChanged();
 				}
+				if (shadowMatcher != null && shadowMatcher.isMatched() && track != null && !paused) {
+					fireShadowMatched();
+				}
 			} else {
 				fireNewPoint(null, false, false);
 			}
@@ -140,6 +167,14 @@ public class TrackManager {
 		this.provider = provider;
 		this.provider.setLocationListener(locationListener);
 
+		for (int i = 0; i < trackStores.length; i++) {
+			try {
+				trackStores[i].recoverJournals();
+			} catch (final TrackStoreException e) {
+				Log.log(this, e, "recovering journals in trackStore " + i);
+			}
+		}
+
 		state = STATE_NO_TRACK;
 		fireStateChanged();
 	}
@@ -173,6 +208,42 @@ public class TrackManager {
 		return setCurrentPoint(newValue);
 	}
 
+	/**
+	 * Moves the current point by <code>offset</code> milliseconds. Moving forward selects the first point at or after
+	 * the target time, moving backward selects the last point at or before it.
+	 */
+	public boolean changeCurrentPointByTime(final long offset) {
+		if (track == null) {
+			return false;
+		}
+
+		final int pointCount = track.getPointCount();
+		if (pointCount == 0) {
+			return false;
+		}
+
+		final long base;
+		if (currentPoint == null) {
+			base = track.getPoint(offset >= 0 ? 0 : pointCount - 1).getTimestamp();
+		} else {
+			base = currentPoint.getTimestamp();
+		}
+		final long target = base + offset;
+		int newValue;
+		if (offset >= 0) {
+			newValue = track.indexAtTime(target - 1) + 1;
+		} else {
+			newValue = track.indexAtTime(target);
+		}
+		if (newValue < 0) {
+			newValue = 0;
+		} else if (newValue >= pointCount) {
+			newValue = pointCount - 1;
+		}
+
+		return setCurrentPoint(newValue);
+	}
+
 	public boolean changeToLastPoint() {
 		if (track == null) {
 			return false;
@@ -272,9 +343,13 @@ public class TrackManager {
 		}
 		updateSampleInterval();
 
-		track = new Track(name);
-		state = STATE_TRACKING;
-		paused = false;
+		synchronized (this) {
+			track = new Track(name);
+			resetShadowMatcher();
+			openJournal();
+			state = STATE_TRACKING;
+			paused = false;
+		}
 
 		currentPointIndex = -1;
 		currentPoint = null;
@@ -282,12 +357,63 @@ public class TrackManager {
 		fireCurrentPointChanged();
 	}
 
+	private void openJournal() {
+		journal = null;
+		for (int i = 0; i < trackStores.length && journal == null; i++) {
+			try {
+				journal = trackStores[i].openJournal(track);
+			} catch (final TrackStoreException e) {
+				Log.log(this, e, "opening journal in trackStore " + i);
+			}
+		}
+	}
+
+	private void appendToJournal(final TrackPoint point, final boolean newSegment) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			if (newSegment) {
+				journal.newSegment();
+			}
+			journal.append(point);
+		} catch (final IOException e) {
+			// the track will be saved in full instead
+			Log.log(this, e, "writing journal");
+			discardJournal();
+		}
+	}
+
+	private void discardJournal() {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.discard();
+		} catch (final IOException e) {
+			Log.log(this, e, "discarding journal");
+		}
+		journal = null;
+	}
+
 	/**
 	 * @param extraTrack
 	 *            the extraTrack to set
 	 */
 	public void setExtraTrack(final Track extraTrack) {
 		this.extraTrack = extraTrack;
+		resetShadowMatcher();
+	}
+
+	/**
+	 * Returns the matcher comparing the current track to the extra track or null if there is no extra track.
+	 */
+	public ShadowMatcher getShadowMatcher() {
+		return shadowMatcher;
+	}
+
+	private void resetShadowMatcher() {
+		shadowMatcher = extraTrack == null ? null : new ShadowMatcher(extraTrack);
 	}
 
 	/**
@@ -302,6 +428,7 @@ public class TrackManager {
 		}
 		state = STATE_STATIC;
 		track = newTrack;
+		resetShadowMatcher();
 		if (track == null || track.getPointCount() == 0) {
 			currentPoint = null;
 			currentPointIndex = -1;
@@ -315,58 +442,58 @@ public class TrackManager {
 
 	/**
 	 * Saves the currently recording track, if any. This is different from
-	 * {@link #saveTrack()} in that it is a no-op if {@link #state} is not
+	 * {@link #saveTrack(PersistenceListener)} in that it is a no-op if {@link #state} is not
 	 * {@link #STATE_TRACKING}.
 	 * 
-	 * @throws TrackStoreException
-	 *             if saving fails
-	 * 
+	 * @return the save request or null if no track is recorded
 	 */
-	public void maybeSaveTrack() throws TrackStoreException {
+	public PersistenceWorker.Request maybeSaveTrack(final PersistenceListener listener) {
 		if (state != STATE_TRACKING) {
-			return;
+			return null;
 		}
 
-		saveTrack();
+		return saveTrack(listener);
 	}
 
 	/**
-	 * Saves the currently recording track.
+	 * Stops recording the current track and saves it in the background. The track is frozen and the state changes to
+	 * {@link #STATE_STATIC} immediately, so that a new track can be started while the old one is still being saved.
+	 * <code>listener</code> is informed when saving has finished or failed. If it fails, then the journal of the track
+	 * (if any) is kept to be recovered on the next start.
 	 * 
 	 * @throws IllegalStateException
 	 *             if {@link #state} is not {@link #STATE_TRACKING}.
-	 * @throws TrackStoreException
-	 *             if saving fails
 	 */
-	public void saveTrack() throws IllegalStateException, TrackStoreException {
-		if (state != STATE_TRACKING) {
-			throw new IllegalStateException("Can't save a track, when not in STATE_TRACKING!");
-		}
-
-		String error = null;
-		boolean success = false;
-		for (int i = 0; i < trackStores.length; i++) {
-			try {
-				trackStores[i].saveTrack(track);
-				Log.log(this, "Successfully stored track <" + track.getName() + "> in TrackStore " + i);
-				success = true;
-				break;
-			} catch (final TrackStoreException e) {
-				Log.log(this, e, "saving track in trackStore " + i);
-				final String msg = e.getMessage();
-				error = error == null ? msg : error + "\n" + msg;
+	public PersistenceWorker.Request saveTrack(final PersistenceListener listener) throws IllegalStateException {
+		final PersistenceWorker.Request request;
+		synchronized (this) {
+			if (state != STATE_TRACKING) {
+				throw new IllegalStateException("Can't save a track, when not in STATE_TRACKING!");
 			}
-		}
-
-		if (success) {
+			track.freeze();
+			request = new PersistenceWorker.SaveRequest(track, journal, trackStores, listener);
+			journal = null;
 			state = STATE_STATIC;
-			fireStateChanged();
-		} else {
-			throw new TrackStoreException(error);
 		}
+		fireStateChanged();
+		return worker.enqueue(request);
+	}
+
+	/**
+	 * Deletes a stored track in the background.
+	 */
+	public PersistenceWorker.Request deleteTrack(final TrackStoreEntry entry, final PersistenceListener listener) {
+		return worker.enqueue(new PersistenceWorker.DeleteRequest(entry, listener));
 	}
 
-	public static void showSaveFailedAlert(final TrackStoreException e, final Displayable next) {
+	/**
+	 * Returns the number of save, delete and export requests that haven't finished yet.
+	 */
+	public int getPendingRequestCount() {
+		return worker.getPendingCount();
+	}
+
+	public static void showSaveFailedAlert(final Exception e, final Displayable next) {
 		BBTracker.alert(new Alert("Failed to save track!", "Failed to safe track:\n" + e.getMessage(), null,
 				AlertType.ERROR), next);
 	}
@@ -399,6 +526,18 @@ public class TrackManager {
 	}
 
 	public void shutdown() {
+		// let pending saves finish
+		worker.shutdown();
+		if (journal != null) {
+			// leave it to be recovered on the next start
+			try {
+				journal.flush();
+				journal.close();
+			} catch (final IOException e) {
+				Log.log(this, e, "closing journal");
+			}
+			journal = null;
+		}
 		if (provider != null) {
 			provider.setLocationListener(null);
 			provider = null;
@@ -425,44 +564,23 @@ public class TrackManager {
 	}
 
 	// #ifndef AVOID_FILE_API
-	public static int exportTrack(final Track track) throws IOException {
+	/**
+	 * Exports the track in the background, in each format selected in the preferences. The result of the request is
+	 * the number of formats written.
+	 */
+	public PersistenceWorker.Request exportTrack(final TrackSource track, final PersistenceListener listener) {
 		final Preferences pref = Preferences.getInstance();
-		final String dir = pref.getEffectiveExportDirectory();
-		int exportCount = 0;
+		final Vector exporters = new Vector();
 		if (pref.getExportFormat(0)) {
-			export(dir, track, new KmlTrackExporter());
-			exportCount++;
+			exporters.addElement(new KmlTrackExporter());
 		}
 		if (pref.getExportFormat(1)) {
-			export(dir, track, new GpxTrackExporter());
-			exportCount++;
-		}
-		return exportCount;
-	}
-
-	private static void export(final String dir, final Track track, final TrackExporter exporter) throws IOException {
-		javax.microedition.io.file.FileConnection connection = null;
-		OutputStream out = null;
-		try {
-			connection = FileUtil.createFile(dir, track.getName(), exporter.getExtension());
-			out = connection.openOutputStream();
-			exporter.export(out, track);
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (final IOException ignored) {
-					// ignore
-				}
-			}
-			if (connection != null) {
-				try {
-					connection.close();
-				} catch (final IOException ignored) {
-					// ignore
-				}
-			}
+			exporters.addElement(new GpxTrackExporter());
 		}
+		final TrackExporter[] array = new TrackExporter[exporters.size()];
+		exporters.copyInto(array);
+		return worker.enqueue(new PersistenceWorker.ExportRequest(track, pref.getEffectiveExportDirectory(), array,
+				pref.isCompressExports(), listener));
 	}
 
 	// #endif
@@ -500,6 +618,17 @@ public class TrackManager {
 		}
 	}
 
+	private void fireShadowMatched() {
+		if (listeners == null) {
+			return;
+		}
+
+		final Enumeration e = listeners.elements();
+		while (e.hasMoreElements()) {
+			((TrackListener) e.nextElement()).shadowMatched(shadowMatcher);
+		}
+	}
+
 	public HeartRateProvider getHeartRateProvider() {
 		return heartRateProvider;
 	}
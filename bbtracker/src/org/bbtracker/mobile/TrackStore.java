@@ -17,11 +17,17 @@
  */
 package org.bbtracker.mobile;
 
+import java.io.IOException;
 import java.util.Date;
 
 import org.bbtracker.Comparator;
 import org.bbtracker.Track;
+import org.bbtracker.TrackCursor;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackSource;
+import org.bbtracker.TrackStatistics;
 import org.bbtracker.TrackStoreException;
+import org.bbtracker.TrackSummary;
 
 public interface TrackStore {
 	public static final Comparator TSE_COMPARATOR = new Comparator() {
@@ -30,18 +36,52 @@ public interface TrackStore {
 		}
 	};
 
+	/**
+	 * Tracks with at least that many points are loaded lazily by stores that support it (see
+	 * {@link Track#openLazy(org.bbtracker.TrackStreamSource, int)}).
+	 */
+	public static final int LAZY_LOAD_POINTS = 20000;
+
+	/**
+	 * The number of points a lazily loaded track keeps in memory. This is more than {@link #LAZY_LOAD_POINTS}, so
+	 * that graphs of the smallest lazily loaded tracks don't read blocks on every repaint. Maps keep the coordinates of
+	 * all blocks they have read anyway.
+	 */
+	public static final int LAZY_CACHE_POINTS = 32768;
+
 	public TrackStoreEntry[] getEntries() throws TrackStoreException;
 
 	public void saveTrack(final Track track) throws TrackStoreException;
 
-	public static abstract class TrackStoreEntry {
+	/**
+	 * Starts saving <code>track</code> while it is being recorded. Finishing the returned journal saves the track.
+	 * 
+	 * @return the journal or null if this store doesn't support journals
+	 */
+	public TrackJournal openJournal(final Track track) throws TrackStoreException;
+
+	/**
+	 * Turns journals that were not finished (because the application was killed, for example) into regular tracks.
+	 */
+	public void recoverJournals() throws TrackStoreException;
+
+	public static abstract class TrackStoreEntry implements TrackSource {
 		private final Date date;
 
 		private final String name;
 
+		private final TrackSummary summary;
+
 		public TrackStoreEntry(final String name, final Date date) {
 			this.name = name;
 			this.date = date;
+			summary = null;
+		}
+
+		public TrackStoreEntry(final TrackSummary summary) {
+			name = summary.getName();
+			date = summary.getDate();
+			this.summary = summary;
 		}
 
 		public Date getDate() {
@@ -52,10 +92,44 @@ public interface TrackStore {
 			return name;
 		}
 
+		/**
+		 * Returns the catalog information about this track or null if the store has none.
+		 */
+		public TrackSummary getSummary() {
+			return summary;
+		}
+
+		/**
+		 * Returns true if the track is big enough to be loaded lazily.
+		 */
+		protected boolean isLarge() {
+			return summary != null && summary.getPointCount() >= LAZY_LOAD_POINTS;
+		}
+
 		public abstract Track loadTrack() throws TrackStoreException;
 
 		public abstract void deleteTrack() throws TrackStoreException;
 
+		/**
+		 * Opens a cursor reading the stored track without loading it completely.
+		 */
+		public abstract TrackCursor openCursor() throws IOException, TrackStoreException;
+
+		/**
+		 * Returns the statistics from the catalog or calculates them in one pass over the points of the stored track.
+		 */
+		public TrackStatistics getStatistics() throws IOException, TrackStoreException {
+			if (summary != null) {
+				return summary.getStatistics();
+			}
+			final TrackCursor cursor = openCursor();
+			try {
+				return TrackStatistics.fromCursor(cursor);
+			} finally {
+				cursor.close();
+			}
+		}
+
 		public boolean equals(final Object obj) {
 			if (obj == this) {
 				return true;
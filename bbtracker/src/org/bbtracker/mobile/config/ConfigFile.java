@@ -29,6 +29,8 @@ import java.util.Vector;
 import javax.microedition.io.Connector;
 import javax.microedition.io.file.FileConnection;
 
+import org.bbtracker.BlockInputStream;
+import org.bbtracker.BlockOutputStream;
 import org.bbtracker.CsvReader;
 import org.bbtracker.CsvWriter;
 
@@ -105,7 +107,7 @@ public final class ConfigFile {
 	 */
 	private static Object openFile(final String filename, final boolean list) throws IOException {
 		final FileConnection connection = (FileConnection) Connector.open(filename, Connector.READ);
-		final InputStream in = connection.openInputStream();
+		final InputStream in = new BlockInputStream(connection.openInputStream());
 		try {
 			final Object result = openStream(in, list);
 			return result;
@@ -200,7 +202,7 @@ public final class ConfigFile {
 	public void saveConfig(final String url) throws IOException {
 		final FileConnection connection = (FileConnection) Connector.open(url, Connector.WRITE);
 		try {
-			final OutputStream out = connection.openOutputStream();
+			final OutputStream out = new BlockOutputStream(connection.openOutputStream());
 			saveConfig(out);
 		} finally {
 			connection.close();
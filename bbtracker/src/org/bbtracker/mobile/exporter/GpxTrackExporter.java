@@ -22,11 +22,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Date;
-import java.util.Enumeration;
 
-import org.bbtracker.Track;
+import org.bbtracker.TrackCursor;
 import org.bbtracker.TrackPoint;
-import org.bbtracker.TrackSegment;
+import org.bbtracker.TrackSource;
+import org.bbtracker.TrackStatistics;
+import org.bbtracker.TrackStoreException;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.BBTracker;
 
@@ -37,10 +38,13 @@ public class GpxTrackExporter implements TrackExporter {
 		return ".gpx";
 	}
 
-	public void export(final OutputStream out, final Track track) throws IOException {
+	public void export(final OutputStream out, final TrackSource source) throws IOException, TrackStoreException {
+		final TrackStatistics statistics = source.getStatistics();
 		Writer w = null;
+		TrackCursor cursor = null;
 		try {
-			final String xmlName = Utils.escapeXml(track.getName());
+			cursor = source.openCursor();
+			final String xmlName = Utils.escapeXml(cursor.getName());
 			w = new OutputStreamWriter(out, "UTF-8");
 			w.write(XML_HEADER);
 			w.write("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"");
@@ -53,17 +57,17 @@ public class GpxTrackExporter implements TrackExporter {
 			w.write("</name>\n");
 
 			w.write("\t\t<time>");
-			w.write(Utils.dateToXmlDateTime(track.getCreationDate()));
+			w.write(Utils.dateToXmlDateTime(cursor.getCreationDate()));
 			w.write("</time>\n");
 
 			w.write("\t\t<bounds minlat=\"");
-			w.write(String.valueOf(track.getMinLatitude()));
+			w.write(String.valueOf(statistics.getMinLatitude()));
 			w.write("\" minlon=\"");
-			w.write(String.valueOf(track.getMinLongitude()));
+			w.write(String.valueOf(statistics.getMinLongitude()));
 			w.write("\"\n\t\t\tmaxlat=\"");
-			w.write(String.valueOf(track.getMaxLatitude()));
+			w.write(String.valueOf(statistics.getMaxLatitude()));
 			w.write("\" maxlon=\"");
-			w.write(String.valueOf(track.getMaxLongitude()));
+			w.write(String.valueOf(statistics.getMaxLongitude()));
 			w.write("\"/>\n");
 
 			w.write("\t</metadata>\n");
@@ -72,33 +76,46 @@ public class GpxTrackExporter implements TrackExporter {
 			w.write(xmlName);
 			w.write("</name>\n");
 
-			final Enumeration segments = track.getSegments();
-			while (segments.hasMoreElements()) {
-				w.write("\t\t<trkseg>\n");
-				final TrackSegment segment = (TrackSegment) segments.nextElement();
-				final Enumeration points = segment.getPoints();
-				while (points.hasMoreElements()) {
-					final TrackPoint point = (TrackPoint) points.nextElement();
-					w.write("\t\t\t<trkpt lat=\"");
-					w.write(String.valueOf(point.getLatitude()));
-					w.write("\" lon=\"");
-					w.write(String.valueOf(point.getLongitude()));
-					w.write("\"><ele>");
-					w.write(String.valueOf(point.getElevation()));
-					w.write("</ele><time>");
-					w.write(Utils.dateToXmlDateTime(new Date(point.getTimestamp())));
-					w.write("</time>");
-					if (point.getName() != null) {
-						w.write("<name>");
-						w.write(Utils.escapeXml(point.getName()));
-						w.write("</name>");
+			final TrackPoint point = cursor.getPoint();
+			boolean inSegment = false;
+			while (cursor.next()) {
+				if (cursor.isNewSegment()) {
+					if (inSegment) {
+						w.write("\t\t</trkseg>\n");
 					}
-					w.write("</trkpt>\n");
+					w.write("\t\t<trkseg>\n");
+					inSegment = true;
 				}
+				w.write("\t\t\t<trkpt lat=\"");
+				w.write(String.valueOf(point.getLatitude()));
+				w.write("\" lon=\"");
+				w.write(String.valueOf(point.getLongitude()));
+				w.write("\"><ele>");
+				w.write(String.valueOf(point.getElevation()));
+				w.write("</ele><time>");
+				w.write(Utils.dateToXmlDateTime(new Date(point.getTimestamp())));
+				w.write("</time>");
+				if (point.getName() != null) {
+					w.write("<name>");
+					w.write(Utils.escapeXml(point.getName()));
+					w.write("</name>");
+				}
+				w.write("</trkpt>\n");
+			}
+			if (inSegment) {
 				w.write("\t\t</trkseg>\n");
 			}
 			w.write("\t</trk>\n</gpx>");
+			// report write errors, close() ignores them
+			w.flush();
 		} finally {
+			if (cursor != null) {
+				try {
+					cursor.close();
+				} catch (final IOException ignored) {
+					// ignore
+				}
+			}
 			if (w != null) {
 				try {
 					w.close();
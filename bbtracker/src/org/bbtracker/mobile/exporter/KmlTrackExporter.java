@@ -23,11 +23,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Date;
-import java.util.Enumeration;
 
-import org.bbtracker.Track;
+import org.bbtracker.TrackCursor;
 import org.bbtracker.TrackPoint;
-import org.bbtracker.TrackSegment;
+import org.bbtracker.TrackSource;
+import org.bbtracker.TrackStatistics;
+import org.bbtracker.TrackStoreException;
 import org.bbtracker.UnitConverter;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.Preferences;
@@ -46,24 +47,30 @@ public class KmlTrackExporter implements TrackExporter {
 		return ".kml";
 	}
 
-	public void export(final OutputStream out, final Track track) throws IOException {
+	public void export(final OutputStream out, final TrackSource source) throws IOException, TrackStoreException {
+		final TrackStatistics statistics = source.getStatistics();
 		Writer w = null;
+		TrackCursor cursor = null;
 		try {
-			final String xmlName = Utils.escapeXml(track.getName());
+			final String xmlName = Utils.escapeXml(source.getName());
 			// Added 2007 SIB
 			final UnitConverter unit = Preferences.getInstance().getUnitsConverter();
-			final String lengthString = unit.distanceToString(track.getLength());
+			final String lengthString = unit.distanceToString(statistics.getLength());
 			final String timeString;
-			if (track.getPointCount() > 0) {
-				final TrackPoint lastPoint = track.getPoint(track.getPointCount() - 1);
-				final long duration = track.getPointOffset(lastPoint);
-				timeString = Utils.durationToString(duration);
+			final String movingTimeString;
+			if (statistics.getPointCount() > 0) {
+				timeString = Utils.durationToString(statistics.getDuration());
+				movingTimeString = Utils.durationToString(statistics.getMovingTime());
 			} else {
 				timeString = "-";
+				movingTimeString = "-";
 			}
-			final String maxElevString = unit.elevationToString(track.getMaxElevation());
-			final String minElevString = unit.elevationToString(track.getMinElevation());
-			final String maxSpeedString = unit.speedToString(track.getMaxSpeed());
+			final String maxElevString = unit.elevationToString(statistics.getMaxElevation());
+			final String minElevString = unit.elevationToString(statistics.getMinElevation());
+			final String ascentString = unit.elevationToString(statistics.getAscent());
+			final String descentString = unit.elevationToString(statistics.getDescent());
+			final String maxSpeedString = unit.speedToString(statistics.getMaxSpeed());
+			final String movingSpeedString = unit.speedToString(statistics.getAverageMovingSpeed());
 
 			w = new OutputStreamWriter(out, "UTF-8");
 			w.write(XML_HEADER);
@@ -81,85 +88,107 @@ public class KmlTrackExporter implements TrackExporter {
 			w.write("<tr><td><b>Total Time: </b>");
 			w.write(timeString);
 			w.write("</td></tr>\n");
+			w.write("<tr><td><b>Moving Time: </b>");
+			w.write(movingTimeString);
+			w.write("</td></tr>\n");
 			w.write("<tr><td><b>Max Speed: </b>");
 			w.write(maxSpeedString);
 			w.write("</td></tr>\n");
+			w.write("<tr><td><b>Avg Moving Speed: </b>");
+			w.write(movingSpeedString);
+			w.write("</td></tr>\n");
 			w.write("<tr><td><b>Max Elevation: </b>");
 			w.write(maxElevString);
 			w.write("</td></tr>\n");
 			w.write("<tr><td><b>Min Elevation: </b>");
 			w.write(minElevString);
 			w.write("</td></tr>\n");
+			w.write("<tr><td><b>Ascent: </b>");
+			w.write(ascentString);
+			w.write("</td></tr>\n");
+			w.write("<tr><td><b>Descent: </b>");
+			w.write(descentString);
+			w.write("</td></tr>\n");
+			if (statistics.getMaxHeartRate() > 0) {
+				w.write("<tr><td><b>Heart Rate: </b>");
+				w.write(Utils.heartRateToString(statistics.getAverageHeartRate()));
+				w.write(" (");
+				w.write(Utils.heartRateToString(statistics.getMinHeartRate()));
+				w.write("-");
+				w.write(Utils.heartRateToString(statistics.getMaxHeartRate()));
+				w.write(")</td></tr>\n");
+			}
 			w.write(")</table>]]></description>\n");
 
 			w.write(STYLE_TAG);
 
-			boolean hasNamedPoints = false;
-			Enumeration segments = track.getSegments();
-			int segmentNumber = 0;
-			while (segments.hasMoreElements()) {
-				segmentNumber++;
-				final String s = String.valueOf(segmentNumber);
-				w.write("\t<Placemark id=\"segment");
-				w.write(s);
-				w.write("\">\n\t\t<name>segment ");
-				w.write(s);
-				w.write("</name>\n");
-				w.write("\t\t<visibility>1</visibility>\n");
-				w.write("\t\t<styleUrl>#");
-				w.write(TRACK_STYLE_NAME);
-				w.write("</styleUrl>\n");
-
-				w.write("\t\t<LineString>\n\t\t\t<coordinates>\n");
-				final TrackSegment segment = (TrackSegment) segments.nextElement();
-				final Enumeration points = segment.getPoints();
-				boolean first = true;
-				while (points.hasMoreElements()) {
-					final TrackPoint point = (TrackPoint) points.nextElement();
-					hasNamedPoints = hasNamedPoints || point.getName() != null;
-					if (first) {
-						first = false;
-					} else {
-						w.write(' ');
+			cursor = source.openCursor();
+			TrackPoint point = cursor.getPoint();
+			while (cursor.next()) {
+				if (cursor.isNewSegment()) {
+					if (cursor.getSegmentIndex() > 0) {
+						w.write("\n\t\t\t</coordinates>\n\t\t</LineString>\n\t</Placemark>\n");
 					}
-					writePoint(w, point);
+					final String s = String.valueOf(cursor.getSegmentIndex() + 1);
+					w.write("\t<Placemark id=\"segment");
+					w.write(s);
+					w.write("\">\n\t\t<name>segment ");
+					w.write(s);
+					w.write("</name>\n");
+					w.write("\t\t<visibility>1</visibility>\n");
+					w.write("\t\t<styleUrl>#");
+					w.write(TRACK_STYLE_NAME);
+					w.write("</styleUrl>\n");
+
+					w.write("\t\t<LineString>\n\t\t\t<coordinates>\n");
+				} else {
+					w.write(' ');
 				}
+				writePoint(w, point);
+			}
+			if (cursor.getSegmentIndex() >= 0) {
+				w.write("\n\t\t\t</coordinates>\n\t\t</LineString>\n\t</Placemark>\n");
 			}
-			w.write("\n\t\t\t</coordinates>\n\t\t</LineString>\n\t</Placemark>\n");
+			cursor.close();
 
 			w
 					.write("\t<Folder id=\"trackpoints\">\n\t\t<name>Track points with timestamps</name>\n\t\t<visibility>1</visibility>\n\t\t<open>0</open>\n");
-			segments = track.getSegments();
-			while (segments.hasMoreElements()) {
-				final TrackSegment segment = (TrackSegment) segments.nextElement();
-				final Enumeration points = segment.getPoints();
-				while (points.hasMoreElements()) {
-					final TrackPoint point = (TrackPoint) points.nextElement();
-					w.write("\t\t<Placemark id=\"tp");
-					w.write(String.valueOf(point.getIndex()));
-					w.write("\">");
-					String v;
-					if (point.getName() != null) {
-						w.write("<name>");
-						w.write(Utils.escapeXml(point.getName()));
-						w.write("</name>");
-						v = "1";
-					} else {
-						v = "0";
-					}
-					w.write("<visibility>");
-					w.write(v);
-					w.write("</visibility>\n");
-					w.write("\t\t\t<TimeStamp><when>");
-					w.write(Utils.dateToXmlDateTime(new Date(point.getTimestamp())));
-					w.write("</when></TimeStamp><Point><coordinates>");
-					writePoint(w, point);
-					w.write("</coordinates></Point>\n\t\t</Placemark>\n");
+			cursor = source.openCursor();
+			point = cursor.getPoint();
+			while (cursor.next()) {
+				w.write("\t\t<Placemark id=\"tp");
+				w.write(String.valueOf(point.getIndex()));
+				w.write("\">");
+				String v;
+				if (point.getName() != null) {
+					w.write("<name>");
+					w.write(Utils.escapeXml(point.getName()));
+					w.write("</name>");
+					v = "1";
+				} else {
+					v = "0";
 				}
+				w.write("<visibility>");
+				w.write(v);
+				w.write("</visibility>\n");
+				w.write("\t\t\t<TimeStamp><when>");
+				w.write(Utils.dateToXmlDateTime(new Date(point.getTimestamp())));
+				w.write("</when></TimeStamp><Point><coordinates>");
+				writePoint(w, point);
+				w.write("</coordinates></Point>\n\t\t</Placemark>\n");
 			}
 			w.write("\t</Folder>");
 			w.write("\n</Document>\n</kml>");
+			// report write errors, close() ignores them
+			w.flush();
 		} finally {
+			if (cursor != null) {
+				try {
+					cursor.close();
+				} catch (final IOException ignored) {
+					// ignore
+				}
+			}
 			if (w != null) {
 				try {
 					w.close();
@@ -20,10 +20,15 @@ package org.bbtracker.mobile.exporter;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.bbtracker.Track;
+import org.bbtracker.TrackSource;
+import org.bbtracker.TrackStoreException;
 
 public interface TrackExporter {
 	public String getExtension();
 
-	public void export(final OutputStream out, final Track track) throws IOException;
+	/**
+	 * Writes the track to <code>out</code>, reading it from <code>source</code> (possibly multiple times) instead of
+	 * loading it completely.
+	 */
+	public void export(final OutputStream out, final TrackSource source) throws IOException, TrackStoreException;
 }
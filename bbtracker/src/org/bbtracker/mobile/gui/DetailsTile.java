@@ -25,6 +25,7 @@ import javax.microedition.lcdui.Graphics;
 
 import org.bbtracker.Track;
 import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackStatistics;
 import org.bbtracker.UnitConverter;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.Preferences;
@@ -52,6 +53,10 @@ public class DetailsTile extends Tile {
 
 	private static final String SATELLITES_LABEL = "Satellites: ";
 
+	private static final String MOVING_LABEL = "Moving: ";
+
+	private static final String CLIMB_LABEL = "Climb: ";
+
 	private static final int MARGIN = 2;
 
 	private final TrackManager manager;
@@ -77,6 +82,8 @@ public class DetailsTile extends Tile {
 		updateLabelWidth(POINT_LABEL);
 		updateLabelWidth(NAME_LABEL);
 		updateLabelWidth(SATELLITES_LABEL);
+		updateLabelWidth(MOVING_LABEL);
+		updateLabelWidth(CLIMB_LABEL);
 	}
 
 	private void updateLabelWidth(final String label) {
@@ -162,6 +169,16 @@ public class DetailsTile extends Tile {
 		final String length = unit.distanceToString(lengthValue);
 		final String satellites = satellitesValue > 0 ? String.valueOf(satellitesValue) : "-";
 
+		String moving = "-";
+		String climb = "-";
+		if (track != null && track.getPointCount() > 0) {
+			final TrackStatistics statistics = track.getStatistics();
+			moving = Utils.durationToString(statistics.getMovingTime()) + " ("
+					+ unit.speedToString(statistics.getAverageMovingSpeed()) + ")";
+			climb = "+" + unit.elevationToString(statistics.getAscent()) + " -"
+					+ unit.elevationToString(statistics.getDescent());
+		}
+
 		final int fontHeight = font.getHeight();
 		final int x = MARGIN + labelWidth;
 		int y = MARGIN;
@@ -195,6 +212,12 @@ public class DetailsTile extends Tile {
 		y += fontHeight;
 		g.drawString(SATELLITES_LABEL, MARGIN, y, Graphics.TOP | Graphics.LEFT);
 		g.drawString(satellites, x, y, Graphics.TOP | Graphics.LEFT);
+		y += fontHeight * 2;
+		g.drawString(MOVING_LABEL, MARGIN, y, Graphics.TOP | Graphics.LEFT);
+		g.drawString(moving, x, y, Graphics.TOP | Graphics.LEFT);
+		y += fontHeight;
+		g.drawString(CLIMB_LABEL, MARGIN, y, Graphics.TOP | Graphics.LEFT);
+		g.drawString(climb, x, y, Graphics.TOP | Graphics.LEFT);
 	}
 
 	public void showNotify() {
@@ -33,12 +33,15 @@ import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.StringItem;
 import javax.microedition.lcdui.TextField;
 
+import org.bbtracker.ShadowMatcher;
 import org.bbtracker.Track;
 import org.bbtracker.TrackPoint;
 import org.bbtracker.TrackStoreException;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.BBTracker;
 import org.bbtracker.mobile.Log;
+import org.bbtracker.mobile.PersistenceListener;
+import org.bbtracker.mobile.PersistenceWorker;
 import org.bbtracker.mobile.Preferences;
 import org.bbtracker.mobile.TrackListener;
 import org.bbtracker.mobile.TrackManager;
@@ -50,6 +53,8 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 
 	private static final int MAX_TILES = 2;
 
+	private static final long ONE_MINUTE = 60 * 1000;
+
 	private final Tile[] visibleTiles = new Tile[MAX_TILES];
 
 	private final TrackManager manager;
@@ -280,6 +285,13 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 		repaint();
 	}
 
+	public void shadowMatched(final ShadowMatcher matcher) {
+		for (int i = 0; i < visibleTiles.length && visibleTiles[i] != null; i++) {
+			visibleTiles[i].shadowMatched(matcher);
+		}
+		repaint();
+	}
+
 	protected void updateState(final int newState) {
 		switch (newState) {
 		case TrackManager.STATE_STATIC:
@@ -385,7 +397,7 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 			// #ifndef AVOID_FILE_API
 		} else if (command == exportCommand) {
 			final Track track = manager.getTrack();
-			TracksForm.exportTrack(track, this);
+			TracksForm.exportTrack(manager, track, this);
 			// #endif
 		} else {
 			final Displayable nextDisplayable;
@@ -406,12 +418,8 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 
 						public void commandAction(final Command cmd, final Displayable current) {
 							if (cmd == startNewTrack) {
-								try {
-									manager.saveTrack();
-									BBTracker.getDisplay().setCurrent(nextDisplayable);
-								} catch (final TrackStoreException e) {
-									TrackManager.showSaveFailedAlert(e, MainCanvas.this);
-								}
+								manager.saveTrack(new SaveListener());
+								BBTracker.getDisplay().setCurrent(nextDisplayable);
 							} else {
 								BBTracker.getDisplay().setCurrent(MainCanvas.this);
 							}
@@ -428,12 +436,7 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 					return;
 				}
 			} else if (command == stopTrackingCommand) {
-				try {
-					manager.saveTrack();
-				} catch (final TrackStoreException e) {
-					TrackManager.showSaveFailedAlert(e, MainCanvas.this);
-					return;
-				}
+				manager.saveTrack(new SaveListener());
 				nextDisplayable = this;
 			} else {
 				Log.log(this, "Unknown command: " + command + " <" + command.getLabel() + "/" + command.getLongLabel()
@@ -460,27 +463,18 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 			public void commandAction(final Command cmd, final Displayable current) {
 				if (cmd == quitCommand) {
 					if (isTracking) {
-						try {
-							manager.saveTrack();
-						} catch (final TrackStoreException e) {
-							final Alert saveFailedAlert = new Alert("Failed to save track!", "Failed to safe track:\n"
-									+ e.getMessage(), null, AlertType.ERROR);
-							final Command quitAnywayCommand = new Command("Quit", "Quit anyway", Command.OK, 1);
-							saveFailedAlert
-									.addCommand(new Command("Cancel", "Return to Main Screen", Command.CANCEL, 0));
-							saveFailedAlert.addCommand(quitAnywayCommand);
-							saveFailedAlert.setCommandListener(new CommandListener() {
-								public void commandAction(final Command cmd, final Displayable displayable) {
-									if (cmd == quitAnywayCommand) {
-										BBTracker.getInstance().shutdown(true);
-									} else {
-										BBTracker.getInstance().showMainCanvas();
-									}
+						// quit once the track has been saved
+						manager.saveTrack(new SaveListener() {
+							public void finished(final PersistenceWorker.Request request, final Exception error) {
+								if (error == null) {
+									BBTracker.getInstance().shutdown(true);
+								} else {
+									showQuitAnywayAlert(error);
 								}
-							});
-							BBTracker.alert(saveFailedAlert, null);
-							return;
-						}
+							}
+						});
+						BBTracker.getDisplay().setCurrent(MainCanvas.this);
+						return;
 					}
 					BBTracker.getInstance().shutdown(true);
 				} else {
@@ -491,6 +485,24 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 		BBTracker.alert(alert, this);
 	}
 
+	private void showQuitAnywayAlert(final Exception e) {
+		final Alert saveFailedAlert = new Alert("Failed to save track!", "Failed to safe track:\n" + e.getMessage(),
+				null, AlertType.ERROR);
+		final Command quitAnywayCommand = new Command("Quit", "Quit anyway", Command.OK, 1);
+		saveFailedAlert.addCommand(new Command("Cancel", "Return to Main Screen", Command.CANCEL, 0));
+		saveFailedAlert.addCommand(quitAnywayCommand);
+		saveFailedAlert.setCommandListener(new CommandListener() {
+			public void commandAction(final Command cmd, final Displayable displayable) {
+				if (cmd == quitAnywayCommand) {
+					BBTracker.getInstance().shutdown(true);
+				} else {
+					BBTracker.getInstance().showMainCanvas();
+				}
+			}
+		});
+		BBTracker.alert(saveFailedAlert, null);
+	}
+
 	private void markPointAction() {
 		String errorMessage = null;
 		final TrackPoint p = manager.getCurrentPoint();
@@ -650,6 +662,20 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 			// last
 			manager.changeToLastPoint();
 			break;
+		case 'b':
+		case '1':
+			manager.changeCurrentPointByTime(-ONE_MINUTE);
+			break;
+		case 'f':
+		case '5':
+			manager.changeCurrentPointByTime(ONE_MINUTE);
+			break;
+		case '*':
+			manager.changeCurrentPointByTime(-10 * ONE_MINUTE);
+			break;
+		case '#':
+			manager.changeCurrentPointByTime(10 * ONE_MINUTE);
+			break;
 		case 'x':
 		case '8':
 			markPointAction();
@@ -714,6 +740,24 @@ public class MainCanvas extends Canvas implements TrackListener, CommandListener
 		repaint();
 	}
 
+	/**
+	 * Shows the progress of saving a track in the status message.
+	 */
+	private class SaveListener implements PersistenceListener {
+		public void progress(final PersistenceWorker.Request request, final int percent) {
+			setStatusMessage("Saving " + percent + "%", -1);
+		}
+
+		public void finished(final PersistenceWorker.Request request, final Exception error) {
+			if (error == null) {
+				setStatusMessage("Track saved");
+			} else {
+				setStatusMessage("Saving failed");
+				TrackManager.showSaveFailedAlert(error, MainCanvas.this);
+			}
+		}
+	}
+
 	private class RepaintTask extends TimerTask {
 		public void run() {
 			MainCanvas.this.repaint();
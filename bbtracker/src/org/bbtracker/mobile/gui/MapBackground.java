@@ -23,7 +23,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.microedition.io.Connector;
@@ -31,9 +30,14 @@ import javax.microedition.io.file.FileConnection;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
+import org.bbtracker.BlockInputStream;
+import org.bbtracker.BlockOutputStream;
+import org.bbtracker.LruCache;
 import org.bbtracker.MathUtil;
+import org.bbtracker.TilePack;
 import org.bbtracker.mobile.CompactStream;
 import org.bbtracker.mobile.Log;
+import org.bbtracker.mobile.Preferences;
 import org.bbtracker.mobile.config.ConfigFile;
 
 /**
@@ -80,8 +84,20 @@ public final class MapBackground implements Runnable {
 	/** Progress bar dimension. */
 	private static final int PROGRESS_BAR_WIDTH = 200;
 
-	/** Number of tiles cached. */
-	private static final int MAX_TILES_CACHED = 10;
+	/** Maximum number of tiles cached, the memory they need is limited separately. */
+	private static final int MAX_TILES_CACHED = 256;
+
+	/** Memory needed for a pixel of a decoded tile. */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	/** Tiles the viewport will enter within this many seconds are loaded ahead. */
+	private static final int PREFETCH_SECONDS = 30;
+
+	/** Below this speed in m/s the course is too unreliable to prefetch. */
+	private static final float MIN_PREFETCH_SPEED = 0.5f;
+
+	/** Length of a degree of longitude at the equator. */
+	private static final double METERS_PER_DEGREE = 111319.49;
 
 	/** Constant for loading progress state. */
 	private static final int STATE_INDEX = 0;
@@ -113,8 +129,8 @@ public final class MapBackground implements Runnable {
 	/** Tile height in pixels. */
 	private int tileHeight;
 
-	/** Hashtable of tileNumber = Tile. */
-	private final Hashtable tileCache = new Hashtable();
+	/** Cache of tileNumber = Tile, limited by the memory of the decoded images. */
+	private final LruCache tileCache = new LruCache(0, MAX_TILES_CACHED);
 
 	/** Mutex to notify missing images. */
 	private final Object tileLoadMutex = new Object();
@@ -164,7 +180,7 @@ public final class MapBackground implements Runnable {
 	/** Filename to the map description file. */
 	private String mapDescriptionUrl;
 
-	/** Index in tar file. */
+	/** Index in tar file (or the directory of the tile pack). */
 	private int[] tarFileIndex;
 
 	/** Index in tar file. */
@@ -176,12 +192,21 @@ public final class MapBackground implements Runnable {
 	/** tar file kept open. */
 	private InputStream tarFileInputStream;
 
-	/** name of the tar file. */
+	/** name of the tar file or of the tile pack. */
 	private String tarFileName;
 
+	/** True if tarFileName is a tile pack. */
+	private boolean packed;
+
+	/** Zoom level of this map in the tile pack. */
+	private int packZoom;
+
 	/** directory holding tar file. */
 	private String tarFileDirectory;
 
+	/** Predicts the tiles ahead of the current motion. */
+	private TilePrefetcher prefetcher;
+
 	/** Loading progress state (see STATE_*). */
 	private volatile int queueState;
 
@@ -199,8 +224,11 @@ public final class MapBackground implements Runnable {
 		/** Image (or null if not yet loaded). */
 		private Image image;
 
-		/** lastUse time (for flushing). */
-		private long lastUse;
+		/** True if the tile isn't visible yet, but predicted to become visible. */
+		private boolean prefetch;
+
+		/** True if the tile is in the centre of the screen. */
+		private boolean center;
 
 		/**
 		 * Construct.
@@ -236,17 +264,6 @@ public final class MapBackground implements Runnable {
 			}
 		}
 
-		/**
-		 * Compare LTU.
-		 * 
-		 * @param tile
-		 *            tile
-		 * @return true if this is older than tile param
-		 */
-		public boolean older(final Tile tile) {
-			return lastUse < tile.lastUse;
-		}
-
 		/**
 		 * @return Filename of the tile.
 		 */
@@ -294,6 +311,12 @@ public final class MapBackground implements Runnable {
 		self.baseFileName = config.get("baseFileName");
 		self.tarFileDirectory = baseDir;
 		self.tarFileName = config.get("tarFileName");
+		final String packFileName = config.get("packFileName");
+		if (packFileName != null) {
+			self.tarFileName = packFileName;
+			self.packed = true;
+			self.packZoom = config.getInteger("zoomLevel", 0);
+		}
 		self.longDiff = config.getDouble("longDiff", Double.NaN);
 		self.latDiff = config.getDouble("latDiff", Double.NaN);
 		self.maxTileX = config.getInteger("maxTileX", 0);
@@ -315,6 +338,8 @@ public final class MapBackground implements Runnable {
 		self.scaleY = self.scaleX;
 		self.mapOffsetLong = config.getDouble("mapOffsetLong", 0);
 		self.mapOffsetLat = config.getDouble("mapOffsetLat", 0);
+		self.prefetcher = new TilePrefetcher(self.tileWidth, self.tileHeight, self.maxTileX / self.tileWidth,
+				self.maxTileY / self.tileHeight, PREFETCH_SECONDS);
 
 		return self;
 	}
@@ -399,31 +424,88 @@ public final class MapBackground implements Runnable {
 
 		final Vector missingImages = new Vector();
 
-		final long time = System.currentTimeMillis();
-
 		final int firstX = -offX / tileWidth;
 		final int firstY = -offY / tileHeight;
 
 		final int halfWidth = width >> 1;
 		final int halfHeight = height >> 1;
+		int visibleTiles = 0;
 		for (int x = firstX; offX + x * tileWidth < width; x++) {
 			for (int y = firstY; offY + y * tileHeight < height; y++) {
 				final int px = offX + x * tileWidth;
 				final int py = offY + y * tileHeight;
 				final boolean center = px < halfWidth && px + tileWidth > halfWidth && py < halfHeight
 						&& py + tileHeight > halfHeight;
-				paintMapTile(g, missingImages, time, x, px, y, py, center);
+				paintMapTile(g, missingImages, x, px, y, py, center);
+				visibleTiles++;
 			}
 		}
+		final boolean missingImage = !missingImages.isEmpty();
+		// visible tiles come first, so prefetching never delays them
+		addPrefetchTiles(missingImages, -offX, -offY, width, height, visibleTiles);
 		synchronized (tileLoadMutex) {
 			tileLoadQueue = missingImages;
 			tileLoadMutex.notify();
 		}
-		return !missingImages.isEmpty();
+		return missingImage;
+	}
+
+	/**
+	 * Queue the tiles the viewport will enter soon, as far as they fit into the cache next to the visible ones.
+	 */
+	private void addPrefetchTiles(final Vector loadQueue, final int left, final int top, final int width,
+			final int height, final int visibleTiles) {
+		final int tileBytes = tileWidth * tileHeight * BYTES_PER_PIXEL;
+		final int room = Math.min(tileCache.getBudget() / tileBytes, MAX_TILES_CACHED) - visibleTiles;
+		final int[] tiles = prefetcher.getTiles(left, top, width, height, room);
+		for (int i = 0; i < tiles.length; i++) {
+			if (!tileCache.containsKey(tiles[i])) {
+				final Tile tile = new Tile(tiles[i]);
+				tile.prefetch = true;
+				loadQueue.addElement(tile);
+			}
+		}
+	}
+
+	/**
+	 * Set the motion of the current point, used to load the tiles ahead. Tiles queued for the previous heading are
+	 * dropped when it changes.
+	 * 
+	 * @param latitude
+	 *            latitude of the current point
+	 * @param course
+	 *            course in degrees
+	 * @param speed
+	 *            speed in m/s
+	 */
+	public void setMotion(final double latitude, final float course, final float speed) {
+		double pixelsPerSecond = 0;
+		if (speed >= MIN_PREFETCH_SPEED) {
+			final double metersPerDegree = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+			pixelsPerSecond = speed * scaleX / (CIRCLE_DEGREE * metersPerDegree);
+		}
+		if (prefetcher.setMotion(course, pixelsPerSecond)) {
+			cancelPrefetch();
+		}
+	}
+
+	/** Remove all prefetched tiles from the load queue. */
+	private void cancelPrefetch() {
+		synchronized (tileLoadMutex) {
+			final Vector queue = new Vector();
+			final Enumeration e = tileLoadQueue.elements();
+			while (e.hasMoreElements()) {
+				final Tile tile = (Tile) e.nextElement();
+				if (!tile.prefetch) {
+					queue.addElement(tile);
+				}
+			}
+			tileLoadQueue = queue;
+		}
 	}
 
-	private void paintMapTile(final Graphics g, final Vector missingImages, final long time, final int x,
-			final int startX, final int y, final int startY, final boolean center) {
+	private void paintMapTile(final Graphics g, final Vector missingImages, final int x, final int startX,
+			final int y, final int startY, final boolean center) {
 		if (x < maxTileX / tileWidth && y < maxTileY / tileHeight) {
 			final int fileNumber = x * (maxTileY / tileHeight) + y;
 			final Image img = getTileImage(fileNumber);
@@ -431,8 +513,8 @@ public final class MapBackground implements Runnable {
 				g.drawImage(img, startX, startY, Graphics.TOP | Graphics.LEFT);
 			} else {
 				final Tile newTile = new Tile(fileNumber);
-				newTile.lastUse = time;
 				if (center) {
+					newTile.center = true;
 					missingImages.insertElementAt(newTile, 0);
 				} else {
 					missingImages.addElement(newTile);
@@ -529,9 +611,14 @@ public final class MapBackground implements Runnable {
 		while (!stopLoadThread) {
 			queueState = STATE_DONE;
 			queueProgress = -1;
-			final Tile tile = getNextTileInLoadQueue();
-			if (tile != null && tile.image == null && !tileCache.containsKey(new Integer(tile.fileNumber))) {
-				readTile(tile);
+			final Vector tiles = getNextTilesInLoadQueue();
+			if (tiles.size() > 1) {
+				readTarTiles(tiles);
+			} else if (tiles.size() == 1) {
+				final Tile tile = (Tile) tiles.firstElement();
+				if (tile.image == null && !tileCache.containsKey(tile.fileNumber)) {
+					readTile(tile);
+				}
 			}
 		}
 	}
@@ -550,18 +637,18 @@ public final class MapBackground implements Runnable {
 		Log.log(this, "LoadQueue: " + str.toString());
 	}
 
-	/** Show tile list in the cache. */
+	/** Show tile list in the cache, most recently used first, and its statistics. */
 	public void dumpCache() {
-		final Enumeration e = tileCache.keys();
+		final int[] keys = tileCache.getKeys();
 		final StringBuffer str = new StringBuffer();
-		while (e.hasMoreElements()) {
-			final int n = ((Integer) e.nextElement()).intValue();
-			str.append(n);
-			if (e.hasMoreElements()) {
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) {
 				str.append(',');
 			}
+			str.append(keys[i]);
 		}
 		Log.log(this, "Cache   : " + str.toString());
+		Log.log(this, "Cache   : " + tileCache);
 	}
 
 	/**
@@ -580,7 +667,7 @@ public final class MapBackground implements Runnable {
 			if (tarFileName == null) {
 				final String filename = tile.getFileName();
 				connection = (FileConnection) Connector.open("file:///" + filename, Connector.READ);
-				in = connection.openInputStream();
+				in = new BlockInputStream(connection.openInputStream());
 			} else {
 				in = getTarInput(tile.fileNumber);
 			}
@@ -595,10 +682,7 @@ public final class MapBackground implements Runnable {
 			queueState = STATE_ERROR;
 			Log.log(this, e, "loading Map Tile " + tile.fileNumber);
 		} finally {
-			tileCache.put(new Integer(tile.fileNumber), tile);
-			while (tileCache.size() > MAX_TILES_CACHED) {
-				removeOldest();
-			}
+			cacheTile(tile);
 			if (tarFileName == null) {
 				try {
 					if (in != null) {
@@ -615,7 +699,8 @@ public final class MapBackground implements Runnable {
 					Log.log(this, e, "closing Map Tile " + tile.fileNumber);
 				}
 			} else {
-				if (in != null && !in.markSupported()) {
+				// the tar stream is kept open if it can be rewound
+				if (tarFileInputStream != null && !tarFileInputStream.markSupported()) {
 					closeTarInputStream();
 				}
 			}
@@ -623,33 +708,126 @@ public final class MapBackground implements Runnable {
 	}
 
 	/**
-	 * Open tar file if necessary and skip to the index.
+	 * Put a tile into the cache. Failed tiles are cached as well, so that they are not loaded again and again.
 	 * 
-	 * @param fileNumber
-	 *            tile index
-	 * @return input stream or null if error
+	 * @param tile
+	 *            loaded tile
 	 */
-	private synchronized InputStream getTarInput(final int fileNumber) {
-		InputStream is;
+	private void cacheTile(final Tile tile) {
+		final int cost = tile.image == null ? 0 : tile.image.getWidth() * tile.image.getHeight() * BYTES_PER_PIXEL;
+		tileCache.put(tile.fileNumber, tile, cost);
+	}
 
-		is = tarFileInputStream;
-		if (is == null) {
-			try {
-				is = openTarFileAndReadIndex();
-				tarFileInputStream = is;
-			} catch (final Exception e) {
-				Log.log(this, e, "opening Tar Tile " + tarFileName);
-				if (is != null) {
+	/**
+	 * Read a batch of tiles from the tar file in one forward sweep. The centre tile is read first, the others in the
+	 * order of their offsets, so the tar stream is rewound at most once instead of once per tile.
+	 * 
+	 * @param batch
+	 *            tiles to read, the centre tile first
+	 */
+	private synchronized void readTarTiles(final Vector batch) {
+		InputStream is = getTarStream();
+		if (is == null || tarFileIndex == null) {
+			// can't sweep, let readTile handle the error for each tile
+			for (int i = 0; i < batch.size(); i++) {
+				readTile((Tile) batch.elementAt(i));
+			}
+			return;
+		}
+
+		final int count = batch.size();
+		final int[] tiles = new int[count];
+		for (int i = 0; i < count; i++) {
+			tiles[i] = ((Tile) batch.elementAt(i)).fileNumber;
+		}
+		TileSweep.order(tiles, count, tarFileIndex, ((Tile) batch.firstElement()).center);
+
+		queueState = STATE_READING;
+		queueTotal = count;
+		long position = 0;
+		long skipped = 0;
+		int loaded = 0;
+		try {
+			if (is.markSupported()) {
+				is.reset();
+			}
+			for (int i = 0; i < count && !stopLoadThread; i++) {
+				queueProgress = i;
+				repaintQueueState();
+				final Tile tile = new Tile(tiles[i]);
+				final int offset = tarFileIndex[tile.fileNumber];
+				final int size = tarFileSize[tile.fileNumber];
+				if (size != 0) {
+					if (offset < position) {
+						if (is.markSupported()) {
+							is.reset();
+						} else {
+							closeTarInputStream();
+							is = getTarStream();
+							if (is == null) {
+								break;
+							}
+						}
+						position = 0;
+					}
+					skipFully(is, offset - position);
+					skipped += offset - position;
+					final CompactStream in = new CompactStream(is, size);
 					try {
-						is.close();
-					} catch (final IOException e1) {
-						// ignored
-						Log.log(this, e, "closing Tar Tile after error");
+						tile.image = Image.createImage(in);
+						loaded++;
+					} catch (final Throwable e) {
+						Log.log(this, e, "loading Map Tile " + tile.fileNumber);
 					}
+					position = offset + in.getNRead();
 				}
-				is = null;
+				cacheTile(tile);
+				repaint();
+			}
+		} catch (final IOException e) {
+			queueState = STATE_ERROR;
+			Log.log(this, e, "skipping in Tar Tile " + tarFileName);
+			closeTarInputStream();
+		}
+		if (tarFileInputStream != null && !tarFileInputStream.markSupported()) {
+			closeTarInputStream();
+		}
+		Log.log(this, "Tile sweep: " + loaded + "/" + count + " tiles, " + skipped + " bytes skipped");
+	}
+
+	/**
+	 * Skip exactly n bytes.
+	 * 
+	 * @param is
+	 *            input stream
+	 * @param n
+	 *            number of bytes
+	 * @throws IOException
+	 *             at the end of the stream
+	 */
+	private static void skipFully(final InputStream is, final long n) throws IOException {
+		long left = n;
+		while (left > 0) {
+			final long skipped = is.skip(left);
+			if (skipped > 0) {
+				left -= skipped;
+			} else if (is.read() == -1) {
+				throw new IOException("end of tar file");
+			} else {
+				left--;
 			}
 		}
+	}
+
+	/**
+	 * Open tar file if necessary and skip to the index.
+	 * 
+	 * @param fileNumber
+	 *            tile index
+	 * @return input stream or null if error
+	 */
+	private synchronized InputStream getTarInput(final int fileNumber) {
+		InputStream is = getTarStream();
 
 		if (is != null && tarFileIndex != null && tarFileSize[fileNumber] != 0) {
 			try {
@@ -677,6 +855,33 @@ public final class MapBackground implements Runnable {
 		}
 	}
 
+	/**
+	 * Open tar file and read its index if not done yet.
+	 * 
+	 * @return tar file input stream or null if error
+	 */
+	private synchronized InputStream getTarStream() {
+		InputStream is = tarFileInputStream;
+		if (is == null) {
+			try {
+				is = openTarFileAndReadIndex();
+				tarFileInputStream = is;
+			} catch (final Exception e) {
+				Log.log(this, e, "opening Tar Tile " + tarFileName);
+				if (is != null) {
+					try {
+						is.close();
+					} catch (final IOException e1) {
+						// ignored
+						Log.log(this, e, "closing Tar Tile after error");
+					}
+				}
+				is = null;
+			}
+		}
+		return is;
+	}
+
 	/**
 	 * Open tar file and read its index if not stored.
 	 * 
@@ -691,7 +896,16 @@ public final class MapBackground implements Runnable {
 		if (markSupported) {
 			is.mark(Integer.MAX_VALUE);
 		}
-		if (tarFileIndex == null) {
+		if (tarFileIndex == null && packed) {
+			// the directory of a pack is read quickly, it isn't stored like a tar index
+			readPackDirectory(is);
+			if (markSupported) {
+				is.reset();
+			} else {
+				closeTarInputStream();
+				is = openTarFileInputStream();
+			}
+		} else if (tarFileIndex == null) {
 			readTarFileIndex();
 			if (tarFileIndex == null) {
 				readFileIndex(is);
@@ -707,6 +921,33 @@ public final class MapBackground implements Runnable {
 		return is;
 	}
 
+	/**
+	 * Read the directory of this map's level from the tile pack. Afterwards the tiles of the pack are read like those
+	 * of a tar file.
+	 * 
+	 * @param packStream
+	 *            stream at the start of the pack
+	 * @throws IOException
+	 *             if the pack can't be read or doesn't match the map
+	 */
+	private void readPackDirectory(final InputStream packStream) throws IOException {
+		final TilePack pack = TilePack.read(packStream);
+		final int level = pack.findLevel(packZoom);
+		if (level == -1) {
+			throw new IOException("zoom level " + packZoom + " not in tile pack");
+		}
+		if (pack.getColumns(level) != maxTileX / tileWidth || pack.getRows(level) != maxTileY / tileHeight
+				|| pack.getTileHeight(level) != tileHeight) {
+			throw new IOException("tile pack doesn't match map " + baseFileName);
+		}
+		final int nElements = (maxTileX / tileWidth) * (maxTileY / tileHeight);
+		final int[] fileIndex = new int[nElements];
+		final int[] fileSize = new int[nElements];
+		pack.readDirectory(packStream, TilePack.HEADER_SIZE, level, fileIndex, fileSize);
+		tarFileIndex = fileIndex;
+		tarFileSize = fileSize;
+	}
+
 	/**
 	 * open tar file.
 	 * 
@@ -719,7 +960,7 @@ public final class MapBackground implements Runnable {
 		final FileConnection file = (FileConnection) Connector.open("file:///" + tarFileDirectory + tarFileName,
 				Connector.READ);
 		tarFile = file;
-		is = file.openInputStream();
+		is = new BlockInputStream(file.openInputStream());
 		return is;
 	}
 
@@ -734,7 +975,7 @@ public final class MapBackground implements Runnable {
 				file.create();
 			}
 			try {
-				final DataOutputStream out = file.openDataOutputStream();
+				final DataOutputStream out = new DataOutputStream(new BlockOutputStream(file.openOutputStream()));
 
 				try {
 					out.writeInt(tarFileIndex.length);
@@ -777,7 +1018,7 @@ public final class MapBackground implements Runnable {
 		final String url = getTarFileIndexUrl();
 		try {
 			final FileConnection file = (FileConnection) Connector.open(url, Connector.READ);
-			final DataInputStream in = file.openDataInputStream();
+			final DataInputStream in = new DataInputStream(new BlockInputStream(file.openInputStream()));
 			try {
 				final int length = in.readInt();
 				tarIndex = new int[length];
@@ -961,18 +1202,21 @@ public final class MapBackground implements Runnable {
 	}
 
 	/**
-	 * Flush oldest tile from cache.
+	 * @return the memory the decoded tiles may use: the configured size or, by default, enough for two screens but
+	 *         not more than a quarter of the heap
 	 */
-	private void removeOldest() {
-		final Enumeration elements = tileCache.elements();
-		Tile oldest = (Tile) elements.nextElement();
-		while (elements.hasMoreElements()) {
-			final Tile tile = (Tile) elements.nextElement();
-			if (tile.older(oldest)) {
-				oldest = tile;
-			}
+	private int getTileCacheBudget() {
+		final int kilobytes = Preferences.getInstance().getTileCacheSize();
+		if (kilobytes > 0) {
+			return kilobytes * 1024;
+		}
+		final int tileBytes = tileWidth * tileHeight * BYTES_PER_PIXEL;
+		int screenTiles = 4;
+		if (mainCanvas != null) {
+			screenTiles = (mainCanvas.getWidth() / tileWidth + 2) * (mainCanvas.getHeight() / tileHeight + 2);
 		}
-		tileCache.remove(new Integer(oldest.fileNumber));
+		final long heapLimit = Runtime.getRuntime().totalMemory() / 4;
+		return (int) Math.max(screenTiles * tileBytes, Math.min(2L * screenTiles * tileBytes, heapLimit));
 	}
 
 	/**
@@ -1022,10 +1266,8 @@ public final class MapBackground implements Runnable {
 	 * @return tile image (or null if not in cache)
 	 */
 	private Image getTileImage(final int fileNumber) {
-		final Tile tile = (Tile) tileCache.get(new Integer(fileNumber));
-		final long time = System.currentTimeMillis();
+		final Tile tile = (Tile) tileCache.get(fileNumber);
 		if (tile != null) {
-			tile.lastUse = time;
 			return tile.image;
 		} else {
 			return null;
@@ -1035,9 +1277,10 @@ public final class MapBackground implements Runnable {
 	/**
 	 * Blocking call.
 	 * 
-	 * @return next tile to load
+	 * @return next tiles to load, more than one only from a tar file
 	 */
-	private Tile getNextTileInLoadQueue() {
+	private Vector getNextTilesInLoadQueue() {
+		final Vector tiles = new Vector();
 		synchronized (tileLoadMutex) {
 			if (tileLoadQueue.size() == 0) {
 				try {
@@ -1047,13 +1290,25 @@ public final class MapBackground implements Runnable {
 				}
 			}
 			if (tileLoadQueue.size() > 0) {
-				final Tile tile = (Tile) tileLoadQueue.firstElement();
+				final Tile first = (Tile) tileLoadQueue.firstElement();
 				tileLoadQueue.removeElementAt(0);
-				return tile;
-			} else {
-				return null;
+				if (!tileCache.containsKey(first.fileNumber)) {
+					tiles.addElement(first);
+				}
+				// from a tar file or a tile pack the visible (or the prefetched) tiles are read in one sweep
+				while (tarFileName != null && tileLoadQueue.size() > 0) {
+					final Tile tile = (Tile) tileLoadQueue.firstElement();
+					if (tile.prefetch != first.prefetch) {
+						break;
+					}
+					tileLoadQueue.removeElementAt(0);
+					if (!tileCache.containsKey(tile.fileNumber)) {
+						tiles.addElement(tile);
+					}
+				}
 			}
 		}
+		return tiles;
 	}
 
 	/** */
@@ -1068,6 +1323,7 @@ public final class MapBackground implements Runnable {
 
 	/** Start loading thread. */
 	public void start() {
+		tileCache.setBudget(getTileCacheBudget());
 		stopLoadThread = false;
 		new Thread(this).start();
 	}
@@ -1079,6 +1335,7 @@ public final class MapBackground implements Runnable {
 			tileLoadQueue.removeAllElements();
 			tileLoadMutex.notify();
 		}
+		Log.log(this, "Tile cache: " + tileCache);
 		tileCache.clear();
 		synchronized (this) {
 			closeTarInputStream();
@@ -1140,7 +1397,10 @@ public final class MapBackground implements Runnable {
 		if (directory != null) {
 			config.put("directory", directory);
 		}
-		if (tarFileName != null) {
+		if (packed) {
+			config.put("packFileName", tarFileName);
+			config.put("zoomLevel", packZoom);
+		} else if (tarFileName != null) {
 			config.put("tarFileName", tarFileName);
 		}
 		config.put("baseFileName", baseFileName);
@@ -78,6 +78,8 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 	// #ifndef AVOID_FILE_API
 	private final TextField mapDirectoryField;
 
+	private final TextField tileCacheField;
+
 	private final TextField trackDirectoryField;
 
 	private final TextField exportDirectoryField;
@@ -94,6 +96,8 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 
 	private final ChoiceGroup heartRateGroup;
 
+	private final ChoiceGroup compressionGroup;
+
 	public OptionsForm(final TrackManager trackManager) {
 		super("Options");
 
@@ -160,11 +164,19 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 		addCommand(browseMapCommand);
 		mapDirectoryField.setItemCommandListener(this);
 		addCommand(browseMapCommand);
+
+		tileCacheField = new TextField("Map tile cache in KB (0 = automatic): ", String.valueOf(pref
+				.getTileCacheSize()), 6, TextField.NUMERIC);
 		// #endif
 
 		heartRateGroup = new ChoiceGroup(null, Choice.MULTIPLE, new String[] { "Heartbeat detection enabled" }, null);
 		heartRateGroup.setSelectedIndex(0, pref.isHeartRateEnabled());
 
+		compressionGroup = new ChoiceGroup("Compression: ", Choice.MULTIPLE, new String[] { "Stored tracks",
+				"Exports (.bbz)" }, null);
+		compressionGroup.setSelectedIndex(0, pref.isCompressTracks());
+		compressionGroup.setSelectedIndex(1, pref.isCompressExports());
+
 		append(locationProviderGroup);
 		if (BBTracker.isBluetoothAvailable()) {
 			append(bluetoothNameField);
@@ -179,8 +191,10 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 		append(exportDirectoryField);
 		append(exportFormatGroup);
 		append(mapDirectoryField);
+		append(tileCacheField);
 		// #endif
 		append(heartRateGroup);
+		append(compressionGroup);
 
 		addCommand(GuiUtils.OK_COMMAND);
 		addCommand(GuiUtils.CANCEL_COMMAND);
@@ -342,6 +356,13 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 			pref.setExportDirectory(exportDirectoryField.getString());
 			Log.initLog();
 
+			try {
+				pref.setTileCacheSize(Integer.parseInt(tileCacheField.getString()));
+			} catch (final NumberFormatException e) {
+				// empty field
+				pref.setTileCacheSize(0);
+			}
+
 			for (int i = 0; i < Preferences.EXPORT_FORMATS.length; i++) {
 				pref.setExportFormat(i, exportFormatGroup.isSelected(i));
 			}
@@ -365,6 +386,9 @@ public class OptionsForm extends Form implements CommandListener, ItemCommandLis
 
 			pref.setHeartRateEnabled(heartRateGroup.isSelected(0));
 
+			pref.setCompressTracks(compressionGroup.isSelected(0));
+			pref.setCompressExports(compressionGroup.isSelected(1));
+
 			pref.store();
 		} catch (final RecordStoreException e) {
 			BBTracker.nonFatal(e, "storing preferences", null);
@@ -20,16 +20,16 @@ package org.bbtracker.mobile.gui;
 import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.Graphics;
 
+import org.bbtracker.ShadowMatcher;
 import org.bbtracker.Track;
 import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackStatistics;
 import org.bbtracker.UnitConverter;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.Preferences;
 import org.bbtracker.mobile.TrackManager;
 
 public class StatusTile extends Tile {
-	private static final int ONE_KILOMETER = 1000;
-
 	private final TrackManager manager;
 
 	/** Widget. */
@@ -55,16 +55,21 @@ public class StatusTile extends Tile {
 	/** Widget. */
 	private final MiniWidget widgetAverageTotal = new MiniWidget();
 	/** Widget. */
-	private final MiniWidget widgetAverageLastKm = new MiniWidget();
+	private final MiniWidget widgetAverageRecent = new MiniWidget();
 	/** Widget. */
 	private final MiniWidget widgetInclinationInstant = new MiniWidget();
 	/** Widget. */
-	private final MiniWidget widgetInclinationLastKm = new MiniWidget();
+	private final MiniWidget widgetInclinationRecent = new MiniWidget();
+	/** Widget: time gap and deviation relative to the shadow track. */
+	private final MiniWidget widgetShadow = new MiniWidget();
 
 	private final MiniWidget[] allWidgets = new MiniWidget[] { widgetLatitude, widgetLongitude, widgetSpeed,
 			widgetHeartRate, widgetDistance, widgetElevation, widgetOrientation, widgetOrientationArrow, widgetTime,
-			widgetPointIndex, widgetAverageLastKm, widgetAverageTotal, widgetInclinationInstant,
-			widgetInclinationLastKm };
+			widgetPointIndex, widgetAverageRecent, widgetAverageTotal, widgetInclinationInstant,
+			widgetInclinationRecent, widgetShadow };
+
+	/** Whether the shadow widget got a line in the last layout. */
+	private boolean shadowVisible;
 
 	public StatusTile(final TrackManager manager) {
 		this.manager = manager;
@@ -95,10 +100,11 @@ public class StatusTile extends Tile {
 		widgetPointIndex.setDimensionsForString("9999/9999");
 		widgetTime.setDimensionsForString("9:99:99");
 		widgetOrientationArrow.setOrientationWidth();
-		widgetAverageLastKm.setDimensionsForString(unit.getSpeedTemplate());
+		widgetAverageRecent.setDimensionsForString(unit.getSpeedTemplate());
 		widgetAverageTotal.setDimensionsForString(unit.getSpeedTemplate());
 		widgetInclinationInstant.setDimensionsForString(Utils.getInclinationTemplate());
-		widgetInclinationLastKm.setDimensionsForString(Utils.getInclinationTemplate());
+		widgetInclinationRecent.setDimensionsForString(Utils.getInclinationTemplate());
+		widgetShadow.setDimensionsForString("+9:99:99 " + unit.getDistanceTemplate());
 
 		// TODO: Do customization through preferences
 		final WidgetLayouter layouter = new WidgetLayouter();
@@ -108,10 +114,14 @@ public class StatusTile extends Tile {
 		// notused:
 		layouter.addLine(new Widget[] { widgetLatitude, widgetLongitude });
 		layouter.addLine(new Widget[] { widgetSpeed, widgetOrientationArrow, widgetElevation, widgetHeartRate,
-				widgetInclinationLastKm });
+				widgetInclinationRecent });
 		layouter.addLine(new Widget[] { widgetTime, widgetDistance, widgetPointIndex, widgetAverageTotal });
+		shadowVisible = manager.getExtraTrack() != null;
+		if (shadowVisible) {
+			layouter.addLine(new Widget[] { widgetShadow });
+		}
 		// layouter.addLine(new Widget[] { widgetAverageTotal,
-		// widgetAverageLastKm, widgetInclinationLastKm,
+		// widgetAverageRecent, widgetInclinationRecent,
 		// widgetInclinationInstant, });
 
 		return layouter.getY();
@@ -150,38 +160,30 @@ public class StatusTile extends Tile {
 			}
 		}
 		TrackPoint lastP = null;
-		TrackPoint lastKmP = null;
+		TrackStatistics statistics = null;
 		if (track != null) {
-			try {
+			if (pi > 0) {
 				lastP = track.getPoint(pi - 1);
-				for (int i = pi - 1; i > 0; i--) {
-					lastKmP = track.getPoint(i);
-					if (lengthValue - lastKmP.getDistance() >= ONE_KILOMETER) {
-						break;
-					}
+			}
+			if (pi != -1 && pi == track.getPointCount() - 1) {
+				statistics = track.getStatistics();
+				if (statistics.getPointCount() != pi + 1) {
+					// a point was added in between, the statistics don't describe this one
+					statistics = null;
 				}
-			} catch (final IndexOutOfBoundsException e) {
-				// ignore
 			}
 		}
-		final StringBuffer speedBuffer = new StringBuffer();
-		if (timeValue > 0 && lengthValue > 0) {
-			speedBuffer.append(" (avg:");
-			speedBuffer.append(unit.speedToString(timeValue, lengthValue));
-			speedBuffer.append(")");
-		}
 		widgetInclinationInstant.setText(Utils.inclinationToString(getInclination(elevationValue, lengthValue, lastP)));
-		widgetInclinationLastKm
-				.setText(Utils.inclinationToString(getInclination(elevationValue, lengthValue, lastKmP)));
-		String speedLastKm;
-		if (lastKmP != null) {
-			speedLastKm = unit.speedToString(timeValue - track.getPointOffset(lastKmP), lengthValue
-					- lastKmP.getDistance());
+		if (statistics != null) {
+			widgetInclinationRecent.setText(Utils.inclinationToString(statistics.getRecentInclination()));
+			widgetAverageRecent.setText(unit.speedToString(statistics.getRecentSpeed()));
+			widgetAverageTotal.setText(unit.speedToString(statistics.getDuration(), statistics.getLength()));
 		} else {
-			speedLastKm = "-km/h";
+			// the recent window only exists for the last point
+			widgetInclinationRecent.setText(Utils.inclinationToString(Double.NaN));
+			widgetAverageRecent.setText(unit.speedToString(Float.NaN));
+			widgetAverageTotal.setText(unit.speedToString(timeValue, lengthValue));
 		}
-		widgetAverageLastKm.setText(speedLastKm);
-		widgetAverageTotal.setText(unit.speedToString(timeValue, lengthValue));
 		widgetLongitude.setText(Utils.longitudeToString(lonValue));
 		widgetLatitude.setText(Utils.latitudeToString(latValue));
 		widgetOrientation.setText(Utils.courseToString(courseValue) + " " + Utils.courseToHeadingString(courseValue));
@@ -193,6 +195,16 @@ public class StatusTile extends Tile {
 		widgetDistance.setText(unit.distanceToString(lengthValue));
 		widgetTime.setText(timeValue == -1 ? "-" : Utils.durationToString(timeValue));
 		widgetPointIndex.setText(point);
+		widgetShadow.setText(getShadowText(manager.getShadowMatcher(), unit));
+	}
+
+	private static String getShadowText(final ShadowMatcher matcher, final UnitConverter unit) {
+		if (matcher == null || !matcher.isMatched()) {
+			return "-";
+		}
+		final long gap = matcher.getTimeGap();
+		final String sign = gap < 0 ? "-" : "+";
+		return sign + Utils.durationToString(Math.abs(gap)) + " " + unit.distanceToString(matcher.getDeviation());
 	}
 
 	private double getInclination(final float elevationValue, final double lengthValue, final TrackPoint lastP) {
@@ -210,7 +222,9 @@ public class StatusTile extends Tile {
 		update();
 
 		for (int i = 0; i < allWidgets.length; i++) {
-			allWidgets[i].paint(g);
+			if (allWidgets[i] != widgetShadow || shadowVisible) {
+				allWidgets[i].paint(g);
+			}
 		}
 	}
 
@@ -19,6 +19,7 @@ package org.bbtracker.mobile.gui;
 
 import javax.microedition.lcdui.Graphics;
 
+import org.bbtracker.ShadowMatcher;
 import org.bbtracker.TrackPoint;
 import org.bbtracker.mobile.TrackListener;
 
@@ -74,5 +75,9 @@ public abstract class Tile implements TrackListener {
 		// nothing
 	}
 
+	public void shadowMatched(final ShadowMatcher matcher) {
+		// nothing
+	}
+
 	public abstract void showNotify();
 }
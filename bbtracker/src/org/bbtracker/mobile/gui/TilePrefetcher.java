@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile.gui;
+
+/**
+ * Predicts which map tiles the viewport will enter within the next seconds when it keeps moving with the current
+ * course and speed. All coordinates are map pixels, with y pointing south.
+ */
+final class TilePrefetcher {
+	/** A change of course by more than this many degrees makes the prefetched tiles useless. */
+	static final double CANCEL_ANGLE = 30;
+
+	/** The path is sampled at most every this fraction of a tile. */
+	private static final int STEPS_PER_TILE = 2;
+
+	/** Upper limit for the number of samples along the path. */
+	private static final int MAX_STEPS = 64;
+
+	private final int tileWidth;
+
+	private final int tileHeight;
+
+	private final int tilesX;
+
+	private final int tilesY;
+
+	private final int horizon;
+
+	/** Course in degrees or NaN if not moving. */
+	private double course = Double.NaN;
+
+	private double pixelsPerSecond;
+
+	/**
+	 * @param horizon
+	 *            number of seconds to look ahead
+	 */
+	TilePrefetcher(final int tileWidth, final int tileHeight, final int tilesX, final int tilesY, final int horizon) {
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		this.horizon = horizon;
+	}
+
+	/**
+	 * Sets the current motion.
+	 * 
+	 * @param newCourse
+	 *            course in degrees, clockwise from north
+	 * @param newPixelsPerSecond
+	 *            speed, 0 or NaN if not moving
+	 * @return true if tiles predicted from the previous motion should be dropped, because the heading changed or the
+	 *         motion stopped
+	 */
+	synchronized boolean setMotion(final double newCourse, final double newPixelsPerSecond) {
+		final boolean moving = !Double.isNaN(newCourse) && newPixelsPerSecond > 0;
+		final boolean wasMoving = !Double.isNaN(course);
+		boolean cancel = wasMoving && !moving;
+		if (wasMoving && moving) {
+			double delta = Math.abs(newCourse - course) % 360;
+			if (delta > 180) {
+				delta = 360 - delta;
+			}
+			cancel = delta > CANCEL_ANGLE;
+		}
+		course = moving ? newCourse : Double.NaN;
+		pixelsPerSecond = moving ? newPixelsPerSecond : 0;
+		return cancel;
+	}
+
+	/**
+	 * Returns the tiles the viewport enters within the horizon, in the order they're entered. Tiles that are visible
+	 * already or lie outside of the map are not included.
+	 * 
+	 * @param left
+	 *            left edge of the viewport
+	 * @param top
+	 *            top edge of the viewport
+	 * @param limit
+	 *            maximum number of tiles to return
+	 * @return tile numbers, numbered column by column like the map files
+	 */
+	synchronized int[] getTiles(final int left, final int top, final int width, final int height, final int limit) {
+		if (Double.isNaN(course) || limit <= 0) {
+			return new int[0];
+		}
+		final double distance = pixelsPerSecond * horizon;
+		final double radians = Math.toRadians(course);
+		final double dx = Math.sin(radians) * distance;
+		final double dy = -Math.cos(radians) * distance;
+		final int step = Math.max(Math.min(tileWidth, tileHeight) / STEPS_PER_TILE, 1);
+		final int steps = Math.min((int) Math.ceil(distance / step), MAX_STEPS);
+
+		final int visibleX0 = floorDiv(left, tileWidth);
+		final int visibleY0 = floorDiv(top, tileHeight);
+		final int visibleX1 = floorDiv(left + width - 1, tileWidth);
+		final int visibleY1 = floorDiv(top + height - 1, tileHeight);
+
+		final int[] tiles = new int[limit];
+		int count = 0;
+		for (int s = 1; s <= steps && count < limit; s++) {
+			final int l = left + (int) (dx * s / steps);
+			final int t = top + (int) (dy * s / steps);
+			final int x1 = floorDiv(l + width - 1, tileWidth);
+			final int y1 = floorDiv(t + height - 1, tileHeight);
+			for (int x = floorDiv(l, tileWidth); x <= x1 && count < limit; x++) {
+				for (int y = floorDiv(t, tileHeight); y <= y1 && count < limit; y++) {
+					if (x < 0 || y < 0 || x >= tilesX || y >= tilesY) {
+						continue;
+					}
+					if (x >= visibleX0 && x <= visibleX1 && y >= visibleY0 && y <= visibleY1) {
+						continue;
+					}
+					final int tile = x * tilesY + y;
+					if (!contains(tiles, count, tile)) {
+						tiles[count++] = tile;
+					}
+				}
+			}
+		}
+		if (count == limit) {
+			return tiles;
+		}
+		final int[] result = new int[count];
+		System.arraycopy(tiles, 0, result, 0, count);
+		return result;
+	}
+
+	private static boolean contains(final int[] values, final int count, final int value) {
+		for (int i = 0; i < count; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int floorDiv(final int value, final int divisor) {
+		final int quotient = value / divisor;
+		return value < 0 && quotient * divisor != value ? quotient - 1 : quotient;
+	}
+}
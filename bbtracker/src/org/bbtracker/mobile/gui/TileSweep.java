@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile.gui;
+
+/**
+ * Plans the order in which a batch of tiles is read from a tar file, so that a single forward pass over the file
+ * reads them all instead of seeking from the start of the file for each tile.
+ */
+final class TileSweep {
+	private TileSweep() {
+	}
+
+	/**
+	 * Sorts tiles by their offset in the archive.
+	 * 
+	 * @param tiles
+	 *            tile numbers, the first <code>count</code> are sorted
+	 * @param offsets
+	 *            offset of each tile in the archive, by tile number
+	 * @param keepFirst
+	 *            if set, the first tile (the centre of the screen) stays first. The tiles behind it follow in
+	 *            ascending order and the ones before it come last, so the stream is rewound at most once.
+	 */
+	static void order(final int[] tiles, final int count, final int[] offsets, final boolean keepFirst) {
+		final int start = keepFirst ? 1 : 0;
+		final long firstOffset = keepFirst && count > 0 ? offsets[tiles[0]] : -1;
+		for (int i = start + 1; i < count; i++) {
+			final int tile = tiles[i];
+			final long key = getKey(offsets[tile], firstOffset);
+			int j = i - 1;
+			while (j >= start && getKey(offsets[tiles[j]], firstOffset) > key) {
+				tiles[j + 1] = tiles[j];
+				j--;
+			}
+			tiles[j + 1] = tile;
+		}
+	}
+
+	/**
+	 * @return the offset, moved behind all other offsets if it lies before the first tile
+	 */
+	private static long getKey(final int offset, final long firstOffset) {
+		return offset > firstOffset ? offset : offset + (1L << 32);
+	}
+
+	/**
+	 * @return the bytes skipped reading the tiles in this order from a stream that is rewound to the start of the
+	 *         archive whenever a tile lies behind the current position
+	 */
+	static long getSkippedBytes(final int[] tiles, final int count, final int[] offsets, final int[] sizes) {
+		long position = 0;
+		long skipped = 0;
+		for (int i = 0; i < count; i++) {
+			final int offset = offsets[tiles[i]];
+			if (offset < position) {
+				position = 0;
+			}
+			skipped += offset - position;
+			position = offset + sizes[tiles[i]];
+		}
+		return skipped;
+	}
+}
@@ -17,13 +17,12 @@
  */
 package org.bbtracker.mobile.gui;
 
-import java.util.Enumeration;
-
 import javax.microedition.lcdui.Graphics;
 
 import org.bbtracker.Track;
 import org.bbtracker.TrackPoint;
 import org.bbtracker.TrackSegment;
+import org.bbtracker.TrackSnapshot;
 import org.bbtracker.mobile.gui.PlotterTile.AxisConfiguration;
 
 public class TrackPlotter {
@@ -45,6 +44,12 @@ public class TrackPlotter {
 
 	private static final int WAYPOINT_SIZE = 3;
 
+	/**
+	 * The simplification tolerance of maps in pixels. Skipped points can be up to twice this far away from a drawn
+	 * one (see {@link TrackSegment#getRank(int)}).
+	 */
+	private static final double PIXEL_TOLERANCE = 1;
+
 	private int trackColor = LINK_COLOR;
 
 	private int trackSegmentColor = SEGMENT_LINK_COLOR;
@@ -57,52 +62,125 @@ public class TrackPlotter {
 	public void paint(final Graphics g, final DataProvider xData, final DataProvider yData,
 			final AxisConfiguration xAxis, final AxisConfiguration yAxis, final int offsetX, final int offsetY,
 			final int height, final Track track) {
+		paint(g, g.getClipX(), g.getClipY(), g.getClipWidth(), g.getClipHeight(), xData, yData, xAxis, yAxis, offsetX,
+				offsetY, height, track);
+	}
+
+	/**
+	 * Paints the parts of <code>track</code> that are visible in the given clip area.
+	 */
+	void paint(final Graphics g, final int clipX, final int clipY, final int clipWidth, final int clipHeight,
+			final DataProvider xData, final DataProvider yData, final AxisConfiguration xAxis,
+			final AxisConfiguration yAxis, final int offsetX, final int offsetY, final int height, final Track track) {
 		TrackPoint prevPoint = null;
 
 		int prevX = -1;
 		int prevY = -1;
-		final Enumeration segments = track.getSegments();
+		// points may be added while painting, so stick to the ones there are now
+		final TrackSnapshot snapshot = track.snapshot();
 		final boolean doAverage = yData.isHorizontalGraph();
-		while (segments.hasMoreElements()) {
-			final TrackSegment segment = (TrackSegment) segments.nextElement();
-			final Enumeration points = segment.getPoints();
+		final int minRank = getMinimumRank(xData, yData, xAxis, yAxis);
+		for (int s = 0; s < snapshot.getSegmentCount(); s++) {
+			final TrackSegment segment = snapshot.getSegment(s);
+			final int pointCount = snapshot.getSegmentPointCount(s);
+			final int last = pointCount - 1;
 			boolean newSegment = true;
 			int sumY = 0;
 			int nPoints = 0;
-			while (points.hasMoreElements()) {
-				final TrackPoint point = (TrackPoint) points.nextElement();
-				final double xValue = xData.getValue(point);
-				final double yValue = yData.getValue(point);
-				final int x = offsetX + xAxis.getPosition(xValue);
-				final int y = height - (offsetY + yAxis.getPosition(yValue));
-				int paintY = y;
-				boolean skip = false;
-				if (doAverage) {
-					if (x == prevX) {
-						sumY += y;
-						++nPoints;
-						skip = true;
-					} else {
-						if (nPoints > 0) {
-							paintY = sumY / nPoints;
+			int i = 0;
+			while (i < pointCount) {
+				final int blockEnd = Math.min(segment.getBlockEnd(i), pointCount);
+				final boolean visible = isVisible(segment, i, xData, yData, xAxis, yAxis, offsetX, offsetY, height,
+						clipX, clipY, clipWidth, clipHeight);
+				if (!visible && (prevPoint == null || newSegment)) {
+					// blocks of lazily loaded tracks are not even read then
+					paintConnection(g, prevPoint, prevX, prevY, null, -1, -1, false);
+					prevPoint = null;
+					i = blockEnd;
+					continue;
+				}
+				// of a block that is not visible only the line from the previous block is drawn
+				final int end = visible ? blockEnd : i + 1;
+				do {
+					final TrackPoint point = segment.getPoint(i);
+					final double xValue = xData.getValue(point);
+					final double yValue = yData.getValue(point);
+					final int x = offsetX + xAxis.getPosition(xValue);
+					final int y = height - (offsetY + yAxis.getPosition(yValue));
+					int paintY = y;
+					boolean skip = false;
+					if (doAverage) {
+						if (x == prevX) {
+							sumY += y;
+							++nPoints;
+							skip = true;
+						} else {
+							if (nPoints > 0) {
+								paintY = sumY / nPoints;
+							}
+							nPoints = 0;
+							sumY = 0;
 						}
-						nPoints = 0;
-						sumY = 0;
 					}
-				}
-				if (!skip) {
-					paintConnection(g, prevPoint, prevX, prevY, point, x, paintY, newSegment);
-					prevPoint = point;
-					prevX = x;
-					prevY = paintY;
-				}
+					if (!skip) {
+						paintConnection(g, prevPoint, prevX, prevY, point, x, paintY, newSegment);
+						prevPoint = point;
+						prevX = x;
+						prevY = paintY;
+					}
 
-				newSegment = false;
+					newSegment = false;
+					i = i == last ? pointCount : segment.getNextIndex(i, minRank, last);
+				} while (i < end);
+				if (!visible) {
+					paintConnection(g, prevPoint, prevX, prevY, null, -1, -1, false);
+					prevPoint = null;
+					i = blockEnd;
+				}
 			}
 		}
 		paintConnection(g, prevPoint, prevX, prevY, null, -1, -1, false);
 	}
 
+	/**
+	 * Returns true if the block of <code>segment</code> that contains point <code>i</code> may be visible in the clip
+	 * area. Maps check the bounding box of the block, graphs over time its time range.
+	 */
+	private static boolean isVisible(final TrackSegment segment, final int i, final DataProvider xData,
+			final DataProvider yData, final AxisConfiguration xAxis, final AxisConfiguration yAxis, final int offsetX,
+			final int offsetY, final int height, final int clipX, final int clipY, final int clipWidth,
+			final int clipHeight) {
+		final int left;
+		final int right;
+		if (xData == DataProvider.LONGITUDE && yData == DataProvider.LATITUDE) {
+			left = offsetX + xAxis.getPosition(segment.getBlockMinLongitude(i));
+			right = offsetX + xAxis.getPosition(segment.getBlockMaxLongitude(i));
+			final int top = height - (offsetY + yAxis.getPosition(segment.getBlockMaxLatitude(i)));
+			final int bottom = height - (offsetY + yAxis.getPosition(segment.getBlockMinLatitude(i)));
+			if (bottom < clipY || top > clipY + clipHeight) {
+				return false;
+			}
+		} else if (xData == DataProvider.TIME) {
+			left = offsetX + xAxis.getPosition(segment.getBlockFirstTimestamp(i));
+			right = offsetX + xAxis.getPosition(segment.getBlockLastTimestamp(i));
+		} else {
+			return true;
+		}
+		return right >= clipX && left <= clipX + clipWidth;
+	}
+
+	/**
+	 * Returns the minimum {@link TrackSegment#getRank(int) rank} of the points that need to be drawn. Only maps are
+	 * simplified, other graphs draw every point.
+	 */
+	static int getMinimumRank(final DataProvider xData, final DataProvider yData, final AxisConfiguration xAxis,
+			final AxisConfiguration yAxis) {
+		if (xData != DataProvider.LONGITUDE || yData != DataProvider.LATITUDE) {
+			return 0;
+		}
+		return TrackSegment.getMinimumRank(Math.min(xAxis.scale, yAxis.scale) * PIXEL_TOLERANCE);
+	}
+
 	/**
 	 * Draws a connection between two points. The first time this method is
 	 * called for any given redraw operation <code>point1</code> will be null
@@ -102,6 +102,9 @@ public class TrackTile extends PlotterTile {
 	public void currentPointChanged(final TrackPoint newPoint, final int newIndex) {
 		super.currentPointChanged(newPoint, newIndex);
 		currentPoint = newPoint;
+		if (mapBackground != null && newPoint != null) {
+			mapBackground.setMotion(newPoint.getLatitude(), newPoint.getCourse(), newPoint.getSpeed());
+		}
 		if (mapBackground != null) {
 			// In map background mode, we need to readjust all axis everytime
 			// the current point changes as the current point stays in the
@@ -17,23 +17,27 @@
  */
 package org.bbtracker.mobile.gui;
 
-import java.io.IOException;
-
 import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
 import javax.microedition.lcdui.Choice;
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CommandListener;
 import javax.microedition.lcdui.Displayable;
+import javax.microedition.lcdui.Gauge;
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.List;
 
 import org.bbtracker.Track;
+import org.bbtracker.TrackSource;
 import org.bbtracker.TrackStoreException;
+import org.bbtracker.TrackSummary;
+import org.bbtracker.UnitConverter;
 import org.bbtracker.Utils;
 import org.bbtracker.mobile.BBTracker;
 import org.bbtracker.mobile.IconManager;
 import org.bbtracker.mobile.Log;
+import org.bbtracker.mobile.PersistenceListener;
+import org.bbtracker.mobile.PersistenceWorker;
 import org.bbtracker.mobile.Preferences;
 import org.bbtracker.mobile.TrackManager;
 import org.bbtracker.mobile.TrackStore.TrackStoreEntry;
@@ -81,9 +85,16 @@ public class TracksForm extends List implements CommandListener {
 		deleteAll();
 		entries = trackManager.getEntries();
 		final Image icon = IconManager.getInstance().getListImage("track");
+		final UnitConverter unit = Preferences.getInstance().getUnitsConverter();
 		for (int i = 0; i < entries.length; i++) {
-			final String description = entries[i].getName() + " (" + Utils.dateToString(entries[i].getDate()) + ")";
-			append(description, icon);
+			final StringBuffer description = new StringBuffer();
+			description.append(entries[i].getName()).append(" (").append(Utils.dateToString(entries[i].getDate()));
+			final TrackSummary summary = entries[i].getSummary();
+			if (summary != null) {
+				description.append(", ").append(unit.distanceToString(summary.getLength()));
+			}
+			description.append(")");
+			append(description.toString(), icon);
 		}
 	}
 
@@ -101,23 +112,43 @@ public class TracksForm extends List implements CommandListener {
 
 		final TrackStoreEntry tse = entries[index];
 		if (command == deleteCommand) {
-			try {
-				tse.deleteTrack();
-				loadEntries();
-			} catch (final TrackStoreException e) {
-				Log.log(this, e, "deleting track and listing tracks");
-				final Alert alert = new Alert("Couldn't delete Track.", "The track " + tse.getName()
-						+ " couldn't be deleted: " + e.getMessage(), null, AlertType.INFO);
-				BBTracker.alert(alert, this);
-			}
+			trackManager.deleteTrack(tse, new PersistenceListener() {
+				public void progress(final PersistenceWorker.Request request, final int percent) {
+					// deleting is quick
+				}
+
+				public void finished(final PersistenceWorker.Request request, final Exception error) {
+					if (error != null) {
+						final Alert alert = new Alert("Couldn't delete Track.", "The track " + tse.getName()
+								+ " couldn't be deleted: " + error.getMessage(), null, AlertType.INFO);
+						BBTracker.alert(alert, TracksForm.this);
+						return;
+					}
+					try {
+						loadEntries();
+					} catch (final TrackStoreException e) {
+						BBTracker.nonFatal(e, "listing tracks", TracksForm.this);
+					}
+				}
+			});
+			// #ifndef AVOID_FILE_API
+		} else if (command == exportCommand) {
+			// exporting reads the stored track as a stream, so it doesn't need to be loaded
+			exportTrack(trackManager, tse, this);
+			// #endif
 		} else {
 			if (command == selectCommand) {
-				try {
-					trackManager.maybeSaveTrack();
-				} catch (final TrackStoreException e) {
-					TrackManager.showSaveFailedAlert(e, this);
-					return;
-				}
+				trackManager.maybeSaveTrack(new PersistenceListener() {
+					public void progress(final PersistenceWorker.Request request, final int percent) {
+						// the main screen doesn't show this
+					}
+
+					public void finished(final PersistenceWorker.Request request, final Exception error) {
+						if (error != null) {
+							TrackManager.showSaveFailedAlert(error, null);
+						}
+					}
+				});
 			}
 			final Track track;
 			try {
@@ -136,16 +167,15 @@ public class TracksForm extends List implements CommandListener {
 			if (command == selectCommand) {
 				trackManager.setTrack(track);
 				BBTracker.getInstance().showMainCanvas();
-				// #ifndef AVOID_FILE_API
-			} else if (command == exportCommand) {
-				exportTrack(track, this);
-				// #endif
 			}
 		}
 	}
 
 	// #ifndef AVOID_FILE_API
-	public static void exportTrack(final Track track, final Displayable next) {
+	/**
+	 * Exports the track in the background and shows the progress in an alert.
+	 */
+	public static void exportTrack(final TrackManager manager, final TrackSource track, final Displayable next) {
 		final Preferences preferences = Preferences.getInstance();
 		final String dir = preferences.getEffectiveExportDirectory();
 		if (dir == null) {
@@ -155,17 +185,28 @@ public class TracksForm extends List implements CommandListener {
 			BBTracker.alert(alert, next);
 			return;
 		}
-		int count;
-		try {
-			count = TrackManager.exportTrack(track);
-		} catch (final IOException e) {
-			BBTracker.nonFatal(e, "exporting track", next);
-			return;
-		}
+		final Gauge gauge = new Gauge(null, false, 100, 0);
+		final Alert progressAlert = new Alert("Exporting", "Exporting the track " + track.getName() + "...", null,
+				AlertType.INFO);
+		progressAlert.setIndicator(gauge);
+		progressAlert.setTimeout(Alert.FOREVER);
+		BBTracker.alert(progressAlert, next);
+		manager.exportTrack(track, new PersistenceListener() {
+			public void progress(final PersistenceWorker.Request request, final int percent) {
+				gauge.setValue(percent);
+			}
 
-		final Alert alert = new Alert("Finished exporting", "The track " + track.getName()
-				+ " has been exported successfully to " + count + " formats!", null, AlertType.INFO);
-		BBTracker.alert(alert, next);
+			public void finished(final PersistenceWorker.Request request, final Exception error) {
+				if (error != null) {
+					BBTracker.nonFatal(error, "exporting track", next);
+					return;
+				}
+				final Alert alert = new Alert("Finished exporting", "The track " + track.getName()
+						+ " has been exported successfully to " + request.getResult() + " formats!", null,
+						AlertType.INFO);
+				BBTracker.alert(alert, next);
+			}
+		});
 	}
 	// #endif
 }
\ No newline at end of file
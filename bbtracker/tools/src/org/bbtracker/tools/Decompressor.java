@@ -0,0 +1,87 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bbtracker.CompressedInputStream;
+
+/**
+ * Restores files that bbTracker exported with compression (GPX or KML files with an additional .bbz suffix).
+ * 
+ * Usage: Decompressor file.bbz...
+ * 
+ * Each file is written next to the original without the .bbz suffix. Files that aren't compressed are copied as they
+ * are.
+ */
+public final class Decompressor {
+	private static final String SUFFIX = ".bbz";
+
+	private Decompressor() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: Decompressor <file.bbz>...");
+			System.exit(1);
+		}
+		for (int i = 0; i < args.length; i++) {
+			final File file = new File(args[i]);
+			System.out.println("Wrote " + decompress(file));
+		}
+	}
+
+	/**
+	 * @return the decompressed file
+	 */
+	static File decompress(final File file) throws IOException {
+		final String name = file.getName();
+		if (!name.endsWith(SUFFIX) || name.length() == SUFFIX.length()) {
+			throw new IOException(file + " doesn't end with " + SUFFIX);
+		}
+		final File target = new File(file.getParentFile(), name.substring(0, name.length() - SUFFIX.length()));
+		final InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			final OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+			try {
+				decompress(in, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return target;
+	}
+
+	static void decompress(final InputStream in, final OutputStream out) throws IOException {
+		final InputStream decoded = new CompressedInputStream(in);
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = decoded.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+	}
+}
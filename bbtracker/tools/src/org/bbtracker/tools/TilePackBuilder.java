@@ -0,0 +1,233 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bbtracker.TilePack;
+import org.bbtracker.TilePackWriter;
+
+/**
+ * Builds a {@link TilePack} and the map descriptors from the tiles of a map exported in several zoom levels.
+ * 
+ * Usage: TilePackBuilder baseName [dir]
+ * 
+ * Every directory baseName + zoom in dir is a zoom level. It has to contain name/name.map and the tiles
+ * name/set/name_x_y.png, where name is baseName + zoom + "000001" and x, y are the pixel offsets of the tile. The
+ * builder writes baseName.pack, a descriptor zoom.txt for each level and list.txt; copy them to the map directory.
+ */
+public final class TilePackBuilder {
+	private static final int TILE_SIZE = 256;
+
+	private static final Pattern MMPXY = Pattern.compile("MMPXY,(\\d+),(\\d+),(\\d+)");
+
+	private static final Pattern MMPLL = Pattern.compile("MMPLL,(\\d+),([^,]+),([^,]+)");
+
+	private final String baseName;
+
+	private final File dir;
+
+	TilePackBuilder(final String baseName, final File dir) {
+		this.baseName = baseName;
+		this.dir = dir;
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: TilePackBuilder <baseName> [dir]");
+			System.exit(1);
+		}
+		new TilePackBuilder(args[0], new File(args.length > 1 ? args[1] : ".")).build();
+	}
+
+	void build() throws IOException {
+		final int[] zooms = findZoomLevels();
+		if (zooms.length == 0) {
+			throw new IOException("no directories " + baseName + "<zoom> in " + dir);
+		}
+		final TilePackWriter writer = new TilePackWriter();
+		final String packFileName = baseName + ".pack";
+		final int[] columns = new int[zooms.length];
+		final int[] rows = new int[zooms.length];
+		final PrintWriter list = new PrintWriter(new FileOutputStream(new File(dir, "list.txt")));
+		try {
+			for (int level = 0; level < zooms.length; level++) {
+				final int zoom = zooms[level];
+				final String[] map = readMapFile(zoom);
+				writeDescriptor(zoom, map, packFileName);
+				// MapBackground ignores partial tiles at the right and bottom edge
+				columns[level] = Integer.parseInt(map[0]) / TILE_SIZE;
+				rows[level] = Integer.parseInt(map[1]) / TILE_SIZE;
+				System.out.println("Zoom Level: " + zoom + " (" + columns[level] + "x" + rows[level] + " tiles)");
+				writer.addLevel(zoom, TILE_SIZE, TILE_SIZE, columns[level], rows[level]);
+				for (int x = 0; x < columns[level]; x++) {
+					for (int y = 0; y < rows[level]; y++) {
+						writer.setTileLength(level, x, y, (int) getTileFile(zoom, x, y).length());
+					}
+				}
+				list.println(zoom + ".txt");
+			}
+		} finally {
+			list.close();
+		}
+
+		final File packFile = new File(dir, packFileName);
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(packFile));
+		try {
+			writer.writeDirectory(out);
+			for (int level = 0; level < zooms.length; level++) {
+				for (int y = 0; y < rows[level]; y++) {
+					for (int x = 0; x < columns[level]; x++) {
+						final File tile = getTileFile(zooms[level], x, y);
+						if (tile.exists()) {
+							final byte[] data = readFile(tile);
+							writer.writeTile(out, level, x, y, data, 0, data.length);
+						}
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (!writer.isComplete()) {
+			throw new IOException("tiles changed while building " + packFile);
+		}
+		System.out.println("Wrote " + packFile + " (" + packFile.length() + " bytes)");
+	}
+
+	private int[] findZoomLevels() {
+		final Pattern pattern = Pattern.compile(Pattern.quote(baseName) + "(\\d+)");
+		final String[] names = dir.list();
+		int[] zooms = new int[names == null ? 0 : names.length];
+		int count = 0;
+		for (int i = 0; i < zooms.length; i++) {
+			final Matcher m = pattern.matcher(names[i]);
+			if (m.matches() && new File(dir, names[i]).isDirectory()) {
+				zooms[count++] = Integer.parseInt(m.group(1));
+			}
+		}
+		final int[] result = new int[count];
+		System.arraycopy(zooms, 0, result, 0, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private String getName(final int zoom) {
+		return baseName + zoom + "000001";
+	}
+
+	private File getMapDirectory(final int zoom) {
+		return new File(new File(dir, baseName + zoom), getName(zoom));
+	}
+
+	private File getTileFile(final int zoom, final int x, final int y) {
+		final String name = getName(zoom);
+		return new File(new File(getMapDirectory(zoom), "set"), name + "_" + x * TILE_SIZE + "_" + y * TILE_SIZE
+				+ ".png");
+	}
+
+	/**
+	 * @return width and height in pixels, longitude and latitude of the top left and of the bottom right corner
+	 */
+	private String[] readMapFile(final int zoom) throws IOException {
+		final File file = new File(getMapDirectory(zoom), getName(zoom) + ".map");
+		final String[] result = new String[6];
+		final BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Matcher m = MMPXY.matcher(line);
+				if (m.find() && m.group(1).equals("4")) {
+					result[0] = String.valueOf(Integer.parseInt(m.group(2)) + 1);
+					result[1] = String.valueOf(Integer.parseInt(m.group(3)) + 1);
+				}
+				m = MMPLL.matcher(line);
+				if (m.find()) {
+					if (m.group(1).equals("1")) {
+						result[2] = m.group(2).trim();
+						result[3] = m.group(3).trim();
+					} else if (m.group(1).equals("4")) {
+						result[4] = m.group(2).trim();
+						result[5] = m.group(3).trim();
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] == null) {
+				throw new IOException("incomplete map file " + file);
+			}
+		}
+		return result;
+	}
+
+	private void writeDescriptor(final int zoom, final String[] map, final String packFileName) throws IOException {
+		final double longStart = Double.parseDouble(map[2]);
+		final double latStart = Double.parseDouble(map[3]);
+		final double longEnd = Double.parseDouble(map[4]);
+		final double latEnd = Double.parseDouble(map[5]);
+		final PrintWriter out = new PrintWriter(new FileOutputStream(new File(dir, zoom + ".txt")));
+		try {
+			out.println("baseFileName " + getName(zoom));
+			out.println("packFileName " + packFileName);
+			out.println("zoomLevel " + zoom);
+			out.println("longDiff " + (longEnd - longStart));
+			out.println("latDiff " + (latStart - latEnd));
+			out.println("tileWidth " + TILE_SIZE);
+			out.println("tileHeight " + TILE_SIZE);
+			out.println("mapOffsetLong " + longStart);
+			out.println("mapOffsetLat " + latStart);
+			out.println("maxTileX " + map[0]);
+			out.println("maxTileY " + map[1]);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readFile(final File file) throws IOException {
+		final byte[] data = new byte[(int) file.length()];
+		final InputStream in = new FileInputStream(file);
+		try {
+			int n = 0;
+			while (n < data.length) {
+				final int read = in.read(data, n, data.length - n);
+				if (read == -1) {
+					throw new IOException("file changed: " + file);
+				}
+				n += read;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads from another stream in blocks, so that reading single bytes (as {@link java.io.DataInputStream} and readers
+ * do) doesn't cause a call to the underlying stream each time. CLDC has no BufferedInputStream.
+ * 
+ * The buffer is returned to a pool when the stream is closed and used again by the next stream.
+ * 
+ * Mark and reset are supported if the underlying stream supports them.
+ */
+public class BlockInputStream extends InputStream {
+	/**
+	 * The block size used when none is given.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 2048;
+
+	private final InputStream in;
+
+	private byte[] buffer;
+
+	private int position = 0;
+
+	private int count = 0;
+
+	/** The bytes that were buffered, but not read, when the mark was set. */
+	private byte[] marked;
+
+	private int markedCount = -1;
+
+	public BlockInputStream(final InputStream in) {
+		this(in, DEFAULT_BLOCK_SIZE);
+	}
+
+	public BlockInputStream(final InputStream in, final int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		this.in = in;
+		buffer = BlockPool.take(blockSize);
+	}
+
+	private void checkOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Fills the buffer if it is empty.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		checkOpen();
+		if (position < count) {
+			return true;
+		}
+		final int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			return false;
+		}
+		position = 0;
+		count = n;
+		return true;
+	}
+
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (len == 0) {
+			return 0;
+		}
+		if (position == count && len >= buffer.length) {
+			// nothing buffered and a big read, no need to copy
+			return in.read(b, off, len);
+		}
+		if (!fill()) {
+			return -1;
+		}
+		final int n = Math.min(len, count - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	public long skip(final long n) throws IOException {
+		checkOpen();
+		if (n <= 0) {
+			return 0;
+		}
+		final int buffered = (int) Math.min(n, count - position);
+		position += buffered;
+		if (buffered == n) {
+			return n;
+		}
+		// some callers ignore the result, so don't stop at the end of the buffer
+		final long skipped = in.skip(n - buffered);
+		return skipped > 0 ? buffered + skipped : buffered;
+	}
+
+	public boolean markSupported() {
+		return in.markSupported();
+	}
+
+	/**
+	 * Marks the underlying stream. It is ahead of this stream by the buffered bytes, so they are kept to be read
+	 * again after {@link #reset()}.
+	 */
+	public synchronized void mark(final int readlimit) {
+		if (buffer == null) {
+			return;
+		}
+		if (marked == null) {
+			marked = new byte[buffer.length];
+		}
+		markedCount = count - position;
+		System.arraycopy(buffer, position, marked, 0, markedCount);
+		// the underlying stream reads up to a block ahead
+		in.mark((int) Math.min((long) readlimit + buffer.length, Integer.MAX_VALUE));
+	}
+
+	public synchronized void reset() throws IOException {
+		checkOpen();
+		if (markedCount == -1) {
+			throw new IOException("Mark not set");
+		}
+		in.reset();
+		System.arraycopy(marked, 0, buffer, 0, markedCount);
+		position = 0;
+		count = markedCount;
+	}
+
+	public int available() throws IOException {
+		checkOpen();
+		return (count - position) + in.available();
+	}
+
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		final byte[] b = buffer;
+		buffer = null;
+		position = 0;
+		count = 0;
+		marked = null;
+		markedCount = -1;
+		BlockPool.give(b);
+		in.close();
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects small writes and passes them to another stream in blocks. CLDC has no BufferedOutputStream.
+ * 
+ * The buffer is returned to a pool when the stream is closed and used again by the next stream.
+ */
+public class BlockOutputStream extends OutputStream {
+	private final OutputStream out;
+
+	private byte[] buffer;
+
+	private int count = 0;
+
+	public BlockOutputStream(final OutputStream out) {
+		this(out, BlockInputStream.DEFAULT_BLOCK_SIZE);
+	}
+
+	public BlockOutputStream(final OutputStream out, final int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		this.out = out;
+		buffer = BlockPool.take(blockSize);
+	}
+
+	private void checkOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	public void write(final int b) throws IOException {
+		checkOpen();
+		if (count == buffer.length) {
+			writeBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (len >= buffer.length) {
+			// a big write, no need to copy
+			writeBuffer();
+			out.write(b, off, len);
+			return;
+		}
+		// fill the buffer up, so that only full blocks are written
+		final int n = Math.min(len, buffer.length - count);
+		System.arraycopy(b, off, buffer, count, n);
+		count += n;
+		if (n < len) {
+			writeBuffer();
+			System.arraycopy(b, off + n, buffer, 0, len - n);
+			count = len - n;
+		}
+	}
+
+	public void flush() throws IOException {
+		checkOpen();
+		writeBuffer();
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			writeBuffer();
+		} finally {
+			final byte[] b = buffer;
+			buffer = null;
+			BlockPool.give(b);
+			out.close();
+		}
+	}
+}
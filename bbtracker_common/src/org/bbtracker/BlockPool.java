@@ -0,0 +1,71 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.util.Vector;
+
+/**
+ * Keeps a few buffers of the block streams for reuse, so that opening a stream doesn't always allocate a new one.
+ */
+final class BlockPool {
+	/**
+	 * The number of free buffers kept at most.
+	 */
+	static final int MAX_FREE = 4;
+
+	private static final Vector free = new Vector(MAX_FREE);
+
+	private BlockPool() {
+		// no instances
+	}
+
+	/**
+	 * Returns a buffer of exactly <code>size</code> bytes, reusing a free one if possible.
+	 */
+	static byte[] take(final int size) {
+		synchronized (free) {
+			for (int i = free.size() - 1; i >= 0; i--) {
+				final byte[] buffer = (byte[]) free.elementAt(i);
+				if (buffer.length == size) {
+					free.removeElementAt(i);
+					return buffer;
+				}
+			}
+		}
+		return new byte[size];
+	}
+
+	/**
+	 * Makes <code>buffer</code> available for reuse. It must not be used by the caller afterwards. If the pool is full
+	 * the buffer that was given back first is dropped, the sizes used recently are more likely to be needed again.
+	 */
+	static void give(final byte[] buffer) {
+		synchronized (free) {
+			if (free.size() == MAX_FREE) {
+				free.removeElementAt(0);
+			}
+			free.addElement(buffer);
+		}
+	}
+
+	static int getFreeCount() {
+		synchronized (free) {
+			return free.size();
+		}
+	}
+}
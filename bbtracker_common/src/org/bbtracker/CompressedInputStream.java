@@ -0,0 +1,247 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream written by {@link CompressedOutputStream}. Streams that don't start with {@link #MAGIC} are passed
+ * through unchanged, so uncompressed and compressed data can be read the same way.
+ * 
+ * {@link #skip(long)} skips whole blocks without decoding them.
+ */
+public class CompressedInputStream extends InputStream {
+	/**
+	 * The start of a compressed stream. Track streams start with their version as an int, so their first byte is 0.
+	 */
+	public static final byte[] MAGIC = { 'B', 'B', 'Z', 1 };
+
+	private final InputStream in;
+
+	private final boolean compressed;
+
+	private final byte[] header = new byte[LzCodec.BLOCK_HEADER_SIZE];
+
+	private byte[] buffer;
+
+	private byte[] encoded;
+
+	private int position = 0;
+
+	private int count = 0;
+
+	private boolean closed = false;
+
+	public CompressedInputStream(final InputStream in) throws IOException {
+		this.in = in;
+		final byte[] start = new byte[MAGIC.length];
+		final int n = readFully(in, start, 0, start.length);
+		boolean magic = n == MAGIC.length;
+		for (int i = 0; magic && i < MAGIC.length; i++) {
+			magic = start[i] == MAGIC[i];
+		}
+		compressed = magic;
+		if (!compressed) {
+			// hand out the bytes read so far before reading from the stream directly
+			buffer = start;
+			count = n;
+		}
+	}
+
+	/**
+	 * @return true if the stream is compressed, false if it is passed through
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	private static int readFully(final InputStream in, final byte[] b, final int off, final int len)
+			throws IOException {
+		int total = 0;
+		while (total < len) {
+			final int n = in.read(b, off + total, len - total);
+			if (n <= 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Reads the next block header.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean readHeader() throws IOException {
+		final int n = readFully(in, header, 0, header.length);
+		if (n == 0) {
+			return false;
+		}
+		if (n < header.length) {
+			throw new IOException("Compressed stream is truncated");
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes the next block if the buffer is empty.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		checkOpen();
+		while (position == count) {
+			if (!compressed || !readHeader()) {
+				return false;
+			}
+			readBlock();
+		}
+		return true;
+	}
+
+	private void readBlock() throws IOException {
+		final int payload = LzCodec.getPayloadLength(header, 0);
+		final int rawLength = LzCodec.getRawLength(header, 0);
+		encoded = ensureSize(encoded, header.length + payload);
+		System.arraycopy(header, 0, encoded, 0, header.length);
+		if (readFully(in, encoded, header.length, payload) < payload) {
+			throw new IOException("Compressed stream is truncated");
+		}
+		buffer = ensureSize(buffer, rawLength);
+		LzCodec.decodeBlock(encoded, 0, buffer, 0);
+		position = 0;
+		count = rawLength;
+	}
+
+	private static byte[] ensureSize(final byte[] b, final int size) {
+		if (b != null && b.length >= size) {
+			return b;
+		}
+		if (b != null) {
+			BlockPool.give(b);
+		}
+		return BlockPool.take(Math.max(size, CompressedOutputStream.DEFAULT_BLOCK_SIZE));
+	}
+
+	public int read() throws IOException {
+		if (position < count) {
+			return buffer[position++] & 0xff;
+		}
+		if (!compressed) {
+			checkOpen();
+			return in.read();
+		}
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (len == 0) {
+			return 0;
+		}
+		if (position == count && !compressed) {
+			return in.read(b, off, len);
+		}
+		if (!fill()) {
+			return -1;
+		}
+		final int n = Math.min(len, count - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	public long skip(final long n) throws IOException {
+		checkOpen();
+		if (n <= 0) {
+			return 0;
+		}
+		final int buffered = (int) Math.min(n, count - position);
+		position += buffered;
+		long remaining = n - buffered;
+		if (!compressed) {
+			if (remaining > 0) {
+				final long skipped = in.skip(remaining);
+				remaining -= skipped > 0 ? skipped : 0;
+			}
+			return n - remaining;
+		}
+		while (remaining > 0 && readHeader()) {
+			final int rawLength = LzCodec.getRawLength(header, 0);
+			if (rawLength > remaining) {
+				readBlock();
+				position = (int) remaining;
+				remaining = 0;
+			} else {
+				skipFully(LzCodec.getPayloadLength(header, 0));
+				remaining -= rawLength;
+			}
+		}
+		return n - remaining;
+	}
+
+	private void skipFully(final int n) throws IOException {
+		long remaining = n;
+		while (remaining > 0) {
+			final long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				// some streams don't skip at all
+				if (in.read() == -1) {
+					throw new IOException("Compressed stream is truncated");
+				}
+				remaining--;
+			} else {
+				remaining -= skipped;
+			}
+		}
+	}
+
+	public int available() throws IOException {
+		checkOpen();
+		return (count - position) + (compressed ? 0 : in.available());
+	}
+
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (compressed && buffer != null) {
+			BlockPool.give(buffer);
+		}
+		if (encoded != null) {
+			BlockPool.give(encoded);
+		}
+		buffer = null;
+		encoded = null;
+		position = 0;
+		count = 0;
+		in.close();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses everything written to it in blocks using {@link LzCodec}. The stream starts with
+ * {@link CompressedInputStream#MAGIC}, followed by the encoded blocks.
+ * 
+ * Each {@link #flush()} ends the current block, so streams that are flushed often (such as journals) compress badly.
+ */
+public class CompressedOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+	private final OutputStream out;
+
+	private final LzCodec codec;
+
+	private byte[] buffer;
+
+	private byte[] encoded;
+
+	private int count = 0;
+
+	public CompressedOutputStream(final OutputStream out) throws IOException {
+		this(out, DEFAULT_BLOCK_SIZE, new LzCodec());
+	}
+
+	/**
+	 * @param codec
+	 *            the codec to use, may be shared with other streams that are used by the same thread
+	 */
+	public CompressedOutputStream(final OutputStream out, final int blockSize, final LzCodec codec)
+			throws IOException {
+		if (blockSize <= 0 || blockSize > LzCodec.MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		this.out = out;
+		this.codec = codec;
+		out.write(CompressedInputStream.MAGIC);
+		buffer = BlockPool.take(blockSize);
+		encoded = BlockPool.take(LzCodec.getMaxBlockLength(blockSize));
+	}
+
+	private void checkOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (count > 0) {
+			final int length = codec.encodeBlock(buffer, 0, count, encoded, 0);
+			out.write(encoded, 0, length);
+			count = 0;
+		}
+	}
+
+	public void write(final int b) throws IOException {
+		checkOpen();
+		if (count == buffer.length) {
+			writeBlock();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	public void write(final byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		while (len > 0) {
+			if (count == buffer.length) {
+				writeBlock();
+			}
+			final int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	public void flush() throws IOException {
+		checkOpen();
+		writeBlock();
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			writeBlock();
+		} finally {
+			BlockPool.give(buffer);
+			BlockPool.give(encoded);
+			buffer = null;
+			encoded = null;
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a track stream from a source that may be compressed (see {@link CompressedOutputStream}). Offsets and the
+ * length refer to the uncompressed stream; positioning skips whole blocks without decoding them.
+ */
+public class CompressedStreamSource implements TrackStreamSource {
+	private final TrackStreamSource source;
+
+	private Boolean compressed;
+
+	private long length = -1;
+
+	public CompressedStreamSource(final TrackStreamSource source) {
+		this.source = source;
+	}
+
+	private synchronized boolean isCompressed() throws IOException {
+		if (compressed == null) {
+			final CompressedInputStream in = new CompressedInputStream(source.open(0));
+			try {
+				compressed = in.isCompressed() ? Boolean.TRUE : Boolean.FALSE;
+			} finally {
+				in.close();
+			}
+		}
+		return compressed.booleanValue();
+	}
+
+	public synchronized long getLength() throws IOException {
+		if (!isCompressed()) {
+			return source.getLength();
+		}
+		if (length == -1) {
+			final InputStream in = new CompressedInputStream(source.open(0));
+			try {
+				length = in.skip(Long.MAX_VALUE);
+			} finally {
+				in.close();
+			}
+		}
+		return length;
+	}
+
+	public InputStream open(final long offset) throws IOException {
+		if (!isCompressed()) {
+			return source.open(offset);
+		}
+		final InputStream in = new CompressedInputStream(source.open(0));
+		try {
+			if (in.skip(offset) < offset) {
+				throw new IOException("Track stream is shorter than " + offset + " bytes");
+			}
+		} catch (final IOException e) {
+			in.close();
+			throw e;
+		}
+		return in;
+	}
+}
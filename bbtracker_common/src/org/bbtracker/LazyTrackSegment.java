@@ -0,0 +1,321 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * A segment of a lazily loaded {@link Track}. Its points are read from the stored track in blocks of
+ * {@link SegmentTable#BLOCK_POINTS} when they are first accessed, and may be dropped again by the
+ * {@link SegmentCache}. The bounding boxes and time ranges of the segment and its blocks and the first timestamp and
+ * distance are known without reading any points.
+ * 
+ * The coordinates and detail ranks of a block (13 of the roughly 50 bytes of a point) stay in memory once it has been
+ * read, so that maps can be drawn again without reading any block.
+ * 
+ * Lazily loaded tracks can't be changed.
+ */
+class LazyTrackSegment extends TrackSegment {
+	private static final int BLOCK_SHIFT = SegmentTable.BLOCK_SHIFT;
+
+	private static final int BLOCK_MASK = SegmentTable.BLOCK_POINTS - 1;
+
+	private final TrackStreamSource source;
+
+	private final SegmentTable.Entry entry;
+
+	private final Block[] blocks;
+
+	private final SegmentCache cache;
+
+	class Block {
+		private final int number;
+
+		volatile TrackSegment data;
+
+		int lastUse;
+
+		private int[] longitudes;
+
+		private byte[] ranks;
+
+		private int[] higher;
+
+		/**
+		 * Set last, so that the other geometry arrays are complete if this is not null.
+		 */
+		private volatile int[] latitudes;
+
+		Block(final int number) {
+			this.number = number;
+		}
+
+		int getPointCount() {
+			return Math.min(SegmentTable.BLOCK_POINTS, entry.pointCount - (number << BLOCK_SHIFT));
+		}
+
+		TrackSegment read() throws IOException {
+			final TrackSegment data = SegmentTable.readBlock(source, entry.blocks[number], getPointCount());
+			if (latitudes == null) {
+				final int count = getPointCount();
+				final int[] newLatitudes = new int[count];
+				longitudes = new int[count];
+				ranks = new byte[count];
+				higher = new int[count];
+				for (int i = 0; i < count; i++) {
+					newLatitudes[i] = toFixed(data.getLatitude(i));
+					longitudes[i] = toFixed(data.getLongitude(i));
+					ranks[i] = (byte) data.getRank(i);
+					higher[i] = data.getHigherIndex(i);
+				}
+				latitudes = newLatitudes;
+			}
+			return data;
+		}
+	}
+
+	LazyTrackSegment(final TrackStreamSource source, final SegmentTable.Entry entry, final SegmentCache cache) {
+		super(1);
+		this.source = source;
+		this.entry = entry;
+		this.cache = cache;
+		blocks = new Block[entry.blocks.length];
+		for (int b = 0; b < blocks.length; b++) {
+			blocks[b] = new Block(b);
+		}
+		distanceOffset = entry.distanceOffset;
+		minLatitude = entry.minLatitude;
+		maxLatitude = entry.maxLatitude;
+		minLongitude = entry.minLongitude;
+		maxLongitude = entry.maxLongitude;
+	}
+
+	private TrackSegment block(final int i) {
+		if (i < 0 || i >= entry.pointCount) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		final Block block = blocks[i >> BLOCK_SHIFT];
+		block.lastUse = cache.tick();
+		final TrackSegment data = block.data;
+		return data != null ? data : cache.load(block);
+	}
+
+	/**
+	 * Returns the block of point <code>i</code>, which has its geometry in memory.
+	 */
+	private Block geometry(final int i) {
+		if (i < 0 || i >= entry.pointCount) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		final Block block = blocks[i >> BLOCK_SHIFT];
+		if (block.latitudes == null) {
+			block(i);
+		}
+		return block;
+	}
+
+	public TrackPoint getPoint(final int i) {
+		if (i < 0 || i >= entry.pointCount) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return new TrackPoint(this, i);
+	}
+
+	public int getPointCount() {
+		return entry.pointCount;
+	}
+
+	public Enumeration getPoints() {
+		return new Enumeration() {
+			private int next = 0;
+
+			public boolean hasMoreElements() {
+				return next < entry.pointCount;
+			}
+
+			public Object nextElement() {
+				if (next >= entry.pointCount) {
+					throw new NoSuchElementException();
+				}
+				return new TrackPoint(LazyTrackSegment.this, next++);
+			}
+		};
+	}
+
+	public long getTimestamp(final int i) {
+		if (i == 0) {
+			return entry.firstTimestamp;
+		}
+		return block(i).getTimestamp(i & BLOCK_MASK);
+	}
+
+	public double getLatitude(final int i) {
+		return fromFixed(geometry(i).latitudes[i & BLOCK_MASK]);
+	}
+
+	public double getLongitude(final int i) {
+		return fromFixed(geometry(i).longitudes[i & BLOCK_MASK]);
+	}
+
+	public float getElevation(final int i) {
+		return block(i).getElevation(i & BLOCK_MASK);
+	}
+
+	public float getSpeed(final int i) {
+		return block(i).getSpeed(i & BLOCK_MASK);
+	}
+
+	public float getCourse(final int i) {
+		return block(i).getCourse(i & BLOCK_MASK);
+	}
+
+	public double getDistance(final int i) {
+		if (i == 0) {
+			return entry.distanceOffset;
+		}
+		return entry.blocks[i >> BLOCK_SHIFT].startDistance + block(i).getDistance(i & BLOCK_MASK);
+	}
+
+	public int getHeartRate(final int i) {
+		return block(i).getHeartRate(i & BLOCK_MASK);
+	}
+
+	public byte getSatellites(final int i) {
+		return block(i).getSatellites(i & BLOCK_MASK);
+	}
+
+	public boolean isStanding(final int i) {
+		return block(i).isStanding(i & BLOCK_MASK);
+	}
+
+	public int getRank(final int i) {
+		return geometry(i).ranks[i & BLOCK_MASK];
+	}
+
+	int getHigherIndex(final int i) {
+		// points without a higher one in their block continue at the next block
+		return (i & ~BLOCK_MASK) + geometry(i).higher[i & BLOCK_MASK];
+	}
+
+	public int getBlockEnd(final int i) {
+		return Math.min((i | BLOCK_MASK) + 1, entry.pointCount);
+	}
+
+	public double getBlockMinLatitude(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].minLatitude;
+	}
+
+	public double getBlockMaxLatitude(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].maxLatitude;
+	}
+
+	public double getBlockMinLongitude(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].minLongitude;
+	}
+
+	public double getBlockMaxLongitude(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].maxLongitude;
+	}
+
+	public long getBlockFirstTimestamp(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].firstTimestamp;
+	}
+
+	public long getBlockLastTimestamp(final int i) {
+		return entry.blocks[i >> BLOCK_SHIFT].lastTimestamp;
+	}
+
+	public String getName(final int i) {
+		return block(i).getName(i & BLOCK_MASK);
+	}
+
+	int getNameCount() {
+		int count = 0;
+		for (int b = 0; b < blocks.length; b++) {
+			count += block(b << BLOCK_SHIFT).getNameCount();
+		}
+		return count;
+	}
+
+	public void writeToStream(final DataOutputStream out) throws IOException {
+		writeToStream(out, entry.pointCount);
+	}
+
+	private static IllegalStateException readOnly() {
+		return new IllegalStateException("A lazily loaded track can't be changed");
+	}
+
+	boolean addPoint(final TrackPoint point) {
+		throw readOnly();
+	}
+
+	boolean copyPoint(final TrackPoint point) {
+		throw readOnly();
+	}
+
+	boolean copyPoint(final TrackPoint point, final double distance) {
+		throw readOnly();
+	}
+
+	void setTimestamp(final int i, final long timestamp) {
+		throw readOnly();
+	}
+
+	void setLatitude(final int i, final double latitude) {
+		throw readOnly();
+	}
+
+	void setLongitude(final int i, final double longitude) {
+		throw readOnly();
+	}
+
+	void setElevation(final int i, final float elevation) {
+		throw readOnly();
+	}
+
+	void setSpeed(final int i, final float speed) {
+		throw readOnly();
+	}
+
+	void setCourse(final int i, final float course) {
+		throw readOnly();
+	}
+
+	void setDistance(final int i, final double distance) {
+		throw readOnly();
+	}
+
+	void setHeartRate(final int i, final int heartRate) {
+		throw readOnly();
+	}
+
+	void setSatellites(final int i, final byte satellites) {
+		throw readOnly();
+	}
+
+	void setStanding(final int i, final boolean standing) {
+		throw readOnly();
+	}
+
+	void setName(final int i, final String name) {
+		throw readOnly();
+	}
+}
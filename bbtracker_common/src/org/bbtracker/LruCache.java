@@ -0,0 +1,333 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+/**
+ * A least recently used cache with int keys whose size is limited by the total cost of its values (bytes of memory,
+ * for example) and by a maximum number of entries.
+ * 
+ * All operations take constant time and don't allocate: the entries live in parallel arrays, linked into a list
+ * ordered by use, and are found through an open addressing hash table of entry indices.
+ */
+public class LruCache {
+	private static final int NONE = -1;
+
+	private final int maxEntries;
+
+	private final int[] keys;
+
+	private final Object[] values;
+
+	private final int[] costs;
+
+	private final int[] previous;
+
+	private final int[] next;
+
+	/**
+	 * Entry index + 1 for each slot, 0 marks an empty slot.
+	 */
+	private final int[] slots;
+
+	private final int slotShift;
+
+	/**
+	 * The most recently used entry.
+	 */
+	private int head = NONE;
+
+	/**
+	 * The least recently used entry.
+	 */
+	private int tail = NONE;
+
+	/**
+	 * The first unused entry, the others are linked through {@link #next}.
+	 */
+	private int free;
+
+	private int size = 0;
+
+	private int cost = 0;
+
+	private int budget;
+
+	private int hits = 0;
+
+	private int misses = 0;
+
+	private int evictions = 0;
+
+	/**
+	 * @param budget
+	 *            the maximum total cost of all values
+	 * @param maxEntries
+	 *            the maximum number of values
+	 */
+	public LruCache(final int budget, final int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		this.budget = budget;
+		this.maxEntries = maxEntries;
+		keys = new int[maxEntries];
+		values = new Object[maxEntries];
+		costs = new int[maxEntries];
+		previous = new int[maxEntries];
+		next = new int[maxEntries];
+		int bits = 1;
+		while ((1 << bits) < maxEntries * 2) {
+			bits++;
+		}
+		slots = new int[1 << bits];
+		slotShift = 32 - bits;
+		initFreeList();
+	}
+
+	private void initFreeList() {
+		for (int i = 0; i < maxEntries; i++) {
+			next[i] = i + 1 < maxEntries ? i + 1 : NONE;
+		}
+		free = 0;
+	}
+
+	private int slotOf(final int key) {
+		return (key * -1640531535) >>> slotShift;
+	}
+
+	/**
+	 * @return the slot holding <code>key</code> or the empty slot where it would be inserted
+	 */
+	private int findSlot(final int key) {
+		final int mask = slots.length - 1;
+		int slot = slotOf(key);
+		while (slots[slot] != 0 && keys[slots[slot] - 1] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Empties a slot, moving later entries of the same probe sequence back so that no lookup misses them.
+	 */
+	private void clearSlot(int slot) {
+		final int mask = slots.length - 1;
+		slots[slot] = 0;
+		int current = (slot + 1) & mask;
+		while (slots[current] != 0) {
+			final int home = slotOf(keys[slots[current] - 1]);
+			// move the entry if its home slot is not between the empty slot and its current slot
+			final boolean between = slot <= current ? (slot < home && home <= current)
+					: (slot < home || home <= current);
+			if (!between) {
+				slots[slot] = slots[current];
+				slots[current] = 0;
+				slot = current;
+			}
+			current = (current + 1) & mask;
+		}
+	}
+
+	private void unlink(final int entry) {
+		if (previous[entry] == NONE) {
+			head = next[entry];
+		} else {
+			next[previous[entry]] = next[entry];
+		}
+		if (next[entry] == NONE) {
+			tail = previous[entry];
+		} else {
+			previous[next[entry]] = previous[entry];
+		}
+	}
+
+	private void linkFirst(final int entry) {
+		previous[entry] = NONE;
+		next[entry] = head;
+		if (head != NONE) {
+			previous[head] = entry;
+		}
+		head = entry;
+		if (tail == NONE) {
+			tail = entry;
+		}
+	}
+
+	/**
+	 * Returns the value for <code>key</code> and marks it as most recently used.
+	 * 
+	 * @return the value or null if it isn't cached
+	 */
+	public synchronized Object get(final int key) {
+		final int slot = findSlot(key);
+		if (slots[slot] == 0) {
+			misses++;
+			return null;
+		}
+		hits++;
+		final int entry = slots[slot] - 1;
+		if (entry != head) {
+			unlink(entry);
+			linkFirst(entry);
+		}
+		return values[entry];
+	}
+
+	/**
+	 * Checks for <code>key</code> without changing the order of use or the statistics.
+	 */
+	public synchronized boolean containsKey(final int key) {
+		return slots[findSlot(key)] != 0;
+	}
+
+	/**
+	 * Adds or replaces a value and marks it as most recently used. The least recently used values are evicted until
+	 * the budget and the number of entries are kept again, but the new value is always added.
+	 */
+	public synchronized void put(final int key, final Object value, final int valueCost) {
+		final int slot = findSlot(key);
+		if (slots[slot] != 0) {
+			final int entry = slots[slot] - 1;
+			cost += valueCost - costs[entry];
+			values[entry] = value;
+			costs[entry] = valueCost;
+			if (entry != head) {
+				unlink(entry);
+				linkFirst(entry);
+			}
+		} else {
+			if (free == NONE) {
+				evict(tail);
+			}
+			final int entry = free;
+			free = next[entry];
+			keys[entry] = key;
+			values[entry] = value;
+			costs[entry] = valueCost;
+			// evicting may have moved entries, so look for the slot again
+			slots[findSlot(key)] = entry + 1;
+			linkFirst(entry);
+			size++;
+			cost += valueCost;
+		}
+		while (cost > budget && tail != head) {
+			evict(tail);
+		}
+	}
+
+	private void evict(final int entry) {
+		removeEntry(entry);
+		evictions++;
+	}
+
+	private void removeEntry(final int entry) {
+		clearSlot(findSlot(keys[entry]));
+		unlink(entry);
+		cost -= costs[entry];
+		values[entry] = null;
+		next[entry] = free;
+		free = entry;
+		size--;
+	}
+
+	/**
+	 * @return the removed value or null if it wasn't cached
+	 */
+	public synchronized Object remove(final int key) {
+		final int slot = findSlot(key);
+		if (slots[slot] == 0) {
+			return null;
+		}
+		final int entry = slots[slot] - 1;
+		final Object value = values[entry];
+		removeEntry(entry);
+		return value;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = 0;
+		}
+		for (int i = 0; i < maxEntries; i++) {
+			values[i] = null;
+		}
+		initFreeList();
+		head = NONE;
+		tail = NONE;
+		size = 0;
+		cost = 0;
+	}
+
+	/**
+	 * Changes the budget, evicting values if it shrinks.
+	 */
+	public synchronized void setBudget(final int budget) {
+		this.budget = budget;
+		while (cost > budget && size > 0) {
+			evict(tail);
+		}
+	}
+
+	public synchronized int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the total cost of all cached values
+	 */
+	public synchronized int getCost() {
+		return cost;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the keys from the most to the least recently used
+	 */
+	public synchronized int[] getKeys() {
+		final int[] result = new int[size];
+		int i = 0;
+		for (int entry = head; entry != NONE; entry = next[entry]) {
+			result[i++] = keys[entry];
+		}
+		return result;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized int getEvictions() {
+		return evictions;
+	}
+
+	public synchronized String toString() {
+		return size + " values, " + cost + "/" + budget + " used, " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+
+/**
+ * A small LZ77 compressor for blocks of up to {@link #MAX_BLOCK_SIZE} bytes. CLDC has no java.util.zip and the data
+ * we store (track streams, XML exports) repeats a lot, so finding repeated sequences already saves much.
+ * 
+ * Compressed data is a list of sequences, each a token byte (literal count in the high, match length - 4 in the low
+ * nibble, 15 meaning "more length bytes follow"), the literals and the 2 byte offset of the match. The last sequence
+ * has no match.
+ * 
+ * An encoded block starts with a {@link #BLOCK_HEADER_SIZE} byte header holding its type, its raw length and its
+ * payload length. Blocks that don't get smaller are stored as they are, so a block is never more than the header
+ * bigger than its data.
+ * 
+ * An instance keeps its hash table between blocks and is not thread safe; decoding needs no instance.
+ */
+public class LzCodec {
+	public static final int MAX_BLOCK_SIZE = 0xffff;
+
+	public static final int BLOCK_HEADER_SIZE = 5;
+
+	private static final byte TYPE_STORED = 0;
+
+	private static final byte TYPE_LZ = 1;
+
+	private static final int MIN_MATCH = 4;
+
+	private static final int MAX_OFFSET = 0xffff;
+
+	private static final int DEFAULT_HASH_BITS = 12;
+
+	private final int[] table;
+
+	private final int hashShift;
+
+	public LzCodec() {
+		this(DEFAULT_HASH_BITS);
+	}
+
+	/**
+	 * @param hashBits
+	 *            the size of the hash table as a power of two, smaller tables need less memory but find fewer matches
+	 */
+	public LzCodec(final int hashBits) {
+		table = new int[1 << hashBits];
+		hashShift = 32 - hashBits;
+	}
+
+	/**
+	 * @return the size of the buffer needed to encode <code>length</code> bytes
+	 */
+	public static int getMaxBlockLength(final int length) {
+		return length + BLOCK_HEADER_SIZE;
+	}
+
+	/**
+	 * Encodes <code>length</code> bytes as a block.
+	 * 
+	 * @return the length of the block written to <code>dst</code>
+	 */
+	public int encodeBlock(final byte[] src, final int offset, final int length, final byte[] dst, final int dstOffset) {
+		if (length > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block too big: " + length);
+		}
+		int payload = length > MIN_MATCH ? compress(src, offset, length, dst, dstOffset + BLOCK_HEADER_SIZE,
+				length - 1) : -1;
+		if (payload == -1) {
+			System.arraycopy(src, offset, dst, dstOffset + BLOCK_HEADER_SIZE, length);
+			payload = length;
+			dst[dstOffset] = TYPE_STORED;
+		} else {
+			dst[dstOffset] = TYPE_LZ;
+		}
+		writeShort(dst, dstOffset + 1, length);
+		writeShort(dst, dstOffset + 3, payload);
+		return BLOCK_HEADER_SIZE + payload;
+	}
+
+	/**
+	 * @return the number of bytes following the block header
+	 */
+	public static int getPayloadLength(final byte[] header, final int offset) {
+		return readShort(header, offset + 3);
+	}
+
+	/**
+	 * @return the number of bytes encoded in the block
+	 */
+	public static int getRawLength(final byte[] header, final int offset) {
+		return readShort(header, offset + 1);
+	}
+
+	/**
+	 * Decodes a block into <code>dst</code>, which must have room for {@link #getRawLength(byte[], int)} bytes.
+	 * 
+	 * @return the number of bytes decoded
+	 * @throws IOException
+	 *             if the block is damaged
+	 */
+	public static int decodeBlock(final byte[] block, final int offset, final byte[] dst, final int dstOffset)
+			throws IOException {
+		final int rawLength = getRawLength(block, offset);
+		final int payload = getPayloadLength(block, offset);
+		final int start = offset + BLOCK_HEADER_SIZE;
+		if (start + payload > block.length || dstOffset + rawLength > dst.length) {
+			throw new IOException("Compressed block is truncated");
+		}
+		switch (block[offset]) {
+		case TYPE_STORED:
+			if (payload != rawLength) {
+				throw new IOException("Stored block has wrong length");
+			}
+			System.arraycopy(block, start, dst, dstOffset, rawLength);
+			break;
+		case TYPE_LZ:
+			decompress(block, start, payload, dst, dstOffset, rawLength);
+			break;
+		default:
+			throw new IOException("Unknown block type " + block[offset]);
+		}
+		return rawLength;
+	}
+
+	/**
+	 * @return the compressed length or -1 if it would be more than <code>maxLength</code>
+	 */
+	int compress(final byte[] src, final int offset, final int length, final byte[] dst, final int dstOffset,
+			final int maxLength) {
+		final int[] table = this.table;
+		for (int i = 0; i < table.length; i++) {
+			table[i] = -1;
+		}
+		final int end = offset + length;
+		final int dstEnd = dstOffset + maxLength;
+		int d = dstOffset;
+		int anchor = offset;
+		int i = offset;
+		while (i <= end - MIN_MATCH) {
+			final int h = hash(src, i);
+			final int ref = table[h];
+			table[h] = i;
+			if (ref < 0 || i - ref > MAX_OFFSET || src[ref] != src[i] || src[ref + 1] != src[i + 1]
+					|| src[ref + 2] != src[i + 2] || src[ref + 3] != src[i + 3]) {
+				i++;
+				continue;
+			}
+			int matchEnd = i + MIN_MATCH;
+			int r = ref + MIN_MATCH;
+			while (matchEnd < end && src[matchEnd] == src[r]) {
+				matchEnd++;
+				r++;
+			}
+			d = writeSequence(src, anchor, i - anchor, dst, d, dstEnd, i - ref, matchEnd - i);
+			if (d < 0) {
+				return -1;
+			}
+			if (matchEnd - 2 > i && matchEnd - 2 <= end - MIN_MATCH) {
+				// remember a position near the end, repetitions often continue there
+				table[hash(src, matchEnd - 2)] = matchEnd - 2;
+			}
+			i = matchEnd;
+			anchor = matchEnd;
+		}
+		d = writeSequence(src, anchor, end - anchor, dst, d, dstEnd, 0, 0);
+		return d < 0 ? -1 : d - dstOffset;
+	}
+
+	private int hash(final byte[] b, final int i) {
+		final int v = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+		return (v * -1640531535) >>> hashShift;
+	}
+
+	/**
+	 * Writes literals followed by a match (if <code>matchLength</code> is not 0).
+	 * 
+	 * @return the new position in <code>dst</code> or -1 if <code>dstEnd</code> would be exceeded
+	 */
+	private static int writeSequence(final byte[] src, final int literalOffset, final int literals, final byte[] dst,
+			int d, final int dstEnd, final int matchOffset, final int matchLength) {
+		final int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+		// token, length bytes, literals and offset
+		if (d + 1 + literals / 255 + 1 + literals + matchCode / 255 + 1 + 2 > dstEnd) {
+			return -1;
+		}
+		final int tokenPosition = d++;
+		int token;
+		if (literals >= 15) {
+			token = 15 << 4;
+			d = writeLength(dst, d, literals - 15);
+		} else {
+			token = literals << 4;
+		}
+		System.arraycopy(src, literalOffset, dst, d, literals);
+		d += literals;
+		if (matchLength != 0) {
+			dst[d++] = (byte) matchOffset;
+			dst[d++] = (byte) (matchOffset >>> 8);
+			if (matchCode >= 15) {
+				token |= 15;
+				d = writeLength(dst, d, matchCode - 15);
+			} else {
+				token |= matchCode;
+			}
+		}
+		dst[tokenPosition] = (byte) token;
+		return d;
+	}
+
+	private static int writeLength(final byte[] dst, int d, int length) {
+		while (length >= 255) {
+			dst[d++] = (byte) 255;
+			length -= 255;
+		}
+		dst[d++] = (byte) length;
+		return d;
+	}
+
+	static void decompress(final byte[] src, final int offset, final int length, final byte[] dst,
+			final int dstOffset, final int rawLength) throws IOException {
+		final int end = offset + length;
+		final int dstEnd = dstOffset + rawLength;
+		int s = offset;
+		int d = dstOffset;
+		while (s < end) {
+			final int token = src[s++] & 0xff;
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (s == end) {
+						throw new IOException("Compressed block is damaged");
+					}
+					b = src[s++] & 0xff;
+					literals += b;
+				} while (b == 255);
+			}
+			if (s + literals > end || d + literals > dstEnd) {
+				throw new IOException("Compressed block is damaged");
+			}
+			System.arraycopy(src, s, dst, d, literals);
+			s += literals;
+			d += literals;
+			if (s == end) {
+				break;
+			}
+			if (s + 2 > end) {
+				throw new IOException("Compressed block is damaged");
+			}
+			final int matchOffset = (src[s] & 0xff) | (src[s + 1] & 0xff) << 8;
+			s += 2;
+			int matchLength = token & 15;
+			if (matchLength == 15) {
+				int b;
+				do {
+					if (s == end) {
+						throw new IOException("Compressed block is damaged");
+					}
+					b = src[s++] & 0xff;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (matchOffset == 0 || matchOffset > d - dstOffset || d + matchLength > dstEnd) {
+				throw new IOException("Compressed block is damaged");
+			}
+			int r = d - matchOffset;
+			if (matchOffset >= matchLength) {
+				System.arraycopy(dst, r, dst, d, matchLength);
+				d += matchLength;
+			} else {
+				// the match overlaps the bytes it produces
+				for (int i = 0; i < matchLength; i++) {
+					dst[d++] = dst[r++];
+				}
+			}
+		}
+		if (d != dstEnd) {
+			throw new IOException("Compressed block is damaged");
+		}
+	}
+
+	private static void writeShort(final byte[] b, final int offset, final int value) {
+		b[offset] = (byte) (value >>> 8);
+		b[offset + 1] = (byte) value;
+	}
+
+	private static int readShort(final byte[] b, final int offset) {
+		return (b[offset] & 0xff) << 8 | (b[offset + 1] & 0xff);
+	}
+}
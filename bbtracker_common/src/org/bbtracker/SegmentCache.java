@@ -0,0 +1,107 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Keeps track of the blocks of {@link LazyTrackSegment}s that are in memory and evicts the least recently used ones
+ * when a limit is reached or memory runs out.
+ */
+class SegmentCache {
+	private final int maxPoints;
+
+	private final Vector blocks = new Vector();
+
+	private int points = 0;
+
+	private int clock = 0;
+
+	private int loadCount = 0;
+
+	/**
+	 * @param maxPoints
+	 *            the number of points to keep in memory. A single block is loaded even if it is bigger.
+	 */
+	SegmentCache(final int maxPoints) {
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * Returns an increasing number to mark the use of a block. This is not synchronized, because it is called on every
+	 * access and an occasional lost update only makes eviction slightly less accurate.
+	 */
+	int tick() {
+		return ++clock;
+	}
+
+	/**
+	 * Returns the number of blocks that have been read so far.
+	 */
+	int getLoadCount() {
+		return loadCount;
+	}
+
+	synchronized int getLoadedPoints() {
+		return points;
+	}
+
+	synchronized TrackSegment load(final LazyTrackSegment.Block block) {
+		if (block.data != null) {
+			return block.data;
+		}
+		final int count = block.getPointCount();
+		while (!blocks.isEmpty() && points + count > maxPoints) {
+			evictOldest();
+		}
+		TrackSegment data;
+		try {
+			try {
+				data = block.read();
+			} catch (final OutOfMemoryError e) {
+				while (!blocks.isEmpty()) {
+					evictOldest();
+				}
+				data = block.read();
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException("Failed to load track: " + e.getMessage());
+		}
+		loadCount++;
+		block.data = data;
+		blocks.addElement(block);
+		points += count;
+		return data;
+	}
+
+	private void evictOldest() {
+		int oldest = 0;
+		for (int i = 1; i < blocks.size(); i++) {
+			if (((LazyTrackSegment.Block) blocks.elementAt(i)).lastUse
+					- ((LazyTrackSegment.Block) blocks.elementAt(oldest)).lastUse < 0) {
+				oldest = i;
+			}
+		}
+		final LazyTrackSegment.Block block = (LazyTrackSegment.Block) blocks.elementAt(oldest);
+		blocks.removeElementAt(oldest);
+		points -= block.getPointCount();
+		// readers that already got the data keep using it
+		block.data = null;
+	}
+}
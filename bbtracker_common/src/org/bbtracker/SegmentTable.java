@@ -0,0 +1,364 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The table of segments that follows the {@link TrackPointCodec#END} record of a version 2 track stream. It allows
+ * loading single parts of a track (see {@link Track#openLazy(TrackStreamSource, int)}).
+ * 
+ * For each segment the table holds its point count, time range, bounding box, elevation range, maximum speed and
+ * distances. Each segment is divided into blocks of {@link #BLOCK_POINTS} points; for each block the table holds the
+ * offset of its first point record, the distance of that point and the state of the {@link TrackPointCodec} before
+ * it, so that a block can be read without reading the points before it. It also holds the bounding box and time range
+ * of each block, which include the first point of the next block, so that a block that is not visible doesn't need
+ * to be read at all.
+ * 
+ * The table is followed by its length and {@link #MAGIC} as two ints. Readers that don't know the table stop at the
+ * end record and never see it. Streams without a table end with the end record, whose tag can't be mistaken for the
+ * last byte of {@link #MAGIC}.
+ */
+class SegmentTable {
+	static final int BLOCK_SHIFT = 10;
+
+	static final int BLOCK_POINTS = 1 << BLOCK_SHIFT;
+
+	private static final int MAGIC = 0x42425332;
+
+	private static final int TRAILER_SIZE = 8;
+
+	private Entry[] entries = new Entry[4];
+
+	private int entryCount = 0;
+
+	static class Entry {
+		int pointCount = 0;
+
+		long firstTimestamp;
+
+		long lastTimestamp;
+
+		double minLatitude = Double.POSITIVE_INFINITY;
+
+		double minLongitude = Double.POSITIVE_INFINITY;
+
+		double maxLatitude = Double.NEGATIVE_INFINITY;
+
+		double maxLongitude = Double.NEGATIVE_INFINITY;
+
+		float minElevation = Float.NaN;
+
+		float maxElevation = Float.NaN;
+
+		float maxSpeed = Float.NaN;
+
+		/**
+		 * The length of the track before this segment.
+		 */
+		double distanceOffset;
+
+		/**
+		 * The distance of the last point of this segment from the start of the track.
+		 */
+		double endDistance;
+
+		Block[] blocks = new Block[0];
+	}
+
+	static class Block {
+		long offset;
+
+		/**
+		 * The distance of the first point of this block from the start of the track.
+		 */
+		double startDistance;
+
+		byte[] codecState;
+
+		long firstTimestamp;
+
+		/**
+		 * The timestamp of the first point of the next block or of the last point of the segment.
+		 */
+		long lastTimestamp;
+
+		double minLatitude;
+
+		double minLongitude;
+
+		double maxLatitude;
+
+		double maxLongitude;
+
+		void include(final long timestamp, final double latitude, final double longitude) {
+			lastTimestamp = timestamp;
+			minLatitude = Math.min(minLatitude, latitude);
+			maxLatitude = Math.max(maxLatitude, latitude);
+			minLongitude = Math.min(minLongitude, longitude);
+			maxLongitude = Math.max(maxLongitude, longitude);
+		}
+	}
+
+	int getSegmentCount() {
+		return entryCount;
+	}
+
+	Entry getEntry(final int s) {
+		return entries[s];
+	}
+
+	void startSegment(final double distanceOffset) {
+		if (entryCount == entries.length) {
+			final Entry[] newEntries = new Entry[entryCount * 2];
+			System.arraycopy(entries, 0, newEntries, 0, entryCount);
+			entries = newEntries;
+		}
+		final Entry entry = new Entry();
+		entry.distanceOffset = distanceOffset;
+		entry.endDistance = distanceOffset;
+		entries[entryCount++] = entry;
+	}
+
+	/**
+	 * Adds a point to the last segment. This must be called before the point is written with <code>codec</code>.
+	 * 
+	 * @param offset
+	 *            the position in the stream at which the record of the point will start
+	 */
+	void addPoint(final long offset, final TrackPointCodec codec, final TrackPoint point) throws IOException {
+		addPoint(offset, isBlockStart() ? getState(codec) : null, point);
+	}
+
+	/**
+	 * Returns true if the next point added starts a new block, which needs the state of the codec.
+	 */
+	boolean isBlockStart() {
+		return entryCount == 0 || entries[entryCount - 1].pointCount % BLOCK_POINTS == 0;
+	}
+
+	static byte[] getState(final TrackPointCodec codec) throws IOException {
+		final ByteArrayOutputStream state = new ByteArrayOutputStream(25);
+		codec.writeState(new DataOutputStream(state));
+		return state.toByteArray();
+	}
+
+	/**
+	 * Adds a point to the last segment.
+	 * 
+	 * @param codecState
+	 *            the state of the codec before the record of the point, only needed if {@link #isBlockStart()}
+	 */
+	void addPoint(final long offset, final byte[] codecState, final TrackPoint point) {
+		if (entryCount == 0) {
+			startSegment(0);
+		}
+		final Entry entry = entries[entryCount - 1];
+		final long timestamp = point.getTimestamp();
+		final double latitude = point.getLatitude();
+		final double longitude = point.getLongitude();
+		if (entry.pointCount % BLOCK_POINTS == 0) {
+			if (entry.pointCount > 0) {
+				// the line to this point belongs to the previous block
+				entry.blocks[entry.blocks.length - 1].include(timestamp, latitude, longitude);
+			}
+			final Block block = new Block();
+			block.offset = offset;
+			block.startDistance = point.getDistance();
+			block.firstTimestamp = timestamp;
+			block.minLatitude = block.maxLatitude = latitude;
+			block.minLongitude = block.maxLongitude = longitude;
+			block.codecState = codecState;
+			final Block[] blocks = new Block[entry.blocks.length + 1];
+			System.arraycopy(entry.blocks, 0, blocks, 0, entry.blocks.length);
+			blocks[entry.blocks.length] = block;
+			entry.blocks = blocks;
+		}
+		entry.blocks[entry.blocks.length - 1].include(timestamp, latitude, longitude);
+
+		if (entry.pointCount == 0) {
+			entry.firstTimestamp = timestamp;
+		}
+		entry.lastTimestamp = timestamp;
+		entry.pointCount++;
+
+		entry.minLatitude = Math.min(entry.minLatitude, latitude);
+		entry.maxLatitude = Math.max(entry.maxLatitude, latitude);
+		entry.minLongitude = Math.min(entry.minLongitude, longitude);
+		entry.maxLongitude = Math.max(entry.maxLongitude, longitude);
+
+		final float elevation = point.getElevation();
+		if (!Float.isNaN(elevation)) {
+			if (Float.isNaN(entry.minElevation) || elevation < entry.minElevation) {
+				entry.minElevation = elevation;
+			}
+			if (Float.isNaN(entry.maxElevation) || elevation > entry.maxElevation) {
+				entry.maxElevation = elevation;
+			}
+		}
+		final float speed = point.getSpeed();
+		if (!Float.isNaN(speed) && (Float.isNaN(entry.maxSpeed) || speed > entry.maxSpeed)) {
+			entry.maxSpeed = speed;
+		}
+		entry.endDistance = point.getDistance();
+	}
+
+	/**
+	 * Writes the table and the trailer. This must follow the end record.
+	 */
+	void writeToStream(final DataOutputStream out) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream table = new DataOutputStream(buffer);
+		table.writeInt(entryCount);
+		for (int s = 0; s < entryCount; s++) {
+			final Entry entry = entries[s];
+			table.writeInt(entry.pointCount);
+			table.writeLong(entry.firstTimestamp);
+			table.writeLong(entry.lastTimestamp);
+			table.writeDouble(entry.minLatitude);
+			table.writeDouble(entry.minLongitude);
+			table.writeDouble(entry.maxLatitude);
+			table.writeDouble(entry.maxLongitude);
+			table.writeFloat(entry.minElevation);
+			table.writeFloat(entry.maxElevation);
+			table.writeFloat(entry.maxSpeed);
+			table.writeDouble(entry.distanceOffset);
+			table.writeDouble(entry.endDistance);
+			table.writeInt(entry.blocks.length);
+			for (int b = 0; b < entry.blocks.length; b++) {
+				final Block block = entry.blocks[b];
+				table.writeLong(block.offset);
+				table.writeDouble(block.startDistance);
+				table.writeShort(block.codecState.length);
+				table.write(block.codecState);
+				table.writeLong(block.firstTimestamp);
+				table.writeLong(block.lastTimestamp);
+				table.writeDouble(block.minLatitude);
+				table.writeDouble(block.minLongitude);
+				table.writeDouble(block.maxLatitude);
+				table.writeDouble(block.maxLongitude);
+			}
+		}
+		out.write(buffer.toByteArray());
+		out.writeInt(buffer.size());
+		out.writeInt(MAGIC);
+	}
+
+	/**
+	 * Reads the table at the end of <code>source</code>.
+	 * 
+	 * @return the table or null if the stream has none
+	 */
+	static SegmentTable read(final TrackStreamSource source) throws IOException {
+		final long length = source.getLength();
+		if (length < TRAILER_SIZE) {
+			return null;
+		}
+		final int tableLength;
+		DataInputStream in = new DataInputStream(source.open(length - TRAILER_SIZE));
+		try {
+			tableLength = in.readInt();
+			if (in.readInt() != MAGIC || tableLength < 4 || tableLength > length - TRAILER_SIZE) {
+				return null;
+			}
+		} finally {
+			in.close();
+		}
+		in = new DataInputStream(source.open(length - TRAILER_SIZE - tableLength));
+		try {
+			final SegmentTable table = new SegmentTable();
+			final int count = in.readInt();
+			table.entries = new Entry[Math.max(count, 1)];
+			for (int s = 0; s < count; s++) {
+				final Entry entry = new Entry();
+				entry.pointCount = in.readInt();
+				entry.firstTimestamp = in.readLong();
+				entry.lastTimestamp = in.readLong();
+				entry.minLatitude = in.readDouble();
+				entry.minLongitude = in.readDouble();
+				entry.maxLatitude = in.readDouble();
+				entry.maxLongitude = in.readDouble();
+				entry.minElevation = in.readFloat();
+				entry.maxElevation = in.readFloat();
+				entry.maxSpeed = in.readFloat();
+				entry.distanceOffset = in.readDouble();
+				entry.endDistance = in.readDouble();
+				entry.blocks = new Block[in.readInt()];
+				for (int b = 0; b < entry.blocks.length; b++) {
+					final Block block = new Block();
+					block.offset = in.readLong();
+					block.startDistance = in.readDouble();
+					block.codecState = new byte[in.readUnsignedShort()];
+					in.readFully(block.codecState);
+					block.firstTimestamp = in.readLong();
+					block.lastTimestamp = in.readLong();
+					block.minLatitude = in.readDouble();
+					block.minLongitude = in.readDouble();
+					block.maxLatitude = in.readDouble();
+					block.maxLongitude = in.readDouble();
+					entry.blocks[b] = block;
+				}
+				table.entries[s] = entry;
+			}
+			table.entryCount = count;
+			return table;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the points of one block into a new segment. The distances of the returned segment are relative to the
+	 * first point of the block.
+	 * 
+	 * @param count
+	 *            the number of points in the block
+	 */
+	static TrackSegment readBlock(final TrackStreamSource source, final Block block, final int count)
+			throws IOException {
+		final InputStream stream = source.open(block.offset);
+		try {
+			final DataInputStream in = new DataInputStream(stream);
+			final TrackPointCodec codec = new TrackPointCodec();
+			codec.readState(new DataInputStream(new ByteArrayInputStream(block.codecState)));
+			final TrackSegment segment = new TrackSegment(count);
+			final TrackPoint point = new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0);
+			for (int i = 0; i < count; i++) {
+				if (codec.read(in, point) != TrackPointCodec.POINT) {
+					throw new IOException("Segment table doesn't match the track");
+				}
+				final double distance = point.getDistance();
+				if (Double.isNaN(distance)) {
+					segment.copyPoint(point);
+				} else {
+					segment.copyPoint(point, distance - block.startDistance);
+				}
+			}
+			return segment;
+		} catch (final TrackStoreException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			stream.close();
+		}
+	}
+}
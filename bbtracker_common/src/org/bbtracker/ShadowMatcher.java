@@ -0,0 +1,207 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+/**
+ * Matches positions against a reference ("shadow") track to tell how far off the route they are and how far ahead or
+ * behind the reference they are in time.
+ * 
+ * Successive positions are expected to move along the shadow track, so each match only looks at a small window of legs
+ * starting at the previous match. Only when nothing in the window is close enough will the whole track be searched
+ * (using its {@link TrackGrid}).
+ */
+public class ShadowMatcher {
+	/**
+	 * The number of legs after the last match that are searched.
+	 */
+	public static final int WINDOW = 20;
+
+	/**
+	 * The number of legs before the last match that are searched, to compensate for GPS jitter.
+	 */
+	private static final int BACKTRACK = 2;
+
+	/**
+	 * If the closest leg in the window is further away than this (in meters), then the whole track is searched.
+	 */
+	public static final double REACQUIRE_DISTANCE = 100;
+
+	private static final double METERS_PER_DEGREE = 111319.49;
+
+	private final Track shadow;
+
+	private boolean matched = false;
+
+	/**
+	 * The index of the first point of the matched leg.
+	 */
+	private int legIndex = 0;
+
+	/**
+	 * The position of the match on the matched leg, from 0 (at its first point) to 1 (at its last point).
+	 */
+	private double legFraction;
+
+	private double deviation = Double.NaN;
+
+	private long timeGap;
+
+	// scratch results of matchLeg()
+	private double legDistance;
+
+	private double legT;
+
+	public ShadowMatcher(final Track shadow) {
+		this.shadow = shadow;
+	}
+
+	public Track getShadowTrack() {
+		return shadow;
+	}
+
+	/**
+	 * Matches a new position.
+	 * 
+	 * @param elapsed
+	 *            the time in milliseconds since the start of the track the position belongs to
+	 * @return true if the position could be matched, false if the shadow track has no points
+	 */
+	public boolean update(final double latitude, final double longitude, final long elapsed) {
+		final int count = shadow.getPointCount();
+		if (count == 0) {
+			matched = false;
+			return false;
+		}
+		final double cosLatitude = Math.cos(Math.toRadians(latitude));
+
+		final int start = Math.min(legIndex, count - 1);
+		final int from = Math.max(0, start - BACKTRACK);
+		final int to = Math.min(count - 1, legIndex + WINDOW);
+		int bestIndex = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		double bestT = 0;
+		// look forward first, so that the match only moves back if that is strictly closer
+		for (int j = start; j <= to + start - from; j++) {
+			final int i = j <= to ? j : from + j - to - 1;
+			matchLeg(i, latitude, longitude, cosLatitude);
+			if (legDistance < bestDistance) {
+				bestIndex = i;
+				bestDistance = legDistance;
+				bestT = legT;
+			}
+		}
+
+		if (bestDistance > REACQUIRE_DISTANCE) {
+			final int nearest = shadow.getGrid().getNearestIndex(latitude, longitude);
+			for (int i = Math.max(0, nearest - 1); i <= nearest; i++) {
+				matchLeg(i, latitude, longitude, cosLatitude);
+				if (legDistance < bestDistance) {
+					bestIndex = i;
+					bestDistance = legDistance;
+					bestT = legT;
+				}
+			}
+		}
+
+		if (bestT == 1) {
+			// the end of a leg is the start of the next one
+			bestIndex++;
+			bestT = 0;
+		}
+		matched = true;
+		legIndex = bestIndex;
+		legFraction = bestT;
+		deviation = bestDistance;
+		timeGap = elapsed - (getMatchedTimestamp() - shadow.getTimestamp(0));
+		return true;
+	}
+
+	/**
+	 * Computes the distance from the given position to the leg starting at point i. A leg ends at the next point in
+	 * the same segment; the last point of a segment is a leg of its own.
+	 */
+	private void matchLeg(final int i, final double latitude, final double longitude, final double cosLatitude) {
+		final double ax = shadow.getLongitude(i);
+		final double ay = shadow.getLatitude(i);
+		final double px = (longitude - ax) * cosLatitude;
+		final double py = latitude - ay;
+		double t = 0;
+		if (i + 1 < shadow.getPointCount() && !shadow.isSegmentStart(i + 1)) {
+			final double bx = (shadow.getLongitude(i + 1) - ax) * cosLatitude;
+			final double by = shadow.getLatitude(i + 1) - ay;
+			final double length = bx * bx + by * by;
+			if (length > 0) {
+				t = Math.max(0, Math.min(1, (px * bx + py * by) / length));
+			}
+			final double dx = px - t * bx;
+			final double dy = py - t * by;
+			legDistance = Math.sqrt(dx * dx + dy * dy) * METERS_PER_DEGREE;
+		} else {
+			legDistance = Math.sqrt(px * px + py * py) * METERS_PER_DEGREE;
+		}
+		legT = t;
+	}
+
+	private long getMatchedTimestamp() {
+		final long start = shadow.getTimestamp(legIndex);
+		if (legFraction == 0) {
+			return start;
+		}
+		return start + (long) ((shadow.getTimestamp(legIndex + 1) - start) * legFraction);
+	}
+
+	public boolean isMatched() {
+		return matched;
+	}
+
+	/**
+	 * Returns the index of the shadow track point at or just before the matched position.
+	 */
+	public int getMatchedIndex() {
+		return matched ? legIndex : -1;
+	}
+
+	/**
+	 * Returns the distance along the shadow track to the matched position in meters.
+	 */
+	public double getMatchedDistance() {
+		if (!matched) {
+			return Double.NaN;
+		}
+		final double start = shadow.getDistance(legIndex);
+		if (legFraction == 0) {
+			return start;
+		}
+		return start + (shadow.getDistance(legIndex + 1) - start) * legFraction;
+	}
+
+	/**
+	 * Returns the distance from the last position to the shadow track in meters.
+	 */
+	public double getDeviation() {
+		return matched ? deviation : Double.NaN;
+	}
+
+	/**
+	 * Returns how much longer (in milliseconds) it took to get to the matched position than it took on the shadow
+	 * track. Negative values mean that we are ahead of the shadow.
+	 */
+	public long getTimeGap() {
+		return timeGap;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a track in the simple text format: the name of the track followed by one "longitude,latitude" pair per
+ * point, all separated by white space. Further comma separated values (such as an elevation) are ignored. Like
+ * configuration files the name may be quoted.
+ * 
+ * The text is read in a single pass through a fixed buffer and the coordinates are parsed directly from it, without
+ * keeping lines or creating strings. Reading can stop after the name, so listing text tracks doesn't require parsing
+ * them.
+ */
+public class TextTrackReader {
+	private static final int BUFFER_SIZE = 512;
+
+	/**
+	 * Powers of ten that can be represented exactly.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * The number of digits that are always exact in a double.
+	 */
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private final Reader reader;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int position = 0;
+
+	private int count = 0;
+
+	private char[] token = new char[32];
+
+	private int tokenLength;
+
+	private String name;
+
+	private boolean nameRead = false;
+
+	public TextTrackReader(final Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns the name of the track, reading it if necessary.
+	 * 
+	 * @return the name or null if the text is empty
+	 */
+	public String getName() throws IOException {
+		if (!nameRead) {
+			nameRead = true;
+			if (nextToken()) {
+				name = new String(token, 0, tokenLength);
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Reads the next point. Only the latitude and longitude of <code>point</code> are changed.
+	 * 
+	 * @return false if there are no more points
+	 * @throws NumberFormatException
+	 *             if the coordinates can't be parsed
+	 */
+	public boolean next(final TrackPoint point) throws IOException {
+		getName();
+		if (!nextToken()) {
+			return false;
+		}
+		int comma = 0;
+		while (comma < tokenLength && token[comma] != ',') {
+			comma++;
+		}
+		int end = comma + 1;
+		while (end < tokenLength && token[end] != ',') {
+			end++;
+		}
+		if (comma >= tokenLength) {
+			throw new NumberFormatException("Invalid coordinates: " + new String(token, 0, tokenLength));
+		}
+		point.setLongitude(parseDouble(token, 0, comma));
+		point.setLatitude(parseDouble(token, comma + 1, end));
+		return true;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private int read() throws IOException {
+		if (position == count) {
+			final int n = reader.read(buffer, 0, buffer.length);
+			if (n <= 0) {
+				return -1;
+			}
+			position = 0;
+			count = n;
+		}
+		return buffer[position++];
+	}
+
+	private void append(final char ch) {
+		if (tokenLength == token.length) {
+			final char[] newToken = new char[token.length * 2];
+			System.arraycopy(token, 0, newToken, 0, tokenLength);
+			token = newToken;
+		}
+		token[tokenLength++] = ch;
+	}
+
+	/**
+	 * Reads the next white space separated word into {@link #token}, handling quotes the same way as the
+	 * configuration files do.
+	 * 
+	 * @return false at the end of the text
+	 */
+	private boolean nextToken() throws IOException {
+		tokenLength = 0;
+		int ch;
+		do {
+			ch = read();
+		} while (ch != -1 && isSpace((char) ch));
+		if (ch == -1) {
+			return false;
+		}
+		if (ch == '"') {
+			for (;;) {
+				ch = read();
+				if (ch == -1) {
+					break;
+				}
+				if (ch == '"') {
+					ch = read();
+					if (ch != '"') {
+						break;
+					}
+				}
+				append((char) ch);
+			}
+		} else {
+			while (ch != -1 && !isSpace((char) ch)) {
+				append((char) ch);
+				ch = read();
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace(final char ch) {
+		return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+	}
+
+	/**
+	 * Parses a decimal number such as "-16.372" without creating a string. Numbers that can't be parsed exactly this
+	 * way (too many digits or an exponent) are left to {@link Double#parseDouble(String)}.
+	 */
+	static double parseDouble(final char[] chars, final int start, final int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			negative = chars[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean anyDigit = false;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			final char ch = chars[i];
+			if (ch >= '0' && ch <= '9') {
+				anyDigit = true;
+				mantissa = mantissa * 10 + (ch - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+				if (fraction) {
+					fractionDigits++;
+				}
+				if (digits > MAX_EXACT_DIGITS) {
+					break;
+				}
+			} else if (ch == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		if (i < end || fractionDigits >= POWERS_OF_TEN.length) {
+			// exponent, too many digits or garbage
+			return Double.parseDouble(new String(chars, start, end - start));
+		}
+		if (!anyDigit) {
+			throw new NumberFormatException("Invalid number: " + new String(chars, start, end - start));
+		}
+		// both values are exact, so the division is rounded correctly
+		final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The header of a tile pack, a single file holding the map tiles of several zoom levels. Unlike a tar archive it
+ * needs no index scan: the header has a fixed size and the position of every tile follows from its number.
+ * 
+ * All numbers are big endian ints. The file starts with {@link #HEADER_SIZE} bytes: {@link #MAGIC},
+ * {@link #VERSION}, the number of levels and {@link #MAX_LEVELS} level records (zoom, tile width, tile height,
+ * columns, rows and the offset of the level's directory). A directory has an entry (offset and length of the
+ * payload, 0 if the tile is missing) for each tile, numbered column by column like the map files. The payloads of
+ * a level follow in row-major order.
+ * 
+ * Written by {@link TilePackWriter}.
+ */
+public final class TilePack {
+	/** "BBTP" */
+	public static final int MAGIC = 0x42425450;
+
+	public static final int VERSION = 1;
+
+	public static final int MAX_LEVELS = 32;
+
+	private static final int LEVEL_RECORD_SIZE = 6 * 4;
+
+	public static final int HEADER_SIZE = 3 * 4 + MAX_LEVELS * LEVEL_RECORD_SIZE;
+
+	public static final int ENTRY_SIZE = 2 * 4;
+
+	private final int levelCount;
+
+	private final int[] zoom;
+
+	private final int[] tileWidth;
+
+	private final int[] tileHeight;
+
+	private final int[] columns;
+
+	private final int[] rows;
+
+	private final int[] directoryOffset;
+
+	TilePack(final int levelCount, final int[] zoom, final int[] tileWidth, final int[] tileHeight,
+			final int[] columns, final int[] rows, final int[] directoryOffset) {
+		this.levelCount = levelCount;
+		this.zoom = zoom;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.columns = columns;
+		this.rows = rows;
+		this.directoryOffset = directoryOffset;
+	}
+
+	/**
+	 * Reads the header from the start of a tile pack, exactly {@link #HEADER_SIZE} bytes are consumed.
+	 */
+	public static TilePack read(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a tile pack");
+		}
+		final int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unknown tile pack version " + version);
+		}
+		final int levelCount = data.readInt();
+		if (levelCount < 0 || levelCount > MAX_LEVELS) {
+			throw new IOException("Invalid number of levels: " + levelCount);
+		}
+		final int[] zoom = new int[levelCount];
+		final int[] tileWidth = new int[levelCount];
+		final int[] tileHeight = new int[levelCount];
+		final int[] columns = new int[levelCount];
+		final int[] rows = new int[levelCount];
+		final int[] directoryOffset = new int[levelCount];
+		for (int i = 0; i < levelCount; i++) {
+			zoom[i] = data.readInt();
+			tileWidth[i] = data.readInt();
+			tileHeight[i] = data.readInt();
+			columns[i] = data.readInt();
+			rows[i] = data.readInt();
+			directoryOffset[i] = data.readInt();
+		}
+		data.readFully(new byte[(MAX_LEVELS - levelCount) * LEVEL_RECORD_SIZE]);
+		return new TilePack(levelCount, zoom, tileWidth, tileHeight, columns, rows, directoryOffset);
+	}
+
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * @return the index of the level with the given zoom or -1 if there is none
+	 */
+	public int findLevel(final int levelZoom) {
+		for (int i = 0; i < levelCount; i++) {
+			if (zoom[i] == levelZoom) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getZoom(final int level) {
+		return zoom[level];
+	}
+
+	public int getTileWidth(final int level) {
+		return tileWidth[level];
+	}
+
+	public int getTileHeight(final int level) {
+		return tileHeight[level];
+	}
+
+	public int getColumns(final int level) {
+		return columns[level];
+	}
+
+	public int getRows(final int level) {
+		return rows[level];
+	}
+
+	int getDirectoryOffset(final int level) {
+		return directoryOffset[level];
+	}
+
+	/**
+	 * Reads the directory of a level, so that each tile can be read with a single skip afterwards.
+	 * 
+	 * @param position
+	 *            the current position of <code>in</code> in the pack, it must not be behind the directory
+	 * @param offsets
+	 *            receives the offset of each tile's payload, it needs room for all tiles of the level
+	 * @param lengths
+	 *            receives the length of each tile's payload, 0 if the tile is missing
+	 */
+	public void readDirectory(final InputStream in, final long position, final int level, final int[] offsets,
+			final int[] lengths) throws IOException {
+		skipFully(in, directoryOffset[level] - position);
+		final DataInputStream data = new DataInputStream(in);
+		final int count = columns[level] * rows[level];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = data.readInt();
+			lengths[i] = data.readInt();
+		}
+	}
+
+	private static void skipFully(final InputStream in, final long n) throws IOException {
+		if (n < 0) {
+			throw new IOException("Can't seek backwards in tile pack");
+		}
+		long left = n;
+		while (left > 0) {
+			final long skipped = in.skip(left);
+			if (skipped > 0) {
+				left -= skipped;
+			} else if (in.read() == -1) {
+				throw new IOException("Truncated tile pack");
+			} else {
+				left--;
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link TilePack}. The levels and the lengths of all tiles have to be known first, then the header and
+ * the directories are written with {@link #writeDirectory(OutputStream)}, followed by each tile in pack order:
+ * level by level, row by row, left to right.
+ */
+public class TilePackWriter {
+	private final int[] zoom = new int[TilePack.MAX_LEVELS];
+
+	private final int[] tileWidth = new int[TilePack.MAX_LEVELS];
+
+	private final int[] tileHeight = new int[TilePack.MAX_LEVELS];
+
+	private final int[] columns = new int[TilePack.MAX_LEVELS];
+
+	private final int[] rows = new int[TilePack.MAX_LEVELS];
+
+	private final int[][] lengths = new int[TilePack.MAX_LEVELS][];
+
+	private int[][] offsets;
+
+	private int levelCount = 0;
+
+	/** Offset in the pack of the next payload byte. */
+	private long position = -1;
+
+	/** Length of the complete pack. */
+	private long end = -1;
+
+	/**
+	 * @return the index of the new level
+	 */
+	public int addLevel(final int levelZoom, final int levelTileWidth, final int levelTileHeight,
+			final int levelColumns, final int levelRows) {
+		if (offsets != null) {
+			throw new IllegalStateException("directory already written");
+		}
+		if (levelCount == TilePack.MAX_LEVELS) {
+			throw new IllegalArgumentException("too many levels");
+		}
+		for (int i = 0; i < levelCount; i++) {
+			if (zoom[i] == levelZoom) {
+				throw new IllegalArgumentException("duplicate zoom " + levelZoom);
+			}
+		}
+		zoom[levelCount] = levelZoom;
+		tileWidth[levelCount] = levelTileWidth;
+		tileHeight[levelCount] = levelTileHeight;
+		columns[levelCount] = levelColumns;
+		rows[levelCount] = levelRows;
+		lengths[levelCount] = new int[levelColumns * levelRows];
+		return levelCount++;
+	}
+
+	public void setTileLength(final int level, final int x, final int y, final int length) {
+		if (offsets != null) {
+			throw new IllegalStateException("directory already written");
+		}
+		lengths[level][x * rows[level] + y] = length;
+	}
+
+	/**
+	 * Writes the header and the directories of all levels.
+	 */
+	public void writeDirectory(final OutputStream out) throws IOException {
+		offsets = new int[levelCount][];
+		long offset = TilePack.HEADER_SIZE;
+		final int[] directoryOffset = new int[levelCount];
+		for (int level = 0; level < levelCount; level++) {
+			directoryOffset[level] = (int) offset;
+			offset += (long) lengths[level].length * TilePack.ENTRY_SIZE;
+		}
+		final long payloadOffset = offset;
+		for (int level = 0; level < levelCount; level++) {
+			offsets[level] = new int[lengths[level].length];
+			for (int y = 0; y < rows[level]; y++) {
+				for (int x = 0; x < columns[level]; x++) {
+					final int tile = x * rows[level] + y;
+					offsets[level][tile] = (int) offset;
+					offset += lengths[level][tile];
+				}
+			}
+		}
+		end = offset;
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("tile pack too large: " + offset + " bytes");
+		}
+
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(TilePack.MAGIC);
+		data.writeInt(TilePack.VERSION);
+		data.writeInt(levelCount);
+		for (int level = 0; level < TilePack.MAX_LEVELS; level++) {
+			if (level < levelCount) {
+				data.writeInt(zoom[level]);
+				data.writeInt(tileWidth[level]);
+				data.writeInt(tileHeight[level]);
+				data.writeInt(columns[level]);
+				data.writeInt(rows[level]);
+				data.writeInt(directoryOffset[level]);
+			} else {
+				data.write(new byte[6 * 4]);
+			}
+		}
+		for (int level = 0; level < levelCount; level++) {
+			for (int tile = 0; tile < lengths[level].length; tile++) {
+				final int length = lengths[level][tile];
+				data.writeInt(length == 0 ? 0 : offsets[level][tile]);
+				data.writeInt(length);
+			}
+		}
+		data.flush();
+		position = payloadOffset;
+	}
+
+	/**
+	 * Writes the payload of the next tile.
+	 * 
+	 * @throws IllegalStateException
+	 *             if this is not the next tile in pack order or its length differs from the one set before
+	 */
+	public void writeTile(final OutputStream out, final int level, final int x, final int y, final byte[] data,
+			final int offset, final int length) throws IOException {
+		if (offsets == null) {
+			throw new IllegalStateException("directory not written");
+		}
+		final int tile = x * rows[level] + y;
+		if (length != lengths[level][tile]) {
+			throw new IllegalStateException("tile " + x + "," + y + " has " + length + " bytes instead of "
+					+ lengths[level][tile]);
+		}
+		if (length == 0) {
+			return;
+		}
+		if (offsets[level][tile] != position) {
+			throw new IllegalStateException("tile " + x + "," + y + " of level " + level + " is out of order");
+		}
+		out.write(data, offset, length);
+		position += length;
+	}
+
+	/**
+	 * @return true if all tiles have been written
+	 */
+	public boolean isComplete() {
+		return offsets != null && position == end;
+	}
+}
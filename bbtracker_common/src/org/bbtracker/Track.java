@@ -20,12 +20,35 @@ package org.bbtracker;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Vector;
 
-public class Track {
-	private final Vector segments;
+/**
+ * A recorded track.
+ * 
+ * Points are added by a single thread (the one delivering locations), while any number of other threads may read the
+ * track at the same time. Readers never block: each read method works on the latest {@link #snapshot()}, which is
+ * replaced after every change. Since points are only ever appended, an index that was valid once stays valid. Readers
+ * that need several values to agree with each other (a point count and the points, for example) should take one
+ * snapshot and read everything from it.
+ * 
+ * A stored track can also be opened lazily (see {@link #openLazy(TrackStreamSource, int)}): its points are read only
+ * when they are accessed and such a track can't be changed.
+ */
+public class Track implements TrackSource {
+	/**
+	 * The segments of this track. Only the first <code>segmentCount</code> entries are valid. Entries are never
+	 * changed once they are published, when more space is needed a new array is allocated.
+	 */
+	private TrackSegment[] segments;
+
+	/**
+	 * The index of the first point of each segment, in the same order as {@link #segments}.
+	 */
+	private int[] segmentOffsets;
+
+	private int segmentCount;
 
 	private String name;
 
@@ -33,32 +56,57 @@ public class Track {
 
 	private transient int pointCount;
 
-	private transient double minLatitude = Double.POSITIVE_INFINITY;
+	/**
+	 * The statistics of all points added so far. Only the thread adding points changes them, readers get a copy from
+	 * {@link #getStatistics()}. Guarded by {@link #statisticsLock}.
+	 */
+	private transient TrackStatistics statistics = new TrackStatistics();
+
+	/**
+	 * The copy of {@link #statistics} last handed out to readers or null if they changed since.
+	 */
+	private transient TrackStatistics statisticsCopy;
 
-	private transient double maxLatitude = Double.NEGATIVE_INFINITY;
+	private final transient Object statisticsLock = new Object();
 
-	private transient double minLongitude = Double.POSITIVE_INFINITY;
+	/**
+	 * False if {@link #statistics} only contains the values of the segment table of a lazily loaded track.
+	 */
+	private transient volatile boolean statisticsComplete = true;
 
-	private transient double maxLongitude = Double.NEGATIVE_INFINITY;
+	/**
+	 * The stored track if this track is loaded lazily, null otherwise.
+	 */
+	private transient TrackStreamSource source;
 
-	private transient float maxSpeed = Float.NaN;
+	private transient volatile boolean frozen = false;
 
-	private transient float minElevation = Float.NaN;
+	private transient TrackGrid grid;
 
-	private transient float maxElevation = Float.NaN;
+	private transient volatile TrackSnapshot snapshot;
 
 	public Track(final String name) {
 		this.name = name;
 		creationDate = new Date();
-		segments = new Vector();
+		segments = new TrackSegment[10];
+		segmentOffsets = new int[10];
+		segmentCount = 0;
 		pointCount = 0;
+		publish();
 	}
 
-	private Track(final String name, final int size) {
-		this.name = name;
-		creationDate = new Date();
-		segments = new Vector(size);
-		pointCount = 0;
+	/**
+	 * Makes all changes so far visible to readers.
+	 */
+	private void publish() {
+		snapshot = new TrackSnapshot(segments, segmentOffsets, segmentCount, pointCount);
+	}
+
+	/**
+	 * Returns the current state of this track. The snapshot does not change when points are added later.
+	 */
+	public TrackSnapshot snapshot() {
+		return snapshot;
 	}
 
 	public String getName() {
@@ -74,25 +122,61 @@ public class Track {
 	}
 
 	public int getPointCount() {
-		return pointCount;
+		return snapshot.getPointCount();
 	}
 
 	public TrackPoint getPoint(final int nr) {
-		if (nr < 0 || nr >= pointCount) {
-			throw new IndexOutOfBoundsException("no such point: " + nr + ", must be >= 0 and < " + pointCount);
-		}
-		int i = nr;
-		final Enumeration segs = segments.elements();
-		while (segs.hasMoreElements()) {
-			final TrackSegment seg = (TrackSegment) segs.nextElement();
-			final int count = seg.getPointCount();
-			if (i < count) {
-				return seg.getPoint(i);
-			} else {
-				i -= count;
-			}
+		return snapshot.getPoint(nr);
+	}
+
+	double getLatitude(final int nr) {
+		return snapshot.getLatitude(nr);
+	}
+
+	double getLongitude(final int nr) {
+		return snapshot.getLongitude(nr);
+	}
+
+	long getTimestamp(final int nr) {
+		return snapshot.getTimestamp(nr);
+	}
+
+	double getDistance(final int nr) {
+		return snapshot.getDistance(nr);
+	}
+
+	boolean isSegmentStart(final int nr) {
+		return snapshot.isSegmentStart(nr);
+	}
+
+	/**
+	 * Returns a spatial index over the points of this track. It is built on the first call and kept up to date
+	 * afterwards.
+	 */
+	public synchronized TrackGrid getGrid() {
+		if (grid == null) {
+			grid = new TrackGrid(this, TrackGrid.DEFAULT_CELL_SIZE);
+			grid.update(snapshot);
+		}
+		return grid;
+	}
+
+	private synchronized void updateGrid() {
+		if (grid != null) {
+			grid.update(snapshot);
 		}
-		throw new IllegalStateException("pointCount corrupt!");
+	}
+
+	/**
+	 * Returns the number of named points.
+	 */
+	int getNameCount() {
+		final TrackSnapshot current = snapshot;
+		int count = 0;
+		for (int s = 0; s < current.getSegmentCount(); s++) {
+			count += current.getSegment(s).getNameCount();
+		}
+		return count;
 	}
 
 	public long getPointOffset(final TrackPoint point) {
@@ -103,197 +187,440 @@ public class Track {
 	}
 
 	public int getSegmentCount() {
-		return segments.size();
+		return snapshot.getSegmentCount();
 	}
 
 	public TrackSegment getSegment(final int i) {
-		return (TrackSegment) segments.elementAt(i);
+		return snapshot.getSegment(i);
 	}
 
 	public Enumeration getSegments() {
-		return segments.elements();
+		return snapshot.getSegments();
 	}
 
 	public double getMaxLatitude() {
-		return maxLatitude;
+		return currentStatistics().getMaxLatitude();
 	}
 
 	public double getMinLatitude() {
-		return minLatitude;
+		return currentStatistics().getMinLatitude();
 	}
 
 	public double getMaxLongitude() {
-		return maxLongitude;
+		return currentStatistics().getMaxLongitude();
 	}
 
 	public double getMinLongitude() {
-		return minLongitude;
+		return currentStatistics().getMinLongitude();
 	}
 
+	/**
+	 * Returns the distance covered by this track. Gaps between segments do not count.
+	 */
 	public double getLength() {
-		if (pointCount < 2) {
-			return 0.0;
-		} else {
-			final TrackPoint p = getPoint(getPointCount() - 1);
-			return p.getDistance();
+		return snapshot.getLength();
+	}
+
+	/**
+	 * @see TrackSnapshot#getLastIndexAtDistance(double)
+	 */
+	public int getLastIndexAtDistance(final double distance) {
+		return snapshot.getLastIndexAtDistance(distance);
+	}
+
+	/**
+	 * @see TrackSnapshot#indexAtTime(long)
+	 */
+	public int indexAtTime(final long timestamp) {
+		return snapshot.indexAtTime(timestamp);
+	}
+
+	/**
+	 * Returns the statistics of all points added so far. They don't change when more points are added, call this again
+	 * to get new ones. For a lazily loaded track they are calculated by reading the stored track on the first call.
+	 */
+	public TrackStatistics getStatistics() {
+		if (!statisticsComplete) {
+			completeStatistics();
+		}
+		return currentStatistics();
+	}
+
+	/**
+	 * Copies the statistics only if points were added since the last call, so that recording doesn't copy them for
+	 * every point.
+	 */
+	private TrackStatistics currentStatistics() {
+		synchronized (statisticsLock) {
+			if (statisticsCopy == null) {
+				statisticsCopy = statistics.copy();
+			}
+			return statisticsCopy;
+		}
+	}
+
+	private void setStatistics(final TrackStatistics statistics) {
+		synchronized (statisticsLock) {
+			this.statistics = statistics;
+			statisticsCopy = null;
+		}
+	}
+
+	private synchronized void completeStatistics() {
+		if (statisticsComplete) {
+			return;
 		}
+		try {
+			final TrackReader reader = TrackReader.open(new DataInputStream(source.open(0)));
+			try {
+				setStatistics(TrackStatistics.fromCursor(reader));
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			// keep the values from the segment table
+		} catch (final TrackStoreException e) {
+			// keep the values from the segment table
+		}
+		statisticsComplete = true;
 	}
 
 	public float getMaxSpeed() {
-		return maxSpeed;
+		return currentStatistics().getMaxSpeed();
 	}
 
 	public float getMaxElevation() {
-		return maxElevation;
+		return currentStatistics().getMaxElevation();
 	}
 
 	public float getMinElevation() {
-		return minElevation;
+		return currentStatistics().getMinElevation();
 	}
 
+	/**
+	 * Adds a point to the last segment. <code>point</code> becomes a view on the stored values afterwards.
+	 */
 	public boolean addPoint(final TrackPoint point) {
-		final int segmentCount = segments.size();
+		final boolean boundsChanged = addPoint(point, true, Double.NaN);
+		publish();
+		updateGrid();
+		return boundsChanged;
+	}
+
+	/**
+	 * Adds a point without publishing it, so that loading a track publishes only once.
+	 * 
+	 * @param distance
+	 *            the distance of the point from the start of the track or NaN to calculate it
+	 */
+	private boolean addPoint(final TrackPoint point, final boolean bind, final double distance) {
+		checkWritable();
 		final TrackSegment currentSegment;
 		if (segmentCount == 0) {
 			currentSegment = newSegment();
 		} else {
-			currentSegment = (TrackSegment) segments.elementAt(segmentCount - 1);
+			currentSegment = segments[segmentCount - 1];
 		}
-		point.setIndex(pointCount);
-		final boolean boundsChanged = currentSegment.addPoint(point);
-		if (boundsChanged) {
-			final double lat = point.getLatitude();
-			final double lon = point.getLongitude();
-			updateMinCoordinates(lat, lon);
-			updateMaxCoordinates(lat, lon);
+		final boolean boundsChanged;
+		if (bind) {
+			boundsChanged = currentSegment.addPoint(point);
+		} else {
+			boundsChanged = currentSegment.copyPoint(point, distance - currentSegment.distanceOffset);
 		}
-		updateSpeedAndElevation(point.getSpeed(), point.getElevation());
+		addToStatistics(currentSegment, currentSegment.getPointCount() - 1);
 		pointCount++;
 		return boundsChanged;
 	}
 
-	private void updateMinCoordinates(final double lat, final double lon) {
-		if (lat < minLatitude) {
-			minLatitude = lat;
+	/**
+	 * Calculates the distances of all points again and corrects those that differ from the ones stored with the track
+	 * by more than their resolution. Loading a track trusts the stored distances, this is for checking them. Published
+	 * segments are never changed, a segment with wrong distances is replaced by a corrected copy.
+	 * 
+	 * @return true if all distances were correct
+	 */
+	public synchronized boolean verifyDistances() {
+		checkWritable();
+		final double tolerance = 1 / TrackPointCodec.DISTANCE_SCALE;
+		TrackSegment[] corrected = null;
+		double offset = 0;
+		for (int s = 0; s < segmentCount; s++) {
+			final TrackSegment segment = segments[s];
+			final int count = segment.getPointCount();
+			final double[] distances = new double[count];
+			boolean correct = Math.abs(segment.distanceOffset - offset) <= tolerance;
+			double distance = 0;
+			for (int p = 0; p < count; p++) {
+				if (p > 0) {
+					distance += Utils.distance(segment.getLatitude(p - 1), segment.getLongitude(p - 1), segment
+							.getLatitude(p), segment.getLongitude(p));
+				}
+				distances[p] = distance;
+				if (Math.abs(segment.getDistance(p) - offset - distance) > tolerance) {
+					correct = false;
+				}
+			}
+			if (!correct) {
+				if (corrected == null) {
+					corrected = new TrackSegment[segments.length];
+					System.arraycopy(segments, 0, corrected, 0, segmentCount);
+				}
+				final TrackSegment copy = new TrackSegment();
+				final TrackPoint point = new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0);
+				for (int p = 0; p < count; p++) {
+					segment.copyTo(p, point);
+					copy.copyPoint(point, distances[p]);
+				}
+				copy.firstIndex = segment.firstIndex;
+				copy.distanceOffset = offset;
+				corrected[s] = copy;
+			}
+			offset += distance;
+		}
+		if (corrected == null) {
+			return true;
 		}
-		if (lon < minLongitude) {
-			minLongitude = lon;
+		segments = corrected;
+		final TrackStatistics correctedStatistics = new TrackStatistics();
+		for (int s = 0; s < segmentCount; s++) {
+			final TrackSegment segment = segments[s];
+			for (int p = 0; p < segment.getPointCount(); p++) {
+				correctedStatistics.addPoint(segment.getTimestamp(p), segment.getLatitude(p), segment.getLongitude(p),
+						segment.getDistance(p), segment.getElevation(p), segment.getSpeed(p), segment.getHeartRate(p),
+						p == 0);
+			}
 		}
+		setStatistics(correctedStatistics);
+		publish();
+		return false;
 	}
 
-	private void updateMaxCoordinates(final double lat, final double lon) {
-		if (lat > maxLatitude) {
-			maxLatitude = lat;
-		}
-		if (lon > maxLongitude) {
-			maxLongitude = lon;
+	private void addToStatistics(final TrackSegment segment, final int i) {
+		synchronized (statisticsLock) {
+			statistics.addPoint(segment.getTimestamp(i), segment.getLatitude(i), segment.getLongitude(i), segment
+					.getDistance(i), segment.getElevation(i), segment.getSpeed(i), segment.getHeartRate(i), i == 0);
+			statisticsCopy = null;
 		}
 	}
 
-	private void updateSpeedAndElevation(final float speed, final float elevation) {
-		if (!Float.isNaN(speed) && (Float.isNaN(maxSpeed) || speed > maxSpeed)) {
-			maxSpeed = speed;
-		}
-		if (!Float.isNaN(elevation)) {
-			if (Float.isNaN(minElevation) || elevation < minElevation) {
-				minElevation = elevation;
-			}
-			if (Float.isNaN(maxElevation) || elevation > maxElevation) {
-				maxElevation = elevation;
-			}
+	/**
+	 * Prevents any further points from being added to this track, so that it can be saved in the background while
+	 * another track is recorded.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
 
+	private void checkWritable() {
+		if (source != null) {
+			throw new IllegalStateException("A lazily loaded track can't be changed");
+		}
+		if (frozen) {
+			throw new IllegalStateException("A frozen track can't be changed");
 		}
-
 	}
 
 	public TrackSegment newSegment() {
-		if (segments.size() != 0) {
-			final TrackSegment lastSegment = (TrackSegment) segments.elementAt(segments.size() - 1);
+		checkWritable();
+		if (segmentCount != 0) {
+			final TrackSegment lastSegment = segments[segmentCount - 1];
 			if (lastSegment.getPointCount() == 0) {
 				return lastSegment;
 			}
 		}
 		final TrackSegment newSegment = new TrackSegment();
-		segments.addElement(newSegment);
+		appendSegment(newSegment, statistics.getLength());
+		publish();
 		return newSegment;
 	}
 
-	private static final int streamVersion = 1;
+	/**
+	 * The version of the stream format written by {@link #writeToStream(DataOutputStream)}. Version 1 stored a
+	 * segment count followed by the fixed size records of {@link TrackPoint#writeToStream(DataOutputStream)}, version
+	 * 2 stores the records described in {@link TrackPointCodec} followed by a {@link SegmentTable}. Both can be read.
+	 */
+	static final int streamVersion = 2;
 
 	public void writeToStream(final DataOutputStream out) throws IOException {
+		final TrackSnapshot current = snapshot;
+		final CountingOutputStream counter = new CountingOutputStream(out);
+		final DataOutputStream data = new DataOutputStream(counter);
+		writeHeader(data, name, creationDate);
+		final TrackPointCodec codec = new TrackPointCodec();
+		final SegmentTable table = new SegmentTable();
+		for (int i = 0; i < current.getSegmentCount(); i++) {
+			final TrackSegment segment = current.getSegment(i);
+			codec.writeSegment(data);
+			table.startSegment(segment.distanceOffset);
+			final int count = current.getSegmentPointCount(i);
+			final TrackPoint point = new TrackPoint(segment, 0);
+			for (int p = 0; p < count; p++) {
+				point.bind(segment, p);
+				table.addPoint(counter.count, codec, point);
+				codec.writePoint(data, point);
+			}
+		}
+		codec.writeEnd(data);
+		table.writeToStream(data);
+		data.flush();
+	}
+
+	/**
+	 * Writes the header of a version 2 stream. It must be followed by the records written by a
+	 * {@link TrackPointCodec}.
+	 */
+	public static void writeHeader(final DataOutputStream out, final String name, final Date creationDate)
+			throws IOException {
 		out.writeInt(streamVersion);
 		out.writeUTF(name == null ? "" : name);
 		out.writeLong(creationDate.getTime());
-		out.writeInt(segments.size());
-		for (int i = 0; i < segments.size(); i++) {
-			final TrackSegment segment = (TrackSegment) segments.elementAt(i);
-			segment.writeToStream(out);
-		}
-	}
-
-	public static Track readFromStringList(final Vector list) {
-		final String name = (String) list.elementAt(0);
-		list.removeElementAt(0);
-		final Track track = new Track(name);
-		final TrackSegment segment = new TrackSegment();
-		final Enumeration e = list.elements();
-		while (e.hasMoreElements()) {
-			final String line = (String) e.nextElement();
-			double latitude;
-			double longitude;
-			final Vector tokens = Utils.splitToStringVector(line, ',');
-			longitude = Double.parseDouble((String) tokens.elementAt(0));
-			latitude = Double.parseDouble((String) tokens.elementAt(1));
-			final TrackPoint point = new TrackPoint(0, latitude, longitude, 0, 0, 0, (byte) 0);
-			segment.addPoint(point);
-		}
-		track.addSegment(0, segment);
+	}
+
+	/**
+	 * Reads the remaining points of a text track into a new track with a single segment.
+	 */
+	public static Track readFromText(final TextTrackReader reader) throws IOException {
+		final Track track = new Track(reader.getName());
+		track.newSegment();
+		final TrackPoint point = new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0);
+		while (reader.next(point)) {
+			track.addPoint(point, false, Double.NaN);
+		}
+		track.publish();
 		return track;
 	}
 
 	public static Track readFromStream(final DataInputStream in) throws IOException {
-		final int version = in.readInt();
-		if (version != streamVersion) {
+		final TrackReader reader;
+		try {
+			reader = TrackReader.open(in, false);
+		} catch (final TrackStoreException e) {
 			return null;
 		}
-		final String name = in.readUTF();
-		final Date creationDate = new Date(in.readLong());
-		final int segmentCount = in.readInt();
-		final Track track = new Track(name.length() == 0 ? null : name, segmentCount);
-		int index = 0;
-		for (int i = 0; i < segmentCount; i++) {
-			final TrackSegment segment = TrackSegment.readFromStream(in);
-			index += track.addSegment(index, segment);
+		final Track track = new Track(reader.getName());
+		track.creationDate = reader.getCreationDate();
+		final TrackPoint point = reader.getPoint();
+		while (reader.next()) {
+			if (reader.isNewSegment()) {
+				track.newSegment();
+			}
+			track.addPoint(point, false, reader.isDistanceStored() ? point.getDistance() : Double.NaN);
+		}
+		track.publish();
+		return track;
+	}
+
+	/**
+	 * Opens a stored track without reading its points. They are read in blocks when they are first accessed, and at
+	 * most <code>maxPoints</code> (or a single block) are kept in memory.
+	 * 
+	 * @return the track or null if the stored track has no {@link SegmentTable} and must be read completely
+	 */
+	public static Track openLazy(final TrackStreamSource source, final int maxPoints) throws IOException,
+			TrackStoreException {
+		final SegmentTable table = SegmentTable.read(source);
+		if (table == null) {
+			return null;
 		}
+		final DataInputStream in = new DataInputStream(source.open(0));
+		final String name;
+		final Date creationDate;
+		try {
+			readVersionFromStream(in);
+			name = in.readUTF();
+			creationDate = readDateFromStream(in);
+		} finally {
+			in.close();
+		}
+		final Track track = new Track(name.length() == 0 ? null : name);
 		track.creationDate = creationDate;
+		final SegmentCache cache = new SegmentCache(maxPoints);
+		for (int s = 0; s < table.getSegmentCount(); s++) {
+			final SegmentTable.Entry entry = table.getEntry(s);
+			if (entry.pointCount == 0) {
+				continue;
+			}
+			track.appendSegment(new LazyTrackSegment(source, entry, cache), entry.distanceOffset);
+			track.statistics.addSegment(entry);
+			track.pointCount += entry.pointCount;
+		}
+		track.source = source;
+		track.statisticsComplete = false;
+		track.publish();
 		return track;
 	}
 
-	private int addSegment(final int indexOffset, final TrackSegment segment) {
-		segments.addElement(segment);
-		pointCount += segment.getPointCount();
-		updateMinCoordinates(segment.minLatitude, segment.minLongitude);
-		updateMaxCoordinates(segment.maxLatitude, segment.maxLongitude);
-		final Enumeration points = segment.getPoints();
-		int p = 0;
-		while (points.hasMoreElements()) {
-			final TrackPoint point = (TrackPoint) points.nextElement();
-			point.setIndex(indexOffset + p++);
-			updateSpeedAndElevation(point.getSpeed(), point.getElevation());
+	/**
+	 * Returns a cursor over the points this track has now. Points added later are not returned.
+	 */
+	public TrackCursor openCursor() {
+		final TrackSnapshot current = snapshot;
+		return new TrackCursor(name, creationDate) {
+			private int segmentNumber = 0;
+
+			private int pointNumber = 0;
+
+			public boolean next() {
+				while (segmentNumber < current.getSegmentCount()) {
+					final TrackSegment segment = current.getSegment(segmentNumber);
+					if (pointNumber < current.getSegmentPointCount(segmentNumber)) {
+						segment.copyTo(pointNumber, getPoint());
+						pointRead(pointNumber == 0, segment.getDistance(pointNumber));
+						pointNumber++;
+						return true;
+					}
+					segmentNumber++;
+					pointNumber = 0;
+				}
+				return false;
+			}
+		};
+	}
+
+	private void appendSegment(final TrackSegment segment, final double distanceOffset) {
+		final int s = segmentCount;
+		if (s == segments.length) {
+			// published arrays must not change, so copy instead of modifying them
+			final TrackSegment[] newSegments = new TrackSegment[s * 2];
+			System.arraycopy(segments, 0, newSegments, 0, s);
+			segments = newSegments;
+			final int[] newOffsets = new int[s * 2];
+			System.arraycopy(segmentOffsets, 0, newOffsets, 0, s);
+			segmentOffsets = newOffsets;
 		}
-		return p;
+		segmentOffsets[s] = pointCount;
+		segment.firstIndex = pointCount;
+		segment.distanceOffset = distanceOffset;
+		segments[s] = segment;
+		segmentCount++;
 	}
 
-	public static String readNameFromStream(final DataInputStream in) throws IOException, TrackStoreException {
-		final int version = in.readInt();
-		if (version != streamVersion) {
-			throw new TrackStoreException("Wrong version! Got " + version + " instead of " + streamVersion + "!");
+	private void addSegment(final TrackSegment segment) {
+		appendSegment(segment, statistics.getLength());
+		final int count = segment.getPointCount();
+		for (int i = 0; i < count; i++) {
+			addToStatistics(segment, i);
 		}
+		pointCount += count;
+		publish();
+		updateGrid();
+	}
+
+	public static String readNameFromStream(final DataInputStream in) throws IOException, TrackStoreException {
+		readVersionFromStream(in);
 		final String name = in.readUTF();
 
 		return name;
 	}
 
+	static int readVersionFromStream(final DataInputStream in) throws IOException, TrackStoreException {
+		final int version = in.readInt();
+		if (version < 1 || version > streamVersion) {
+			throw new TrackStoreException("Wrong version! Got " + version + " instead of 1 to " + streamVersion + "!");
+		}
+		return version;
+	}
+
 	/**
 	 * Can only be used immediately after {@link #readDateFromStream(DataInputStream)}
 	 */
@@ -301,4 +628,28 @@ public class Track {
 		final Date creationDate = new Date(in.readLong());
 		return creationDate;
 	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+
+		long count = 0;
+
+		CountingOutputStream(final OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * An index of the tracks in a store, so that they can be listed without reading each of them.
+ * 
+ * The catalog doesn't know whether it is up to date. Stores compare it with the tracks they actually contain using
+ * {@link #retain(String[], long[], long[])} or {@link #retain(String[])} and add summaries for the tracks it is
+ * missing.
+ */
+public class TrackCatalog {
+	/**
+	 * The version of the format written by {@link #writeToStream(DataOutputStream)}.
+	 */
+	private static final int VERSION = 3;
+
+	private final Hashtable summaries = new Hashtable();
+
+	private boolean modified = false;
+
+	public int size() {
+		return summaries.size();
+	}
+
+	public TrackSummary get(final String key) {
+		return (TrackSummary) summaries.get(key);
+	}
+
+	public Enumeration summaries() {
+		return summaries.elements();
+	}
+
+	public void put(final TrackSummary summary) {
+		summaries.put(summary.getKey(), summary);
+		modified = true;
+	}
+
+	public void remove(final String key) {
+		if (summaries.remove(key) != null) {
+			modified = true;
+		}
+	}
+
+	/**
+	 * Removes the summaries of all tracks that are not in <code>keys</code>. Use this when finding out whether a track
+	 * changed is expensive, the remaining summaries have to be checked when their tracks are loaded.
+	 * 
+	 * @return the keys that have no summary
+	 */
+	public String[] retain(final String[] keys) {
+		return retain(keys, null, null);
+	}
+
+	/**
+	 * Removes the summaries of all tracks that are not in <code>keys</code> and of those that changed since they were
+	 * summarized.
+	 * 
+	 * @param sizes
+	 *            the current size of each track in <code>keys</code>
+	 * @param lastModified
+	 *            the current modification time of each track in <code>keys</code>
+	 * @return the keys that have no summary
+	 */
+	public String[] retain(final String[] keys, final long[] sizes, final long[] lastModified) {
+		final Hashtable present = new Hashtable(keys.length * 2 + 1);
+		final Vector missing = new Vector();
+		for (int i = 0; i < keys.length; i++) {
+			present.put(keys[i], keys[i]);
+			final TrackSummary summary = (TrackSummary) summaries.get(keys[i]);
+			if (summary == null || (sizes != null && !summary.isCurrent(sizes[i], lastModified[i]))) {
+				missing.addElement(keys[i]);
+			}
+		}
+		final Enumeration e = summaries.keys();
+		final Vector removed = new Vector();
+		while (e.hasMoreElements()) {
+			final Object key = e.nextElement();
+			if (!present.containsKey(key)) {
+				removed.addElement(key);
+			}
+		}
+		for (int i = 0; i < missing.size(); i++) {
+			if (summaries.containsKey(missing.elementAt(i))) {
+				removed.addElement(missing.elementAt(i));
+			}
+		}
+		for (int i = 0; i < removed.size(); i++) {
+			summaries.remove(removed.elementAt(i));
+			modified = true;
+		}
+		final String[] result = new String[missing.size()];
+		missing.copyInto(result);
+		return result;
+	}
+
+	/**
+	 * Returns true if the catalog was changed since it was created or read.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void writeToStream(final DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeInt(summaries.size());
+		final Enumeration e = summaries.elements();
+		while (e.hasMoreElements()) {
+			((TrackSummary) e.nextElement()).writeToStream(out);
+		}
+		modified = false;
+	}
+
+	/**
+	 * Reads a catalog. A catalog in an unknown format is treated as empty, so that it gets rebuilt.
+	 */
+	public static TrackCatalog readFromStream(final DataInputStream in) throws IOException {
+		final TrackCatalog catalog = new TrackCatalog();
+		if (in.readInt() != VERSION) {
+			catalog.modified = true;
+			return catalog;
+		}
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final TrackSummary summary = TrackSummary.readFromStream(in);
+			catalog.summaries.put(summary.getKey(), summary);
+		}
+		return catalog;
+	}
+}
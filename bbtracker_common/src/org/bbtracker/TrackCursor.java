@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A forward-only cursor over the points of a track.
+ * 
+ * All points are delivered in the same {@link TrackPoint} object, which is overwritten by each call to
+ * {@link #next()}. Callers that need to keep a point must copy its values.
+ */
+public abstract class TrackCursor {
+	private final TrackPoint point = new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0);
+
+	private final String name;
+
+	private final Date creationDate;
+
+	private int segmentIndex = -1;
+
+	private boolean newSegment = false;
+
+	private int pointIndex = -1;
+
+	private double distance = 0;
+
+	private double lastLatitude;
+
+	private double lastLongitude;
+
+	protected TrackCursor(final String name, final Date creationDate) {
+		this.name = name;
+		this.creationDate = creationDate;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Date getCreationDate() {
+		return creationDate;
+	}
+
+	/**
+	 * Moves to the next point.
+	 * 
+	 * @return <code>false</code> if there are no more points
+	 */
+	public abstract boolean next() throws IOException;
+
+	/**
+	 * Releases the resources held by this cursor.
+	 */
+	public void close() throws IOException {
+		// nothing to do by default
+	}
+
+	/**
+	 * @return the current point, only valid until the next call to {@link #next()}
+	 */
+	public TrackPoint getPoint() {
+		return point;
+	}
+
+	/**
+	 * @return <code>true</code> if the current point is the first point of a segment
+	 */
+	public boolean isNewSegment() {
+		return newSegment;
+	}
+
+	/**
+	 * @return the index of the segment of the current point, empty segments are not counted
+	 */
+	public int getSegmentIndex() {
+		return segmentIndex;
+	}
+
+	/**
+	 * Must be called by implementations after the values of {@link #getPoint()} have been replaced with those of the
+	 * next point.
+	 * 
+	 * @param knownDistance
+	 *            the distance of the point from the start of the track or NaN to calculate it from the previous point
+	 */
+	protected void pointRead(final boolean firstInSegment, final double knownDistance) {
+		newSegment = firstInSegment;
+		if (firstInSegment) {
+			segmentIndex++;
+		}
+		pointIndex++;
+		final double latitude = point.getLatitude();
+		final double longitude = point.getLongitude();
+		if (!Double.isNaN(knownDistance)) {
+			distance = knownDistance;
+		} else if (!firstInSegment) {
+			distance += Utils.distance(lastLatitude, lastLongitude, latitude, longitude);
+		}
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		point.setIndex(pointIndex);
+		point.setDistance(distance);
+	}
+}
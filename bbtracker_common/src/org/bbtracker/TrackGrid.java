@@ -0,0 +1,247 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.util.Hashtable;
+
+/**
+ * A spatial index over the points of a {@link Track}: a uniform grid of latitude/longitude cells, each holding the
+ * indices of the points inside it. Only cells that contain points are allocated.
+ * 
+ * Distances are compared on a plane with longitudes scaled by the cosine of the latitude, which is exact enough for
+ * the short distances between neighbouring points.
+ */
+public class TrackGrid {
+	/**
+	 * The default cell size in degrees, about 100 m in latitude.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 0.001;
+
+	private final Track track;
+
+	private final double cellSize;
+
+	/**
+	 * Maps the cell key (see {@link #key(int, int)}) to an int array, whose first element is the number of point
+	 * indices that follow it.
+	 */
+	private final Hashtable cells = new Hashtable();
+
+	private int minCellX = Integer.MAX_VALUE;
+
+	private int maxCellX = Integer.MIN_VALUE;
+
+	private int minCellY = Integer.MAX_VALUE;
+
+	private int maxCellY = Integer.MIN_VALUE;
+
+	private int size = 0;
+
+	/** Number of points compared by all nearest searches so far. */
+	private int candidates = 0;
+
+	TrackGrid(final Track track, final double cellSize) {
+		this.track = track;
+		this.cellSize = cellSize;
+	}
+
+	private static Long key(final int cellX, final int cellY) {
+		return new Long(((long) cellY << 32) | (cellX & 0xffffffffL));
+	}
+
+	private int cellOf(final double degrees) {
+		return (int) Math.floor(degrees / cellSize);
+	}
+
+	/**
+	 * Adds the points of the snapshot that are not yet indexed.
+	 */
+	synchronized void update(final TrackSnapshot snapshot) {
+		for (int i = size; i < snapshot.getPointCount(); i++) {
+			add(i, snapshot.getLatitude(i), snapshot.getLongitude(i));
+		}
+	}
+
+	private void add(final int index, final double latitude, final double longitude) {
+		final int cellX = cellOf(longitude);
+		final int cellY = cellOf(latitude);
+		final Long key = key(cellX, cellY);
+		int[] cell = (int[]) cells.get(key);
+		if (cell == null) {
+			cell = new int[5];
+			cells.put(key, cell);
+		} else if (cell[0] + 1 == cell.length) {
+			final int[] newCell = new int[cell.length * 2];
+			System.arraycopy(cell, 0, newCell, 0, cell.length);
+			cell = newCell;
+			cells.put(key, cell);
+		}
+		cell[++cell[0]] = index;
+		size++;
+
+		if (cellX < minCellX) {
+			minCellX = cellX;
+		}
+		if (cellX > maxCellX) {
+			maxCellX = cellX;
+		}
+		if (cellY < minCellY) {
+			minCellY = cellY;
+		}
+		if (cellY > maxCellY) {
+			maxCellY = cellY;
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index of the point closest to the given position or -1 if the track has no points.
+	 */
+	public synchronized int getNearestIndex(final double latitude, final double longitude) {
+		if (size == 0) {
+			return -1;
+		}
+		final double cosLatitude = Math.cos(Math.toRadians(latitude));
+		final double minCellDistance = cellSize * Math.min(1, cosLatitude);
+		final int cellX = cellOf(longitude);
+		final int cellY = cellOf(latitude);
+		// no need to look at rings that don't touch any occupied cell
+		final int firstRing = Math.max(Math.max(minCellX - cellX, cellX - maxCellX), Math.max(minCellY - cellY,
+				cellY - maxCellY));
+		final int lastRing = Math.max(Math.max(cellX - minCellX, maxCellX - cellX), Math.max(cellY - minCellY,
+				maxCellY - cellY));
+
+		final NearestSearch search = new NearestSearch(latitude, longitude, cosLatitude);
+		for (int ring = Math.max(firstRing, 0); ring <= lastRing; ring++) {
+			// every point in this ring is at least (ring - 1) cells away
+			final double ringDistance = (ring - 1) * minCellDistance;
+			if (search.best != -1 && search.bestDistance <= ringDistance * ringDistance) {
+				break;
+			}
+			final int fromX = Math.max(cellX - ring, minCellX);
+			final int toX = Math.min(cellX + ring, maxCellX);
+			final int fromY = Math.max(cellY - ring, minCellY);
+			final int toY = Math.min(cellY + ring, maxCellY);
+			if (cellY - ring >= minCellY) {
+				for (int x = fromX; x <= toX; x++) {
+					search.visit((int[]) cells.get(key(x, cellY - ring)));
+				}
+			}
+			if (ring > 0 && cellY + ring <= maxCellY) {
+				for (int x = fromX; x <= toX; x++) {
+					search.visit((int[]) cells.get(key(x, cellY + ring)));
+				}
+			}
+			final int innerFromY = Math.max(cellY - ring + 1, fromY);
+			final int innerToY = Math.min(cellY + ring - 1, toY);
+			if (ring > 0 && cellX - ring >= minCellX) {
+				for (int y = innerFromY; y <= innerToY; y++) {
+					search.visit((int[]) cells.get(key(cellX - ring, y)));
+				}
+			}
+			if (ring > 0 && cellX + ring <= maxCellX) {
+				for (int y = innerFromY; y <= innerToY; y++) {
+					search.visit((int[]) cells.get(key(cellX + ring, y)));
+				}
+			}
+		}
+		candidates += search.candidates;
+		return search.best;
+	}
+
+	synchronized int getCandidateCount() {
+		return candidates;
+	}
+
+	/**
+	 * Returns the indices of all points inside the given bounds, in no particular order.
+	 */
+	public synchronized int[] getIndicesInBounds(final double minLatitude, final double minLongitude, final double maxLatitude,
+			final double maxLongitude) {
+		int[] result = new int[16];
+		int count = 0;
+		final int fromX = Math.max(cellOf(minLongitude), minCellX);
+		final int toX = Math.min(cellOf(maxLongitude), maxCellX);
+		final int fromY = Math.max(cellOf(minLatitude), minCellY);
+		final int toY = Math.min(cellOf(maxLatitude), maxCellY);
+		for (int y = fromY; y <= toY; y++) {
+			for (int x = fromX; x <= toX; x++) {
+				final int[] cell = (int[]) cells.get(key(x, y));
+				if (cell == null) {
+					continue;
+				}
+				for (int i = 1; i <= cell[0]; i++) {
+					final int index = cell[i];
+					final double lat = track.getLatitude(index);
+					final double lon = track.getLongitude(index);
+					if (lat >= minLatitude && lat <= maxLatitude && lon >= minLongitude && lon <= maxLongitude) {
+						if (count == result.length) {
+							final int[] newResult = new int[count * 2];
+							System.arraycopy(result, 0, newResult, 0, count);
+							result = newResult;
+						}
+						result[count++] = index;
+					}
+				}
+			}
+		}
+		final int[] trimmed = new int[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private class NearestSearch {
+		final double latitude;
+
+		final double longitude;
+
+		final double cosLatitude;
+
+		int best = -1;
+
+		double bestDistance = Double.POSITIVE_INFINITY;
+
+		int candidates = 0;
+
+		NearestSearch(final double latitude, final double longitude, final double cosLatitude) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.cosLatitude = cosLatitude;
+		}
+
+		void visit(final int[] cell) {
+			if (cell == null) {
+				return;
+			}
+			candidates += cell[0];
+			for (int i = 1; i <= cell[0]; i++) {
+				final int index = cell[i];
+				final double dy = track.getLatitude(index) - latitude;
+				final double dx = (track.getLongitude(index) - longitude) * cosLatitude;
+				final double distance = dx * dx + dy * dy;
+				if (distance < bestDistance || (distance == bestDistance && index < best)) {
+					best = index;
+					bestDistance = distance;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Writes a track point by point while it is being recorded, so that a crash loses at most the last few points.
+ * 
+ * The journal is a version 2 track stream (see {@link TrackPointCodec}) that lacks the final {@link TrackPointCodec#END}
+ * record and the {@link SegmentTable} until {@link #finish()} is called. An unfinished journal can be repaired using
+ * {@link #recover(InputStream, OutputStream)}.
+ * 
+ * Since the journal can't change what it has written, the last point is held back until the next one arrives: that is
+ * the point that gets named when tracking is paused or a point is marked. If an earlier point is renamed, then
+ * {@link #matches(Track)} tells that the journal is outdated and the track must be written in full.
+ */
+public class TrackJournal {
+	/**
+	 * The number of points that are collected before they are written to the underlying stream.
+	 */
+	public static final int FLUSH_POINTS = 5;
+
+	private final OutputStream out;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	private final DataOutputStream data = new DataOutputStream(buffer);
+
+	private final TrackPointCodec codec = new TrackPointCodec();
+
+	private final SegmentTable table = new SegmentTable();
+
+	/**
+	 * The number of bytes written to the underlying stream.
+	 */
+	private long written = 0;
+
+	/**
+	 * The distance of the last point written.
+	 */
+	private double distance = 0;
+
+	private boolean segmentStarted = false;
+
+	/**
+	 * The last point appended, it is not yet encoded.
+	 */
+	private TrackPoint pending;
+
+	private int pendingPoints = 0;
+
+	private int writtenPoints = 0;
+
+	/**
+	 * The names that have been written, by point index.
+	 */
+	private final Hashtable names = new Hashtable();
+
+	private boolean finished = false;
+
+	public TrackJournal(final OutputStream out, final String name, final Date creationDate) throws IOException {
+		this.out = out;
+		Track.writeHeader(data, name, creationDate);
+		flush();
+	}
+
+	public void newSegment() throws IOException {
+		writePending();
+		codec.writeSegment(data);
+		table.startSegment(distance);
+		segmentStarted = true;
+	}
+
+	public void append(final TrackPoint point) throws IOException {
+		writePending();
+		if (!segmentStarted) {
+			newSegment();
+		}
+		pending = point;
+		if (pendingPoints >= FLUSH_POINTS) {
+			flush();
+		}
+	}
+
+	private void writePending() throws IOException {
+		if (pending == null) {
+			return;
+		}
+		table.addPoint(written + buffer.size(), codec, pending);
+		codec.writePoint(data, pending);
+		distance = pending.getDistance();
+		final String name = pending.getName();
+		if (name != null) {
+			names.put(new Integer(writtenPoints), name);
+		}
+		pending = null;
+		writtenPoints++;
+		pendingPoints++;
+	}
+
+	/**
+	 * Returns true if the journal contains all points of <code>track</code> with their current names.
+	 */
+	public boolean matches(final Track track) {
+		final TrackSnapshot snapshot = track.snapshot();
+		if (writtenPoints + (pending == null ? 0 : 1) != snapshot.getPointCount()) {
+			return false;
+		}
+		int nameCount = names.size();
+		if (pending != null && pending.getName() != null) {
+			nameCount++;
+		}
+		if (nameCount != track.getNameCount()) {
+			return false;
+		}
+		final Enumeration e = names.keys();
+		while (e.hasMoreElements()) {
+			final Integer index = (Integer) e.nextElement();
+			if (!names.get(index).equals(snapshot.getPoint(index.intValue()).getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the points collected so far to the underlying stream. The last point is held back.
+	 */
+	public void flush() throws IOException {
+		if (buffer.size() > 0) {
+			out.write(buffer.toByteArray());
+			written += buffer.size();
+			buffer.reset();
+		}
+		out.flush();
+		pendingPoints = 0;
+	}
+
+	/**
+	 * Completes the journal. It is a regular track stream afterwards.
+	 */
+	public void finish() throws IOException {
+		writePending();
+		codec.writeEnd(data);
+		table.writeToStream(data);
+		flush();
+		finished = true;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Closes the underlying stream. Points that have not been flushed are lost.
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Closes the journal and throws away what has been written, when the track has been saved some other way.
+	 */
+	public void discard() throws IOException {
+		close();
+	}
+
+	/**
+	 * Reads a possibly truncated journal and determines how much of it is intact.
+	 * 
+	 * @return the length of the journal without the damaged last record and without the end record (if any), or -1 if
+	 *         <code>in</code> contains no complete journal header
+	 */
+	public static long recover(final InputStream in) throws IOException {
+		return recover(in, null);
+	}
+
+	/**
+	 * Reads a possibly truncated journal, determines how much of it is intact and rebuilds its {@link SegmentTable}.
+	 * 
+	 * @param tail
+	 *            receives the end record and the segment table. Cutting the journal to the returned length and
+	 *            appending them yields a valid track stream. Nothing is written if the journal has no header.
+	 * @return the length of the journal without the damaged last record and without the end record (if any), or -1 if
+	 *         <code>in</code> contains no complete journal header
+	 */
+	public static long recover(final InputStream in, final OutputStream tail) throws IOException {
+		final CountingInputStream counter = new CountingInputStream(in);
+		final DataInputStream din = new DataInputStream(counter);
+		try {
+			if (Track.readVersionFromStream(din) != Track.streamVersion) {
+				return -1;
+			}
+			din.readUTF();
+			din.readLong();
+		} catch (final EOFException e) {
+			return -1;
+		} catch (final TrackStoreException e) {
+			return -1;
+		}
+		final TrackPointCodec codec = new TrackPointCodec();
+		final SegmentTable table = new SegmentTable();
+		final TrackPoint point = new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0);
+		double distance = 0;
+		long valid = counter.count;
+		try {
+			while (true) {
+				// the table only takes a point once its record has been read completely
+				final byte[] state = table.isBlockStart() ? SegmentTable.getState(codec) : null;
+				final int tag = codec.read(din, point);
+				if (tag == TrackPointCodec.END) {
+					break;
+				} else if (tag == TrackPointCodec.SEGMENT) {
+					table.startSegment(distance);
+				} else {
+					table.addPoint(valid, state, point);
+					distance = point.getDistance();
+				}
+				valid = counter.count;
+			}
+		} catch (final EOFException e) {
+			// the last record was not completely written
+		} catch (final TrackStoreException e) {
+			// garbage after the last complete record
+		}
+		if (tail != null) {
+			final DataOutputStream out = new DataOutputStream(tail);
+			codec.writeEnd(out);
+			table.writeToStream(out);
+			out.flush();
+		}
+		return valid;
+	}
+
+	private static class CountingInputStream extends InputStream {
+		private final InputStream in;
+
+		long count = 0;
+
+		CountingInputStream(final InputStream in) {
+			this.in = in;
+		}
+
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int read = in.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+}
@@ -21,6 +21,12 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+/**
+ * A single point of a {@link Track}.
+ * 
+ * A newly constructed point holds its own values. Once it is added to a {@link TrackSegment} (and for all points
+ * returned by a segment) it is only a view on the values stored in that segment.
+ */
 public class TrackPoint {
 	private long timestamp;
 
@@ -40,12 +46,16 @@ public class TrackPoint {
 
 	private String name;
 
-	private final byte satellites;
+	private byte satellites;
 
 	private boolean standing = false;
 
 	private transient int index;
 
+	private transient TrackSegment segment;
+
+	private transient int segmentIndex;
+
 	public TrackPoint(final long timestamp, final double latitude, final double longitude, final float elevation,
 			final float speed, final float course, final byte satellites) {
 		this.timestamp = timestamp;
@@ -58,68 +68,110 @@ public class TrackPoint {
 		name = null;
 	}
 
+	TrackPoint(final TrackSegment segment, final int segmentIndex) {
+		this.segment = segment;
+		this.segmentIndex = segmentIndex;
+	}
+
+	void bind(final TrackSegment segment, final int segmentIndex) {
+		this.segment = segment;
+		this.segmentIndex = segmentIndex;
+	}
+
 	public String getName() {
-		return name;
+		return segment == null ? name : segment.getName(segmentIndex);
 	}
 
 	public void setName(final String name) {
-		this.name = name;
+		if (segment == null) {
+			this.name = name;
+		} else {
+			segment.setName(segmentIndex, name);
+		}
 	}
 
 	public long getTimestamp() {
-		return timestamp;
+		return segment == null ? timestamp : segment.getTimestamp(segmentIndex);
 	}
 
 	public void setTimestamp(final long timestamp) {
-		this.timestamp = timestamp;
+		if (segment == null) {
+			this.timestamp = timestamp;
+		} else {
+			segment.setTimestamp(segmentIndex, timestamp);
+		}
 	}
 
 	public double getLatitude() {
-		return latitude;
+		return segment == null ? latitude : segment.getLatitude(segmentIndex);
 	}
 
 	public void setLatitude(final double latitude) {
-		this.latitude = latitude;
+		if (segment == null) {
+			this.latitude = latitude;
+		} else {
+			segment.setLatitude(segmentIndex, latitude);
+		}
 	}
 
 	public double getLongitude() {
-		return longitude;
+		return segment == null ? longitude : segment.getLongitude(segmentIndex);
 	}
 
 	public void setLongitude(final double longitude) {
-		this.longitude = longitude;
+		if (segment == null) {
+			this.longitude = longitude;
+		} else {
+			segment.setLongitude(segmentIndex, longitude);
+		}
 	}
 
 	public float getElevation() {
-		return elevation;
+		return segment == null ? elevation : segment.getElevation(segmentIndex);
 	}
 
 	public void setElevation(final float elevation) {
-		this.elevation = elevation;
+		if (segment == null) {
+			this.elevation = elevation;
+		} else {
+			segment.setElevation(segmentIndex, elevation);
+		}
 	}
 
 	public float getSpeed() {
-		return speed;
+		return segment == null ? speed : segment.getSpeed(segmentIndex);
 	}
 
 	public void setSpeed(final float speed) {
-		this.speed = speed;
+		if (segment == null) {
+			this.speed = speed;
+		} else {
+			segment.setSpeed(segmentIndex, speed);
+		}
 	}
 
 	public float getCourse() {
-		return course;
+		return segment == null ? course : segment.getCourse(segmentIndex);
 	}
 
 	public void setCourse(final float course) {
-		this.course = course;
+		if (segment == null) {
+			this.course = course;
+		} else {
+			segment.setCourse(segmentIndex, course);
+		}
 	}
 
 	public boolean isStanding() {
-		return standing;
+		return segment == null ? standing : segment.isStanding(segmentIndex);
 	}
 
 	public void setStanding(final boolean standing) {
-		this.standing = standing;
+		if (segment == null) {
+			this.standing = standing;
+		} else {
+			segment.setStanding(segmentIndex, standing);
+		}
 	}
 
 	void setIndex(final int index) {
@@ -127,33 +179,46 @@ public class TrackPoint {
 	}
 
 	public int getIndex() {
-		return index;
+		return segment == null ? index : segment.firstIndex + segmentIndex;
 	}
 
 	void setDistance(final double distance) {
-		this.distance = distance;
+		if (segment == null) {
+			this.distance = distance;
+		} else {
+			segment.setDistance(segmentIndex, distance);
+		}
 	}
 
 	public double getDistance() {
-		return distance;
+		return segment == null ? distance : segment.getDistance(segmentIndex);
 	}
 
 	public byte getSatellites() {
-		return satellites;
+		return segment == null ? satellites : segment.getSatellites(segmentIndex);
+	}
+
+	void setSatellites(final byte satellites) {
+		if (segment == null) {
+			this.satellites = satellites;
+		} else {
+			segment.setSatellites(segmentIndex, satellites);
+		}
 	}
 
 	public void writeToStream(final DataOutputStream out) throws IOException {
-		out.writeLong(timestamp);
-		out.writeDouble(latitude);
-		out.writeDouble(longitude);
-		out.writeFloat(elevation);
-		out.writeFloat(speed);
-		out.writeFloat(course);
+		out.writeLong(getTimestamp());
+		out.writeDouble(getLatitude());
+		out.writeDouble(getLongitude());
+		out.writeFloat(getElevation());
+		out.writeFloat(getSpeed());
+		out.writeFloat(getCourse());
 		// we're now writing the number of satellites instead of the (unused)
 		// interpolated property
 		// since interpolated was always 0 this shouldn't be a problem.
-		out.writeByte(satellites);
-		out.writeBoolean(standing);
+		out.writeByte(getSatellites());
+		out.writeBoolean(isStanding());
+		final String name = getName();
 		out.writeUTF(name == null ? "" : name);
 	}
 
@@ -184,10 +249,14 @@ public class TrackPoint {
 	}
 
 	public int getHeartRate() {
-		return heartRate;
+		return segment == null ? heartRate : segment.getHeartRate(segmentIndex);
 	}
 
 	public void setHeartRate(final int heartRate) {
-		this.heartRate = heartRate;
+		if (segment == null) {
+			this.heartRate = heartRate;
+		} else {
+			segment.setHeartRate(segmentIndex, heartRate);
+		}
 	}
 }
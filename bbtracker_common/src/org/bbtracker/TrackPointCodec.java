@@ -0,0 +1,297 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads and writes the records of version 2 of the track stream format.
+ * 
+ * After the header (version, name and creation date, as in version 1) the stream is a sequence of records, each
+ * starting with a tag byte: {@link #END}, {@link #SEGMENT} or a point record. A point record has the
+ * {@link #POINT} bit set in its tag; the other bits tell which of the optional values follow. Timestamps, coordinates,
+ * elevation and course are stored as the difference to the previous point, as zig-zag encoded variable length
+ * integers, so that a typical point takes about 10 bytes instead of the 42 of version 1.
+ * 
+ * Values are stored with a fixed resolution: 1 ms, 10^-7 degrees for coordinates, 0.1 m elevation, 0.01 m/s speed and
+ * 0.01 degrees course. That is finer than what GPS receivers report.
+ * 
+ * Points also store their distance from the start of the track (with a resolution of 1 cm, as the difference to the
+ * previous point), so that reading a track doesn't need to calculate it. Streams written before that was added don't
+ * have it; readers calculate the distances of points without one.
+ * 
+ * A codec keeps the values of the previous point, so a stream must be written and read with a single codec each.
+ */
+public class TrackPointCodec {
+	public static final int END = 0x00;
+
+	public static final int SEGMENT = 0x01;
+
+	public static final int POINT = 0x80;
+
+	private static final int HAS_ELEVATION = 0x01;
+
+	private static final int HAS_SPEED = 0x02;
+
+	private static final int HAS_COURSE = 0x04;
+
+	private static final int HAS_HEART_RATE = 0x08;
+
+	/**
+	 * An extras byte follows the tag, see the <code>EXTRA_*</code> constants.
+	 */
+	private static final int HAS_EXTRAS = 0x10;
+
+	private static final int HAS_DISTANCE = 0x20;
+
+	// 0x40 is reserved for future values
+
+	private static final int EXTRA_SATELLITES = 0x01;
+
+	private static final int EXTRA_NAME = 0x02;
+
+	private static final int EXTRA_STANDING = 0x04;
+
+	private static final float ELEVATION_SCALE = 10f;
+
+	private static final float SPEED_SCALE = 100f;
+
+	private static final float COURSE_SCALE = 100f;
+
+	static final double DISTANCE_SCALE = 100;
+
+	private long lastTimestamp = 0;
+
+	private int lastLatitude = 0;
+
+	private int lastLongitude = 0;
+
+	private int lastElevation = 0;
+
+	private int lastCourse = 0;
+
+	private byte lastSatellites = 0;
+
+	private long lastDistance = 0;
+
+	public void writeSegment(final DataOutputStream out) throws IOException {
+		out.writeByte(SEGMENT);
+	}
+
+	public void writeEnd(final DataOutputStream out) throws IOException {
+		out.writeByte(END);
+	}
+
+	public void writePoint(final DataOutputStream out, final TrackPoint point) throws IOException {
+		final float elevation = point.getElevation();
+		final float speed = point.getSpeed();
+		final float course = point.getCourse();
+		final int heartRate = point.getHeartRate();
+		final byte satellites = point.getSatellites();
+		final String name = point.getName();
+		final boolean standing = point.isStanding();
+		final long distance = (long) Math.floor(point.getDistance() * DISTANCE_SCALE + 0.5);
+
+		int extras = 0;
+		if (satellites != lastSatellites) {
+			extras |= EXTRA_SATELLITES;
+		}
+		if (name != null) {
+			extras |= EXTRA_NAME;
+		}
+		if (standing) {
+			extras |= EXTRA_STANDING;
+		}
+		int tag = POINT;
+		if (!Float.isNaN(elevation)) {
+			tag |= HAS_ELEVATION;
+		}
+		if (!Float.isNaN(speed)) {
+			tag |= HAS_SPEED;
+		}
+		if (!Float.isNaN(course)) {
+			tag |= HAS_COURSE;
+		}
+		if (heartRate != 0) {
+			tag |= HAS_HEART_RATE;
+		}
+		if (!Double.isNaN(point.getDistance()) && distance >= lastDistance) {
+			tag |= HAS_DISTANCE;
+		}
+		if (extras != 0) {
+			tag |= HAS_EXTRAS;
+		}
+		out.writeByte(tag);
+		if (extras != 0) {
+			out.writeByte(extras);
+		}
+
+		final long timestamp = point.getTimestamp();
+		writeSigned(out, timestamp - lastTimestamp);
+		lastTimestamp = timestamp;
+		final int latitude = TrackSegment.toFixed(point.getLatitude());
+		writeSigned(out, latitude - lastLatitude);
+		lastLatitude = latitude;
+		final int longitude = TrackSegment.toFixed(point.getLongitude());
+		writeSigned(out, longitude - lastLongitude);
+		lastLongitude = longitude;
+
+		if ((tag & HAS_ELEVATION) != 0) {
+			final int value = (int) Math.floor(elevation * ELEVATION_SCALE + 0.5);
+			writeSigned(out, value - lastElevation);
+			lastElevation = value;
+		}
+		if ((tag & HAS_SPEED) != 0) {
+			writeSigned(out, (int) Math.floor(speed * SPEED_SCALE + 0.5));
+		}
+		if ((tag & HAS_COURSE) != 0) {
+			final int value = (int) Math.floor(course * COURSE_SCALE + 0.5);
+			writeSigned(out, value - lastCourse);
+			lastCourse = value;
+		}
+		if ((tag & HAS_HEART_RATE) != 0) {
+			writeUnsigned(out, heartRate);
+		}
+		if ((tag & HAS_DISTANCE) != 0) {
+			writeUnsigned(out, distance - lastDistance);
+			lastDistance = distance;
+		}
+		if ((extras & EXTRA_SATELLITES) != 0) {
+			out.writeByte(satellites);
+			lastSatellites = satellites;
+		}
+		if ((extras & EXTRA_NAME) != 0) {
+			out.writeUTF(name);
+		}
+	}
+
+	/**
+	 * Reads the next record. If it is a point record, then its values are stored in <code>point</code>. The distance of
+	 * <code>point</code> is set to NaN if the record doesn't contain it.
+	 * 
+	 * @return the tag of the record, {@link #POINT} for all point records
+	 * @throws TrackStoreException
+	 *             if the record is not valid
+	 */
+	public int read(final DataInputStream in, final TrackPoint point) throws IOException, TrackStoreException {
+		final int tag = in.readUnsignedByte();
+		if (tag == END || tag == SEGMENT) {
+			return tag;
+		}
+		if ((tag & POINT) == 0) {
+			throw new TrackStoreException("Unknown record type " + tag);
+		}
+		final int extras = (tag & HAS_EXTRAS) != 0 ? in.readUnsignedByte() : 0;
+
+		lastTimestamp += readSigned(in);
+		point.setTimestamp(lastTimestamp);
+		lastLatitude += (int) readSigned(in);
+		point.setLatitude(TrackSegment.fromFixed(lastLatitude));
+		lastLongitude += (int) readSigned(in);
+		point.setLongitude(TrackSegment.fromFixed(lastLongitude));
+
+		if ((tag & HAS_ELEVATION) != 0) {
+			lastElevation += (int) readSigned(in);
+			point.setElevation(lastElevation / ELEVATION_SCALE);
+		} else {
+			point.setElevation(Float.NaN);
+		}
+		if ((tag & HAS_SPEED) != 0) {
+			point.setSpeed(readSigned(in) / SPEED_SCALE);
+		} else {
+			point.setSpeed(Float.NaN);
+		}
+		if ((tag & HAS_COURSE) != 0) {
+			lastCourse += (int) readSigned(in);
+			point.setCourse(lastCourse / COURSE_SCALE);
+		} else {
+			point.setCourse(Float.NaN);
+		}
+		point.setHeartRate((tag & HAS_HEART_RATE) != 0 ? (int) readUnsigned(in) : 0);
+		if ((tag & HAS_DISTANCE) != 0) {
+			lastDistance += readUnsigned(in);
+			point.setDistance(lastDistance / DISTANCE_SCALE);
+		} else {
+			point.setDistance(Double.NaN);
+		}
+		if ((extras & EXTRA_SATELLITES) != 0) {
+			lastSatellites = in.readByte();
+		}
+		point.setSatellites(lastSatellites);
+		point.setName((extras & EXTRA_NAME) != 0 ? in.readUTF() : null);
+		point.setStanding((extras & EXTRA_STANDING) != 0);
+		return POINT;
+	}
+
+	/**
+	 * Writes the values this codec remembers from the previous point. Restoring them with
+	 * {@link #readState(DataInputStream)} allows reading to start at the next point record instead of at the start of
+	 * the stream (see {@link SegmentTable}).
+	 */
+	void writeState(final DataOutputStream out) throws IOException {
+		out.writeLong(lastTimestamp);
+		out.writeInt(lastLatitude);
+		out.writeInt(lastLongitude);
+		out.writeInt(lastElevation);
+		out.writeInt(lastCourse);
+		out.writeByte(lastSatellites);
+		out.writeLong(lastDistance);
+	}
+
+	void readState(final DataInputStream in) throws IOException {
+		lastTimestamp = in.readLong();
+		lastLatitude = in.readInt();
+		lastLongitude = in.readInt();
+		lastElevation = in.readInt();
+		lastCourse = in.readInt();
+		lastSatellites = in.readByte();
+		lastDistance = in.readLong();
+	}
+
+	static void writeUnsigned(final DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static void writeSigned(final DataOutputStream out, final long value) throws IOException {
+		writeUnsigned(out, (value << 1) ^ (value >> 63));
+	}
+
+	static long readUnsigned(final DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new EOFException("Malformed variable length integer");
+	}
+
+	static long readSigned(final DataInputStream in) throws IOException {
+		final long value = readUnsigned(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A {@link TrackCursor} reading the format written by {@link Track#writeToStream(java.io.DataOutputStream)} without
+ * keeping more than the current point in memory. Both version 1 and version 2 streams can be read.
+ */
+public class TrackReader extends TrackCursor {
+	private final DataInputStream in;
+
+	private final boolean computeDistances;
+
+	/**
+	 * The codec reading a version 2 stream, null for version 1.
+	 */
+	private final TrackPointCodec codec;
+
+	private int segmentsLeft;
+
+	private int pointsLeft = 0;
+
+	private boolean ended = false;
+
+	private boolean distanceStored = false;
+
+	private TrackReader(final DataInputStream in, final String name, final Date creationDate,
+			final TrackPointCodec codec, final int segmentCount, final boolean computeDistances) {
+		super(name, creationDate);
+		this.in = in;
+		this.codec = codec;
+		this.computeDistances = computeDistances;
+		segmentsLeft = segmentCount;
+	}
+
+	/**
+	 * Reads the header of the track from <code>in</code> and returns a cursor over its points.
+	 */
+	public static TrackReader open(final DataInputStream in) throws IOException, TrackStoreException {
+		return open(in, true);
+	}
+
+	/**
+	 * @param computeDistances
+	 *            if <code>false</code>, the distances of the points are not calculated and will be 0 unless they are
+	 *            stored in the stream
+	 */
+	static TrackReader open(final DataInputStream in, final boolean computeDistances) throws IOException,
+			TrackStoreException {
+		final int version = Track.readVersionFromStream(in);
+		final String name = in.readUTF();
+		final Date creationDate = Track.readDateFromStream(in);
+		final TrackPointCodec codec;
+		final int segmentCount;
+		if (version == 1) {
+			codec = null;
+			segmentCount = in.readInt();
+		} else {
+			codec = new TrackPointCodec();
+			segmentCount = 0;
+		}
+		return new TrackReader(in, name.length() == 0 ? null : name, creationDate, codec, segmentCount,
+				computeDistances);
+	}
+
+	public boolean next() throws IOException {
+		if (codec != null) {
+			return nextRecord();
+		}
+		boolean firstInSegment = false;
+		while (pointsLeft == 0) {
+			if (segmentsLeft == 0) {
+				return false;
+			}
+			segmentsLeft--;
+			pointsLeft = in.readInt();
+			firstInSegment = true;
+		}
+		pointsLeft--;
+
+		final TrackPoint point = getPoint();
+		point.setTimestamp(in.readLong());
+		point.setLatitude(in.readDouble());
+		point.setLongitude(in.readDouble());
+		point.setElevation(in.readFloat());
+		point.setSpeed(in.readFloat());
+		point.setCourse(in.readFloat());
+		point.setSatellites(in.readByte());
+		point.setStanding(in.readBoolean());
+		final String name = in.readUTF();
+		point.setName(name.length() == 0 ? null : name);
+		point.setHeartRate(0);
+		pointRead(firstInSegment, computeDistances ? Double.NaN : 0);
+		return true;
+	}
+
+	private boolean nextRecord() throws IOException {
+		if (ended) {
+			return false;
+		}
+		boolean firstInSegment = false;
+		try {
+			while (true) {
+				final int tag = codec.read(in, getPoint());
+				if (tag == TrackPointCodec.END) {
+					ended = true;
+					return false;
+				} else if (tag == TrackPointCodec.SEGMENT) {
+					firstInSegment = true;
+				} else {
+					break;
+				}
+			}
+		} catch (final TrackStoreException e) {
+			throw new IOException(e.getMessage());
+		}
+		final double distance = getPoint().getDistance();
+		distanceStored = !Double.isNaN(distance);
+		pointRead(firstInSegment || getSegmentIndex() == -1, distanceStored ? distance : computeDistances ? Double.NaN
+				: 0);
+		return true;
+	}
+
+	/**
+	 * Returns true if the distance of the current point was read from the stream instead of being calculated.
+	 */
+	boolean isDistanceStored() {
+		return distanceStored;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -17,14 +17,107 @@
  */
 package org.bbtracker;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.Hashtable;
+import java.util.NoSuchElementException;
 
+/**
+ * A continuous part of a {@link Track}.
+ * 
+ * Points are not kept as {@link TrackPoint} objects but column-wise in primitive arrays that are split into chunks of
+ * {@link #CHUNK_SIZE} points. A recorded point therefore costs only its primitive values, and growing a segment never
+ * copies (or temporarily doubles) the data that is already recorded. The {@link TrackPoint} objects handed out by
+ * {@link #getPoint(int)} are views on that storage.
+ * 
+ * Recorded values are never moved to a place where a concurrent reader would not find them: whenever an array is
+ * replaced by a bigger one, the old one keeps its content and the new one is filled before it is stored. This is what
+ * makes it safe for {@link TrackSnapshot}s to read a segment while points are being added to it.
+ */
 public class TrackSegment {
-	private final Vector points;
+	private static final int CHUNK_SHIFT = 8;
+
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final int INITIAL_CHUNK_SIZE = 16;
+
+	/**
+	 * Latitude and longitude are stored as fixed-point values in units of 10^-7 degrees (roughly one centimeter).
+	 */
+	static final double COORDINATE_SCALE = 1e7;
+
+	private static final byte FLAG_STANDING = 1;
+
+	/**
+	 * The number of detail levels a point can be ranked in (see {@link #getRank(int)}).
+	 */
+	public static final int DETAIL_LEVELS = 20;
+
+	/**
+	 * The tolerance of the finest detail level in fixed-point units. Each further level doubles the tolerance.
+	 */
+	private static final int DETAIL_BASE = 4;
+
+	private long[][] timestamps;
+
+	private int[][] latitudes;
+
+	private int[][] longitudes;
+
+	private float[][] elevations;
+
+	private float[][] speeds;
+
+	private float[][] courses;
+
+	private double[][] distances;
+
+	private int[][] heartRates;
+
+	private byte[][] satellites;
+
+	private byte[][] flags;
+
+	private byte[][] ranks;
+
+	/**
+	 * For every point the index of the next point with a higher rank. Points that have none yet are chained per rank
+	 * starting at {@link #pendingRanks}: they hold <code>-2 - </code> the index of the previous such point of their
+	 * rank (or -1).
+	 */
+	private int[][] higher;
+
+	private final int[] pendingRanks = new int[DETAIL_LEVELS + 1];
+
+	/**
+	 * The fixed-point coordinates of the last point kept at each detail level.
+	 */
+	private final int[] levelLatitudes = new int[DETAIL_LEVELS];
+
+	private final int[] levelLongitudes = new int[DETAIL_LEVELS];
+
+	/**
+	 * Names are rare, so they are kept in a map from point index (as Integer) to name.
+	 */
+	private Hashtable names;
+
+	private int pointCount;
+
+	private int capacity;
+
+	/**
+	 * The index of the first point of this segment within its track.
+	 */
+	int firstIndex;
+
+	/**
+	 * The length of the track before this segment. Distances are stored relative to the start of the segment, so that
+	 * the distances of a segment don't depend on the segments before it.
+	 */
+	double distanceOffset;
 
 	transient double minLatitude = Double.POSITIVE_INFINITY;
 
@@ -35,17 +128,77 @@ public class TrackSegment {
 	transient double maxLongitude = Double.NEGATIVE_INFINITY;
 
 	TrackSegment() {
-		points = new Vector();
+		this(0);
 	}
 
 	TrackSegment(final int size) {
-		points = new Vector(size);
+		final int chunks = size == 0 ? 1 : ((size - 1) >> CHUNK_SHIFT) + 1;
+		timestamps = new long[chunks][];
+		latitudes = new int[chunks][];
+		longitudes = new int[chunks][];
+		elevations = new float[chunks][];
+		speeds = new float[chunks][];
+		courses = new float[chunks][];
+		distances = new double[chunks][];
+		heartRates = new int[chunks][];
+		satellites = new byte[chunks][];
+		flags = new byte[chunks][];
+		ranks = new byte[chunks][];
+		higher = new int[chunks][];
+		for (int level = 0; level <= DETAIL_LEVELS; level++) {
+			pendingRanks[level] = -1;
+		}
+		allocateChunk(0, size == 0 ? INITIAL_CHUNK_SIZE : Math.min(size, CHUNK_SIZE));
+	}
+
+	static int toFixed(final double degrees) {
+		return (int) Math.floor(degrees * COORDINATE_SCALE + 0.5);
+	}
+
+	static double fromFixed(final int fixed) {
+		return fixed / COORDINATE_SCALE;
 	}
 
+	/**
+	 * Stores the values of <code>point</code> in this segment and turns <code>point</code> into a view on the stored
+	 * values, so that later modifications of it (a name, for example) are reflected in the segment.
+	 */
 	boolean addPoint(final TrackPoint point) {
+		final boolean boundsChanged = copyPoint(point);
+		point.bind(this, pointCount - 1);
+		return boundsChanged;
+	}
+
+	/**
+	 * Stores the values of <code>point</code> in this segment, without linking <code>point</code> to it.
+	 */
+	boolean copyPoint(final TrackPoint point) {
+		return copyPoint(point, Double.NaN);
+	}
+
+	/**
+	 * Stores the values of <code>point</code> in this segment, using the given distance from the start of this
+	 * segment instead of calculating it from the previous point (unless it is NaN).
+	 */
+	boolean copyPoint(final TrackPoint point, final double distance) {
+		final boolean boundsChanged = append(point.getTimestamp(), toFixed(point.getLatitude()),
+				toFixed(point.getLongitude()), point.getElevation(), point.getSpeed(), point.getCourse(),
+				point.getSatellites(), distance);
+		final int i = pointCount - 1;
+		heartRates[i >> CHUNK_SHIFT][i & CHUNK_MASK] = point.getHeartRate();
+		setStanding(i, point.isStanding());
+		setName(i, point.getName());
+		return boundsChanged;
+	}
+
+	private boolean append(final long timestamp, final int fixedLatitude, final int fixedLongitude,
+			final float elevation, final float speed, final float course, final byte sats, final double knownDistance) {
+		if (pointCount == capacity) {
+			grow();
+		}
+		final double lat = fromFixed(fixedLatitude);
+		final double lon = fromFixed(fixedLongitude);
 		boolean boundsChanged = false;
-		final double lat = point.getLatitude();
-		final double lon = point.getLongitude();
 		if (lat < minLatitude) {
 			minLatitude = lat;
 			boundsChanged = true;
@@ -62,43 +215,417 @@ public class TrackSegment {
 			maxLongitude = lon;
 			boundsChanged = true;
 		}
-		if (points.size() > 0) {
-			final TrackPoint prevPoint = (TrackPoint) points.elementAt(points.size() - 1);
-			final double dist = Utils.distance(prevPoint.getLatitude(), prevPoint.getLongitude(), lat, lon);
-			point.setDistance(prevPoint.getDistance() + dist);
+		double distance = 0;
+		if (!Double.isNaN(knownDistance)) {
+			distance = knownDistance;
+		} else if (pointCount > 0) {
+			final int prev = pointCount - 1;
+			distance = distances[prev >> CHUNK_SHIFT][prev & CHUNK_MASK]
+					+ Utils.distance(getLatitude(prev), getLongitude(prev), lat, lon);
 		}
-		points.addElement(point);
+
+		final int c = pointCount >> CHUNK_SHIFT;
+		final int o = pointCount & CHUNK_MASK;
+		timestamps[c][o] = timestamp;
+		latitudes[c][o] = fixedLatitude;
+		longitudes[c][o] = fixedLongitude;
+		elevations[c][o] = elevation;
+		speeds[c][o] = speed;
+		courses[c][o] = course;
+		distances[c][o] = distance;
+		satellites[c][o] = sats;
+		final byte rank = rank(fixedLatitude, fixedLongitude);
+		ranks[c][o] = rank;
+		link(pointCount, rank);
+		pointCount++;
 		return boundsChanged;
 	}
 
+	/**
+	 * Makes <code>i</code> the next higher point of all points with a lower rank that don't have one yet.
+	 */
+	private void link(final int i, final int rank) {
+		for (int level = 0; level < rank; level++) {
+			int p = pendingRanks[level];
+			while (p != -1) {
+				final int[] chunk = higher[p >> CHUNK_SHIFT];
+				final int previous = -2 - chunk[p & CHUNK_MASK];
+				chunk[p & CHUNK_MASK] = i;
+				p = previous;
+			}
+			pendingRanks[level] = -1;
+		}
+		higher[i >> CHUNK_SHIFT][i & CHUNK_MASK] = -2 - pendingRanks[rank];
+		pendingRanks[rank] = i;
+	}
+
+	/**
+	 * A point is kept at a detail level if it is at least that level's tolerance away (in either coordinate) from the
+	 * last point kept at that level. Only points kept at a level are considered for the next coarser one, so a point's
+	 * rank is the number of levels it is kept at. Unlike Douglas-Peucker or Visvalingam ranks this never changes
+	 * when further points are added.
+	 */
+	private byte rank(final int fixedLatitude, final int fixedLongitude) {
+		int level = 0;
+		while (level < DETAIL_LEVELS) {
+			if (pointCount != 0) {
+				final int dLat = Math.abs(fixedLatitude - levelLatitudes[level]);
+				final int dLon = Math.abs(fixedLongitude - levelLongitudes[level]);
+				if (Math.max(dLat, dLon) < DETAIL_BASE << level) {
+					break;
+				}
+			}
+			levelLatitudes[level] = fixedLatitude;
+			levelLongitudes[level] = fixedLongitude;
+			level++;
+		}
+		return (byte) level;
+	}
+
+	private void grow() {
+		final int c = pointCount >> CHUNK_SHIFT;
+		if (c < timestamps.length && timestamps[c] != null) {
+			// the last chunk was allocated smaller than CHUNK_SIZE
+			allocateChunk(c, Math.min(timestamps[c].length * 2, CHUNK_SIZE));
+			return;
+		}
+		if (c == timestamps.length) {
+			final int newLength = c * 2;
+			timestamps = (long[][]) copyOf(timestamps, new long[newLength][]);
+			latitudes = (int[][]) copyOf(latitudes, new int[newLength][]);
+			longitudes = (int[][]) copyOf(longitudes, new int[newLength][]);
+			elevations = (float[][]) copyOf(elevations, new float[newLength][]);
+			speeds = (float[][]) copyOf(speeds, new float[newLength][]);
+			courses = (float[][]) copyOf(courses, new float[newLength][]);
+			distances = (double[][]) copyOf(distances, new double[newLength][]);
+			heartRates = (int[][]) copyOf(heartRates, new int[newLength][]);
+			satellites = (byte[][]) copyOf(satellites, new byte[newLength][]);
+			flags = (byte[][]) copyOf(flags, new byte[newLength][]);
+			ranks = (byte[][]) copyOf(ranks, new byte[newLength][]);
+			higher = (int[][]) copyOf(higher, new int[newLength][]);
+		}
+		allocateChunk(c, CHUNK_SIZE);
+	}
+
+	private void allocateChunk(final int c, final int size) {
+		timestamps[c] = (long[]) copyOf(timestamps[c], new long[size]);
+		latitudes[c] = (int[]) copyOf(latitudes[c], new int[size]);
+		longitudes[c] = (int[]) copyOf(longitudes[c], new int[size]);
+		elevations[c] = (float[]) copyOf(elevations[c], new float[size]);
+		speeds[c] = (float[]) copyOf(speeds[c], new float[size]);
+		courses[c] = (float[]) copyOf(courses[c], new float[size]);
+		distances[c] = (double[]) copyOf(distances[c], new double[size]);
+		heartRates[c] = (int[]) copyOf(heartRates[c], new int[size]);
+		satellites[c] = (byte[]) copyOf(satellites[c], new byte[size]);
+		flags[c] = (byte[]) copyOf(flags[c], new byte[size]);
+		ranks[c] = (byte[]) copyOf(ranks[c], new byte[size]);
+		higher[c] = (int[]) copyOf(higher[c], new int[size]);
+		capacity = (c << CHUNK_SHIFT) + size;
+	}
+
+	private static Object copyOf(final Object from, final Object to) {
+		if (from != null) {
+			System.arraycopy(from, 0, to, 0, lengthOf(from));
+		}
+		return to;
+	}
+
+	private static int lengthOf(final Object array) {
+		if (array instanceof Object[]) {
+			return ((Object[]) array).length;
+		} else if (array instanceof long[]) {
+			return ((long[]) array).length;
+		} else if (array instanceof int[]) {
+			return ((int[]) array).length;
+		} else if (array instanceof float[]) {
+			return ((float[]) array).length;
+		} else if (array instanceof double[]) {
+			return ((double[]) array).length;
+		} else {
+			return ((byte[]) array).length;
+		}
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	/**
+	 * Returns the index after the last point of the block that contains point <code>i</code>. The bounds and time
+	 * range of a block are known without reading its points and include the line to the first point of the next
+	 * block. A segment that is completely in memory is a single block.
+	 */
+	public int getBlockEnd(final int i) {
+		return pointCount;
+	}
+
+	public double getBlockMinLatitude(final int i) {
+		return minLatitude;
+	}
+
+	public double getBlockMaxLatitude(final int i) {
+		return maxLatitude;
+	}
+
+	public double getBlockMinLongitude(final int i) {
+		return minLongitude;
+	}
+
+	public double getBlockMaxLongitude(final int i) {
+		return maxLongitude;
+	}
+
+	public long getBlockFirstTimestamp(final int i) {
+		return getTimestamp(0);
+	}
+
+	public long getBlockLastTimestamp(final int i) {
+		return getTimestamp(pointCount - 1);
+	}
+
 	public TrackPoint getPoint(final int i) {
-		return (TrackPoint) points.elementAt(i);
+		if (i < 0 || i >= pointCount) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return new TrackPoint(this, i);
 	}
 
 	public int getPointCount() {
-		return points.size();
+		return pointCount;
 	}
 
 	public Enumeration getPoints() {
-		return points.elements();
+		return new Enumeration() {
+			private int next = 0;
+
+			public boolean hasMoreElements() {
+				return next < pointCount;
+			}
+
+			public Object nextElement() {
+				if (next >= pointCount) {
+					throw new NoSuchElementException();
+				}
+				return new TrackPoint(TrackSegment.this, next++);
+			}
+		};
 	}
 
-	public void writeToStream(final DataOutputStream out) throws IOException {
-		final int pointCount = points.size();
-		out.writeInt(pointCount);
-		for (int i = 0; i < pointCount; i++) {
-			final TrackPoint point = (TrackPoint) points.elementAt(i);
-			point.writeToStream(out);
+	/**
+	 * Copies the values of a point into an unbound <code>point</code>.
+	 */
+	void copyTo(final int i, final TrackPoint point) {
+		point.setTimestamp(getTimestamp(i));
+		point.setLatitude(getLatitude(i));
+		point.setLongitude(getLongitude(i));
+		point.setElevation(getElevation(i));
+		point.setSpeed(getSpeed(i));
+		point.setCourse(getCourse(i));
+		point.setSatellites(getSatellites(i));
+		point.setHeartRate(getHeartRate(i));
+		point.setStanding(isStanding(i));
+		point.setName(getName(i));
+	}
+
+	public long getTimestamp(final int i) {
+		return timestamps[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public double getLatitude(final int i) {
+		return fromFixed(latitudes[i >> CHUNK_SHIFT][i & CHUNK_MASK]);
+	}
+
+	public double getLongitude(final int i) {
+		return fromFixed(longitudes[i >> CHUNK_SHIFT][i & CHUNK_MASK]);
+	}
+
+	public float getElevation(final int i) {
+		return elevations[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public float getSpeed(final int i) {
+		return speeds[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public float getCourse(final int i) {
+		return courses[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public double getDistance(final int i) {
+		return distanceOffset + distances[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public int getHeartRate(final int i) {
+		return heartRates[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public byte getSatellites(final int i) {
+		return satellites[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	public boolean isStanding(final int i) {
+		return (flags[i >> CHUNK_SHIFT][i & CHUNK_MASK] & FLAG_STANDING) != 0;
+	}
+
+	/**
+	 * Returns the detail rank of a point. Drawing only the points with a rank of at least
+	 * {@link #getMinimumRank(double)} (plus the last point of the segment) keeps every skipped point within twice
+	 * the given tolerance of a drawn one: a point is only close to the last point kept at its own level, which may
+	 * itself be skipped at the next level, so the tolerances of the skipped levels add up. The first point and named
+	 * points always have the highest rank.
+	 */
+	public int getRank(final int i) {
+		return ranks[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+	}
+
+	/**
+	 * Returns an index after <code>i</code> such that no point in between has a higher rank than <code>i</code>.
+	 */
+	int getHigherIndex(final int i) {
+		final int next = higher[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+		return next < 0 ? pointCount : next;
+	}
+
+	/**
+	 * Returns the index of the first point after <code>i</code> that has a rank of at least <code>minRank</code>, or
+	 * <code>limit</code> if there is none before it. Runs of lower ranked points are skipped without reading them, so
+	 * this reads at most one point per detail level.
+	 */
+	public int getNextIndex(final int i, final int minRank, final int limit) {
+		int next = i + 1;
+		while (next < limit && getRank(next) < minRank) {
+			next = getHigherIndex(next);
 		}
+		return Math.min(next, limit);
 	}
 
-	public static TrackSegment readFromStream(final DataInputStream in) throws IOException {
-		final int size = in.readInt();
-		final TrackSegment segment = new TrackSegment(size);
-		for (int i = 0; i < size; i++) {
-			final TrackPoint point = TrackPoint.readFromStream(in);
-			segment.addPoint(point);
+	/**
+	 * @param tolerance
+	 *            the acceptable deviation in degrees
+	 * @return the minimum rank a point needs to be drawn at that tolerance
+	 */
+	public static int getMinimumRank(final double tolerance) {
+		final double fixedTolerance = tolerance * COORDINATE_SCALE;
+		int level = 0;
+		while (level < DETAIL_LEVELS && (DETAIL_BASE << level) <= fixedTolerance) {
+			level++;
+		}
+		return level;
+	}
+
+	int getNameCount() {
+		return names == null ? 0 : names.size();
+	}
+
+	public String getName(final int i) {
+		return names == null ? null : (String) names.get(new Integer(i));
+	}
+
+	void setTimestamp(final int i, final long timestamp) {
+		timestamps[i >> CHUNK_SHIFT][i & CHUNK_MASK] = timestamp;
+	}
+
+	void setLatitude(final int i, final double latitude) {
+		latitudes[i >> CHUNK_SHIFT][i & CHUNK_MASK] = toFixed(latitude);
+	}
+
+	void setLongitude(final int i, final double longitude) {
+		longitudes[i >> CHUNK_SHIFT][i & CHUNK_MASK] = toFixed(longitude);
+	}
+
+	void setElevation(final int i, final float elevation) {
+		elevations[i >> CHUNK_SHIFT][i & CHUNK_MASK] = elevation;
+	}
+
+	void setSpeed(final int i, final float speed) {
+		speeds[i >> CHUNK_SHIFT][i & CHUNK_MASK] = speed;
+	}
+
+	void setCourse(final int i, final float course) {
+		courses[i >> CHUNK_SHIFT][i & CHUNK_MASK] = course;
+	}
+
+	void setDistance(final int i, final double distance) {
+		distances[i >> CHUNK_SHIFT][i & CHUNK_MASK] = distance - distanceOffset;
+	}
+
+	void setHeartRate(final int i, final int heartRate) {
+		heartRates[i >> CHUNK_SHIFT][i & CHUNK_MASK] = heartRate;
+	}
+
+	void setSatellites(final int i, final byte satellites) {
+		this.satellites[i >> CHUNK_SHIFT][i & CHUNK_MASK] = satellites;
+	}
+
+	void setStanding(final int i, final boolean standing) {
+		final byte[] chunk = flags[i >> CHUNK_SHIFT];
+		if (standing) {
+			chunk[i & CHUNK_MASK] |= FLAG_STANDING;
+		} else {
+			chunk[i & CHUNK_MASK] &= ~FLAG_STANDING;
+		}
+	}
+
+	void setName(final int i, final String name) {
+		if (name == null) {
+			if (names != null) {
+				names.remove(new Integer(i));
+			}
+		} else {
+			if (names == null) {
+				names = new Hashtable();
+			}
+			names.put(new Integer(i), name);
+			setRank(i, DETAIL_LEVELS);
+		}
+	}
+
+	private void setRank(final int i, final int rank) {
+		final byte[] chunk = ranks[i >> CHUNK_SHIFT];
+		final byte oldRank = chunk[i & CHUNK_MASK];
+		if (oldRank == rank) {
+			return;
+		}
+		chunk[i & CHUNK_MASK] = (byte) rank;
+		if (i == pointCount - 1) {
+			// the last point is always the first one pending at its rank
+			pendingRanks[oldRank] = -2 - higher[i >> CHUNK_SHIFT][i & CHUNK_MASK];
+			link(i, rank);
+		} else {
+			for (int level = 0; level <= DETAIL_LEVELS; level++) {
+				pendingRanks[level] = -1;
+			}
+			for (int p = 0; p < pointCount; p++) {
+				link(p, getRank(p));
+			}
+		}
+	}
+
+	public void writeToStream(final DataOutputStream out) throws IOException {
+		writeToStream(out, pointCount);
+	}
+
+	/**
+	 * Writes the first <code>count</code> points of this segment in version 1 format.
+	 */
+	void writeToStream(final DataOutputStream out, final int count) throws IOException {
+		out.writeInt(count);
+		final TrackPoint point = new TrackPoint(this, 0);
+		for (int i = 0; i < count; i++) {
+			point.bind(this, i);
+			point.writeToStream(out);
 		}
-		return segment;
 	}
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * An unchanging view of the points a {@link Track} had at some moment.
+ * 
+ * A snapshot shares its storage with the track. This is safe because a track only ever appends: the arrays referenced
+ * here are never changed below {@link #getSegmentCount()}, and points below {@link #getPointCount()} are never moved
+ * or removed. Taking a snapshot is therefore free and reading from it never has to wait for the thread that records
+ * new points.
+ */
+public class TrackSnapshot {
+	private final TrackSegment[] segments;
+
+	private final int[] segmentOffsets;
+
+	private final int segmentCount;
+
+	private final int pointCount;
+
+	TrackSnapshot(final TrackSegment[] segments, final int[] segmentOffsets, final int segmentCount,
+			final int pointCount) {
+		this.segments = segments;
+		this.segmentOffsets = segmentOffsets;
+		this.segmentCount = segmentCount;
+		this.pointCount = pointCount;
+	}
+
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	public TrackSegment getSegment(final int s) {
+		if (s < 0 || s >= segmentCount) {
+			throw new IndexOutOfBoundsException("no such segment: " + s + ", must be >= 0 and < " + segmentCount);
+		}
+		return segments[s];
+	}
+
+	/**
+	 * Returns the number of points of the given segment that belong to this snapshot. The segment itself may already
+	 * contain more points.
+	 */
+	public int getSegmentPointCount(final int s) {
+		final int end = s + 1 < segmentCount ? segmentOffsets[s + 1] : pointCount;
+		return end - segmentOffsets[s];
+	}
+
+	public Enumeration getSegments() {
+		return new Enumeration() {
+			private int next = 0;
+
+			public boolean hasMoreElements() {
+				return next < segmentCount;
+			}
+
+			public Object nextElement() {
+				if (next >= segmentCount) {
+					throw new NoSuchElementException();
+				}
+				return segments[next++];
+			}
+		};
+	}
+
+	public TrackPoint getPoint(final int nr) {
+		if (nr < 0 || nr >= pointCount) {
+			throw new IndexOutOfBoundsException("no such point: " + nr + ", must be >= 0 and < " + pointCount);
+		}
+		final int s = getSegmentIndex(nr);
+		return segments[s].getPoint(nr - segmentOffsets[s]);
+	}
+
+	/**
+	 * Returns the index of the segment containing the point with the given index.
+	 */
+	int getSegmentIndex(final int nr) {
+		// find the last segment that starts at or before nr, this skips empty segments
+		int low = 0;
+		int high = segmentCount - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (segmentOffsets[mid] <= nr) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	double getLatitude(final int nr) {
+		final int s = getSegmentIndex(nr);
+		return segments[s].getLatitude(nr - segmentOffsets[s]);
+	}
+
+	double getLongitude(final int nr) {
+		final int s = getSegmentIndex(nr);
+		return segments[s].getLongitude(nr - segmentOffsets[s]);
+	}
+
+	long getTimestamp(final int nr) {
+		final int s = getSegmentIndex(nr);
+		return segments[s].getTimestamp(nr - segmentOffsets[s]);
+	}
+
+	double getDistance(final int nr) {
+		final int s = getSegmentIndex(nr);
+		return segments[s].getDistance(nr - segmentOffsets[s]);
+	}
+
+	/**
+	 * Returns true if the point with the given index is the first point of its segment.
+	 */
+	boolean isSegmentStart(final int nr) {
+		return segmentOffsets[getSegmentIndex(nr)] == nr;
+	}
+
+	/**
+	 * Returns the distance covered by the track. Gaps between segments do not count.
+	 */
+	public double getLength() {
+		if (pointCount < 2) {
+			return 0.0;
+		} else {
+			return getDistance(pointCount - 1);
+		}
+	}
+
+	/**
+	 * Returns the index of the last point whose distance from the start of the track is at most <code>distance</code>
+	 * or -1 if there is no such point.
+	 */
+	public int getLastIndexAtDistance(final double distance) {
+		return lastIndexAtMost(distance, false);
+	}
+
+	/**
+	 * Returns the index of the last point recorded at or before <code>timestamp</code> or -1 if there is no such point.
+	 * A timestamp that falls into the gap between two segments resolves to the last point of the earlier segment.
+	 */
+	public int indexAtTime(final long timestamp) {
+		return lastIndexAtMost(timestamp, true);
+	}
+
+	private double valueAt(final int nr, final boolean time) {
+		return time ? getTimestamp(nr) : getDistance(nr);
+	}
+
+	/**
+	 * Finds the last point whose timestamp or distance is at most <code>limit</code>. The segment is searched first
+	 * using the first point of each segment, so that only one segment of a lazily loaded track has to be read.
+	 */
+	private int lastIndexAtMost(final double limit, final boolean time) {
+		int low = 0;
+		int high = segmentCount - 1;
+		int segment = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			// an empty segment starts where the next one does, which keeps the order intact
+			if (segmentOffsets[mid] < pointCount && valueAt(segmentOffsets[mid], time) <= limit) {
+				segment = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (segment == -1) {
+			return -1;
+		}
+		low = segmentOffsets[segment];
+		high = (segment + 1 < segmentCount ? segmentOffsets[segment + 1] : pointCount) - 1;
+		int result = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (valueAt(mid, time) <= limit) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+}
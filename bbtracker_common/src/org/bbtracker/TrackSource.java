@@ -0,0 +1,34 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+
+/**
+ * Something that can deliver the points of a track, either a loaded {@link Track} or a stored one.
+ */
+public interface TrackSource {
+	public String getName();
+
+	/**
+	 * Opens a new cursor positioned before the first point. The caller must close it.
+	 */
+	public TrackCursor openCursor() throws IOException, TrackStoreException;
+
+	public TrackStatistics getStatistics() throws IOException, TrackStoreException;
+}
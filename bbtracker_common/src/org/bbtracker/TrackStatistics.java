@@ -0,0 +1,463 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Summary values of a {@link Track} that are updated with every added point, so that nobody needs to scan the track
+ * to get them.
+ */
+public class TrackStatistics {
+	/**
+	 * Below this speed (in m/s) the time between two points counts as stopped time.
+	 */
+	public static final float MOVING_SPEED = 0.5f;
+
+	/**
+	 * Elevation changes smaller than this (in m) are considered to be GPS noise and don't count as ascent or descent.
+	 */
+	public static final float ELEVATION_HYSTERESIS = 5f;
+
+	/**
+	 * The time window (in ms) of {@link #getRecentSpeed()} and {@link #getRecentInclination()}.
+	 */
+	public static final long RECENT_WINDOW = 5 * 60 * 1000;
+
+	private static final int RECENT_SLOTS = 30;
+
+	private int pointCount = 0;
+
+	private long firstTimestamp;
+
+	private long lastTimestamp;
+
+	private double lastDistance;
+
+	private float lastElevation = Float.NaN;
+
+	private long movingTime = 0;
+
+	private long stoppedTime = 0;
+
+	private double movingDistance = 0;
+
+	private double minLatitude = Double.POSITIVE_INFINITY;
+
+	private double maxLatitude = Double.NEGATIVE_INFINITY;
+
+	private double minLongitude = Double.POSITIVE_INFINITY;
+
+	private double maxLongitude = Double.NEGATIVE_INFINITY;
+
+	private float maxSpeed = Float.NaN;
+
+	private float minElevation = Float.NaN;
+
+	private float maxElevation = Float.NaN;
+
+	private float referenceElevation = Float.NaN;
+
+	private float ascent = 0;
+
+	private float descent = 0;
+
+	private int minHeartRate = 0;
+
+	private int maxHeartRate = 0;
+
+	private long heartRateSum = 0;
+
+	private int heartRateCount = 0;
+
+	private final long[] recentTimestamps = new long[RECENT_SLOTS];
+
+	private final double[] recentDistances = new double[RECENT_SLOTS];
+
+	private final float[] recentElevations = new float[RECENT_SLOTS];
+
+	private int recentStart = 0;
+
+	private int recentCount = 0;
+
+	/**
+	 * Calculates the statistics of all points remaining in <code>cursor</code>.
+	 */
+	public static TrackStatistics fromCursor(final TrackCursor cursor) throws IOException {
+		final TrackStatistics statistics = new TrackStatistics();
+		final TrackPoint point = cursor.getPoint();
+		while (cursor.next()) {
+			statistics.addPoint(point.getTimestamp(), point.getLatitude(), point.getLongitude(), point.getDistance(),
+					point.getElevation(), point.getSpeed(), point.getHeartRate(), cursor.isNewSegment());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns a copy that doesn't change when points are added to this one.
+	 */
+	TrackStatistics copy() {
+		final TrackStatistics copy = new TrackStatistics();
+		copy.pointCount = pointCount;
+		copy.firstTimestamp = firstTimestamp;
+		copy.lastTimestamp = lastTimestamp;
+		copy.lastDistance = lastDistance;
+		copy.lastElevation = lastElevation;
+		copy.movingTime = movingTime;
+		copy.stoppedTime = stoppedTime;
+		copy.movingDistance = movingDistance;
+		copy.minLatitude = minLatitude;
+		copy.maxLatitude = maxLatitude;
+		copy.minLongitude = minLongitude;
+		copy.maxLongitude = maxLongitude;
+		copy.maxSpeed = maxSpeed;
+		copy.minElevation = minElevation;
+		copy.maxElevation = maxElevation;
+		copy.referenceElevation = referenceElevation;
+		copy.ascent = ascent;
+		copy.descent = descent;
+		copy.minHeartRate = minHeartRate;
+		copy.maxHeartRate = maxHeartRate;
+		copy.heartRateSum = heartRateSum;
+		copy.heartRateCount = heartRateCount;
+		System.arraycopy(recentTimestamps, 0, copy.recentTimestamps, 0, RECENT_SLOTS);
+		System.arraycopy(recentDistances, 0, copy.recentDistances, 0, RECENT_SLOTS);
+		System.arraycopy(recentElevations, 0, copy.recentElevations, 0, RECENT_SLOTS);
+		copy.recentStart = recentStart;
+		copy.recentCount = recentCount;
+		return copy;
+	}
+
+	/**
+	 * Writes the values of the getters that describe the whole track. The recent window is left out, so statistics
+	 * read with {@link #readTotalsFromStream(DataInputStream)} can't be continued with more points.
+	 */
+	void writeTotalsToStream(final DataOutputStream out) throws IOException {
+		out.writeInt(pointCount);
+		out.writeLong(firstTimestamp);
+		out.writeLong(lastTimestamp);
+		out.writeDouble(lastDistance);
+		out.writeLong(movingTime);
+		out.writeLong(stoppedTime);
+		out.writeDouble(movingDistance);
+		out.writeDouble(minLatitude);
+		out.writeDouble(maxLatitude);
+		out.writeDouble(minLongitude);
+		out.writeDouble(maxLongitude);
+		out.writeFloat(maxSpeed);
+		out.writeFloat(minElevation);
+		out.writeFloat(maxElevation);
+		out.writeFloat(ascent);
+		out.writeFloat(descent);
+		out.writeInt(minHeartRate);
+		out.writeInt(maxHeartRate);
+		out.writeLong(heartRateSum);
+		out.writeInt(heartRateCount);
+	}
+
+	static TrackStatistics readTotalsFromStream(final DataInputStream in) throws IOException {
+		final TrackStatistics statistics = new TrackStatistics();
+		statistics.pointCount = in.readInt();
+		statistics.firstTimestamp = in.readLong();
+		statistics.lastTimestamp = in.readLong();
+		statistics.lastDistance = in.readDouble();
+		statistics.movingTime = in.readLong();
+		statistics.stoppedTime = in.readLong();
+		statistics.movingDistance = in.readDouble();
+		statistics.minLatitude = in.readDouble();
+		statistics.maxLatitude = in.readDouble();
+		statistics.minLongitude = in.readDouble();
+		statistics.maxLongitude = in.readDouble();
+		statistics.maxSpeed = in.readFloat();
+		statistics.minElevation = in.readFloat();
+		statistics.maxElevation = in.readFloat();
+		statistics.ascent = in.readFloat();
+		statistics.descent = in.readFloat();
+		statistics.minHeartRate = in.readInt();
+		statistics.maxHeartRate = in.readInt();
+		statistics.heartRateSum = in.readLong();
+		statistics.heartRateCount = in.readInt();
+		return statistics;
+	}
+
+	/**
+	 * Adds a segment of which only its entry in a {@link SegmentTable} is known. Only the point count, the times, the
+	 * length, the bounds, the elevation range and the maximum speed are updated.
+	 */
+	void addSegment(final SegmentTable.Entry entry) {
+		if (entry.pointCount == 0) {
+			return;
+		}
+		if (pointCount == 0) {
+			firstTimestamp = entry.firstTimestamp;
+		}
+		pointCount += entry.pointCount;
+		lastTimestamp = entry.lastTimestamp;
+		lastDistance = entry.endDistance;
+		lastElevation = Float.NaN;
+		recentCount = 0;
+
+		minLatitude = Math.min(minLatitude, entry.minLatitude);
+		maxLatitude = Math.max(maxLatitude, entry.maxLatitude);
+		minLongitude = Math.min(minLongitude, entry.minLongitude);
+		maxLongitude = Math.max(maxLongitude, entry.maxLongitude);
+		if (!Float.isNaN(entry.maxSpeed) && (Float.isNaN(maxSpeed) || entry.maxSpeed > maxSpeed)) {
+			maxSpeed = entry.maxSpeed;
+		}
+		if (!Float.isNaN(entry.minElevation) && (Float.isNaN(minElevation) || entry.minElevation < minElevation)) {
+			minElevation = entry.minElevation;
+		}
+		if (!Float.isNaN(entry.maxElevation) && (Float.isNaN(maxElevation) || entry.maxElevation > maxElevation)) {
+			maxElevation = entry.maxElevation;
+		}
+	}
+
+	void addPoint(final long timestamp, final double latitude, final double longitude, final double distance,
+			final float elevation, final float speed, final int heartRate, final boolean firstInSegment) {
+		if (pointCount == 0) {
+			firstTimestamp = timestamp;
+		} else if (!firstInSegment) {
+			final long time = timestamp - lastTimestamp;
+			if (time > 0) {
+				final double way = distance - lastDistance;
+				if (way / time * 1000 >= MOVING_SPEED) {
+					movingTime += time;
+					movingDistance += way;
+				} else {
+					stoppedTime += time;
+				}
+			}
+		}
+		if (firstInSegment) {
+			recentCount = 0;
+		}
+		pointCount++;
+		lastTimestamp = timestamp;
+		lastDistance = distance;
+		lastElevation = elevation;
+
+		if (latitude < minLatitude) {
+			minLatitude = latitude;
+		}
+		if (latitude > maxLatitude) {
+			maxLatitude = latitude;
+		}
+		if (longitude < minLongitude) {
+			minLongitude = longitude;
+		}
+		if (longitude > maxLongitude) {
+			maxLongitude = longitude;
+		}
+
+		if (!Float.isNaN(speed) && (Float.isNaN(maxSpeed) || speed > maxSpeed)) {
+			maxSpeed = speed;
+		}
+		if (!Float.isNaN(elevation)) {
+			if (Float.isNaN(minElevation) || elevation < minElevation) {
+				minElevation = elevation;
+			}
+			if (Float.isNaN(maxElevation) || elevation > maxElevation) {
+				maxElevation = elevation;
+			}
+			updateClimb(elevation);
+		}
+		if (heartRate > 0) {
+			if (heartRateCount == 0 || heartRate < minHeartRate) {
+				minHeartRate = heartRate;
+			}
+			if (heartRate > maxHeartRate) {
+				maxHeartRate = heartRate;
+			}
+			heartRateSum += heartRate;
+			heartRateCount++;
+		}
+		updateRecent(timestamp, distance, elevation);
+	}
+
+	private void updateClimb(final float elevation) {
+		if (Float.isNaN(referenceElevation)) {
+			referenceElevation = elevation;
+		} else if (elevation - referenceElevation >= ELEVATION_HYSTERESIS) {
+			ascent += elevation - referenceElevation;
+			referenceElevation = elevation;
+		} else if (referenceElevation - elevation >= ELEVATION_HYSTERESIS) {
+			descent += referenceElevation - elevation;
+			referenceElevation = elevation;
+		}
+	}
+
+	/**
+	 * Keeps (at most) one sample every RECENT_WINDOW/RECENT_SLOTS ms, so the window costs the same no matter how dense
+	 * the points are.
+	 */
+	private void updateRecent(final long timestamp, final double distance, final float elevation) {
+		while (recentCount > 1 && recentTimestamps[(recentStart + 1) % RECENT_SLOTS] <= timestamp - RECENT_WINDOW) {
+			recentStart = (recentStart + 1) % RECENT_SLOTS;
+			recentCount--;
+		}
+		if (recentCount > 0) {
+			final long newest = recentTimestamps[(recentStart + recentCount - 1) % RECENT_SLOTS];
+			if (timestamp - newest < RECENT_WINDOW / RECENT_SLOTS) {
+				return;
+			}
+		}
+		if (recentCount == RECENT_SLOTS) {
+			recentStart = (recentStart + 1) % RECENT_SLOTS;
+			recentCount--;
+		}
+		final int slot = (recentStart + recentCount) % RECENT_SLOTS;
+		recentTimestamps[slot] = timestamp;
+		recentDistances[slot] = distance;
+		recentElevations[slot] = elevation;
+		recentCount++;
+	}
+
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @return the distance in m from the first to the last point, not including the gaps between segments
+	 */
+	public double getLength() {
+		return pointCount == 0 ? 0 : lastDistance;
+	}
+
+	/**
+	 * @return the time in ms between the first and the last point, including the time between segments
+	 */
+	public long getDuration() {
+		return pointCount == 0 ? 0 : lastTimestamp - firstTimestamp;
+	}
+
+	/**
+	 * @return the time in ms spent moving at least {@link #MOVING_SPEED}
+	 */
+	public long getMovingTime() {
+		return movingTime;
+	}
+
+	/**
+	 * @return the time in ms spent slower than {@link #MOVING_SPEED}, not including the time between segments
+	 */
+	public long getStoppedTime() {
+		return stoppedTime;
+	}
+
+	/**
+	 * @return the average speed in m/s while moving or NaN if there was no movement
+	 */
+	public float getAverageMovingSpeed() {
+		return movingTime == 0 ? Float.NaN : (float) (movingDistance / movingTime * 1000);
+	}
+
+	/**
+	 * @return the average speed in m/s over the last {@link #RECENT_WINDOW} ms of the current segment or NaN if that
+	 *         is not known yet
+	 */
+	public float getRecentSpeed() {
+		if (recentCount == 0) {
+			return Float.NaN;
+		}
+		final long time = lastTimestamp - recentTimestamps[recentStart];
+		if (time <= 0) {
+			return Float.NaN;
+		}
+		return (float) ((lastDistance - recentDistances[recentStart]) / time * 1000);
+	}
+
+	/**
+	 * @return the elevation change per m of distance over the last {@link #RECENT_WINDOW} ms of the current segment or
+	 *         NaN if that is not known yet
+	 */
+	public float getRecentInclination() {
+		if (recentCount == 0) {
+			return Float.NaN;
+		}
+		final double way = lastDistance - recentDistances[recentStart];
+		if (way <= 0) {
+			return Float.NaN;
+		}
+		return (float) ((lastElevation - recentElevations[recentStart]) / way);
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	public float getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	public float getMinElevation() {
+		return minElevation;
+	}
+
+	public float getMaxElevation() {
+		return maxElevation;
+	}
+
+	/**
+	 * @return the cumulative ascent in m, ignoring changes smaller than {@link #ELEVATION_HYSTERESIS}
+	 */
+	public float getAscent() {
+		return ascent;
+	}
+
+	/**
+	 * @return the cumulative descent in m, ignoring changes smaller than {@link #ELEVATION_HYSTERESIS}
+	 */
+	public float getDescent() {
+		return descent;
+	}
+
+	/**
+	 * @return the lowest recorded heart rate or 0 if none was recorded
+	 */
+	public int getMinHeartRate() {
+		return minHeartRate;
+	}
+
+	/**
+	 * @return the highest recorded heart rate or 0 if none was recorded
+	 */
+	public int getMaxHeartRate() {
+		return maxHeartRate;
+	}
+
+	/**
+	 * @return the average recorded heart rate or 0 if none was recorded
+	 */
+	public int getAverageHeartRate() {
+		return heartRateCount == 0 ? 0 : (int) (heartRateSum / heartRateCount);
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stored track stream that can be read starting at any position, used to load parts of a track on demand.
+ */
+public interface TrackStreamSource {
+	/**
+	 * @return the length of the stream in bytes
+	 */
+	public long getLength() throws IOException;
+
+	/**
+	 * Opens the stream positioned at <code>offset</code>. The caller must close it.
+	 */
+	public InputStream open(long offset) throws IOException;
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * The information about a stored track that is needed to list and export it, see {@link TrackCatalog}.
+ */
+public class TrackSummary {
+	private final String key;
+
+	private final String name;
+
+	private final Date date;
+
+	private final TrackStatistics statistics;
+
+	private final long size;
+
+	private final long modified;
+
+	/**
+	 * @param key
+	 *            identifies the stored track within its store (a file name or record id, for example)
+	 * @param statistics
+	 *            the statistics of the stored track, they must not be changed afterwards
+	 * @param size
+	 *            the size of the stored track when it was summarized
+	 * @param modified
+	 *            the time the stored track was last modified when it was summarized or 0 if the store doesn't know
+	 */
+	public TrackSummary(final String key, final String name, final Date date, final TrackStatistics statistics,
+			final long size, final long modified) {
+		this.key = key;
+		this.name = name;
+		this.date = date;
+		this.statistics = statistics;
+		this.size = size;
+		this.modified = modified;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	/**
+	 * Returns the statistics of the stored track. Only the values describing the whole track are known.
+	 */
+	public TrackStatistics getStatistics() {
+		return statistics;
+	}
+
+	public int getPointCount() {
+		return statistics.getPointCount();
+	}
+
+	public double getLength() {
+		return statistics.getLength();
+	}
+
+	public long getDuration() {
+		return statistics.getDuration();
+	}
+
+	public double getMinLatitude() {
+		return statistics.getMinLatitude();
+	}
+
+	public double getMinLongitude() {
+		return statistics.getMinLongitude();
+	}
+
+	public double getMaxLatitude() {
+		return statistics.getMaxLatitude();
+	}
+
+	public double getMaxLongitude() {
+		return statistics.getMaxLongitude();
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * Returns true if the stored track still has the size and modification time it had when it was summarized.
+	 */
+	public boolean isCurrent(final long size, final long modified) {
+		return this.size == size && this.modified == modified;
+	}
+
+	public void writeToStream(final DataOutputStream out) throws IOException {
+		out.writeUTF(key);
+		out.writeBoolean(name != null);
+		if (name != null) {
+			out.writeUTF(name);
+		}
+		out.writeLong(date.getTime());
+		statistics.writeTotalsToStream(out);
+		out.writeLong(size);
+		out.writeLong(modified);
+	}
+
+	public static TrackSummary readFromStream(final DataInputStream in) throws IOException {
+		final String key = in.readUTF();
+		final String name = in.readBoolean() ? in.readUTF() : null;
+		final Date date = new Date(in.readLong());
+		final TrackStatistics statistics = TrackStatistics.readTotalsFromStream(in);
+		return new TrackSummary(key, name, date, statistics, in.readLong(), in.readLong());
+	}
+}
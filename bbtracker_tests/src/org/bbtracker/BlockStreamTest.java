@@ -0,0 +1,271 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockStreamTest {
+	/**
+	 * Stands in for a file stream and counts how often it is called.
+	 */
+	private static class CountingInputStream extends ByteArrayInputStream {
+		int calls;
+
+		CountingInputStream(final byte[] data) {
+			super(data);
+		}
+
+		public synchronized int read() {
+			calls++;
+			return super.read();
+		}
+
+		public synchronized int read(final byte[] b, final int off, final int len) {
+			calls++;
+			return super.read(b, off, len);
+		}
+
+		public synchronized long skip(final long n) {
+			calls++;
+			return super.skip(n);
+		}
+	}
+
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+		int calls;
+
+		public synchronized void write(final int b) {
+			calls++;
+			super.write(b);
+		}
+
+		public synchronized void write(final byte[] b, final int off, final int len) {
+			calls++;
+			super.write(b, off, len);
+		}
+	}
+
+	private static byte[] randomBytes(final int length) {
+		final byte[] data = new byte[length];
+		new Random(42).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void readsAllBytes() throws IOException {
+		final byte[] data = randomBytes(10000);
+		final InputStream in = new BlockInputStream(new ByteArrayInputStream(data), 64);
+		final byte[] result = new byte[data.length];
+		int pos = 0;
+		int len = 1;
+		while (pos < result.length) {
+			if (len % 3 == 0) {
+				final int b = in.read();
+				assertTrue(b != -1);
+				result[pos++] = (byte) b;
+			} else {
+				final int n = in.read(result, pos, Math.min(len, result.length - pos));
+				assertTrue(n > 0);
+				pos += n;
+			}
+			len = (len * 7 + 1) % 150;
+		}
+		assertThat(in.read(), is(-1));
+		assertThat(in.read(new byte[10], 0, 10), is(-1));
+		assertArrayEquals(data, result);
+		in.close();
+	}
+
+	@Test
+	public void skipsAcrossBlocks() throws IOException {
+		final byte[] data = randomBytes(1000);
+		final InputStream in = new BlockInputStream(new ByteArrayInputStream(data), 64);
+		assertThat(in.read(), is(data[0] & 0xff));
+		assertThat(in.skip(10), is(10L));
+		assertThat(in.read(), is(data[11] & 0xff));
+		// more than is buffered
+		assertThat(in.skip(500), is(500L));
+		assertThat(in.read(), is(data[512] & 0xff));
+		assertThat(in.available(), is(data.length - 513));
+		assertThat(in.skip(1000), is((long) data.length - 513));
+		assertThat(in.read(), is(-1));
+		in.close();
+	}
+
+	@Test
+	public void resetRereadsFromMark() throws IOException {
+		final byte[] data = randomBytes(1000);
+		final InputStream in = new BlockInputStream(new ByteArrayInputStream(data), 64);
+		assertThat(in.markSupported(), is(true));
+		in.skip(10);
+		// mark with bytes in the buffer, then read past it
+		in.read();
+		in.mark(Integer.MAX_VALUE);
+		final byte[] b = new byte[500];
+		in.read(b, 0, 30);
+		in.skip(300);
+		in.read(b, 0, b.length);
+		in.reset();
+		for (int i = 11; i < 200; i++) {
+			assertThat(in.read(), is(data[i] & 0xff));
+		}
+		in.reset();
+		in.skip(589);
+		assertThat(in.read(), is(data[600] & 0xff));
+	}
+
+	@Test
+	public void noMarkWithoutSupport() throws IOException {
+		final InputStream in = new BlockInputStream(new InputStream() {
+			public int read() {
+				return 0;
+			}
+		});
+		assertThat(in.markSupported(), is(false));
+	}
+
+	@Test
+	public void writesAllBytes() throws IOException {
+		final byte[] data = randomBytes(10000);
+		final CountingOutputStream target = new CountingOutputStream();
+		final OutputStream out = new BlockOutputStream(target, 64);
+		int pos = 0;
+		int len = 1;
+		while (pos < data.length) {
+			if (len % 3 == 0) {
+				out.write(data[pos++]);
+			} else {
+				final int n = Math.min(len, data.length - pos);
+				out.write(data, pos, n);
+				pos += n;
+			}
+			len = (len * 7 + 1) % 150;
+		}
+		out.close();
+		assertArrayEquals(data, target.toByteArray());
+	}
+
+	@Test
+	public void flushWritesBufferedBytes() throws IOException {
+		final CountingOutputStream target = new CountingOutputStream();
+		final OutputStream out = new BlockOutputStream(target);
+		out.write(1);
+		out.write(2);
+		assertThat(target.size(), is(0));
+		out.flush();
+		assertThat(target.size(), is(2));
+		assertThat(target.calls, is(1));
+		out.close();
+	}
+
+	@Test
+	public void closedStreamsFail() throws IOException {
+		final InputStream in = new BlockInputStream(new ByteArrayInputStream(new byte[10]));
+		in.close();
+		in.close();
+		try {
+			in.read();
+			fail("read after close");
+		} catch (final IOException expected) {
+			// expected
+		}
+		final OutputStream out = new BlockOutputStream(new ByteArrayOutputStream());
+		out.close();
+		out.close();
+		try {
+			out.write(1);
+			fail("write after close");
+		} catch (final IOException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void poolIsBounded() throws IOException {
+		final InputStream[] streams = new InputStream[BlockPool.MAX_FREE + 2];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new BlockInputStream(new ByteArrayInputStream(new byte[1]), 100);
+		}
+		for (int i = 0; i < streams.length; i++) {
+			streams[i].close();
+		}
+		assertThat(BlockPool.getFreeCount(), is(BlockPool.MAX_FREE));
+		final byte[] reused = BlockPool.take(100);
+		assertThat(reused.length, is(100));
+		assertThat(BlockPool.getFreeCount(), is(BlockPool.MAX_FREE - 1));
+		BlockPool.give(reused);
+	}
+
+	@Test
+	public void blocksReduceCalls() throws IOException {
+		final int values = 50000;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream dout = new DataOutputStream(bytes);
+		for (int i = 0; i < values; i++) {
+			dout.writeInt(i);
+			dout.writeShort(i);
+		}
+		dout.close();
+		final byte[] data = bytes.toByteArray();
+
+		final int[] blockSizes = { 0, 512, 2048, 8192 };
+		for (int i = 0; i < blockSizes.length; i++) {
+			final int blockSize = blockSizes[i];
+			final CountingInputStream source = new CountingInputStream(data);
+			final InputStream in = blockSize == 0 ? (InputStream) source : new BlockInputStream(source, blockSize);
+			final DataInputStream din = new DataInputStream(in);
+			for (int v = 0; v < values; v++) {
+				assertThat(din.readInt(), is(v));
+				din.readShort();
+			}
+			din.close();
+
+			final CountingOutputStream target = new CountingOutputStream();
+			final OutputStream out = blockSize == 0 ? (OutputStream) target : new BlockOutputStream(target, blockSize);
+			final DataOutputStream wout = new DataOutputStream(out);
+			for (int v = 0; v < values; v++) {
+				wout.writeInt(v);
+				wout.writeShort(v);
+			}
+			wout.close();
+			assertThat(target.size(), is(data.length));
+
+			if (blockSize == 0) {
+				assertTrue(source.calls >= values * 6);
+			} else {
+				assertTrue(source.calls <= data.length / blockSize + 2);
+				assertTrue(target.calls <= data.length / blockSize + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressionTest {
+	private static byte[] encode(final byte[] data) {
+		final byte[] block = new byte[LzCodec.getMaxBlockLength(data.length)];
+		final int length = new LzCodec().encodeBlock(data, 0, data.length, block, 0);
+		final byte[] result = new byte[length];
+		System.arraycopy(block, 0, result, 0, length);
+		return result;
+	}
+
+	private static byte[] decode(final byte[] block) throws IOException {
+		final byte[] data = new byte[LzCodec.getRawLength(block, 0)];
+		assertThat(LzCodec.decodeBlock(block, 0, data, 0), is(data.length));
+		return data;
+	}
+
+	private static byte[] compress(final byte[] data, final int blockSize) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final OutputStream out = new CompressedOutputStream(bytes, blockSize, new LzCodec());
+		out.write(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1000];
+		int n;
+		while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readFile(final File file) throws IOException {
+		return readAll(new FileInputStream(file));
+	}
+
+	private static byte[] text(final int length) {
+		final String words = "<trkpt lat=\"48.2\" lon=\"16.3\"><ele>170</ele><time>2008-05-01T10:00:00Z</time></trkpt>\n";
+		final byte[] data = new byte[length];
+		final Random random = new Random(3);
+		for (int i = 0; i < length; i++) {
+			final char ch = words.charAt(i % words.length());
+			data[i] = (byte) (Character.isDigit(ch) ? '0' + random.nextInt(10) : ch);
+		}
+		return data;
+	}
+
+	@Test
+	public void blockRoundTrips() throws IOException {
+		final byte[] random = new byte[8000];
+		new Random(1).nextBytes(random);
+		final byte[] run = new byte[LzCodec.MAX_BLOCK_SIZE];
+		final byte[] pattern = new byte[3000];
+		for (int i = 0; i < pattern.length; i++) {
+			pattern[i] = (byte) "abc".charAt(i % 3);
+		}
+		final byte[][] samples = { new byte[0], { 1 }, { 1, 2, 3, 4 }, { 1, 1, 1, 1, 1 }, random, run, pattern,
+				text(10000) };
+		for (int i = 0; i < samples.length; i++) {
+			final byte[] block = encode(samples[i]);
+			assertTrue(block.length <= LzCodec.getMaxBlockLength(samples[i].length));
+			assertArrayEquals(samples[i], decode(block));
+		}
+		assertTrue(encode(run).length < 400);
+		assertTrue(encode(pattern).length < 50);
+	}
+
+	@Test
+	public void damagedBlocksFail() {
+		final byte[] block = encode(text(5000));
+		final byte[][] damaged = new byte[3][];
+		// truncated
+		damaged[0] = new byte[block.length - 10];
+		System.arraycopy(block, 0, damaged[0], 0, damaged[0].length);
+		// unknown type
+		damaged[1] = (byte[]) block.clone();
+		damaged[1][0] = 7;
+		// wrong length
+		damaged[2] = (byte[]) block.clone();
+		damaged[2][2]++;
+		for (int i = 0; i < damaged.length; i++) {
+			try {
+				decode(damaged[i]);
+				fail("damaged block " + i + " was decoded");
+			} catch (final IOException expected) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void streamRoundTrip() throws IOException {
+		final byte[] data = text(50000);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final OutputStream out = new CompressedOutputStream(bytes, 4096, new LzCodec());
+		for (int i = 0; i < data.length; i += 1234) {
+			out.write(data, i, Math.min(1234, data.length - i));
+			if (i % 10 == 0) {
+				out.flush();
+			}
+		}
+		out.write(42);
+		out.close();
+		final CompressedInputStream in = new CompressedInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThat(in.isCompressed(), is(true));
+		final byte[] result = readAll(in);
+		assertThat(result.length, is(data.length + 1));
+		assertThat(result[data.length], is((byte) 42));
+		final byte[] start = new byte[data.length];
+		System.arraycopy(result, 0, start, 0, data.length);
+		assertArrayEquals(data, start);
+	}
+
+	@Test
+	public void uncompressedStreamsPassThrough() throws IOException {
+		final byte[] data = text(3000);
+		final CompressedInputStream in = new CompressedInputStream(new ByteArrayInputStream(data));
+		assertThat(in.isCompressed(), is(false));
+		assertThat(in.read(), is((int) data[0]));
+		assertThat(in.skip(10), is(10L));
+		assertThat(in.read(), is((int) data[11]));
+		final byte[] rest = readAll(in);
+		assertThat(rest.length, is(data.length - 12));
+		assertThat(rest[0], is(data[12]));
+
+		final CompressedInputStream shortStream = new CompressedInputStream(new ByteArrayInputStream(new byte[] { 'B',
+				'B' }));
+		assertThat(shortStream.isCompressed(), is(false));
+		assertArrayEquals(new byte[] { 'B', 'B' }, readAll(shortStream));
+	}
+
+	@Test
+	public void skipAcrossBlocks() throws IOException {
+		final byte[] data = text(40000);
+		final InputStream in = new CompressedInputStream(new ByteArrayInputStream(compress(data, 1000)));
+		assertThat(in.skip(10), is(10L));
+		assertThat(in.read(), is((int) data[10]));
+		assertThat(in.skip(25000), is(25000L));
+		assertThat(in.read(), is((int) data[25011]));
+		assertThat(in.skip(100000), is((long) data.length - 25012));
+		assertThat(in.read(), is(-1));
+		in.close();
+	}
+
+	@Test
+	public void lazyTrackFromCompressedSource() throws Exception {
+		final Track track = TrackPointCodecTest.readSampleTrack(40);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(new CompressedOutputStream(bytes));
+		track.writeToStream(out);
+		out.close();
+		final byte[] compressed = bytes.toByteArray();
+		final TrackStreamSource source = new CompressedStreamSource(new TrackStreamSource() {
+			public long getLength() {
+				return compressed.length;
+			}
+
+			public InputStream open(final long offset) {
+				return new ByteArrayInputStream(compressed, (int) offset, compressed.length - (int) offset);
+			}
+		});
+		final Track lazy = Track.openLazy(source, 2048);
+		assertTrue(lazy != null);
+		assertThat(lazy.getPointCount(), is(track.getPointCount()));
+		for (int i = track.getPointCount() - 1; i >= 0; i -= 97) {
+			assertThat(lazy.getPoint(i).getTimestamp(), is(track.getPoint(i).getTimestamp()));
+			assertThat(lazy.getPoint(i).getLatitude(), is(track.getPoint(i).getLatitude()));
+		}
+	}
+
+	@Test
+	public void sampleRatio() throws Exception {
+		final String[] names = { "schmiding.gpx", "schmiding.xml", "short.xml", "citywalk.wpt" };
+		for (int i = 0; i <= names.length; i++) {
+			final byte[] data;
+			if (i < names.length) {
+				data = readFile(TrackPointCodecTest.getSampleFile(names[i]));
+			} else {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				TrackPointCodecTest.readSampleTrack(20).writeToStream(new DataOutputStream(bytes));
+				data = bytes.toByteArray();
+			}
+			final byte[] compressed = compress(data, CompressedOutputStream.DEFAULT_BLOCK_SIZE);
+			assertArrayEquals(data, readAll(new CompressedInputStream(new ByteArrayInputStream(compressed))));
+			if (i < names.length && data.length > 4096) {
+				// the XML files repeat a lot
+				assertTrue(compressed.length < data.length / 2);
+			}
+			assertTrue(compressed.length <= data.length + data.length / 100 + 100);
+		}
+	}
+}
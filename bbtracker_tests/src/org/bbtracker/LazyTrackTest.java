@@ -0,0 +1,265 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LazyTrackTest {
+	/**
+	 * Serves a track stream from memory and counts how often it is opened.
+	 */
+	private static class MemorySource implements TrackStreamSource {
+		private final byte[] data;
+
+		int openCount = 0;
+
+		MemorySource(final byte[] data) {
+			this.data = data;
+		}
+
+		public long getLength() {
+			return data.length;
+		}
+
+		public InputStream open(final long offset) {
+			openCount++;
+			return new ByteArrayInputStream(data, (int) offset, data.length - (int) offset);
+		}
+	}
+
+	private static TrackPoint newPoint(final int n) {
+		final TrackPoint point = new TrackPoint(1000L * n, 48.2 + n * 1e-4, 16.3 - (n % 100) * 1e-4, 170 + n % 7,
+				1.5f + n % 3, 90f, (byte) 7);
+		if (n % 500 == 7) {
+			point.setName("point " + n);
+		}
+		return point;
+	}
+
+	/**
+	 * Creates a track with segments of 1500, 0, 3000 and 200 points.
+	 */
+	private static Track newTrack() {
+		final Track track = new Track("lazy");
+		final int[] sizes = { 1500, 0, 3000, 200 };
+		int n = 0;
+		for (int s = 0; s < sizes.length; s++) {
+			track.newSegment();
+			for (int p = 0; p < sizes[s]; p++) {
+				track.addPoint(newPoint(n++));
+			}
+		}
+		return track;
+	}
+
+	private static byte[] toBytes(final Track track) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void lazyTrackHasAllPoints() throws Exception {
+		final Track track = newTrack();
+		final Track lazy = Track.openLazy(new MemorySource(toBytes(track)), 100000);
+		assertThat(lazy.getName(), is(track.getName()));
+		assertThat(lazy.getCreationDate(), is(track.getCreationDate()));
+		assertThat(lazy.getPointCount(), is(track.getPointCount()));
+		assertThat(lazy.getSegmentCount(), is(3));
+		for (int i = 0; i < track.getPointCount(); i++) {
+			final TrackPoint expected = track.getPoint(i);
+			final TrackPoint point = lazy.getPoint(i);
+			assertThat(point.getTimestamp(), is(expected.getTimestamp()));
+			assertThat(point.getLatitude(), is(expected.getLatitude()));
+			assertThat(point.getLongitude(), is(expected.getLongitude()));
+			assertThat(point.getElevation(), is(expected.getElevation()));
+			assertThat(point.getName(), is(expected.getName()));
+			assertEquals(expected.getDistance(), point.getDistance(), 0.005);
+		}
+		assertEquals(track.getLength(), lazy.getLength(), 0.005);
+		assertThat(lazy.getMaxLatitude(), is(track.getMaxLatitude()));
+		assertThat(lazy.getMinLongitude(), is(track.getMinLongitude()));
+		assertThat(lazy.getMaxSpeed(), is(track.getMaxSpeed()));
+	}
+
+	@Test
+	public void onlyTouchedBlocksAreRead() throws Exception {
+		final Track track = newTrack();
+		final MemorySource source = new MemorySource(toBytes(track));
+		final Track lazy = Track.openLazy(source, 100000);
+		final int opened = source.openCount;
+
+		final int last = track.getPointCount() - 1;
+		assertThat(lazy.getPoint(last).getTimestamp(), is(track.getPoint(last).getTimestamp()));
+		assertThat(source.openCount, is(opened + 1));
+
+		// the start of every segment is known from the table
+		assertThat(lazy.getSegment(1).getTimestamp(0), is(track.getPoint(1500).getTimestamp()));
+		assertThat(source.openCount, is(opened + 1));
+
+		assertThat(lazy.getPoint(last - 1).getLatitude(), is(track.getPoint(last - 1).getLatitude()));
+		assertThat(source.openCount, is(opened + 1));
+	}
+
+	@Test
+	public void coldBlocksAreEvicted() throws Exception {
+		final Track track = newTrack();
+		final MemorySource source = new MemorySource(toBytes(track));
+		final Track lazy = Track.openLazy(source, 2 * SegmentTable.BLOCK_POINTS);
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(lazy.getPoint(i).getTimestamp(), is(track.getPoint(i).getTimestamp()));
+		}
+		final int opened = source.openCount;
+		// coordinates stay in memory
+		assertThat(lazy.getPoint(0).getLatitude(), is(track.getPoint(0).getLatitude()));
+		assertThat(source.openCount, is(opened));
+		// but the first block was evicted long ago
+		assertThat(lazy.getPoint(0).getElevation(), is(track.getPoint(0).getElevation()));
+		assertThat(source.openCount, is(opened + 1));
+	}
+
+	@Test
+	public void statisticsAreCompletedOnDemand() throws Exception {
+		final Track track = newTrack();
+		final Track lazy = Track.openLazy(new MemorySource(toBytes(track)), 100000);
+		final TrackStatistics statistics = lazy.getStatistics();
+		assertThat(statistics.getPointCount(), is(track.getPointCount()));
+		assertThat(statistics.getAscent(), is(track.getStatistics().getAscent()));
+		assertThat(statistics.getMovingTime(), is(track.getStatistics().getMovingTime()));
+		assertEquals(track.getLength(), statistics.getLength(), 0.005);
+	}
+
+	@Test
+	public void searchesMatchLoadedTrack() throws Exception {
+		final Track track = newTrack();
+		final Track lazy = Track.openLazy(new MemorySource(toBytes(track)), 100000);
+		for (long t = -500; t < 4800000; t += 7919) {
+			assertThat(lazy.indexAtTime(t), is(track.indexAtTime(t)));
+		}
+		for (double d = 0; d < track.getLength() + 100; d += track.getLength() / 97) {
+			assertThat(lazy.getLastIndexAtDistance(d), is(track.getLastIndexAtDistance(d)));
+		}
+	}
+
+	@Test
+	public void lazyTrackIsReadOnly() throws Exception {
+		final Track lazy = Track.openLazy(new MemorySource(toBytes(newTrack())), 100000);
+		try {
+			lazy.addPoint(newPoint(0));
+			fail("lazy track was changed");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rewrittenLazyTrackKeepsPoints() throws Exception {
+		final Track track = new Track("rewritten");
+		for (int i = 0; i < 3000; i++) {
+			if (i % 1200 == 0) {
+				track.newSegment();
+			}
+			track.addPoint(newPoint(i));
+		}
+		final byte[] data = toBytes(track);
+		final Track lazy = Track.openLazy(new MemorySource(data), 2 * SegmentTable.BLOCK_POINTS);
+		final byte[] rewritten = toBytes(lazy);
+		assertThat(rewritten.length, is(data.length));
+		// distances in the table may differ in the last bits, the points must not
+		final int tableLength = new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 4)).readInt();
+		final int pointsEnd = data.length - 8 - tableLength;
+		for (int i = 0; i < pointsEnd; i++) {
+			assertThat(rewritten[i], is(data[i]));
+		}
+	}
+
+	@Test
+	public void journalWritesSegmentTable() throws Exception {
+		final Track track = newTrack();
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final TrackJournal journal = new TrackJournal(file, track.getName(), track.getCreationDate());
+		for (int s = 0; s < track.getSegmentCount(); s++) {
+			journal.newSegment();
+			final TrackSegment segment = track.getSegment(s);
+			for (int p = 0; p < segment.getPointCount(); p++) {
+				journal.append(segment.getPoint(p));
+			}
+		}
+		journal.finish();
+		journal.close();
+		assertTrue(Arrays.equals(file.toByteArray(), toBytes(track)));
+		assertThat(Track.openLazy(new MemorySource(file.toByteArray()), 100000).getPointCount(), is(track
+				.getPointCount()));
+	}
+
+	@Test
+	public void recoveredJournalIsLazy() throws Exception {
+		final Track track = newTrack();
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final TrackJournal journal = new TrackJournal(file, track.getName(), track.getCreationDate());
+		for (int s = 0; s < track.getSegmentCount(); s++) {
+			journal.newSegment();
+			final TrackSegment segment = track.getSegment(s);
+			for (int p = 0; p < segment.getPointCount(); p++) {
+				journal.append(segment.getPoint(p));
+			}
+		}
+		journal.flush();
+		journal.close();
+
+		final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+		final long length = TrackJournal.recover(new ByteArrayInputStream(file.toByteArray()), tail);
+		final ByteArrayOutputStream repaired = new ByteArrayOutputStream();
+		repaired.write(file.toByteArray(), 0, (int) length);
+		tail.writeTo(repaired);
+		final Track lazy = Track.openLazy(new MemorySource(repaired.toByteArray()), 100000);
+		// the last point is held back by the journal
+		final int count = track.getPointCount() - 1;
+		assertThat(lazy.getPointCount(), is(count));
+		assertThat(lazy.getSegmentCount(), is(track.getSegmentCount()));
+		for (int i = 0; i < count; i += 997) {
+			assertThat(lazy.getPoint(i).getTimestamp(), is(track.getPoint(i).getTimestamp()));
+			assertThat(lazy.getPoint(i).getLatitude(), is(track.getPoint(i).getLatitude()));
+		}
+	}
+
+	@Test
+	public void streamWithoutTableIsNotLazy() throws Exception {
+		final byte[] data = toBytes(newTrack());
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final long length = TrackJournal.recover(new ByteArrayInputStream(data, 0, data.length / 2));
+		file.write(data, 0, (int) length);
+		new TrackPointCodec().writeEnd(new DataOutputStream(file));
+		assertThat(Track.openLazy(new MemorySource(file.toByteArray()), 100000), is(nullValue()));
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+		final LruCache cache = new LruCache(30, 10);
+		cache.put(1, "a", 10);
+		cache.put(2, "b", 10);
+		cache.put(3, "c", 10);
+		assertThat(cache.get(1), is((Object) "a"));
+		cache.put(4, "d", 10);
+		assertThat(cache.containsKey(2), is(false));
+		assertArrayEquals(new int[] { 4, 1, 3 }, cache.getKeys());
+		assertThat(cache.getCost(), is(30));
+		assertThat(cache.getEvictions(), is(1));
+	}
+
+	@Test
+	public void budgetEvictsSeveralEntries() {
+		final LruCache cache = new LruCache(100, 10);
+		for (int i = 0; i < 5; i++) {
+			cache.put(i, new Integer(i), 20);
+		}
+		cache.put(9, "big", 70);
+		assertArrayEquals(new int[] { 9, 4 }, cache.getKeys());
+		assertThat(cache.getCost(), is(90));
+	}
+
+	@Test
+	public void oversizedValueIsStillCached() {
+		final LruCache cache = new LruCache(10, 10);
+		cache.put(1, "a", 5);
+		cache.put(2, "huge", 50);
+		assertArrayEquals(new int[] { 2 }, cache.getKeys());
+		assertThat(cache.get(2), is((Object) "huge"));
+	}
+
+	@Test
+	public void entryLimitEvicts() {
+		final LruCache cache = new LruCache(1000, 3);
+		for (int i = 0; i < 5; i++) {
+			cache.put(i, "v", 0);
+		}
+		assertThat(cache.size(), is(3));
+		assertArrayEquals(new int[] { 4, 3, 2 }, cache.getKeys());
+	}
+
+	@Test
+	public void replaceUpdatesCost() {
+		final LruCache cache = new LruCache(100, 10);
+		cache.put(1, "a", 10);
+		cache.put(2, "b", 10);
+		cache.put(1, "A", 40);
+		assertThat(cache.getCost(), is(50));
+		assertThat(cache.size(), is(2));
+		assertArrayEquals(new int[] { 1, 2 }, cache.getKeys());
+		assertThat(cache.get(1), is((Object) "A"));
+	}
+
+	@Test
+	public void statistics() {
+		final LruCache cache = new LruCache(100, 10);
+		cache.put(1, "a", 1);
+		cache.get(1);
+		cache.get(1);
+		cache.get(2);
+		assertThat(cache.getHits(), is(2));
+		assertThat(cache.getMisses(), is(1));
+	}
+
+	@Test
+	public void removeAndClear() {
+		final LruCache cache = new LruCache(100, 10);
+		cache.put(1, "a", 10);
+		cache.put(2, "b", 10);
+		assertThat(cache.remove(1), is((Object) "a"));
+		assertThat(cache.remove(1), is(nullValue()));
+		assertThat(cache.getCost(), is(10));
+		cache.clear();
+		assertThat(cache.size(), is(0));
+		assertThat(cache.getCost(), is(0));
+		assertThat(cache.get(2), is(nullValue()));
+		cache.put(3, "c", 10);
+		assertArrayEquals(new int[] { 3 }, cache.getKeys());
+	}
+
+	@Test
+	public void shrinkingBudgetEvicts() {
+		final LruCache cache = new LruCache(100, 10);
+		for (int i = 0; i < 5; i++) {
+			cache.put(i, "v", 20);
+		}
+		cache.setBudget(45);
+		assertArrayEquals(new int[] { 4, 3 }, cache.getKeys());
+	}
+
+	@Test
+	public void matchesHashtableWithCollidingKeys() {
+		final int maxEntries = 64;
+		final LruCache cache = new LruCache(Integer.MAX_VALUE, maxEntries);
+		final Hashtable reference = new Hashtable();
+		final Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			// multiples of a power of two to provoke long probe chains
+			final int key = random.nextInt(200) * 1024;
+			final Integer k = new Integer(key);
+			if (random.nextInt(3) == 0) {
+				assertThat(cache.remove(key), is(reference.remove(k)));
+			} else if (reference.size() < maxEntries || reference.containsKey(k)) {
+				final Integer value = new Integer(i);
+				cache.put(key, value, 1);
+				reference.put(k, value);
+			} else {
+				assertThat(cache.get(key), is(nullValue()));
+			}
+			assertThat(cache.size(), is(reference.size()));
+		}
+		final int[] keys = cache.getKeys();
+		assertThat(keys.length, is(reference.size()));
+		for (int i = 0; i < keys.length; i++) {
+			assertThat(cache.get(keys[i]), is(reference.get(new Integer(keys[i]))));
+		}
+		assertThat(cache.getEvictions(), is(0));
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ShadowMatcherTest {
+	/** Roughly 11 m in latitude. */
+	private static final double STEP = 1e-4;
+
+	/**
+	 * A shadow track going north from 48.2/16.3 at one point per second and one step per point.
+	 */
+	private static Track newShadow(final int points) {
+		final Track track = new Track("shadow");
+		for (int i = 0; i < points; i++) {
+			track.addPoint(new TrackPoint(1000L * i, 48.2 + i * STEP, 16.3, 170, 11f, 0f, (byte) 7));
+		}
+		return track;
+	}
+
+	private static void assertNear(final double actual, final double expected, final double delta) {
+		assertTrue("expected " + expected + " but was " + actual, Math.abs(actual - expected) <= delta);
+	}
+
+	@Test
+	public void emptyShadow() {
+		final ShadowMatcher matcher = new ShadowMatcher(new Track("empty"));
+		assertThat(matcher.update(48.2, 16.3, 0), is(false));
+		assertThat(matcher.isMatched(), is(false));
+		assertThat(matcher.getMatchedIndex(), is(-1));
+	}
+
+	@Test
+	public void onRouteAtHalfSpeed() {
+		final ShadowMatcher matcher = new ShadowMatcher(newShadow(1000));
+		for (int i = 0; i < 200; i++) {
+			// half a step per second, 10 m east of the route
+			final double lat = 48.2 + i * STEP / 2;
+			assertThat(matcher.update(lat, 16.3 + 1.35e-4, 1000L * i), is(true));
+			assertNear(matcher.getDeviation(), 10, 0.5);
+			assertNear(matcher.getMatchedIndex(), i / 2, 1);
+			// we need twice as long as the shadow for the same distance
+			assertNear(matcher.getTimeGap(), 500L * i, 10);
+		}
+	}
+
+	@Test
+	public void interpolatesWithinLeg() {
+		final Track shadow = newShadow(10);
+		final ShadowMatcher matcher = new ShadowMatcher(shadow);
+		matcher.update(48.2 + 2.5 * STEP, 16.3, 1000);
+		assertThat(matcher.getMatchedIndex(), is(2));
+		assertNear(matcher.getTimeGap(), 1000 - 2500, 1);
+		assertNear(matcher.getMatchedDistance(), (shadow.getDistance(2) + shadow.getDistance(3)) / 2, 0.01);
+		assertNear(matcher.getDeviation(), 0, 0.01);
+	}
+
+	@Test
+	public void windowDoesNotJumpToLaterPass() {
+		// out and back: the way back passes the same positions again
+		final Track shadow = new Track("shadow");
+		for (int i = 0; i < 100; i++) {
+			shadow.addPoint(new TrackPoint(1000L * i, 48.2 + i * STEP, 16.3, 170, 11f, 0f, (byte) 7));
+		}
+		for (int i = 100; i < 200; i++) {
+			shadow.addPoint(new TrackPoint(1000L * i, 48.2 + (199 - i) * STEP, 16.3, 170, 11f, 0f, (byte) 7));
+		}
+		final ShadowMatcher matcher = new ShadowMatcher(shadow);
+		for (int i = 0; i < 100; i++) {
+			matcher.update(48.2 + i * STEP, 16.3, 1000L * i);
+			assertNear(matcher.getMatchedIndex(), i, 1);
+		}
+		for (int i = 100; i < 200; i++) {
+			matcher.update(48.2 + (199 - i) * STEP, 16.3, 1000L * i);
+			assertNear(matcher.getMatchedIndex(), i, 1);
+		}
+	}
+
+	@Test
+	public void reacquiresAfterShortcut() {
+		final ShadowMatcher matcher = new ShadowMatcher(newShadow(1000));
+		matcher.update(48.2, 16.3, 0);
+		assertThat(matcher.getMatchedIndex(), is(0));
+		// way beyond the search window
+		matcher.update(48.2 + 500 * STEP, 16.3, 60000);
+		assertThat(matcher.getMatchedIndex(), is(500));
+		assertNear(matcher.getTimeGap(), 60000 - 500000, 1);
+	}
+
+	@Test
+	public void ignoresSegmentGap() {
+		final Track shadow = new Track("shadow");
+		shadow.addPoint(new TrackPoint(0, 48.2, 16.3, 170, 0f, 0f, (byte) 7));
+		shadow.addPoint(new TrackPoint(1000, 48.2 + STEP, 16.3, 170, 0f, 0f, (byte) 7));
+		shadow.newSegment();
+		shadow.addPoint(new TrackPoint(2000, 48.2 + 10 * STEP, 16.3, 170, 0f, 0f, (byte) 7));
+		final ShadowMatcher matcher = new ShadowMatcher(shadow);
+		// halfway across the gap is not on the route
+		matcher.update(48.2 + 5 * STEP, 16.3, 0);
+		assertNear(matcher.getDeviation(), 4 * STEP * 111319.49, 1);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextTrackReaderTest {
+	/**
+	 * Counts the characters that were read.
+	 */
+	private static class CountingReader extends StringReader {
+		int read;
+
+		CountingReader(final String s) {
+			super(s);
+		}
+
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			final int n = super.read(cbuf, off, len);
+			if (n > 0) {
+				read += n;
+			}
+			return n;
+		}
+	}
+
+	private static String text(final int points) {
+		final StringBuffer text = new StringBuffer("track\n");
+		for (int i = 0; i < points; i++) {
+			text.append(16.3 + i * 1e-5).append(',').append(48.2 - i * 1e-5).append(",0\n");
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void readsNameAndPoints() throws IOException {
+		final TextTrackReader reader = new TextTrackReader(new StringReader(
+				"\"my \"\"first\"\" track\"\r\n16.3,48.2\n\t-16.372,+48.21,300  1e1,.5"));
+		final Track track = Track.readFromText(reader);
+		assertThat(track.getName(), is("my \"first\" track"));
+		assertThat(track.getPointCount(), is(3));
+		assertThat(track.getSegmentCount(), is(1));
+		assertThat(track.getPoint(0).getLongitude(), is(16.3));
+		assertThat(track.getPoint(0).getLatitude(), is(48.2));
+		assertThat(track.getPoint(1).getLongitude(), is(-16.372));
+		assertThat(track.getPoint(1).getLatitude(), is(48.21));
+		assertThat(track.getPoint(2).getLongitude(), is(10.0));
+		assertThat(track.getPoint(2).getLatitude(), is(0.5));
+		assertTrue(track.getLength() > 0);
+	}
+
+	@Test
+	public void emptyText() throws IOException {
+		final TextTrackReader reader = new TextTrackReader(new StringReader(" \n"));
+		assertThat(reader.getName(), is(nullValue()));
+		assertThat(reader.next(new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0)), is(false));
+	}
+
+	@Test
+	public void nameOnlyStopsEarly() throws IOException {
+		final CountingReader in = new CountingReader(text(10000));
+		final TextTrackReader reader = new TextTrackReader(in);
+		assertThat(reader.getName(), is("track"));
+		assertTrue(in.read <= 512);
+		reader.close();
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void missingLatitude() throws IOException {
+		Track.readFromText(new TextTrackReader(new StringReader("track 16.3,48.2 16.4")));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void invalidNumber() throws IOException {
+		Track.readFromText(new TextTrackReader(new StringReader("track 16.3,4x8.2")));
+	}
+
+	@Test
+	public void parsesLikeDouble() {
+		final Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			final String s;
+			switch (i % 4) {
+			case 0:
+				s = Double.toString((random.nextDouble() - 0.5) * 360);
+				break;
+			case 1:
+				s = Double.toString(random.nextDouble() * 1e-7);
+				break;
+			case 2:
+				s = Integer.toString(random.nextInt()) + "." + Math.abs(random.nextInt() % 100000);
+				break;
+			default:
+				s = "0.000" + Math.abs(random.nextLong());
+				break;
+			}
+			final char[] chars = s.toCharArray();
+			assertThat(s, TextTrackReader.parseDouble(chars, 0, chars.length), is(Double.parseDouble(s)));
+		}
+	}
+}
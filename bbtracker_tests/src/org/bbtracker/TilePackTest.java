@@ -0,0 +1,184 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TilePackTest {
+	private static final int[] ZOOMS = { 14, 15 };
+
+	private static final int[] COLUMNS = { 3, 5 };
+
+	private static final int[] ROWS = { 2, 4 };
+
+	/** Counts the bytes read, skipped bytes don't count. */
+	private static class CountingInputStream extends FilterInputStream {
+		int read = 0;
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				read++;
+			}
+			return b;
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				read += n;
+			}
+			return n;
+		}
+	}
+
+	/** Random tiles, every seventh is missing. */
+	private static byte[][][] newTiles() {
+		final Random random = new Random(42);
+		final byte[][][] tiles = new byte[ZOOMS.length][][];
+		for (int level = 0; level < ZOOMS.length; level++) {
+			tiles[level] = new byte[COLUMNS[level] * ROWS[level]][];
+			for (int tile = 0; tile < tiles[level].length; tile++) {
+				if ((tile + level) % 7 != 3) {
+					tiles[level][tile] = new byte[100 + random.nextInt(900)];
+					random.nextBytes(tiles[level][tile]);
+				}
+			}
+		}
+		return tiles;
+	}
+
+	private static TilePackWriter newWriter(final byte[][][] tiles) {
+		final TilePackWriter writer = new TilePackWriter();
+		for (int level = 0; level < ZOOMS.length; level++) {
+			writer.addLevel(ZOOMS[level], 256, 256, COLUMNS[level], ROWS[level]);
+			for (int x = 0; x < COLUMNS[level]; x++) {
+				for (int y = 0; y < ROWS[level]; y++) {
+					final byte[] tile = tiles[level][x * ROWS[level] + y];
+					writer.setTileLength(level, x, y, tile == null ? 0 : tile.length);
+				}
+			}
+		}
+		return writer;
+	}
+
+	private static byte[] writePack(final byte[][][] tiles) throws IOException {
+		final TilePackWriter writer = newWriter(tiles);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeDirectory(out);
+		for (int level = 0; level < ZOOMS.length; level++) {
+			for (int y = 0; y < ROWS[level]; y++) {
+				for (int x = 0; x < COLUMNS[level]; x++) {
+					final byte[] tile = tiles[level][x * ROWS[level] + y];
+					if (tile != null) {
+						writer.writeTile(out, level, x, y, tile, 0, tile.length);
+					}
+				}
+			}
+		}
+		assertThat(writer.isComplete(), is(true));
+		return out.toByteArray();
+	}
+
+	@Test
+	public void directoryLocatesEveryTile() throws Exception {
+		final byte[][][] tiles = newTiles();
+		final byte[] pack = writePack(tiles);
+		final TilePack header = TilePack.read(new ByteArrayInputStream(pack));
+		assertThat(header.getLevelCount(), is(2));
+		assertThat(header.getDirectoryOffset(0), is(TilePack.HEADER_SIZE));
+
+		for (int level = 0; level < ZOOMS.length; level++) {
+			final int index = header.findLevel(ZOOMS[level]);
+			assertThat(index, is(level));
+			assertThat(header.getColumns(index), is(COLUMNS[level]));
+			assertThat(header.getRows(index), is(ROWS[level]));
+			final int[] offsets = new int[tiles[level].length];
+			final int[] lengths = new int[tiles[level].length];
+			final CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(pack));
+			header.readDirectory(in, 0, index, offsets, lengths);
+			// only the directory of the level is read
+			assertThat(in.read, is(tiles[level].length * TilePack.ENTRY_SIZE));
+			for (int tile = 0; tile < tiles[level].length; tile++) {
+				final byte[] expected = tiles[level][tile];
+				if (expected == null) {
+					assertThat(lengths[tile], is(0));
+				} else {
+					final byte[] data = new byte[lengths[tile]];
+					System.arraycopy(pack, offsets[tile], data, 0, data.length);
+					assertArrayEquals(expected, data);
+				}
+			}
+		}
+		assertThat(header.findLevel(16), is(-1));
+	}
+
+	@Test
+	public void directoryAfterHeader() throws Exception {
+		final byte[][][] tiles = newTiles();
+		final byte[] pack = writePack(tiles);
+		final InputStream in = new ByteArrayInputStream(pack);
+		final TilePack header = TilePack.read(in);
+		final int[] offsets = new int[tiles[1].length];
+		final int[] lengths = new int[tiles[1].length];
+		header.readDirectory(in, TilePack.HEADER_SIZE, 1, offsets, lengths);
+		final int last = tiles[1].length - 1;
+		final byte[] data = new byte[lengths[last]];
+		System.arraycopy(pack, offsets[last], data, 0, data.length);
+		assertArrayEquals(tiles[1][last], data);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws Exception {
+		TilePack.read(new ByteArrayInputStream(new byte[TilePack.HEADER_SIZE]));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void tilesMustBeWrittenInOrder() throws Exception {
+		final byte[][][] tiles = newTiles();
+		final TilePackWriter writer = newWriter(tiles);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeDirectory(out);
+		// (0, 1) starts the second row, the rest of the first one is missing
+		writer.writeTile(out, 0, 0, 1, tiles[0][1], 0, tiles[0][1].length);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void tileLengthMustMatch() throws Exception {
+		final byte[][][] tiles = newTiles();
+		final TilePackWriter writer = newWriter(tiles);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeDirectory(out);
+		writer.writeTile(out, 0, 0, 0, tiles[0][0], 0, tiles[0][0].length - 1);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class TrackCatalogTest {
+	private static TrackSummary newSummary(final String key, final String name) {
+		final Track track = new Track(name);
+		for (int i = 0; i < 10; i++) {
+			track.addPoint(new TrackPoint(1000L * i, 48.2 + i * 1e-3, 16.3 - i * 1e-3, 170, 1.5f, 90f, (byte) 7));
+		}
+		return new TrackSummary(key, name, new Date(1234567890L), track.getStatistics(), 100, 1234567890L);
+	}
+
+	private static TrackCatalog copy(final TrackCatalog catalog) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		catalog.writeToStream(new DataOutputStream(bytes));
+		return TrackCatalog.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test
+	public void summaryOfTrack() {
+		final TrackSummary summary = newSummary("a.bbt", "a");
+		assertThat(summary.getPointCount(), is(10));
+		assertThat(summary.getDuration(), is(9000L));
+		assertThat(summary.getMinLatitude(), is(48.2));
+		assertThat(summary.getMaxLongitude(), is(16.3));
+		assertThat(summary.getLength() > 1000, is(true));
+	}
+
+	@Test
+	public void writeAndRead() throws Exception {
+		final TrackCatalog catalog = new TrackCatalog();
+		catalog.put(newSummary("a.bbt", "a"));
+		catalog.put(newSummary("b.bbt", null));
+		assertThat(catalog.isModified(), is(true));
+
+		final TrackCatalog read = copy(catalog);
+		assertThat(catalog.isModified(), is(false));
+		assertThat(read.isModified(), is(false));
+		assertThat(read.size(), is(2));
+		final TrackSummary a = read.get("a.bbt");
+		final TrackSummary original = catalog.get("a.bbt");
+		assertThat(a.getName(), is("a"));
+		assertThat(a.getDate(), is(original.getDate()));
+		assertThat(a.getPointCount(), is(original.getPointCount()));
+		assertThat(a.getLength(), is(original.getLength()));
+		assertThat(a.getDuration(), is(original.getDuration()));
+		assertThat(a.getMinLatitude(), is(original.getMinLatitude()));
+		assertThat(a.getMinLongitude(), is(original.getMinLongitude()));
+		assertThat(a.getMaxLatitude(), is(original.getMaxLatitude()));
+		assertThat(a.getMaxLongitude(), is(original.getMaxLongitude()));
+		assertThat(a.getStatistics().getMovingTime(), is(original.getStatistics().getMovingTime()));
+		assertThat(a.getStatistics().getMaxSpeed(), is(original.getStatistics().getMaxSpeed()));
+		assertThat(a.getSize(), is(100L));
+		assertThat(a.getModified(), is(1234567890L));
+		assertThat(read.get("b.bbt").getName(), is(nullValue()));
+	}
+
+	@Test
+	public void retainRemovesDeletedAndReportsMissing() throws Exception {
+		final TrackCatalog catalog = new TrackCatalog();
+		catalog.put(newSummary("a.bbt", "a"));
+		catalog.put(newSummary("b.bbt", "b"));
+		final TrackCatalog read = copy(catalog);
+
+		final String[] missing = read.retain(new String[] { "b.bbt", "c.bbt" }, new long[] { 100, 200 }, new long[] {
+				1234567890L, 1234567890L });
+		assertThat(missing.length, is(1));
+		assertThat(missing[0], is("c.bbt"));
+		assertThat(read.get("a.bbt"), is(nullValue()));
+		assertThat(read.size(), is(1));
+		assertThat(read.isModified(), is(true));
+
+		final TrackCatalog upToDate = copy(read);
+		assertThat(upToDate.retain(new String[] { "b.bbt" }, new long[] { 100 }, new long[] { 1234567890L }).length,
+				is(0));
+		assertThat(upToDate.isModified(), is(false));
+	}
+
+	@Test
+	public void retainReportsChangedTracks() throws Exception {
+		final TrackCatalog catalog = new TrackCatalog();
+		catalog.put(newSummary("a.bbt", "a"));
+		catalog.put(newSummary("b.bbt", "b"));
+		catalog.put(newSummary("c.bbt", "c"));
+		final TrackCatalog read = copy(catalog);
+
+		final String[] stale = read.retain(new String[] { "a.bbt", "b.bbt", "c.bbt" }, new long[] { 100, 150, 100 },
+				new long[] { 1234567890L, 1234567890L, 1234599999L });
+		assertThat(stale.length, is(2));
+		assertThat(stale[0], is("b.bbt"));
+		assertThat(stale[1], is("c.bbt"));
+		assertThat(read.get("a.bbt").getName(), is("a"));
+		assertThat(read.get("b.bbt"), is(nullValue()));
+		assertThat(read.get("c.bbt"), is(nullValue()));
+		assertThat(read.isModified(), is(true));
+
+		// without sizes the summaries are trusted
+		final TrackCatalog trusting = copy(catalog);
+		assertThat(trusting.retain(new String[] { "a.bbt", "b.bbt", "c.bbt" }).length, is(0));
+		assertThat(trusting.isModified(), is(false));
+	}
+
+	@Test
+	public void unknownVersionIsEmpty() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(99);
+		out.writeInt(1);
+		final TrackCatalog catalog = TrackCatalog.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes
+				.toByteArray())));
+		assertThat(catalog.size(), is(0));
+		assertThat(catalog.isModified(), is(true));
+	}
+}
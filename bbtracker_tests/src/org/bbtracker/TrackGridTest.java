@@ -0,0 +1,146 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TrackGridTest {
+	/**
+	 * A random walk of about 10 m steps starting in Vienna, split into segments of 1000 points.
+	 */
+	private static Track newRandomTrack(final int points, final long seed) {
+		final Random random = new Random(seed);
+		final Track track = new Track("test");
+		double lat = 48.2;
+		double lon = 16.3;
+		for (int i = 0; i < points; i++) {
+			if (i % 1000 == 0) {
+				track.newSegment();
+			}
+			lat += (random.nextDouble() - 0.5) * 2e-4;
+			lon += (random.nextDouble() - 0.5) * 3e-4;
+			track.addPoint(new TrackPoint(1000L * i, lat, lon, 170, 1.5f, 90f, (byte) 7));
+		}
+		return track;
+	}
+
+	private static double planarDistance(final Track track, final int index, final double lat, final double lon) {
+		final double dy = track.getLatitude(index) - lat;
+		final double dx = (track.getLongitude(index) - lon) * Math.cos(Math.toRadians(lat));
+		return dx * dx + dy * dy;
+	}
+
+	private static int nearestBruteForce(final Track track, final double lat, final double lon) {
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < track.getPointCount(); i++) {
+			final double distance = planarDistance(track, i, lat, lon);
+			if (distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	@Test
+	public void emptyTrack() {
+		final Track track = new Track("test");
+		assertThat(track.getGrid().getNearestIndex(48.2, 16.3), is(-1));
+		assertThat(track.getGrid().getIndicesInBounds(-90, -180, 90, 180).length, is(0));
+	}
+
+	@Test
+	public void nearestMatchesBruteForce() {
+		final Track track = newRandomTrack(5000, 1);
+		final TrackGrid grid = track.getGrid();
+		final Random random = new Random(2);
+		for (int i = 0; i < 500; i++) {
+			// queries both on and far off the track
+			final double lat = 48.2 + (random.nextDouble() - 0.5) * 0.1;
+			final double lon = 16.3 + (random.nextDouble() - 0.5) * 0.1;
+			final int expected = nearestBruteForce(track, lat, lon);
+			final int actual = grid.getNearestIndex(lat, lon);
+			assertThat(planarDistance(track, actual, lat, lon), is(planarDistance(track, expected, lat, lon)));
+		}
+	}
+
+	@Test
+	public void incrementalInsert() {
+		final Track track = newRandomTrack(100, 3);
+		final TrackGrid grid = track.getGrid();
+		assertThat(grid.size(), is(100));
+
+		track.newSegment();
+		track.addPoint(new TrackPoint(0, 10.0, 10.0, 0, 0, 0, (byte) 7));
+		assertThat(grid.size(), is(101));
+		assertThat(grid.getNearestIndex(10.0001, 10.0001), is(100));
+		assertThat(grid.getNearestIndex(48.2, 16.3) < 100, is(true));
+	}
+
+	@Test
+	public void boundsQuery() {
+		final Track track = newRandomTrack(5000, 4);
+		final double minLat = 48.199;
+		final double maxLat = 48.201;
+		final double minLon = 16.299;
+		final double maxLon = 16.302;
+		final int[] indices = track.getGrid().getIndicesInBounds(minLat, minLon, maxLat, maxLon);
+
+		final boolean[] found = new boolean[track.getPointCount()];
+		for (int i = 0; i < indices.length; i++) {
+			found[indices[i]] = true;
+		}
+		int expectedCount = 0;
+		for (int i = 0; i < track.getPointCount(); i++) {
+			final double lat = track.getLatitude(i);
+			final double lon = track.getLongitude(i);
+			final boolean inside = lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+			assertThat(found[i], is(inside));
+			if (inside) {
+				expectedCount++;
+			}
+		}
+		assertThat(indices.length, is(expectedCount));
+		assertTrue(expectedCount > 0);
+	}
+
+	@Test
+	public void nearestChecksFewCandidates100k() {
+		final Track track = newRandomTrack(100000, 5);
+		final int queries = 200;
+		final TrackGrid grid = track.getGrid();
+		final Random random = new Random(6);
+		for (int i = 0; i < queries; i++) {
+			final int index = random.nextInt(track.getPointCount());
+			final double lat = track.getLatitude(index) + (random.nextDouble() - 0.5) * 1e-3;
+			final double lon = track.getLongitude(index) + (random.nextDouble() - 0.5) * 1e-3;
+			final int expected = nearestBruteForce(track, lat, lon);
+			final int actual = grid.getNearestIndex(lat, lon);
+			assertThat(planarDistance(track, actual, lat, lon), is(planarDistance(track, expected, lat, lon)));
+		}
+		// brute force compares every point for every query
+		assertTrue(grid.getCandidateCount() * 10L < (long) queries * track.getPointCount());
+	}
+}
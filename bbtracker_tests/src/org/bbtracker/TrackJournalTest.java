@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class TrackJournalTest {
+	private static TrackPoint newPoint(final int n) {
+		final TrackPoint point = new TrackPoint(1000L * n, 48.2 + n * 1e-4, 16.3 - n * 1e-4, 170 + n % 7, 1.5f,
+				90f + n, (byte) 7);
+		if (n % 10 == 3) {
+			point.setName("point " + n);
+		}
+		return point;
+	}
+
+	/**
+	 * Records a track with a journal the way TrackManager does and returns the journal data.
+	 */
+	private static byte[] record(final Track track, final int points) throws Exception {
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final TrackJournal journal = new TrackJournal(file, track.getName(), track.getCreationDate());
+		for (int i = 0; i < points; i++) {
+			final boolean newSegment = i > 0 && i % 40 == 0;
+			if (newSegment) {
+				track.newSegment();
+			}
+			final TrackPoint point = newPoint(i);
+			track.addPoint(point);
+			if (newSegment) {
+				journal.newSegment();
+			}
+			journal.append(point);
+		}
+		assertTrue(journal.matches(track));
+		journal.finish();
+		journal.close();
+		return file.toByteArray();
+	}
+
+	private static Track read(final byte[] data) throws Exception {
+		return Track.readFromStream(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	@Test
+	public void finishedJournalIsTrackStream() throws Exception {
+		final Track track = new Track("journal");
+		final byte[] journal = record(track, 100);
+
+		final ByteArrayOutputStream full = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(full));
+		assertThat(Arrays.equals(journal, full.toByteArray()), is(true));
+	}
+
+	@Test
+	public void pointsAreWrittenInBatches() throws Exception {
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final TrackJournal journal = new TrackJournal(file, "batch", new Date());
+		final int headerSize = file.size();
+		// the last point is held back, so the first batch is complete with one more point
+		for (int i = 0; i < TrackJournal.FLUSH_POINTS; i++) {
+			journal.append(newPoint(i));
+			assertThat(file.size(), is(headerSize));
+		}
+		journal.append(newPoint(TrackJournal.FLUSH_POINTS));
+		assertTrue(file.size() > headerSize);
+	}
+
+	@Test
+	public void renamingEarlierPointIsDetected() throws Exception {
+		final Track track = new Track("rename");
+		final TrackJournal journal = new TrackJournal(new ByteArrayOutputStream(), track.getName(), track
+				.getCreationDate());
+		for (int i = 0; i < 5; i++) {
+			final TrackPoint point = new TrackPoint(1000L * i, 48.2, 16.3, 0, 0, 0, (byte) 7);
+			track.addPoint(point);
+			journal.append(point);
+		}
+		// the last point can still be named
+		track.getPoint(4).setName("paused");
+		assertThat(journal.matches(track), is(true));
+		track.getPoint(2).setName("marked");
+		assertThat(journal.matches(track), is(false));
+	}
+
+	/**
+	 * Simulates a crash at every byte offset of the journal: recovery must always produce a readable track with all
+	 * the points that were completely written.
+	 */
+	@Test
+	public void recoverAfterTruncationAtAnyOffset() throws Exception {
+		final Track track = new Track("crash");
+		final byte[] journal = record(track, 100);
+
+		int lastCount = 0;
+		for (int length = 0; length <= journal.length; length++) {
+			final byte[] truncated = new byte[length];
+			System.arraycopy(journal, 0, truncated, 0, length);
+			final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+			final long valid = TrackJournal.recover(new ByteArrayInputStream(truncated), tail);
+			if (valid == -1) {
+				assertTrue("header incomplete at " + length, lastCount == 0 && length < 20);
+				continue;
+			}
+			assertTrue(valid <= length);
+
+			// what the file store does: cut the file to the valid length and append the end record and table
+			final ByteArrayOutputStream repaired = new ByteArrayOutputStream();
+			repaired.write(truncated, 0, (int) valid);
+			tail.writeTo(repaired);
+			final Track recovered = read(repaired.toByteArray());
+			final int count = recovered.getPointCount();
+			assertTrue("points lost at " + length, count >= lastCount);
+			lastCount = count;
+			for (int i = 0; i < count; i++) {
+				final TrackPoint expected = track.getPoint(i);
+				final TrackPoint actual = recovered.getPoint(i);
+				assertThat(actual.getTimestamp(), is(expected.getTimestamp()));
+				assertThat(actual.getLatitude(), is(expected.getLatitude()));
+				assertThat(actual.getName(), is(expected.getName()));
+			}
+			assertThat(recovered.getSegmentCount(), is(count == 0 ? 0 : (count - 1) / 40 + 1));
+		}
+		assertThat(lastCount, is(100));
+	}
+}
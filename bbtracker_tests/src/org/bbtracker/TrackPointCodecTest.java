@@ -0,0 +1,227 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TrackPointCodecTest {
+	private static final Pattern TRKPT = Pattern.compile("<trkpt lat=\"([^\"]+)\" lon=\"([^\"]+)\">\\s*"
+			+ "<ele>([^<]+)</ele>\\s*<speed>([^<]+)</speed>\\s*<course>([^<]+)</course>\\s*<time>([^<]+)</time>");
+
+	static File getSampleFile(final String name) {
+		// the tests are run either from the project directory or from the directory containing all projects
+		final File file = new File("../bbtracker/waypoints", name);
+		return file.exists() ? file : new File("bbtracker/waypoints", name);
+	}
+
+	static String readFile(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the track points of the sample GPX file, repeated <code>times</code> times (with ascending timestamps).
+	 */
+	public static Track readSampleTrack(final int times) throws Exception {
+		final String gpx = readFile(getSampleFile("schmiding.gpx"));
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final Track track = new Track("schmiding");
+		long offset = 0;
+		for (int t = 0; t < times; t++) {
+			track.newSegment();
+			final Matcher m = TRKPT.matcher(gpx);
+			long first = -1;
+			long last = 0;
+			while (m.find()) {
+				last = format.parse(m.group(6)).getTime();
+				if (first == -1) {
+					first = last;
+				}
+				track.addPoint(new TrackPoint(last + offset, Double.parseDouble(m.group(1)), Double.parseDouble(m
+						.group(2)), Float.parseFloat(m.group(3)), Float.parseFloat(m.group(4)), Float.parseFloat(m
+						.group(5)), (byte) 7));
+			}
+			// the next repetition starts a minute after this one ended
+			offset += last - first + 60000;
+		}
+		return track;
+	}
+
+	private static byte[] writeVersion2(final Track track) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a track the way it was written before version 2 was introduced.
+	 */
+	private static byte[] writeVersion1(final Track track) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(1);
+		out.writeUTF(track.getName() == null ? "" : track.getName());
+		out.writeLong(track.getCreationDate().getTime());
+		out.writeInt(track.getSegmentCount());
+		for (int i = 0; i < track.getSegmentCount(); i++) {
+			track.getSegment(i).writeToStream(out);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a version 2 stream the way it was written before the distances were stored in it.
+	 */
+	private static byte[] writeWithoutDistances(final Track track) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		Track.writeHeader(out, track.getName(), track.getCreationDate());
+		final TrackPointCodec codec = new TrackPointCodec();
+		for (int s = 0; s < track.getSegmentCount(); s++) {
+			final TrackSegment segment = track.getSegment(s);
+			codec.writeSegment(out);
+			for (int p = 0; p < segment.getPointCount(); p++) {
+				final TrackPoint point = new TrackPoint(segment.getTimestamp(p), segment.getLatitude(p), segment
+						.getLongitude(p), segment.getElevation(p), segment.getSpeed(p), segment.getCourse(p), segment
+						.getSatellites(p));
+				point.setDistance(Double.NaN);
+				codec.writePoint(out, point);
+			}
+		}
+		codec.writeEnd(out);
+		return bytes.toByteArray();
+	}
+
+	private static Track read(final byte[] bytes) throws IOException {
+		return Track.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	private static void assertSamePoints(final Track expected, final Track actual) {
+		assertThat(actual.getName(), is(expected.getName()));
+		assertThat(actual.getCreationDate(), is(expected.getCreationDate()));
+		assertThat(actual.getPointCount(), is(expected.getPointCount()));
+		assertThat(actual.getSegmentCount(), is(expected.getSegmentCount()));
+		for (int i = 0; i < expected.getPointCount(); i++) {
+			final TrackPoint e = expected.getPoint(i);
+			final TrackPoint a = actual.getPoint(i);
+			assertThat(a.getTimestamp(), is(e.getTimestamp()));
+			assertThat(a.getLatitude(), is(e.getLatitude()));
+			assertThat(a.getLongitude(), is(e.getLongitude()));
+			assertThat(a.getElevation(), is(e.getElevation()));
+			assertThat(a.getSpeed(), is(e.getSpeed()));
+			assertThat(a.getSatellites(), is(e.getSatellites()));
+			assertThat(a.getName(), is(e.getName()));
+			assertThat(a.isStanding(), is(e.isStanding()));
+		}
+	}
+
+	@Test
+	public void optionalValues() throws Exception {
+		final Track track = new Track("optional");
+		track.addPoint(new TrackPoint(1000, 48.2, 16.3, Float.NaN, Float.NaN, Float.NaN, (byte) 0));
+		final TrackPoint named = new TrackPoint(2000, 48.2001, 16.3001, 170.5f, 2.25f, 359.99f, (byte) 9);
+		track.addPoint(named);
+		named.setName("hut");
+		named.setStanding(true);
+		named.setHeartRate(142);
+		track.newSegment();
+		track.addPoint(new TrackPoint(-5000, -33.9, -151.2, -12.3f, 0f, 0f, (byte) 4));
+
+		final Track read = read(writeVersion2(track));
+		assertSamePoints(track, read);
+		assertThat(Float.isNaN(read.getPoint(0).getCourse()), is(true));
+		assertThat(read.getPoint(1).getCourse(), is(359.99f));
+		assertThat(read.getPoint(1).getHeartRate(), is(142));
+		assertThat(read.getPoint(2).getHeartRate(), is(0));
+		assertThat(read.getPoint(2).getName(), is(nullValue()));
+	}
+
+	@Test
+	public void readsVersion1() throws Exception {
+		final Track track = readSampleTrack(1);
+		track.getPoint(10).setName("ten");
+		assertSamePoints(track, read(writeVersion1(track)));
+	}
+
+	@Test
+	public void sampleRoundTrip() throws Exception {
+		final Track track = readSampleTrack(3);
+		final Track read = read(writeVersion2(track));
+		assertSamePoints(track, read);
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(read.getPoint(i).getCourse(), is(Math.round(track.getPoint(i).getCourse() * 100) / 100f));
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedStream() throws Exception {
+		final byte[] bytes = writeVersion2(readSampleTrack(1));
+		final byte[] truncated = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		final TrackReader reader = TrackReader.open(new DataInputStream(new ByteArrayInputStream(truncated)));
+		while (reader.next()) {
+			// read until the end
+		}
+	}
+
+	@Test
+	public void version2IsSmaller() throws Exception {
+		final Track sample = readSampleTrack(1);
+		assertTrue(writeVersion2(sample).length * 2 < writeVersion1(sample).length);
+	}
+
+	@Test
+	public void distancesWithoutStoredValues() throws Exception {
+		final Track track = readSampleTrack(2);
+		final Track read = read(writeWithoutDistances(track));
+		assertSamePoints(track, read);
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(read.getPoint(i).getDistance(), is(track.getPoint(i).getDistance()));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TrackReaderTest {
+	private static Track newTrack() {
+		final Track track = new Track("test");
+		for (int s = 0; s < 3; s++) {
+			track.newSegment();
+			for (int p = 0; p < 50; p++) {
+				final int i = s * 50 + p;
+				track.addPoint(new TrackPoint(1000L * i, 48.2 + i * 1e-4, 16.3, 170 + i % 9, 1.5f, 90f, (byte) 7));
+			}
+		}
+		track.getPoint(60).setName("sixty");
+		return track;
+	}
+
+	private static TrackReader openReader(final Track track) throws IOException, TrackStoreException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		return TrackReader.open(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private static void checkCursor(final Track track, final TrackCursor cursor) throws IOException {
+		assertThat(cursor.getName(), is(track.getName()));
+		assertThat(cursor.getCreationDate(), is(track.getCreationDate()));
+		final TrackPoint point = cursor.getPoint();
+		int i = 0;
+		while (cursor.next()) {
+			final TrackPoint expected = track.getPoint(i);
+			assertThat(cursor.getPoint(), is(point));
+			assertThat(cursor.isNewSegment(), is(i % 50 == 0));
+			assertThat(cursor.getSegmentIndex(), is(i / 50));
+			assertThat(point.getIndex(), is(i));
+			assertThat(point.getTimestamp(), is(expected.getTimestamp()));
+			assertThat(point.getLatitude(), is(expected.getLatitude()));
+			assertThat(point.getElevation(), is(expected.getElevation()));
+			assertThat(point.getName(), is(expected.getName()));
+			assertEquals(expected.getDistance(), point.getDistance(), 0.005);
+			i++;
+		}
+		assertThat(i, is(track.getPointCount()));
+		cursor.close();
+	}
+
+	@Test
+	public void readerDeliversAllPoints() throws Exception {
+		final Track track = newTrack();
+		checkCursor(track, openReader(track));
+	}
+
+	@Test
+	public void trackCursorDeliversAllPoints() throws Exception {
+		final Track track = newTrack();
+		checkCursor(track, track.openCursor());
+	}
+
+	@Test
+	public void statisticsFromReader() throws Exception {
+		final Track track = newTrack();
+		final TrackStatistics statistics = TrackStatistics.fromCursor(openReader(track));
+		assertThat(statistics.getPointCount(), is(track.getPointCount()));
+		assertEquals(track.getLength(), statistics.getLength(), 0.005);
+		assertThat(statistics.getMaxLatitude(), is(track.getMaxLatitude()));
+		assertThat(statistics.getAscent(), is(track.getStatistics().getAscent()));
+		assertThat(statistics.getMovingTime(), is(track.getStatistics().getMovingTime()));
+	}
+
+	@Test
+	public void emptyTrack() throws Exception {
+		final TrackReader reader = openReader(new Track(null));
+		assertThat(reader.getName(), is(nullValue()));
+		assertThat(reader.next(), is(false));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2007 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TrackSegmentTest {
+	private static TrackPoint newPoint(final int i) {
+		final TrackPoint point = new TrackPoint(1000L * i, 48.2 + i * 1e-5, 16.3 + i * 1e-5, 170 + i % 7, 1.5f,
+				90f, (byte) 7);
+		point.setHeartRate(120 + i % 30);
+		return point;
+	}
+
+	@Test
+	public void pointIsViewAfterAdding() {
+		final Track track = new Track("test");
+		final TrackPoint point = newPoint(0);
+		track.addPoint(point);
+		point.setName("marker");
+		assertThat(track.getPoint(0).getName(), is("marker"));
+		assertThat(track.getPoint(0).getHeartRate(), is(120));
+		assertThat(track.getPoint(0).getIndex(), is(0));
+	}
+
+	@Test
+	public void valuesSurviveChunkBoundaries() {
+		final Track track = new Track("test");
+		final int count = TrackSegment.CHUNK_SIZE * 3 + 5;
+		for (int i = 0; i < count; i++) {
+			track.addPoint(newPoint(i));
+		}
+		for (int i = 0; i < count; i++) {
+			final TrackPoint point = track.getPoint(i);
+			assertThat(point.getIndex(), is(i));
+			assertThat(point.getTimestamp(), is(1000L * i));
+			assertEquals(48.2 + i * 1e-5, point.getLatitude(), 1e-7);
+			assertEquals(16.3 + i * 1e-5, point.getLongitude(), 1e-7);
+			assertThat(point.getElevation(), is((float) (170 + i % 7)));
+			assertThat(point.getName(), is(nullValue()));
+		}
+		assertTrue(track.getPoint(count - 1).getDistance() > track.getPoint(count - 2).getDistance());
+	}
+
+	@Test
+	public void streamRoundTrip() throws IOException {
+		final Track track = new Track("test");
+		for (int i = 0; i < 600; i++) {
+			track.addPoint(newPoint(i));
+		}
+		track.getPoint(17).setName("seventeen");
+		track.getPoint(18).setStanding(true);
+		track.getPoint(20).setSatellites((byte) 4);
+		assertThat(track.getPoint(20).getSatellites(), is((byte) 4));
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final Track read = Track.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertThat(read.getPointCount(), is(600));
+		assertThat(read.getPoint(17).getName(), is("seventeen"));
+		assertThat(read.getPoint(18).isStanding(), is(true));
+		assertThat(read.getPoint(19).isStanding(), is(false));
+		assertThat(read.getPoint(20).getSatellites(), is((byte) 4));
+		assertThat(read.getPoint(599).getLatitude(), is(track.getPoint(599).getLatitude()));
+		// distances are stored with a resolution of 1 cm
+		assertEquals(track.getPoint(599).getDistance(), read.getPoint(599).getDistance(), 0.005);
+	}
+
+	@Test
+	public void nextIndexStopsAtRankedPoints() {
+		final Random random = new Random(3);
+		final Track track = new Track("test");
+		double lat = 48.2;
+		for (int i = 0; i < 2000; i++) {
+			track.addPoint(new TrackPoint(1000L * i, lat, 16.3, 170, 1.5f, 90f, (byte) 7));
+			lat += random.nextDouble() * random.nextDouble() * 1e-3;
+		}
+		final TrackSegment segment = track.getSegment(0);
+		checkNextIndex(segment);
+		segment.getPoint(1234).setName("later");
+		assertThat(segment.getRank(1234), is(TrackSegment.DETAIL_LEVELS));
+		checkNextIndex(segment);
+		track.addPoint(new TrackPoint(2000000L, lat, 16.3, 170, 1.5f, 90f, (byte) 7));
+		checkNextIndex(segment);
+	}
+
+	private static void checkNextIndex(final TrackSegment segment) {
+		final int count = segment.getPointCount();
+		for (int minRank = 0; minRank <= TrackSegment.DETAIL_LEVELS; minRank++) {
+			int expected = 0;
+			int i = 0;
+			while (i < count) {
+				do {
+					expected++;
+				} while (expected < count && segment.getRank(expected) < minRank);
+				i = segment.getNextIndex(i, minRank, count);
+				assertThat(i, is(expected));
+			}
+			assertThat(segment.getNextIndex(0, minRank, 1), is(1));
+		}
+	}
+}
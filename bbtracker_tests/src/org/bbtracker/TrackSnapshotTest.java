@@ -0,0 +1,174 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrackSnapshotTest {
+	private static TrackPoint newPoint(final int n) {
+		return new TrackPoint(1000L * n, 48.2 + n * 1e-5, 16.3, 170, 1.5f, 90f, (byte) 7);
+	}
+
+	@Test
+	public void snapshotDoesNotChange() {
+		final Track track = new Track("test");
+		for (int i = 0; i < 10; i++) {
+			track.addPoint(newPoint(i));
+		}
+		final TrackSnapshot snapshot = track.snapshot();
+		track.addPoint(newPoint(10));
+		track.newSegment();
+		track.addPoint(newPoint(11));
+
+		assertThat(snapshot.getPointCount(), is(10));
+		assertThat(snapshot.getSegmentCount(), is(1));
+		assertThat(snapshot.getSegmentPointCount(0), is(10));
+		assertThat(snapshot.indexAtTime(100000L), is(9));
+		assertThat(track.getPointCount(), is(12));
+		assertThat(track.getSegmentCount(), is(2));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void pointsAddedLaterAreNotInSnapshot() {
+		final Track track = new Track("test");
+		track.addPoint(newPoint(0));
+		final TrackSnapshot snapshot = track.snapshot();
+		track.addPoint(newPoint(1));
+		snapshot.getPoint(1);
+	}
+
+	/**
+	 * Appends points as fast as possible while other threads check that every snapshot they take is complete and
+	 * consistent.
+	 */
+	@Test
+	public void concurrentAppendStress() throws InterruptedException {
+		final int points = 200000;
+		final Track track = new Track("test");
+		final Throwable[] failure = new Throwable[1];
+		final boolean[] done = new boolean[1];
+
+		final Thread writer = new Thread() {
+			public void run() {
+				for (int i = 0; i < points; i++) {
+					if (i % 1000 == 0) {
+						track.newSegment();
+					}
+					track.addPoint(newPoint(i));
+				}
+				synchronized (done) {
+					done[0] = true;
+				}
+			}
+		};
+		final Thread[] readers = new Thread[3];
+		for (int r = 0; r < readers.length; r++) {
+			readers[r] = new Thread() {
+				public void run() {
+					try {
+						while (true) {
+							final boolean finished;
+							synchronized (done) {
+								finished = done[0];
+							}
+							checkSnapshot(track.snapshot());
+							checkStatistics(track.getStatistics());
+							// the last point is always reachable without a snapshot too
+							final int count = track.getPointCount();
+							if (count > 0) {
+								assertThat(track.getPoint(count - 1).getIndex(), is(count - 1));
+							}
+							if (finished) {
+								return;
+							}
+						}
+					} catch (final Throwable t) {
+						synchronized (failure) {
+							failure[0] = t;
+						}
+					}
+				}
+			};
+		}
+
+		writer.start();
+		for (int r = 0; r < readers.length; r++) {
+			readers[r].start();
+		}
+		writer.join();
+		for (int r = 0; r < readers.length; r++) {
+			readers[r].join();
+		}
+		if (failure[0] != null) {
+			throw new AssertionError(failure[0]);
+		}
+		checkSnapshot(track.snapshot());
+		assertThat(track.getPointCount(), is(points));
+	}
+
+	@Test
+	public void statisticsDoNotChange() {
+		final Track track = new Track("test");
+		for (int i = 0; i < 10; i++) {
+			track.addPoint(newPoint(i));
+		}
+		final TrackStatistics statistics = track.getStatistics();
+		assertSame(statistics, track.getStatistics());
+		track.addPoint(newPoint(10));
+
+		checkStatistics(statistics);
+		assertThat(statistics.getPointCount(), is(10));
+		assertThat(track.getStatistics().getPointCount(), is(11));
+	}
+
+	private static void checkStatistics(final TrackStatistics statistics) {
+		final int count = statistics.getPointCount();
+		if (count > 0) {
+			assertThat(statistics.getDuration(), is(1000L * (count - 1)));
+		}
+	}
+
+	private static void checkSnapshot(final TrackSnapshot snapshot) {
+		final int count = snapshot.getPointCount();
+		int sum = 0;
+		for (int s = 0; s < snapshot.getSegmentCount(); s++) {
+			sum += snapshot.getSegmentPointCount(s);
+		}
+		assertThat(sum, is(count));
+
+		// sample the snapshot, every point must be fully written
+		final int step = Math.max(1, count / 500);
+		double lastDistance = -1;
+		for (int i = 0; i < count; i += step) {
+			final TrackPoint point = snapshot.getPoint(i);
+			assertThat(point.getTimestamp(), is(1000L * i));
+			assertThat(point.getSatellites(), is((byte) 7));
+			assertTrue(point.getDistance() >= lastDistance);
+			lastDistance = point.getDistance();
+		}
+		if (count > 0) {
+			assertThat(snapshot.getPoint(count - 1).getTimestamp(), is(1000L * (count - 1)));
+			assertThat(snapshot.indexAtTime(1000L * (count - 1)), is(count - 1));
+		}
+	}
+}
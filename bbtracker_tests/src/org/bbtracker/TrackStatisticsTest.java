@@ -0,0 +1,137 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class TrackStatisticsTest {
+	// roughly 1.1 m per 1e-5 degrees of latitude
+	private static TrackPoint newPoint(final long seconds, final double latitude, final float elevation,
+			final int heartRate) {
+		final TrackPoint point = new TrackPoint(seconds * 1000, latitude, 16.3, elevation, 1f, 0f, (byte) 5);
+		point.setHeartRate(heartRate);
+		return point;
+	}
+
+	@Test
+	public void movingAndStoppedTime() {
+		final Track track = new Track("test");
+		track.addPoint(newPoint(0, 48.2, 100, 0));
+		track.addPoint(newPoint(10, 48.2001, 100, 0)); // ~11 m in 10 s: moving
+		track.addPoint(newPoint(20, 48.2001, 100, 0)); // standing still
+		track.newSegment();
+		track.addPoint(newPoint(1000, 48.2002, 100, 0)); // gap between segments doesn't count
+		track.addPoint(newPoint(1010, 48.2003, 100, 0));
+
+		final TrackStatistics statistics = track.getStatistics();
+		assertThat(statistics.getMovingTime(), is(20000L));
+		assertThat(statistics.getStoppedTime(), is(10000L));
+		assertThat(statistics.getDuration(), is(1010000L));
+		assertEquals(1.11f, statistics.getAverageMovingSpeed(), 0.01f);
+	}
+
+	@Test
+	public void ascentIgnoresNoise() {
+		final Track track = new Track("test");
+		final float[] elevations = { 100, 103, 99, 102, 110, 108, 111, 100, 104, 95 };
+		for (int i = 0; i < elevations.length; i++) {
+			track.addPoint(newPoint(i, 48.2, elevations[i], 0));
+		}
+		final TrackStatistics statistics = track.getStatistics();
+		// counted: 100 -> 110, 110 -> 100, 100 -> 95
+		assertThat(statistics.getAscent(), is(10f));
+		assertThat(statistics.getDescent(), is(15f));
+		assertThat(statistics.getMinElevation(), is(95f));
+		assertThat(statistics.getMaxElevation(), is(111f));
+	}
+
+	@Test
+	public void heartRate() {
+		final Track track = new Track("test");
+		track.addPoint(newPoint(0, 48.2, 100, 0));
+		track.addPoint(newPoint(1, 48.2, 100, 120));
+		track.addPoint(newPoint(2, 48.2, 100, 140));
+		track.addPoint(newPoint(3, 48.2, 100, 130));
+		final TrackStatistics statistics = track.getStatistics();
+		assertThat(statistics.getMinHeartRate(), is(120));
+		assertThat(statistics.getMaxHeartRate(), is(140));
+		assertThat(statistics.getAverageHeartRate(), is(130));
+	}
+
+	@Test
+	public void recentSpeedCoversOnlyTheWindow() {
+		final Track track = new Track("test");
+		// first 10 minutes at ~1.1 m/s, then 5 minutes at ~2.2 m/s, one point per second
+		double latitude = 48.2;
+		int second = 0;
+		for (; second < 600; second++) {
+			track.addPoint(newPoint(second, latitude, 100, 0));
+			latitude += 1e-5;
+		}
+		for (; second < 900; second++) {
+			track.addPoint(newPoint(second, latitude, 100, 0));
+			latitude += 2e-5;
+		}
+		final float recent = track.getStatistics().getRecentSpeed();
+		assertTrue("recent speed " + recent, recent > 2.1f && recent < 2.3f);
+	}
+
+	@Test
+	public void recentInclinationCoversOnlyTheWindow() {
+		final Track track = new Track("test");
+		// 10 minutes flat, then 5 minutes climbing 1 m per ~11 m, one point per second
+		double latitude = 48.2;
+		float elevation = 100;
+		int second = 0;
+		for (; second < 600; second++) {
+			track.addPoint(newPoint(second, latitude, elevation, 0));
+			latitude += 1e-5;
+		}
+		for (; second < 900; second++) {
+			track.addPoint(newPoint(second, latitude, elevation, 0));
+			latitude += 1e-5;
+			elevation += 0.1f;
+		}
+		final float recent = track.getStatistics().getRecentInclination();
+		assertTrue("recent inclination " + recent, recent > 0.085f && recent < 0.095f);
+	}
+
+	@Test
+	public void statisticsOfReadTrackMatch() throws Exception {
+		final Track track = new Track("test");
+		for (int i = 0; i < 100; i++) {
+			track.addPoint(newPoint(i * 5, 48.2 + i * 1e-4, 100 + i % 13, 0));
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final Track read = Track.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes
+				.toByteArray())));
+		assertThat(read.getStatistics().getAscent(), is(track.getStatistics().getAscent()));
+		assertThat(read.getStatistics().getMovingTime(), is(track.getStatistics().getMovingTime()));
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2007 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Enumeration;
+
+import org.junit.Test;
+
+public class TrackTest {
+	private static Track newTrack(final int segments, final int pointsPerSegment) {
+		final Track track = new Track("test");
+		int n = 0;
+		for (int s = 0; s < segments; s++) {
+			track.newSegment();
+			for (int p = 0; p < pointsPerSegment; p++) {
+				track.addPoint(new TrackPoint(1000L * n, 48.2 + n * 1e-5, 16.3, 170, 1.5f, 90f, (byte) 7));
+				n++;
+			}
+		}
+		return track;
+	}
+
+	/**
+	 * The segment walk that {@link Track#getPoint(int)} used before it had a segment offset index.
+	 */
+	private static TrackPoint getPointLinear(final Track track, final int nr) {
+		int i = nr;
+		final Enumeration segs = track.getSegments();
+		while (segs.hasMoreElements()) {
+			final TrackSegment seg = (TrackSegment) segs.nextElement();
+			final int count = seg.getPointCount();
+			if (i < count) {
+				return seg.getPoint(i);
+			} else {
+				i -= count;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	@Test
+	public void getPointAcrossSegments() {
+		final Track track = newTrack(7, 3);
+		track.newSegment();
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(track.getPoint(i).getIndex(), is(i));
+			assertThat(track.getPoint(i).getTimestamp(), is(1000L * i));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void getPointBehindLastPoint() {
+		final Track track = newTrack(2, 2);
+		track.newSegment();
+		track.getPoint(4);
+	}
+
+	@Test
+	public void distanceContinuesAcrossSegments() {
+		final Track track = newTrack(3, 4);
+		for (int i = 1; i < track.getPointCount(); i++) {
+			assertTrue(track.getPoint(i).getDistance() >= track.getPoint(i - 1).getDistance());
+		}
+		assertThat(track.getLength(), is(track.getPoint(11).getDistance()));
+		// the gap between two segments doesn't count
+		assertThat(track.getPoint(4).getDistance(), is(track.getPoint(3).getDistance()));
+	}
+
+	@Test
+	public void lastIndexAtDistance() {
+		final Track track = newTrack(3, 4);
+		assertThat(track.getLastIndexAtDistance(-1), is(-1));
+		assertThat(track.getLastIndexAtDistance(0), is(0));
+		for (int i = 1; i < track.getPointCount(); i++) {
+			final double distance = track.getPoint(i).getDistance();
+			final int expected = i == 3 || i == 7 ? i + 1 : i;
+			assertThat(track.getLastIndexAtDistance(distance), is(expected));
+			assertThat(track.getLastIndexAtDistance(distance - 0.01), is(i == 4 || i == 8 ? i - 2 : i - 1));
+		}
+		assertThat(track.getLastIndexAtDistance(track.getLength() + 1), is(track.getPointCount() - 1));
+		assertThat(new Track("empty").getLastIndexAtDistance(10), is(-1));
+	}
+
+	@Test
+	public void indexAtTime() {
+		// timestamps are 0, 1000, ..., 11000 ms in three segments
+		final Track track = newTrack(3, 4);
+		assertThat(track.indexAtTime(-1), is(-1));
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(track.indexAtTime(1000L * i), is(i));
+			assertThat(track.indexAtTime(1000L * i + 999), is(i));
+		}
+		assertThat(track.indexAtTime(Long.MAX_VALUE), is(11));
+		assertThat(new Track("empty").indexAtTime(0), is(-1));
+	}
+
+	@Test
+	public void indexAtTimeInSegmentGap() {
+		final Track track = new Track("test");
+		track.addPoint(new TrackPoint(1000, 48.2, 16.3, 170, 1.5f, 90f, (byte) 7));
+		track.addPoint(new TrackPoint(2000, 48.2, 16.3, 170, 1.5f, 90f, (byte) 7));
+		track.newSegment();
+		track.addPoint(new TrackPoint(60000, 48.2, 16.3, 170, 1.5f, 90f, (byte) 7));
+		assertThat(track.indexAtTime(30000), is(1));
+		assertThat(track.indexAtTime(60000), is(2));
+	}
+
+	@Test
+	public void verifyDistances() throws Exception {
+		final Track track = newTrack(3, 100);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final Track read = Track.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(read.verifyDistances(), is(true));
+
+		read.getSegment(1).setDistance(50, 1e6);
+		final TrackSnapshot before = read.snapshot();
+		assertThat(read.verifyDistances(), is(false));
+		// published segments must not change
+		assertEquals(1e6, before.getSegment(1).getDistance(50), 0.005);
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertEquals(track.getPoint(i).getDistance(), read.getPoint(i).getDistance(), 0.005);
+		}
+		assertEquals(track.getLength(), read.getStatistics().getLength(), 0.005);
+		assertThat(read.verifyDistances(), is(true));
+	}
+
+	@Test
+	public void getPointMatchesLinearSearch1kSegments() {
+		final Track track = newTrack(1000, 10);
+		for (int i = 0; i < track.getPointCount(); i++) {
+			assertThat(track.getPoint(i).getTimestamp(), is(getPointLinear(track, i).getTimestamp()));
+		}
+	}
+}
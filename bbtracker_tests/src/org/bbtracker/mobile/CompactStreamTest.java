@@ -0,0 +1,216 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class CompactStreamTest {
+	private static final int TAR_BLOCK = 512;
+
+	/** Counts the calls to the parent stream. */
+	private static class CountingInputStream extends FilterInputStream {
+		int calls = 0;
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			calls++;
+			return super.read();
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			calls++;
+			return super.read(b, off, len);
+		}
+
+		public long skip(final long n) throws IOException {
+			calls++;
+			return super.skip(n);
+		}
+	}
+
+	private static byte[] newData(final int length) {
+		final byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private static void checkSlice(final int bufferSize) throws IOException {
+		final byte[] data = newData(1000);
+		final ByteArrayInputStream parent = new ByteArrayInputStream(data);
+		parent.skip(100);
+		final CompactStream in = new CompactStream(parent, 300, bufferSize);
+		assertThat(in.available(), is(300));
+		assertThat(in.read(), is(data[100] & 0xff));
+		final byte[] b = new byte[50];
+		assertThat(in.read(b, 10, 20), is(20));
+		for (int i = 0; i < 20; i++) {
+			assertThat(b[10 + i], is(data[101 + i]));
+		}
+		assertThat(in.skip(79), is(79L));
+		assertThat(in.available(), is(200));
+		final byte[] rest = new byte[500];
+		int n = 0;
+		int read;
+		while ((read = in.read(rest, n, rest.length - n)) != -1) {
+			n += read;
+		}
+		assertThat(n, is(200));
+		for (int i = 0; i < n; i++) {
+			assertThat(rest[i], is(data[200 + i]));
+		}
+		assertThat(in.read(), is(-1));
+		assertThat(in.skip(10), is(0L));
+		assertThat(in.available(), is(0));
+		assertThat(in.getNRead(), is(300));
+		// nothing beyond the slice has been read from the parent
+		assertThat(parent.read(), is(data[400] & 0xff));
+	}
+
+	@Test
+	public void unbufferedSlice() throws Exception {
+		checkSlice(0);
+	}
+
+	@Test
+	public void bufferedSlice() throws Exception {
+		checkSlice(64);
+	}
+
+	@Test
+	public void skipIsBounded() throws Exception {
+		final byte[] data = newData(100);
+		final ByteArrayInputStream parent = new ByteArrayInputStream(data);
+		final CompactStream in = new CompactStream(parent, 30, 16);
+		in.read();
+		assertThat(in.skip(1000), is(29L));
+		assertThat(in.read(), is(-1));
+		assertThat(parent.read(), is(data[30] & 0xff));
+	}
+
+	@Test
+	public void bufferedReadsMatchData() throws Exception {
+		final byte[] data = newData(5000);
+		final Random random = new Random(7);
+		final CompactStream in = new CompactStream(new ByteArrayInputStream(data), data.length, 256);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int read;
+		do {
+			if (random.nextBoolean()) {
+				read = in.read();
+				if (read != -1) {
+					out.write(read);
+				}
+			} else {
+				final byte[] b = new byte[1 + random.nextInt(600)];
+				read = in.read(b, 0, b.length);
+				if (read != -1) {
+					out.write(b, 0, read);
+				}
+			}
+		} while (read != -1);
+		assertThat(out.size(), is(data.length));
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tiles of random rectangles and lines compress like map tiles; each is padded to tar blocks.
+	 */
+	private static byte[] newTar(final int[] offsets, final int[] lengths) throws IOException {
+		final Random random = new Random(42);
+		final ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		for (int i = 0; i < offsets.length; i++) {
+			final BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+			final Graphics g = image.getGraphics();
+			for (int r = 0; r < 200; r++) {
+				final int x = random.nextInt(256);
+				final int y = random.nextInt(256);
+				g.setColor(new Color(random.nextInt(0xffffff)));
+				g.fillRect(x, y, random.nextInt(64) + 1, random.nextInt(64) + 1);
+				g.drawLine(x, y, random.nextInt(256), random.nextInt(256));
+			}
+			final ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", png);
+			tar.write(new byte[TAR_BLOCK]);
+			offsets[i] = tar.size();
+			lengths[i] = png.size();
+			png.writeTo(tar);
+			tar.write(new byte[(TAR_BLOCK - png.size() % TAR_BLOCK) % TAR_BLOCK]);
+		}
+		return tar.toByteArray();
+	}
+
+	/**
+	 * @param bufferSize
+	 *            -1 for the old byte at a time reads
+	 * @return calls to the tar stream
+	 */
+	private static int decodeTiles(final byte[] tar, final int[] offsets, final int[] lengths, final int bufferSize)
+			throws IOException {
+		final CountingInputStream counting = new CountingInputStream(new ByteArrayInputStream(tar));
+		counting.mark(tar.length);
+		for (int i = 0; i < offsets.length; i++) {
+			counting.reset();
+			counting.skip(offsets[i]);
+			final CompactStream slice = new CompactStream(counting, lengths[i], Math.max(bufferSize, 0));
+			InputStream in = slice;
+			if (bufferSize == -1) {
+				// InputStream's default read(byte[], int, int) calls read() for each byte
+				in = new InputStream() {
+					public int read() throws IOException {
+						return slice.read();
+					}
+				};
+			}
+			final BufferedImage image = ImageIO.read(in);
+			assertThat(image.getWidth(), is(256));
+		}
+		return counting.calls;
+	}
+
+	@Test
+	public void tileDecodingCalls() throws Exception {
+		ImageIO.setUseCache(false);
+		final int tiles = 20;
+		final int[] offsets = new int[tiles];
+		final int[] lengths = new int[tiles];
+		final byte[] tar = newTar(offsets, lengths);
+		final int byteAtATime = decodeTiles(tar, offsets, lengths, -1);
+		assertTrue(decodeTiles(tar, offsets, lengths, 0) * 100 < byteAtATime);
+		assertTrue(decodeTiles(tar, offsets, lengths, 2048) * 100 < byteAtATime);
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreFullException;
+
+/**
+ * A {@link RecordStorage} that keeps its records in memory, a stand-in for a RecordStore in tests.
+ */
+public class MemoryRecordStorage implements RecordStorage {
+	private final Hashtable records = new Hashtable();
+
+	private final int maxRecordSize;
+
+	private int nextId = 1;
+
+	private int openCount = 0;
+
+	private int readCount = 0;
+
+	/**
+	 * @param maxRecordSize
+	 *            the size of the biggest record that can be stored, bigger records are rejected with a
+	 *            {@link RecordStoreFullException} like on handsets that limit the record size
+	 */
+	public MemoryRecordStorage(final int maxRecordSize) {
+		this.maxRecordSize = maxRecordSize;
+	}
+
+	/**
+	 * Called when the storage is opened, every call must be matched by a call to {@link #close()}.
+	 */
+	public MemoryRecordStorage open() {
+		openCount++;
+		return this;
+	}
+
+	public int getOpenCount() {
+		return openCount;
+	}
+
+	private static byte[] copy(final byte[] data, final int offset, final int length) {
+		final byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		return copy;
+	}
+
+	private void checkOpen() throws RecordStoreException {
+		if (openCount <= 0) {
+			throw new RecordStoreException("not open");
+		}
+	}
+
+	private Integer checkId(final int id) throws RecordStoreException {
+		checkOpen();
+		final Integer key = new Integer(id);
+		if (!records.containsKey(key)) {
+			throw new InvalidRecordIDException("no record " + id);
+		}
+		return key;
+	}
+
+	private void checkSize(final int length) throws RecordStoreException {
+		if (length > maxRecordSize) {
+			throw new RecordStoreFullException(length + " bytes is more than " + maxRecordSize);
+		}
+	}
+
+	public int addRecord(final byte[] data, final int offset, final int length) throws RecordStoreException {
+		checkOpen();
+		checkSize(length);
+		final int id = nextId++;
+		records.put(new Integer(id), copy(data, offset, length));
+		return id;
+	}
+
+	public void setRecord(final int id, final byte[] data, final int offset, final int length)
+			throws RecordStoreException {
+		final Integer key = checkId(id);
+		checkSize(length);
+		records.put(key, copy(data, offset, length));
+	}
+
+	public byte[] getRecord(final int id) throws RecordStoreException {
+		final byte[] data = (byte[]) records.get(checkId(id));
+		readCount++;
+		return copy(data, 0, data.length);
+	}
+
+	public void deleteRecord(final int id) throws RecordStoreException {
+		records.remove(checkId(id));
+	}
+
+	public int getRecordSize(final int id) throws RecordStoreException {
+		return ((byte[]) records.get(checkId(id))).length;
+	}
+
+	public int[] getRecordIds() throws RecordStoreException {
+		checkOpen();
+		final int[] ids = new int[records.size()];
+		int i = 0;
+		for (int id = 1; id < nextId; id++) {
+			if (records.containsKey(new Integer(id))) {
+				ids[i++] = id;
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the number of records read using {@link #getRecord(int)}.
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+
+	public int getRecordCount() {
+		return records.size();
+	}
+
+	public int getMaxSize() {
+		int max = 0;
+		final Enumeration e = records.elements();
+		while (e.hasMoreElements()) {
+			max = Math.max(max, ((byte[]) e.nextElement()).length);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the number of bytes in all records.
+	 */
+	public int getTotalSize() {
+		int total = 0;
+		final Enumeration e = records.elements();
+		while (e.hasMoreElements()) {
+			total += ((byte[]) e.nextElement()).length;
+		}
+		return total;
+	}
+
+	public void close() throws RecordStoreException {
+		checkOpen();
+		openCount--;
+	}
+}
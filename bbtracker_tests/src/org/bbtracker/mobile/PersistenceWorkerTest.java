@@ -0,0 +1,301 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Vector;
+
+import org.bbtracker.Track;
+import org.bbtracker.TrackCursor;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackStoreException;
+import org.bbtracker.mobile.TrackStore.TrackStoreEntry;
+import org.junit.Test;
+
+public class PersistenceWorkerTest {
+	/**
+	 * A track store that takes its time: saving blocks until {@link #release()} is called.
+	 */
+	private static class SlowTrackStore implements TrackStore {
+		private final String failure;
+
+		private boolean released = false;
+
+		private boolean busy = false;
+
+		final Vector saved = new Vector();
+
+		SlowTrackStore(final boolean blocking, final String failure) {
+			released = !blocking;
+			this.failure = failure;
+		}
+
+		public synchronized void saveTrack(final Track track) throws TrackStoreException {
+			busy = true;
+			notifyAll();
+			while (!released) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					// wait again
+				}
+			}
+			busy = false;
+			if (failure != null) {
+				throw new TrackStoreException(failure);
+			}
+			saved.addElement(new Integer(track.getPointCount()));
+		}
+
+		synchronized void waitUntilBusy() throws InterruptedException {
+			while (!busy) {
+				wait();
+			}
+		}
+
+		synchronized void release() {
+			released = true;
+			notifyAll();
+		}
+
+		public TrackStoreEntry[] getEntries() {
+			return new TrackStoreEntry[0];
+		}
+
+		public TrackJournal openJournal(final Track track) {
+			return null;
+		}
+
+		public void recoverJournals() {
+			// nothing to recover
+		}
+	}
+
+	/**
+	 * Records the calls of a listener.
+	 */
+	private static class RecordingListener implements PersistenceListener {
+		final Vector progress = new Vector();
+
+		final Vector finished = new Vector();
+
+		Exception error;
+
+		public void progress(final PersistenceWorker.Request request, final int percent) {
+			progress.addElement(new Integer(percent));
+		}
+
+		public void finished(final PersistenceWorker.Request request, final Exception error) {
+			finished.addElement(request.getTrackName());
+			this.error = error;
+		}
+	}
+
+	private static class EntryStub extends TrackStoreEntry {
+		private final Vector log;
+
+		EntryStub(final String name, final Vector log) {
+			super(name, new java.util.Date());
+			this.log = log;
+		}
+
+		public void deleteTrack() {
+			log.addElement("delete " + getName());
+		}
+
+		public Track loadTrack() {
+			throw new IllegalStateException();
+		}
+
+		public TrackCursor openCursor() {
+			throw new IllegalStateException();
+		}
+	}
+
+	private static Track newTrack(final String name, final int points) {
+		final Track track = new Track(name);
+		for (int i = 0; i < points; i++) {
+			track.addPoint(new TrackPoint(1000L * i, 48.2 + i * 1e-4, 16.3, 170, 1.5f, 90f, (byte) 7));
+		}
+		return track;
+	}
+
+	@Test
+	public void saveDoesNotBlock() throws Exception {
+		final SlowTrackStore store = new SlowTrackStore(true, null);
+		final PersistenceWorker worker = new PersistenceWorker();
+		final RecordingListener listener = new RecordingListener();
+		final Track track = newTrack("slow", 100);
+		track.freeze();
+
+		worker.enqueue(new PersistenceWorker.SaveRequest(track, null, new TrackStore[] { store }, listener));
+		store.waitUntilBusy();
+		assertThat(worker.getPendingCount(), is(1));
+		assertThat(listener.finished.size(), is(0));
+
+		// recording goes on with a new track, the old one can't change any more
+		final Track next = newTrack("next", 10);
+		assertThat(next.getPointCount(), is(10));
+		try {
+			track.addPoint(new TrackPoint(0, 0, 0, 0, 0, 0, (byte) 0));
+			fail("frozen track was changed");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		store.release();
+		worker.waitUntilIdle();
+		assertThat(store.saved, is(vector(new Integer(100))));
+		assertThat(listener.finished, is(vector("slow")));
+		assertThat(listener.error, is(nullValue()));
+		assertThat(listener.progress.firstElement(), is((Object) new Integer(0)));
+		assertThat(listener.progress.lastElement(), is((Object) new Integer(100)));
+		worker.shutdown();
+	}
+
+	@Test
+	public void saveFallsBackToNextStore() throws Exception {
+		final SlowTrackStore failing = new SlowTrackStore(false, "full");
+		final SlowTrackStore working = new SlowTrackStore(false, null);
+		final PersistenceWorker worker = new PersistenceWorker();
+		final RecordingListener listener = new RecordingListener();
+
+		worker.enqueue(new PersistenceWorker.SaveRequest(newTrack("fallback", 20), null, new TrackStore[] { failing,
+				working }, listener));
+		worker.waitUntilIdle();
+		assertThat(failing.saved.size(), is(0));
+		assertThat(working.saved, is(vector(new Integer(20))));
+		assertThat(listener.error, is(nullValue()));
+		assertThat(listener.progress, is(vector(new Integer(0), new Integer(0), new Integer(50), new Integer(100))));
+		worker.shutdown();
+	}
+
+	@Test
+	public void failedSaveReportsAllErrors() throws Exception {
+		final PersistenceWorker worker = new PersistenceWorker();
+		final RecordingListener listener = new RecordingListener();
+
+		worker.enqueue(new PersistenceWorker.SaveRequest(newTrack("failing", 20), null, new TrackStore[] {
+				new SlowTrackStore(false, "full"), new SlowTrackStore(false, "no card") }, listener));
+		worker.waitUntilIdle();
+		assertTrue(listener.error instanceof TrackStoreException);
+		assertThat(listener.error.getMessage(), is("full\nno card"));
+		worker.shutdown();
+	}
+
+	@Test
+	public void finishedJournalSavesTrack() throws Exception {
+		final Track track = newTrack("journal", 30);
+		final ByteArrayOutputStream file = new ByteArrayOutputStream();
+		final TrackJournal journal = new TrackJournal(file, track.getName(), track.getCreationDate());
+		for (int i = 0; i < track.getPointCount(); i++) {
+			journal.append(track.getPoint(i));
+		}
+		final SlowTrackStore store = new SlowTrackStore(false, null);
+		final PersistenceWorker worker = new PersistenceWorker();
+		final RecordingListener listener = new RecordingListener();
+
+		worker.enqueue(new PersistenceWorker.SaveRequest(track, journal, new TrackStore[] { store }, listener));
+		worker.waitUntilIdle();
+		assertThat(journal.isFinished(), is(true));
+		assertThat(store.saved.size(), is(0));
+		assertThat(listener.error, is(nullValue()));
+		worker.shutdown();
+	}
+
+	@Test
+	public void requestsAreProcessedInOrder() throws Exception {
+		final SlowTrackStore store = new SlowTrackStore(true, null);
+		final PersistenceWorker worker = new PersistenceWorker();
+		final RecordingListener listener = new RecordingListener();
+		final Vector log = new Vector();
+
+		worker.enqueue(new PersistenceWorker.SaveRequest(newTrack("first", 5), null, new TrackStore[] { store },
+				listener));
+		worker.enqueue(new PersistenceWorker.DeleteRequest(new EntryStub("second", log), listener));
+		worker.enqueue(new PersistenceWorker.DeleteRequest(new EntryStub("third", log), listener));
+		store.waitUntilBusy();
+		assertThat(worker.getPendingCount(), is(3));
+		assertThat(log.size(), is(0));
+
+		store.release();
+		worker.waitUntilIdle();
+		assertThat(listener.finished, is(vector("first", "second", "third")));
+		assertThat(log, is(vector("delete second", "delete third")));
+		worker.shutdown();
+	}
+
+	@Test
+	public void shutdownFinishesPendingRequests() throws Exception {
+		final SlowTrackStore store = new SlowTrackStore(true, null);
+		final PersistenceWorker worker = new PersistenceWorker();
+		worker.enqueue(new PersistenceWorker.SaveRequest(newTrack("pending", 7), null, new TrackStore[] { store },
+				null));
+		store.waitUntilBusy();
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (final InterruptedException e) {
+					// release now
+				}
+				store.release();
+			}
+		}.start();
+
+		worker.shutdown();
+		assertThat(store.saved, is(vector(new Integer(7))));
+		try {
+			worker.enqueue(new PersistenceWorker.DeleteRequest(new EntryStub("late", new Vector()), null));
+			fail("request accepted after shutdown");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static Vector vector(final Object a) {
+		final Vector v = new Vector();
+		v.addElement(a);
+		return v;
+	}
+
+	private static Vector vector(final Object a, final Object b) {
+		final Vector v = vector(a);
+		v.addElement(b);
+		return v;
+	}
+
+	private static Vector vector(final Object a, final Object b, final Object c) {
+		final Vector v = vector(a, b);
+		v.addElement(c);
+		return v;
+	}
+
+	private static Vector vector(final Object a, final Object b, final Object c, final Object d) {
+		final Vector v = vector(a, b, c);
+		v.addElement(d);
+		return v;
+	}
+}
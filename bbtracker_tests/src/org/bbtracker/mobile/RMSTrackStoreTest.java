@@ -0,0 +1,440 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Hashtable;
+
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+import org.bbtracker.Track;
+import org.bbtracker.TrackCursor;
+import org.bbtracker.TrackJournal;
+import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackStatistics;
+import org.bbtracker.TrackSummary;
+import org.bbtracker.mobile.TrackStore.TrackStoreEntry;
+import org.junit.Test;
+
+public class RMSTrackStoreTest {
+	private static final int MAX_RECORD_SIZE = RMSTrackStore.CHUNK_SIZE;
+
+	/**
+	 * An {@link RMSTrackStore} using {@link MemoryRecordStorage}s. Instances sharing the same <code>stores</code>
+	 * see the same records, like after a restart of the application.
+	 */
+	private static class MemoryTrackStore extends RMSTrackStore {
+		final Hashtable stores;
+
+		boolean compressing = false;
+
+		MemoryTrackStore(final Hashtable stores) {
+			this.stores = stores;
+		}
+
+		MemoryTrackStore() {
+			this(new Hashtable());
+		}
+
+		protected RecordStorage openStorage(final String name, final boolean create) throws RecordStoreException {
+			MemoryRecordStorage storage = (MemoryRecordStorage) stores.get(name);
+			if (storage == null) {
+				if (!create) {
+					throw new RecordStoreNotFoundException(name);
+				}
+				storage = new MemoryRecordStorage(MAX_RECORD_SIZE);
+				stores.put(name, storage);
+			}
+			return storage.open();
+		}
+
+		protected boolean isCompressing() {
+			return compressing;
+		}
+
+		MemoryRecordStorage getStorage(final String name) {
+			return (MemoryRecordStorage) stores.get(name);
+		}
+
+		void assertClosed() {
+			assertThat(getStorage("Tracks").getOpenCount(), is(0));
+			assertThat(getStorage("TrackChunks").getOpenCount(), is(0));
+		}
+	}
+
+	private static TrackPoint newPoint(final int n) {
+		final TrackPoint point = new TrackPoint(1000L * n, 48.2 + n * 1e-4, 16.3 - n * 1e-4, 170 + n % 7, 1.5f,
+				90f + n, (byte) 7);
+		if (n % 100 == 3) {
+			point.setName("point " + n);
+		}
+		return point;
+	}
+
+	private static Track newTrack(final String name, final int points) {
+		final Track track = new Track(name);
+		for (int i = 0; i < points; i++) {
+			if (i % 400 == 0) {
+				track.newSegment();
+			}
+			track.addPoint(newPoint(i));
+		}
+		return track;
+	}
+
+	/**
+	 * Records <code>points</code> points with a journal the way TrackManager does, without finishing it.
+	 */
+	private static TrackJournal record(final TrackStore store, final Track track, final int points)
+			throws Exception {
+		final TrackJournal journal = store.openJournal(track);
+		for (int i = 0; i < points; i++) {
+			final boolean newSegment = i % 400 == 0;
+			if (newSegment) {
+				track.newSegment();
+			}
+			final TrackPoint point = newPoint(i);
+			track.addPoint(point);
+			if (newSegment) {
+				journal.newSegment();
+			}
+			journal.append(point);
+		}
+		return journal;
+	}
+
+	private static void assertSamePoints(final Track expected, final Track actual, final int count) {
+		assertThat(actual.getName(), is(expected.getName()));
+		assertThat(actual.getCreationDate(), is(expected.getCreationDate()));
+		assertThat(actual.getPointCount(), is(count));
+		assertThat(actual.getSegmentCount(), is((count + 399) / 400));
+		for (int i = 0; i < count; i++) {
+			final TrackPoint e = expected.getPoint(i);
+			final TrackPoint a = actual.getPoint(i);
+			assertThat(a.getTimestamp(), is(e.getTimestamp()));
+			assertThat(a.getLatitude(), is(e.getLatitude()));
+			assertThat(a.getLongitude(), is(e.getLongitude()));
+			assertThat(a.getName(), is(e.getName()));
+		}
+	}
+
+	@Test
+	public void emptyStore() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		assertThat(store.getEntries().length, is(0));
+		store.recoverJournals();
+	}
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final Track track = newTrack("saved", 2000);
+		store.saveTrack(track);
+		store.assertClosed();
+
+		// the track doesn't fit into one record
+		assertTrue(store.getStorage("TrackChunks").getRecordCount() > 1);
+		assertThat(store.getStorage("Tracks").getRecordCount(), is(1));
+
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(1));
+		assertThat(entries[0].getName(), is("saved"));
+		assertThat(entries[0].getDate(), is(track.getCreationDate()));
+		assertSamePoints(track, entries[0].loadTrack(), 2000);
+		store.assertClosed();
+	}
+
+	@Test
+	public void compressedSaveAndLoad() throws Exception {
+		final MemoryTrackStore plain = new MemoryTrackStore();
+		final Track track = newTrack("compressed", 2000);
+		plain.saveTrack(track);
+		final MemoryTrackStore store = new MemoryTrackStore();
+		store.compressing = true;
+		store.saveTrack(track);
+		store.assertClosed();
+
+		final int plainSize = plain.getStorage("TrackChunks").getTotalSize();
+		final int size = store.getStorage("TrackChunks").getTotalSize();
+		assertTrue(size < plainSize / 2);
+		assertTrue(store.getStorage("TrackChunks").getMaxSize() <= RMSTrackStore.CHUNK_SIZE);
+
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(1));
+		assertSamePoints(track, entries[0].loadTrack(), 2000);
+		final TrackCursor cursor = entries[0].openCursor();
+		int count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		cursor.close();
+		assertThat(count, is(2000));
+		store.assertClosed();
+	}
+
+	@Test
+	public void recoverCompressedJournal() throws Exception {
+		final Hashtable stores = new Hashtable();
+		final Track track = new Track("crashed");
+		final MemoryTrackStore recording = new MemoryTrackStore(stores);
+		recording.compressing = true;
+		final TrackJournal journal = record(recording, track, 1234);
+		journal.flush();
+
+		// compression is switched off before the restart, the header remembers it
+		final MemoryTrackStore store = new MemoryTrackStore(stores);
+		store.recoverJournals();
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(1));
+		assertSamePoints(track, entries[0].loadTrack(), 1233);
+	}
+
+	@Test
+	public void cursorReadsChunks() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final Track track = newTrack("cursor", 1000);
+		store.saveTrack(track);
+		final TrackCursor cursor = store.getEntries()[0].openCursor();
+		int count = 0;
+		while (cursor.next()) {
+			assertThat(cursor.getPoint().getTimestamp(), is(track.getPoint(count).getTimestamp()));
+			count++;
+		}
+		cursor.close();
+		assertThat(count, is(1000));
+		store.assertClosed();
+	}
+
+	@Test
+	public void nullName() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		store.saveTrack(newTrack(null, 10));
+		assertThat(store.getEntries()[0].getName(), is(nullValue()));
+	}
+
+	@Test
+	public void finishedJournal() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final Track track = new Track("journal");
+		final TrackJournal journal = record(store, track, 1500);
+		// not listed while recording
+		assertThat(store.getEntries().length, is(0));
+
+		journal.finish();
+		journal.close();
+		store.assertClosed();
+
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(1));
+		assertSamePoints(track, entries[0].loadTrack(), 1500);
+		assertTrue(store.getStorage("TrackChunks").getMaxSize() <= RMSTrackStore.CHUNK_SIZE);
+	}
+
+	@Test
+	public void discardedJournal() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final TrackJournal journal = record(store, new Track("discarded"), 1500);
+		journal.discard();
+		store.assertClosed();
+		assertThat(store.getStorage("Tracks").getRecordCount(), is(0));
+		assertThat(store.getStorage("TrackChunks").getRecordCount(), is(0));
+	}
+
+	@Test
+	public void recoverUnfinishedJournal() throws Exception {
+		final Hashtable stores = new Hashtable();
+		final Track track = new Track("crashed");
+		final TrackJournal journal = record(new MemoryTrackStore(stores), track, 1234);
+		journal.flush();
+		// the application is killed here, the journal is never closed
+
+		final MemoryTrackStore store = new MemoryTrackStore(stores);
+		final MemoryRecordStorage chunks = store.getStorage("TrackChunks");
+		// a chunk that was added but didn't make it into the header
+		chunks.open().addRecord(new byte[10], 0, 10);
+		chunks.close();
+		final int before = chunks.getOpenCount();
+
+		store.recoverJournals();
+		assertThat(chunks.getOpenCount(), is(before));
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(1));
+		// the last point is held back by the journal
+		assertSamePoints(track, entries[0].loadTrack(), 1233);
+
+		entries[0].deleteTrack();
+		assertThat(store.getStorage("Tracks").getRecordCount(), is(0));
+		assertThat(chunks.getRecordCount(), is(0));
+	}
+
+	@Test
+	public void recoveredJournalIsLoadedLazily() throws Exception {
+		final Hashtable stores = new Hashtable();
+		final Track track = new Track("long");
+		final TrackJournal journal = record(new MemoryTrackStore(stores), track, TrackStore.LAZY_LOAD_POINTS + 1);
+		journal.flush();
+
+		final MemoryTrackStore store = new MemoryTrackStore(stores);
+		store.recoverJournals();
+		assertTrue(store.getStorage("TrackChunks").getMaxSize() <= RMSTrackStore.CHUNK_SIZE);
+		final TrackStoreEntry entry = store.getEntries()[0];
+		final MemoryRecordStorage chunks = store.getStorage("TrackChunks");
+		final int reads = chunks.getReadCount();
+		final Track loaded = entry.loadTrack();
+		// only the segment table is read, the points are read when they are needed
+		assertTrue(chunks.getReadCount() - reads < chunks.getRecordCount() / 10);
+		assertSamePoints(track, loaded, TrackStore.LAZY_LOAD_POINTS);
+	}
+
+	@Test
+	public void recoverTruncatedChunk() throws Exception {
+		final Hashtable stores = new Hashtable();
+		final Track track = new Track("torn");
+		final TrackJournal journal = record(new MemoryTrackStore(stores), track, 600);
+		journal.flush();
+
+		// cut the last chunk in the middle of a record
+		final MemoryRecordStorage chunks = (MemoryRecordStorage) stores.get("TrackChunks");
+		chunks.open();
+		final int[] ids = chunks.getRecordIds();
+		final int last = ids[ids.length - 1];
+		final byte[] data = chunks.getRecord(last);
+		chunks.setRecord(last, data, 0, data.length - 3);
+		chunks.close();
+
+		final MemoryTrackStore store = new MemoryTrackStore(stores);
+		store.recoverJournals();
+		final Track recovered = store.getEntries()[0].loadTrack();
+		assertTrue(recovered.getPointCount() < 599);
+		assertTrue(recovered.getPointCount() > 590);
+		assertSamePoints(track, recovered, recovered.getPointCount());
+	}
+
+	@Test
+	public void singleRecordTracksAreStillRead() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final Track track = newTrack("old", 100);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final RecordStorage tracks = store.openStorage("Tracks", true);
+		tracks.addRecord(bytes.toByteArray(), 0, bytes.size());
+		tracks.close();
+
+		store.saveTrack(newTrack("new", 10));
+		store.recoverJournals();
+
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(entries.length, is(2));
+		assertThat(entries[0].getName(), is("old"));
+		assertSamePoints(track, entries[0].loadTrack(), 100);
+		assertThat(entries[0].getStatistics().getPointCount(), is(100));
+
+		entries[0].deleteTrack();
+		assertThat(store.getEntries().length, is(1));
+		assertThat(store.getEntries()[0].getName(), is("new"));
+		store.assertClosed();
+	}
+
+	@Test
+	public void listingUsesCatalog() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		final Track track = newTrack("catalog", 1000);
+		store.saveTrack(track);
+		store.saveTrack(newTrack("other", 500));
+
+		final int trackReads = store.getStorage("Tracks").getReadCount();
+		final int chunkReads = store.getStorage("TrackChunks").getReadCount();
+		final TrackStoreEntry[] entries = store.getEntries();
+		assertThat(store.getStorage("Tracks").getReadCount(), is(trackReads));
+		assertThat(store.getStorage("TrackChunks").getReadCount(), is(chunkReads));
+		store.assertClosed();
+		assertThat(store.getStorage("TrackCatalog").getOpenCount(), is(0));
+
+		assertThat(entries.length, is(2));
+		final TrackSummary summary = entries[0].getSummary();
+		assertThat(summary.getName(), is("catalog"));
+		assertThat(summary.getPointCount(), is(1000));
+		assertThat(summary.getLength(), is(track.getLength()));
+		assertThat(summary.getMaxLatitude(), is(track.getMaxLatitude()));
+
+		// exporters get the statistics without reading the track
+		final TrackStatistics statistics = entries[0].getStatistics();
+		assertThat(store.getStorage("TrackChunks").getReadCount(), is(chunkReads));
+		assertThat(statistics.getMovingTime(), is(track.getStatistics().getMovingTime()));
+		assertThat(statistics.getAverageMovingSpeed(), is(track.getStatistics().getAverageMovingSpeed()));
+		assertThat(statistics.getMaxElevation(), is(track.getStatistics().getMaxElevation()));
+
+		entries[0].deleteTrack();
+		assertThat(store.getStorage("TrackCatalog").getRecordCount(), is(1));
+		assertThat(store.getEntries()[0].getName(), is("other"));
+	}
+
+	@Test
+	public void catalogIsRebuilt() throws Exception {
+		final Hashtable stores = new Hashtable();
+		final Track track = new Track("journal");
+		final TrackJournal journal = record(new MemoryTrackStore(stores), track, 700);
+		journal.finish();
+		journal.close();
+
+		// journals don't update the catalog, neither did older versions
+		final MemoryTrackStore store = new MemoryTrackStore(stores);
+		assertThat(store.getStorage("TrackCatalog"), is(nullValue()));
+		final TrackSummary summary = store.getEntries()[0].getSummary();
+		assertThat(summary.getPointCount(), is(700));
+		assertEquals(track.getLength(), summary.getLength(), 0.005);
+		assertThat(summary.getDuration(), is(track.getStatistics().getDuration()));
+		assertThat(store.getStorage("TrackCatalog").getRecordCount(), is(1));
+
+		// a damaged catalog record is replaced
+		final MemoryRecordStorage catalog = store.getStorage("TrackCatalog");
+		catalog.open();
+		final int id = catalog.getRecordIds()[0];
+		catalog.setRecord(id, new byte[] { 0, 1 }, 0, 2);
+		catalog.close();
+		assertThat(store.getEntries()[0].getSummary().getPointCount(), is(700));
+		assertThat(catalog.getRecordCount(), is(1));
+	}
+
+	@Test
+	public void changedTrackIsSummarizedAgain() throws Exception {
+		final MemoryTrackStore store = new MemoryTrackStore();
+		store.saveTrack(newTrack("first", 300));
+		assertThat(store.getEntries()[0].getSummary().getPointCount(), is(300));
+
+		// replace the track behind the catalog's back
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		newTrack("second", 50).writeToStream(new DataOutputStream(bytes));
+		final RecordStorage tracks = store.openStorage("Tracks", false);
+		tracks.setRecord(tracks.getRecordIds()[0], bytes.toByteArray(), 0, bytes.size());
+		tracks.close();
+
+		final TrackSummary summary = store.getEntries()[0].getSummary();
+		assertThat(summary.getName(), is("second"));
+		assertThat(summary.getPointCount(), is(50));
+		assertThat(store.getStorage("TrackCatalog").getRecordCount(), is(1));
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile.gui;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bbtracker.Track;
+import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackPointCodecTest;
+import org.junit.Test;
+
+public class TilePrefetcherTest {
+	private static final int TILE_SIZE = 256;
+
+	private static final int TILES = 100;
+
+	private static final int SCREEN_WIDTH = 240;
+
+	private static final int SCREEN_HEIGHT = 320;
+
+	private static final double METERS_PER_DEGREE = 111319.49;
+
+	@Test
+	public void tilesAheadInOrder() {
+		final TilePrefetcher prefetcher = new TilePrefetcher(TILE_SIZE, TILE_SIZE, TILES, TILES, 10);
+		prefetcher.setMotion(90, 60);
+		// viewport covers columns 10 and 11, rows 10 and 11; 600 px to the east reach column 13
+		final int left = 10 * TILE_SIZE + 100;
+		final int top = 10 * TILE_SIZE + 10;
+		final int[] tiles = prefetcher.getTiles(left, top, SCREEN_WIDTH, SCREEN_HEIGHT, 10);
+		assertArrayEquals(new int[] { 12 * TILES + 10, 12 * TILES + 11, 13 * TILES + 10, 13 * TILES + 11 }, tiles);
+		assertThat(prefetcher.getTiles(left, top, SCREEN_WIDTH, SCREEN_HEIGHT, 3).length, is(3));
+	}
+
+	@Test
+	public void tilesOutsideTheMapAreSkipped() {
+		final TilePrefetcher prefetcher = new TilePrefetcher(TILE_SIZE, TILE_SIZE, TILES, TILES, 10);
+		prefetcher.setMotion(0, 60);
+		assertThat(prefetcher.getTiles(0, 10, SCREEN_WIDTH, SCREEN_HEIGHT, 10).length, is(0));
+	}
+
+	@Test
+	public void nothingWhenNotMoving() {
+		final TilePrefetcher prefetcher = new TilePrefetcher(TILE_SIZE, TILE_SIZE, TILES, TILES, 10);
+		assertThat(prefetcher.getTiles(1000, 1000, SCREEN_WIDTH, SCREEN_HEIGHT, 10).length, is(0));
+		prefetcher.setMotion(Float.NaN, 60);
+		assertThat(prefetcher.getTiles(1000, 1000, SCREEN_WIDTH, SCREEN_HEIGHT, 10).length, is(0));
+	}
+
+	@Test
+	public void headingChangeCancels() {
+		final TilePrefetcher prefetcher = new TilePrefetcher(TILE_SIZE, TILE_SIZE, TILES, TILES, 10);
+		assertThat(prefetcher.setMotion(350, 10), is(false));
+		assertThat(prefetcher.setMotion(10, 10), is(false));
+		assertThat(prefetcher.setMotion(10 + TilePrefetcher.CANCEL_ANGLE + 1, 10), is(true));
+		assertThat(prefetcher.setMotion(45, 0), is(true));
+		assertThat(prefetcher.setMotion(45, 0), is(false));
+	}
+
+	/**
+	 * Replays a recorded track on a screen-sized viewport while a loader that reads only a few tiles between two
+	 * fixes fills the cache.
+	 * 
+	 * @return the fraction of visible tiles that are blank when painted
+	 */
+	private static double replay(final Track track, final double metersPerPixel, final int loadsPerFix,
+			final boolean prefetch) {
+		final TilePrefetcher prefetcher = new TilePrefetcher(TILE_SIZE, TILE_SIZE, TILES, TILES, 30);
+		final Set<Integer> loaded = new HashSet<Integer>();
+		final TrackPoint first = track.getPoint(0);
+		final double pixelsPerDegreeLat = METERS_PER_DEGREE / metersPerPixel;
+		final double pixelsPerDegreeLon = pixelsPerDegreeLat * Math.cos(Math.toRadians(first.getLatitude()));
+		final int center = TILES * TILE_SIZE / 2;
+		int visible = 0;
+		int blank = 0;
+		for (int i = 0; i < track.getPointCount(); i++) {
+			final TrackPoint point = track.getPoint(i);
+			final int left = center + (int) ((point.getLongitude() - first.getLongitude()) * pixelsPerDegreeLon)
+					- SCREEN_WIDTH / 2;
+			final int top = center - (int) ((point.getLatitude() - first.getLatitude()) * pixelsPerDegreeLat)
+					- SCREEN_HEIGHT / 2;
+
+			int loads = loadsPerFix;
+			for (int x = left / TILE_SIZE; x <= (left + SCREEN_WIDTH - 1) / TILE_SIZE; x++) {
+				for (int y = top / TILE_SIZE; y <= (top + SCREEN_HEIGHT - 1) / TILE_SIZE; y++) {
+					visible++;
+					if (!loaded.contains(x * TILES + y)) {
+						blank++;
+						if (loads > 0) {
+							loaded.add(x * TILES + y);
+							loads--;
+						}
+					}
+				}
+			}
+			if (prefetch && point.getSpeed() >= 0.5f) {
+				prefetcher.setMotion(point.getCourse(), point.getSpeed() / metersPerPixel);
+				final int[] tiles = prefetcher.getTiles(left, top, SCREEN_WIDTH, SCREEN_HEIGHT, TILES);
+				for (int t = 0; t < tiles.length && loads > 0; t++) {
+					if (loaded.add(tiles[t])) {
+						loads--;
+					}
+				}
+			}
+		}
+		return (double) blank / visible;
+	}
+
+	/**
+	 * The sample is a walk with a fix every 30 seconds. At 0.15 m/pixel the viewport moves as fast as it would on a
+	 * bike at 0.75 m/pixel.
+	 */
+	@Test
+	public void prefetchReducesBlankTiles() throws Exception {
+		final Track track = TrackPointCodecTest.readSampleTrack(1);
+		final double[] metersPerPixel = { 0.1, 0.15, 0.3 };
+		for (int i = 0; i < metersPerPixel.length; i++) {
+			final double without = replay(track, metersPerPixel[i], 2, false);
+			final double with = replay(track, metersPerPixel[i], 2, true);
+			assertTrue(with < without);
+		}
+	}
+}
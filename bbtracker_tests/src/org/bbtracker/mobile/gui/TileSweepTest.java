@@ -0,0 +1,104 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile.gui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TileSweepTest {
+	private static final int TAR_BLOCK = 512;
+
+	@Test
+	public void sortsByOffset() {
+		final int[] offsets = { 500, 100, 400, 300, 200 };
+		final int[] tiles = { 0, 1, 2, 3, 4, 99 };
+		TileSweep.order(tiles, 5, offsets, false);
+		assertArrayEquals(new int[] { 1, 4, 3, 2, 0, 99 }, tiles);
+	}
+
+	@Test
+	public void centreTileStaysFirst() {
+		final int[] offsets = { 500, 100, 400, 300, 200, 600 };
+		final int[] tiles = { 3, 0, 1, 2, 4, 5 };
+		TileSweep.order(tiles, tiles.length, offsets, true);
+		// behind the centre tile first, then the ones before it
+		assertArrayEquals(new int[] { 3, 2, 0, 5, 1, 4 }, tiles);
+	}
+
+	@Test
+	public void skippedBytes() {
+		final int[] offsets = { 512, 2048, 4096 };
+		final int[] sizes = { 1000, 1000, 1000 };
+		assertTrue(TileSweep.getSkippedBytes(new int[] { 0, 1, 2 }, 3, offsets, sizes) == 512 + 536 + 1048);
+		// the stream is rewound for tile 0
+		assertTrue(TileSweep.getSkippedBytes(new int[] { 1, 0 }, 2, offsets, sizes) == 2048 + 512);
+	}
+
+	/**
+	 * Screens of tiles at random positions of a map stored in a tar file, tiles numbered (and stored) column by
+	 * column. Before, each tile was read after a rewind to the start of the archive.
+	 */
+	@Test
+	public void sweepSkipsLessPerFrame() {
+		final int columns = 40;
+		final int rows = 40;
+		final Random random = new Random(42);
+		final int[] offsets = new int[columns * rows];
+		final int[] sizes = new int[offsets.length];
+		int position = 0;
+		for (int i = 0; i < offsets.length; i++) {
+			position += TAR_BLOCK;
+			offsets[i] = position;
+			sizes[i] = 4000 + random.nextInt(16000);
+			position += (sizes[i] + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+		}
+
+		final int[][] screens = { { 240, 320 }, { 480, 640 } };
+		for (int s = 0; s < screens.length; s++) {
+			final int frames = 1000;
+			long rewindEachTile = 0;
+			long sweep = 0;
+			for (int frame = 0; frame < frames; frame++) {
+				final int left = random.nextInt((columns - 4) * 256);
+				final int top = random.nextInt((rows - 4) * 256);
+				final int centre = (left + screens[s][0] / 2) / 256 * rows + (top + screens[s][1] / 2) / 256;
+				// queue order of MapBackground.paintMap: centre first, then column by column
+				final int[] tiles = new int[25];
+				int count = 0;
+				tiles[count++] = centre;
+				for (int x = left / 256; x <= (left + screens[s][0] - 1) / 256; x++) {
+					for (int y = top / 256; y <= (top + screens[s][1] - 1) / 256; y++) {
+						if (x * rows + y != centre) {
+							tiles[count++] = x * rows + y;
+						}
+					}
+				}
+				for (int i = 0; i < count; i++) {
+					rewindEachTile += offsets[tiles[i]];
+				}
+				TileSweep.order(tiles, count, offsets, true);
+				sweep += TileSweep.getSkippedBytes(tiles, count, offsets, sizes);
+			}
+			assertTrue(sweep * 2 < rewindEachTile);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.mobile.gui;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.microedition.lcdui.Graphics;
+
+import org.bbtracker.Track;
+import org.bbtracker.TrackPoint;
+import org.bbtracker.TrackStreamSource;
+import org.bbtracker.mobile.TrackStore;
+import org.bbtracker.mobile.gui.PlotterTile.AxisConfiguration;
+import org.junit.Test;
+
+public class TrackPlotterTest {
+	private static final int SCREEN_SIZE = 240;
+
+	private static class CountingTrackPlotter extends TrackPlotter {
+		int connections = 0;
+
+		protected void paintConnection(final Graphics g, final TrackPoint point1, final int x1, final int y1,
+				final TrackPoint point2, final int x2, final int y2, final boolean newSegment) {
+			if (point1 != null && point2 != null) {
+				connections++;
+			}
+		}
+	}
+
+	/**
+	 * Serves a track stream from memory and counts how often it is opened.
+	 */
+	private static class CountingSource implements TrackStreamSource {
+		private final byte[] data;
+
+		int openCount = 0;
+
+		CountingSource(final byte[] data) {
+			this.data = data;
+		}
+
+		public long getLength() {
+			return data.length;
+		}
+
+		public InputStream open(final long offset) {
+			openCount++;
+			return new ByteArrayInputStream(data, (int) offset, data.length - (int) offset);
+		}
+	}
+
+	/**
+	 * A random walk with one point every ~5 m.
+	 */
+	private static Track newTrack(final int count) {
+		final Random random = new Random(42);
+		final Track track = new Track("test");
+		double lat = 48.2;
+		double lon = 16.3;
+		for (int i = 0; i < count; i++) {
+			track.addPoint(new TrackPoint(1000L * i, lat, lon, 170, 1.5f, 90f, (byte) 7));
+			lat += (random.nextDouble() - 0.45) * 9e-5;
+			lon += (random.nextDouble() - 0.45) * 9e-5;
+		}
+		return track;
+	}
+
+	private static int paint(final Track track, final double zoom) {
+		final AxisConfiguration xAxis = new AxisConfiguration();
+		final AxisConfiguration yAxis = new AxisConfiguration();
+		xAxis.updateMinMax(DataProvider.LONGITUDE, track);
+		yAxis.updateMinMax(DataProvider.LATITUDE, track);
+		xAxis.calculateScale(SCREEN_SIZE, DataProvider.LONGITUDE.getSmallDelta());
+		yAxis.calculateScale(SCREEN_SIZE, DataProvider.LATITUDE.getSmallDelta());
+		xAxis.scale = yAxis.scale = Math.max(xAxis.scale, yAxis.scale) / zoom;
+		xAxis.calculateOffset(SCREEN_SIZE);
+		yAxis.calculateOffset(SCREEN_SIZE);
+
+		final CountingTrackPlotter plotter = new CountingTrackPlotter();
+		plotter.paint(null, 0, 0, SCREEN_SIZE, SCREEN_SIZE, DataProvider.LONGITUDE, DataProvider.LATITUDE, xAxis,
+				yAxis, 0, 0, SCREEN_SIZE, track);
+		return plotter.connections;
+	}
+
+	@Test
+	public void paintCalls100k() {
+		final Track track = newTrack(100000);
+		final int full = paint(track, 1);
+		final int zoomed = paint(track, 100);
+		assertTrue(full < track.getPointCount() / 10);
+		assertTrue(zoomed > full);
+	}
+
+	private static int paintElevation(final Track track, final double zoom) {
+		final AxisConfiguration xAxis = new AxisConfiguration();
+		final AxisConfiguration yAxis = new AxisConfiguration();
+		xAxis.updateMinMax(DataProvider.TIME, track);
+		yAxis.updateMinMax(DataProvider.ELEVATION, track);
+		xAxis.calculateScale(SCREEN_SIZE, DataProvider.TIME.getSmallDelta());
+		yAxis.calculateScale(SCREEN_SIZE, DataProvider.ELEVATION.getSmallDelta());
+		xAxis.scale /= zoom;
+		xAxis.calculateOffset(SCREEN_SIZE);
+		yAxis.calculateOffset(SCREEN_SIZE);
+
+		final CountingTrackPlotter plotter = new CountingTrackPlotter();
+		plotter.paint(null, 0, 0, SCREEN_SIZE, SCREEN_SIZE, DataProvider.TIME, DataProvider.ELEVATION, xAxis, yAxis,
+				0, 0, SCREEN_SIZE, track);
+		return plotter.connections;
+	}
+
+	@Test
+	public void repaintingLazyTrackReadsNoBlocks() throws Exception {
+		final Track track = newTrack(100000);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final CountingSource source = new CountingSource(bytes.toByteArray());
+		final Track lazy = Track.openLazy(source, TrackStore.LAZY_CACHE_POINTS);
+
+		final double[] zooms = { 1, 100 };
+		for (int z = 0; z < zooms.length; z++) {
+			final int opened = source.openCount;
+			final int connections = paint(lazy, zooms[z]);
+			final int reads = source.openCount - opened;
+			assertThat(paint(lazy, zooms[z]), is(connections));
+			assertThat(source.openCount - opened, is(reads));
+		}
+
+		final CountingSource zoomedSource = new CountingSource(bytes.toByteArray());
+		final Track zoomed = Track.openLazy(zoomedSource, TrackStore.LAZY_CACHE_POINTS);
+		final int opened = zoomedSource.openCount;
+		paint(zoomed, 100);
+		// only the blocks around the center are read
+		final int reads = zoomedSource.openCount - opened;
+		assertTrue("read " + reads + " blocks", reads < 10);
+	}
+
+	@Test
+	public void repaintingZoomedGraphReadsNoBlocks() throws Exception {
+		final Track track = newTrack(100000);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		track.writeToStream(new DataOutputStream(bytes));
+		final CountingSource source = new CountingSource(bytes.toByteArray());
+		final Track lazy = Track.openLazy(source, TrackStore.LAZY_CACHE_POINTS);
+
+		int opened = source.openCount;
+		final int connections = paintElevation(lazy, 10);
+		final int reads = source.openCount - opened;
+		// a tenth of the ~100 blocks, plus the ones next to them
+		assertTrue("read " + reads + " blocks", reads <= 15);
+		opened = source.openCount;
+		assertThat(paintElevation(lazy, 10), is(connections));
+		assertThat(source.openCount, is(opened));
+	}
+
+	@Test
+	public void otherGraphsAreNotSimplified() {
+		final AxisConfiguration axis = new AxisConfiguration();
+		axis.scale = 1;
+		assertTrue(TrackPlotter.getMinimumRank(DataProvider.TIME, DataProvider.ELEVATION, axis, axis) == 0);
+		assertTrue(TrackPlotter.getMinimumRank(DataProvider.LONGITUDE, DataProvider.LATITUDE, axis, axis) > 0);
+	}
+}
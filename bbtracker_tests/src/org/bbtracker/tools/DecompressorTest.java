@@ -0,0 +1,93 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.tools;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bbtracker.CompressedOutputStream;
+import org.bbtracker.mobile.PersistenceWorker;
+import org.junit.Test;
+
+public class DecompressorTest {
+	private static byte[] readFile(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readSample(final String name) throws IOException {
+		// the tests are run either from the project directory or from the directory containing all projects
+		final File file = new File("../bbtracker/waypoints", name);
+		return readFile(file.exists() ? file : new File("bbtracker/waypoints", name));
+	}
+
+	@Test
+	public void compressedExportRoundTrip() throws Exception {
+		final byte[] gpx = readSample("schmiding.gpx");
+		final File file = File.createTempFile("export", ".gpx" + PersistenceWorker.COMPRESSED_EXTENSION);
+		File restored = null;
+		try {
+			// written like PersistenceWorker writes compressed exports
+			final OutputStream out = new CompressedOutputStream(new FileOutputStream(file));
+			try {
+				out.write(gpx);
+			} finally {
+				out.close();
+			}
+			assertTrue(file.length() < gpx.length);
+
+			restored = Decompressor.decompress(file);
+			assertThat(restored.getName().endsWith(".gpx"), is(true));
+			assertArrayEquals(gpx, readFile(restored));
+		} finally {
+			file.delete();
+			if (restored != null) {
+				restored.delete();
+			}
+		}
+	}
+
+	@Test
+	public void uncompressedDataIsCopied() throws Exception {
+		final byte[] data = "<gpx/>".getBytes("UTF-8");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Decompressor.decompress(new ByteArrayInputStream(data), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+}
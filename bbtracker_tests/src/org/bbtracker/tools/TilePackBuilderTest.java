@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008 Joachim Sauer
+ * 
+ * This file is part of bbTracker.
+ * 
+ * bbTracker is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * bbTracker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.bbtracker.tools;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.bbtracker.TilePack;
+import org.junit.Test;
+
+public class TilePackBuilderTest {
+	private static final int[] ZOOMS = { 12, 13 };
+
+	private static final int[] COLUMNS = { 2, 3 };
+
+	private static final int[] ROWS = { 1, 2 };
+
+	private static File newTempDirectory() throws IOException {
+		final File dir = File.createTempFile("tilepack", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		return dir;
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	private static void write(final File file, final byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a map exported in the zoom levels {@link #ZOOMS} and returns its tiles. Every fifth tile is missing.
+	 */
+	private static byte[][][] writeMap(final File dir) throws IOException {
+		final Random random = new Random(7);
+		final byte[][][] tiles = new byte[ZOOMS.length][][];
+		for (int level = 0; level < ZOOMS.length; level++) {
+			final String name = "test" + ZOOMS[level] + "000001";
+			final File mapDir = new File(new File(dir, "test" + ZOOMS[level]), name);
+			mapDir.mkdirs();
+			final PrintWriter map = new PrintWriter(new FileOutputStream(new File(mapDir, name + ".map")));
+			try {
+				map.println("MMPXY,4," + (COLUMNS[level] * 256 - 1) + "," + (ROWS[level] * 256 - 1));
+				map.println("MMPLL,1,  16.250000,  48.250000");
+				map.println("MMPLL,4,  16.500000,  48.125000");
+			} finally {
+				map.close();
+			}
+			tiles[level] = new byte[COLUMNS[level] * ROWS[level]][];
+			for (int x = 0; x < COLUMNS[level]; x++) {
+				for (int y = 0; y < ROWS[level]; y++) {
+					final int tile = x * ROWS[level] + y;
+					if ((tile + level) % 5 != 2) {
+						tiles[level][tile] = new byte[50 + random.nextInt(500)];
+						random.nextBytes(tiles[level][tile]);
+						write(new File(new File(mapDir, "set"), name + "_" + x * 256 + "_" + y * 256 + ".png"),
+								tiles[level][tile]);
+					}
+				}
+			}
+		}
+		return tiles;
+	}
+
+	@Test
+	public void builtPackHasAllTiles() throws Exception {
+		final File dir = newTempDirectory();
+		try {
+			final byte[][][] tiles = writeMap(dir);
+			new TilePackBuilder("test", dir).build();
+
+			final File pack = new File(dir, "test.pack");
+			InputStream in = new FileInputStream(pack);
+			final TilePack header;
+			try {
+				header = TilePack.read(in);
+			} finally {
+				in.close();
+			}
+			assertThat(header.getLevelCount(), is(ZOOMS.length));
+			for (int level = 0; level < ZOOMS.length; level++) {
+				assertThat(header.findLevel(ZOOMS[level]), is(level));
+				assertThat(header.getColumns(level), is(COLUMNS[level]));
+				assertThat(header.getRows(level), is(ROWS[level]));
+				final int[] offsets = new int[tiles[level].length];
+				final int[] lengths = new int[tiles[level].length];
+				in = new FileInputStream(pack);
+				try {
+					header.readDirectory(in, 0, level, offsets, lengths);
+				} finally {
+					in.close();
+				}
+				for (int tile = 0; tile < tiles[level].length; tile++) {
+					in = new FileInputStream(pack);
+					try {
+						in.skip(offsets[tile]);
+						final int length = lengths[tile];
+						final byte[] expected = tiles[level][tile];
+						assertThat(length, is(expected == null ? 0 : expected.length));
+						final byte[] data = new byte[length];
+						int n = 0;
+						while (n < length) {
+							n += in.read(data, n, length - n);
+						}
+						if (expected != null) {
+							assertArrayEquals(expected, data);
+						}
+					} finally {
+						in.close();
+					}
+				}
+			}
+
+			final BufferedReader descriptor = new BufferedReader(new FileReader(new File(dir, "13.txt")));
+			try {
+				assertThat(descriptor.readLine(), is("baseFileName test13000001"));
+				assertThat(descriptor.readLine(), is("packFileName test.pack"));
+				assertThat(descriptor.readLine(), is("zoomLevel 13"));
+			} finally {
+				descriptor.close();
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+}